@@ -0,0 +1,89 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Un resultado de fase o una decisión de la EMA sobre una vacuna, para
+ * aplicarlos en lote con VacAlmacen.aplicarEnLote.
+ *
+ * @author luPinheiro
+ */
+public class ActualizacionVacuna {
+
+	public enum Tipo {
+		FASE, AUTORIZAR, RECHAZAR
+	}
+
+	private final String codigo;
+	private final Tipo tipo;
+	private final byte fase;
+	private final boolean resultado;
+
+	private ActualizacionVacuna(String codigo, Tipo tipo, byte fase, boolean resultado) {
+		this.codigo = codigo;
+		this.tipo = tipo;
+		this.fase = fase;
+		this.resultado = resultado;
+	}
+
+	/**
+	 * @param codigo Tipo String - código de la vacuna
+	 * @param fase Tipo byte - fase de 1 a 3; tiene que ser la siguiente a la
+	 * última completada
+	 * @param resultado Tipo boolean - true si se superó
+	 * @return Tipo ActualizacionVacuna
+	 */
+	public static ActualizacionVacuna fase(String codigo, byte fase, boolean resultado) {
+		return new ActualizacionVacuna(codigo, Tipo.FASE, fase, resultado);
+	}
+
+	public static ActualizacionVacuna autorizar(String codigo) {
+		return new ActualizacionVacuna(codigo, Tipo.AUTORIZAR, (byte) 0, true);
+	}
+
+	public static ActualizacionVacuna rechazar(String codigo) {
+		return new ActualizacionVacuna(codigo, Tipo.RECHAZAR, (byte) 0, false);
+	}
+
+	public String getCodigo() {
+		return this.codigo;
+	}
+
+	public Tipo getTipo() {
+		return this.tipo;
+	}
+
+	public byte getFase() {
+		return this.fase;
+	}
+
+	public boolean getResultado() {
+		return this.resultado;
+	}
+
+	ResultadoActualizacion aplicar(Vacuna v) {
+		switch (this.tipo) {
+		case FASE:
+			return v.intentarFase(this.fase, this.resultado);
+		case AUTORIZAR:
+			return v.intentarAutorizar();
+		default:
+			return v.intentarRechazar();
+		}
+	}
+
+	@Override
+	public String toString() {
+		switch (this.tipo) {
+		case FASE:
+			return this.codigo + " fase " + this.fase + (this.resultado ? " superada" : " no superada");
+		case AUTORIZAR:
+			return this.codigo + " autorizar";
+		default:
+			return this.codigo + " rechazar";
+		}
+	}
+}
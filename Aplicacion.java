@@ -5,9 +5,18 @@
  */
 package gal.teis.vacunas;
 
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -15,17 +24,257 @@ import java.util.regex.Pattern;
  */
 public class Aplicacion {
 
+
 	/**
-	 * @param args the command line arguments
+	 * @param args the command line arguments: --datos carpeta guarda las
+	 * vacunas en esa carpeta y las recupera al volver a arrancar; --catalogo
+	 * fichero arranca con las vacunas de un catálogo binario y
+	 * --guardar-catalogo fichero lo escribe al salir; --fuera-heap guarda las
+	 * vacunas en memoria directa, fuera del heap; --en-disco fichero las
+	 * guarda en ese fichero con --paginas-en-memoria n páginas de 8 KiB en
+	 * memoria (2048 si no se indica), que se conserva entre ejecuciones si
+	 * no hay --datos y si no es solo de trabajo; --importar fichero.csv
+	 * agrega en bloque las vacunas de un CSV antes de mostrar el menú;
+	 * --script fichero responde al menú con las líneas del fichero, o con las
+	 * de la entrada estándar si es -, sin mostrar el menú y volcando la
+	 * salida de una vez al terminar; --servidor puerto atiende las opciones
+	 * del menú por HTTP/JSON en vez de mostrarlo, hasta Ctrl+C; --replicar
+	 * puerto manda todas las operaciones a las réplicas que se conecten a ese
+	 * puerto, y --seguir maquina:puerto hace de réplica de solo lectura de
+	 * otro proceso arrancado con --replicar (necesita --servidor)
 	 */
 	public static void main(String[] args) {
-		VacAlmacen almacenVacunas = new VacAlmacen();
+		String directorioDatos = null;
+		String ficheroCatalogo = null;
+		String guardarCatalogo = null;
+		String ficheroImportar = null;
+		String ficheroScript = null;
+		String puertoServidor = null;
+		String puertoReplicacion = null;
+		String primario = null;
+		boolean fueraHeap = false;
+		String ficheroDisco = null;
+		int paginasEnMemoria = 2048;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--datos") && i + 1 < args.length) {
+				directorioDatos = args[++i];
+			} else if (args[i].equals("--catalogo") && i + 1 < args.length) {
+				ficheroCatalogo = args[++i];
+			} else if (args[i].equals("--guardar-catalogo") && i + 1 < args.length) {
+				guardarCatalogo = args[++i];
+			} else if (args[i].equals("--importar") && i + 1 < args.length) {
+				ficheroImportar = args[++i];
+			} else if (args[i].equals("--script") && i + 1 < args.length) {
+				ficheroScript = args[++i];
+			} else if (args[i].equals("--servidor") && i + 1 < args.length) {
+				puertoServidor = args[++i];
+			} else if (args[i].equals("--replicar") && i + 1 < args.length) {
+				puertoReplicacion = args[++i];
+			} else if (args[i].equals("--seguir") && i + 1 < args.length) {
+				primario = args[++i];
+			} else if (args[i].equals("--fuera-heap")) {
+				fueraHeap = true;
+			} else if (args[i].equals("--en-disco") && i + 1 < args.length) {
+				ficheroDisco = args[++i];
+			} else if (args[i].equals("--paginas-en-memoria") && i + 1 < args.length) {
+				try {
+					paginasEnMemoria = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					System.out.println("ERROR. --paginas-en-memoria necesita un número: " + args[i]);
+					return;
+				}
+			}
+		}
+		if (primario != null && puertoServidor == null) {
+			System.out.println("ERROR. --seguir necesita --servidor: la réplica solo atiende consultas por HTTP");
+			return;
+		}
+		if (fueraHeap && ficheroCatalogo != null) {
+			System.out.println("ERROR. --fuera-heap no se puede usar con --catalogo");
+			return;
+		}
+		if (ficheroDisco != null && (fueraHeap || ficheroCatalogo != null)) {
+			System.out.println("ERROR. --en-disco no se puede usar con --fuera-heap ni con --catalogo");
+			return;
+		}
+
+		// concurrente si hay persistencia, para que las instantáneas se hagan
+		// en segundo plano, o si lo van a usar varios clientes a la vez
+		boolean concurrente = directorioDatos != null || puertoServidor != null;
+		VacAlmacen almacenVacunas;
+		PersistenciaVacunas persistencia = null;
+		if (fueraHeap) {
+			almacenVacunas = VacAlmacen.fueraDelHeap(concurrente);
+		} else if (ficheroDisco != null) {
+			try {
+				// con --datos las vacunas salen del registro y el fichero es
+				// solo de trabajo
+				almacenVacunas = (directorioDatos != null)
+						? VacAlmacen.enDisco(Paths.get(ficheroDisco), paginasEnMemoria, concurrente)
+						: VacAlmacen.abrirEnDisco(Paths.get(ficheroDisco), paginasEnMemoria, concurrente);
+			} catch (IOException | IllegalArgumentException e) {
+				System.out.println("ERROR. No se puede usar el fichero " + ficheroDisco + ": " + e.getMessage());
+				return;
+			}
+		} else if (ficheroCatalogo == null) {
+			almacenVacunas = new VacAlmacen(concurrente);
+		} else {
+			try {
+				almacenVacunas = new VacAlmacen(CatalogoBinario.abrir(Paths.get(ficheroCatalogo)), concurrente);
+			} catch (IOException e) {
+				System.out.println("ERROR. No se puede abrir el catálogo " + ficheroCatalogo + ": " + e.getMessage());
+				return;
+			}
+		}
+		if (directorioDatos != null) {
+			try {
+				persistencia = PersistenciaVacunas.abrir(Paths.get(directorioDatos), almacenVacunas);
+			} catch (IOException e) {
+				System.out.println("ERROR. No se pueden recuperar los datos de " + directorioDatos + ": " + e.getMessage());
+				return;
+			}
+		}
+		ReplicacionPrimario replicacion = null;
+		ReplicacionSeguidor replica = null;
+		if (puertoReplicacion != null) {
+			try {
+				replicacion = ReplicacionPrimario.abrir(almacenVacunas,
+						new InetSocketAddress(Integer.parseInt(puertoReplicacion)));
+			} catch (IOException | NumberFormatException e) {
+				System.out.println("ERROR. No se puede abrir el puerto de replicación " + puertoReplicacion + ": "
+						+ e.getMessage());
+				return;
+			}
+		}
+		if (primario != null) {
+			int dosPuntos = primario.lastIndexOf(':');
+			try {
+				replica = ReplicacionSeguidor.conectar(almacenVacunas, new InetSocketAddress(
+						primario.substring(0, dosPuntos), Integer.parseInt(primario.substring(dosPuntos + 1))));
+			} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+				System.out.println("ERROR. Dirección del primario no válida, se espera maquina:puerto: " + primario);
+				return;
+			}
+			// el retraso, con jconsole o VisualVM
+			replica.publicar("aplicacion");
+		}
+		// tiempos de cada opción, para verlos con jconsole o VisualVM
+		almacenVacunas.getMetricas().publicar("aplicacion");
+		LectorComandos input;
+		PrintStream consola = System.out;
+		CountDownLatch terminado = new CountDownLatch(1);
+		if (puertoServidor != null) {
+			input = null;
+		} else if (ficheroScript == null) {
+			input = new LectorComandos(new LectorEntrada(System.in), false);
+		} else {
+			try {
+				input = new LectorComandos(new LectorEntrada(ficheroScript.equals("-") ? System.in
+						: Files.newInputStream(Paths.get(ficheroScript))), true);
+			} catch (IOException e) {
+				System.out.println("ERROR. No se puede abrir el guion " + ficheroScript + ": " + e.getMessage());
+				return;
+			}
+			// sin volcar en cada println: la salida se vuelca al terminar
+			System.setOut(new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false));
+		}
+		if (ficheroImportar != null) {
+			importarVacunas(almacenVacunas, ficheroImportar);
+		}
+		try {
+			if (input == null) {
+				servir(almacenVacunas, puertoServidor, replica != null, terminado);
+			} else {
+				ejecutarMenu(almacenVacunas, input);
+			}
+		} catch (NoSuchElementException e) {
+			// se acabó la entrada sin elegir la opción de salir
+		} catch (UncheckedIOException e) {
+			System.out.println("ERROR. No se pudo leer el guion: " + e.getCause().getMessage());
+		} finally {
+			System.out.flush();
+		}
+
+		if (replica != null) {
+			replica.close();
+		}
+		if (replicacion != null) {
+			try {
+				replicacion.close();
+			} catch (IOException e) {
+				System.out.println("ERROR. No se pudo cerrar la replicación: " + e.getMessage());
+			}
+		}
+		if (guardarCatalogo != null) {
+			try {
+				CatalogoBinario.escribir(almacenVacunas.instantanea(), Paths.get(guardarCatalogo));
+			} catch (IOException | IllegalArgumentException e) {
+				System.out.println("ERROR. No se pudo escribir el catálogo: " + e.getMessage());
+			}
+		}
+		if (persistencia != null) {
+			try {
+				persistencia.tomarInstantanea();
+				persistencia.close();
+			} catch (IOException e) {
+				System.out.println("ERROR. No se pudieron guardar los datos: " + e.getMessage());
+			}
+		}
+		try {
+			almacenVacunas.cerrar();
+		} catch (IOException e) {
+			System.out.println("ERROR. No se pudo cerrar el fichero " + ficheroDisco + ": " + e.getMessage());
+		}
+		if (System.out != consola) {
+			System.out.flush();
+			System.setOut(consola);
+		}
+		terminado.countDown();
+	}
+
+	// Atiende peticiones hasta que se para la JVM (Ctrl+C). El gancho de
+	// parada cierra el servidor y espera a que main termine de guardar.
+	private static void servir(VacAlmacen almacenVacunas, String puerto, boolean soloLectura,
+			CountDownLatch terminado) {
+		ServidorVacunas servidor;
+		try {
+			servidor = ServidorVacunas.arrancar(almacenVacunas, new InetSocketAddress(Integer.parseInt(puerto)),
+					soloLectura);
+		} catch (IOException | NumberFormatException e) {
+			System.out.println("ERROR. No se puede abrir el puerto " + puerto + ": " + e.getMessage());
+			return;
+		}
+		CountDownLatch parado = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			servidor.close();
+			parado.countDown();
+			try {
+				terminado.await(30, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "vacunas-parada"));
+		System.out.println("Servidor" + (soloLectura ? " de solo lectura" : "") + " en http://localhost:"
+				+ servidor.getDireccion().getPort() + ServidorVacunas.RUTA + " (Ctrl+C para parar)");
+		System.out.flush();
+		while (parado.getCount() > 0) {
+			try {
+				parado.await();
+			} catch (InterruptedException e) {
+				// se sigue esperando a la parada
+			}
+		}
+		System.out.println("*** Fin.***");
+	}
+
+	private static void ejecutarMenu(VacAlmacen almacenVacunas, LectorComandos input) {
 		int opcionMenu = 0;
-		Scanner input = new Scanner(System.in);
 
 		do {
-			menu();
-			opcionMenu = ControlData.leerInt(input); // se lee de teclado una opcion
+			if (!input.isGuion()) {
+				menu();
+			}
+			opcionMenu = input.leerInt(); // se lee de teclado una opcion
 			if (opcionMenu >= 1 && opcionMenu <= 11) { // se comprueba que es una opcion correcta del menu
 
 				switch (opcionMenu) {
@@ -34,7 +283,7 @@ public class Aplicacion {
 					break;
 				case 2:
 					System.out.print("Introduce el código de una vacuna:");
-					String codigoVacuna = ControlData.leerString(input);
+					String codigoVacuna = input.leerString();
 					Vacuna v = almacenVacunas.buscarVacuna(codigoVacuna);
 					if (v == null) {
 						System.out.println("No existe una vacuna con el código introducido.");
@@ -51,7 +300,7 @@ public class Aplicacion {
 					break;
 				case 4:
 					System.out.print("Introduce el código de la vacuna a eliminar:");
-					String codigo = ControlData.leerString(input);
+					String codigo = input.leerString();
 					almacenVacunas.eliminar(codigo);
 					break;
 				case 5:
@@ -85,13 +334,28 @@ public class Aplicacion {
 			}
 
 		} while (opcionMenu != 11);
+	}
 
+	private static void importarVacunas(VacAlmacen almacenVacunas, String fichero) {
+		try {
+			InformeImportacion informe = ImportadorCsv.importar(Paths.get(fichero), almacenVacunas);
+			for (InformeImportacion.LineaRechazada linea : informe.getRechazadas()) {
+				System.out.println(linea.toString());
+			}
+			System.out.println(informe.toString());
+		} catch (IOException e) {
+			System.out.println("ERROR. No se pudo leer " + fichero + ": " + e.getMessage());
+		}
 	}
 
-	private static void autorizarRechazarVacuna(VacAlmacen almacenVacunas, Scanner input) {
+	private static void autorizarRechazarVacuna(VacAlmacen almacenVacunas, LectorComandos input) {
 		System.out.print("Introduce el código de una vacuna:");
-		String codigoVacuna = ControlData.leerString(input);
+		String codigoVacuna = input.leerString();
 		Vacuna vacuna = almacenVacunas.buscarVacuna(codigoVacuna);
+		if (vacuna == null) {
+			System.out.println("No existe una vacuna con el código introducido.");
+			return;
+		}
 		System.out.println(vacuna.toString());
 
 		byte faseVacuna = vacuna.getFasesCompletadas();
@@ -100,7 +364,7 @@ public class Aplicacion {
 		if ((faseVacuna == 3) && (resultadoFaseVacuna == true)) {
 
 			System.out.println("Autorizar o Rechazar esta vacuna (a/r)?");
-			char accion = ControlData.leerChar(input);
+			char accion = input.leerChar();
 			if (accion == 'a') {
 				vacuna.autorizar();
 			} else if (accion == 'r') {
@@ -114,7 +378,7 @@ public class Aplicacion {
 			System.out.println("Esta vacuna no ha superado las tres fases. No se puede autorizar.");
 
 			System.out.println("Desea Rechazar esta vacuna (s/n)?");
-			char accion = ControlData.leerChar(input);
+			char accion = input.leerChar();
 			if (accion == 's') {
 				vacuna.rechazar();
 				System.out.println("Vacuna rechazada.");
@@ -126,10 +390,10 @@ public class Aplicacion {
 
 	}
 
-	private static void introducirResultadoFases(VacAlmacen almacenVacunas, Scanner input) {
+	private static void introducirResultadoFases(VacAlmacen almacenVacunas, LectorComandos input) {
 		boolean resultadoFase;
 		System.out.print("Introduce el código de una vacuna:");
-		String codigoVacuna = ControlData.leerString(input);
+		String codigoVacuna = input.leerString();
 		Vacuna vacuna = almacenVacunas.buscarVacuna(codigoVacuna);
 		if (vacuna == null) {
 			System.out.println("No existe una vacuna con el código introducido.");
@@ -143,7 +407,7 @@ public class Aplicacion {
 				if (resultadoUltimaFase) {
 					System.out.println("Introduce el resultado de la fase:" + (fasesCompletadas + 1));
 					System.out.println("Aprobar (a)/Rechazar (r)");
-					char resultado = ControlData.leerChar(input);
+					char resultado = input.leerChar();
 
 					if (resultado == 'a') {
 						resultadoFase = true;
@@ -169,14 +433,14 @@ public class Aplicacion {
 		}
 	}
 
-	private static Vacuna crearNuevaVacuna(Scanner input) {
+	private static Vacuna crearNuevaVacuna(LectorComandos input) {
 
 		boolean codigoValido;
 		
 		System.out.println("Introduce el código de la nueva vacuna:");
 		String codigo;
 		do {			
-			codigo = ControlData.leerString(input);
+			codigo = input.leerString();
 			codigoValido = validarCodigoVacuna(codigo);
 			if (!codigoValido) {
 				System.out.println("El código introducido no es valido.");
@@ -185,32 +449,22 @@ public class Aplicacion {
 		} while (!codigoValido);
 
 		System.out.println("Introduce el nombre de la nueva vacuna:");
-		String nombre = ControlData.leerString(input);
+		String nombre = input.leerString();
 
 		System.out.println("Introduce el principio activo de la nueva vacuna:");
-		String principioActivo = ControlData.leerString(input);
+		String principioActivo = input.leerString();
 
 		System.out.println("Introduce el nombre de la farmaceutica de la nueva vacuna:");
-		String farmaceutica = ControlData.leerString(input);
+		String farmaceutica = input.leerString();
 
 		System.out.println("Introduce el precio recomendado de la nueva vacuna:");
-		double precioRecomendado = ControlData.leerDouble(input);
+		double precioRecomendado = input.leerDouble();
 
 		return new Vacuna(codigo, nombre, principioActivo, farmaceutica, precioRecomendado);
 	}
 
 	private static boolean validarCodigoVacuna(String codigo) {
-
-		String expReg = "^V[A,E,I,O,U][a-z]{3,4}([4-7]{2}|[8])";
-		Pattern pat = Pattern.compile(expReg);
-		Matcher mat = pat.matcher(codigo);
-
-		if (mat.matches()) {
-			return true;
-		} else {
-			return false;
-		}
-
+		return CodigoVacuna.esValido(codigo);
 	}
 
 	private static void menu() {
@@ -0,0 +1,1207 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Vacunas guardadas en un fichero de páginas (PaginasEnDisco) organizado como
+ * un árbol B+ por código empaquetado (CodigoVacuna): en memoria solo están
+ * las páginas que caben en los marcos, así que el catálogo puede ser mayor
+ * que la memoria. Como RegistrosFueraHeap, solo admite códigos que quepan en
+ * 8 caracteres ASCII.
+ *
+ * Hojas: cabecera, un array de posiciones ordenado por código que crece desde
+ * el principio y los registros, que crecen desde el final. Registro:
+ * - CLAVE: código empaquetado.
+ * - ALTA: número que se da a la vacuna al guardarla; las vistas
+ *   (VacunaEnDisco) lo comparan para saber si siguen siendo de su vacuna.
+ * - ESTADO, CONTADA, PRECIO: como en RegistrosFueraHeap.
+ * - los textos, en este orden: NOMBRE, PRINCIPIO_ACTIVO y FARMACEUTICA; cada
+ *   uno, un short con su longitud en UTF-8 (-1 si es null) y los bytes. Los
+ *   tres juntos, hasta MAXIMO_TEXTOS. El fichero no depende de
+ *   DiccionarioTextos.
+ * Páginas internas: el primer hijo y después pares (clave, hijo); el hijo i
+ * tiene las claves desde la clave i - 1 (incluida) hasta la i.
+ *
+ * Una hoja que se llena se divide en dos por la mitad de sus bytes y la
+ * clave de la derecha sube al padre, que también se divide si está lleno. Una
+ * hoja que se vacía sale del árbol, y una que se queda con menos de un cuarto
+ * de página se junta con una vecina del mismo padre si entre las dos no
+ * pasan de tres cuartos. Las páginas internas no se juntan: con hasta 681
+ * claves cada una son unas pocas.
+ *
+ * La página 0 es la cabecera del fichero: la raíz, el número de vacunas, el
+ * último número de alta y si se cerró bien. Un fichero que se conserva se
+ * puede volver a abrir después de cerrar(), que escribe todas las páginas;
+ * si no se cerró bien no se abre, porque las páginas que se escribieron al
+ * desalojarlas pueden ser de distintos momentos. Las páginas libres no se
+ * guardan: al abrirlo lo son las que no cuelgan de la raíz, y basta con leer
+ * las páginas internas para saberlo.
+ *
+ * copiar() congela el árbol como en RegistrosFueraHeap: cada página guarda la
+ * generación en que se escribió y la primera escritura en una de una
+ * generación anterior la copia a otra página, junto con el camino desde la
+ * raíz. La página sustituida se libera cuando el GC recoge las copias que
+ * pueden leerla. Todo pasa con un cerrojo, también las lecturas: las páginas
+ * en memoria no son seguras para hilos.
+ *
+ * @author luPinheiro
+ */
+final class ArbolEnDisco {
+
+	static final int CLAVE = 0;
+	static final int ALTA = 8;
+	static final int ESTADO = 16;
+	static final int CONTADA = 24;
+	static final int PRECIO = 32;
+	private static final int TEXTOS = 40;
+	// número de cada texto en el registro
+	static final int NOMBRE = 0;
+	static final int PRINCIPIO_ACTIVO = 1;
+	static final int FARMACEUTICA = 2;
+	private static final int NUMERO_TEXTOS = 3;
+	// bytes en UTF-8 de los tres textos; así caben al menos 7 registros por
+	// hoja
+	static final int MAXIMO_TEXTOS = 1024;
+
+	// resultados de cambiar
+	static final int CAMBIADO = 1;
+	static final int DISTINTO = 0;
+	static final int NO_ESTA = -1;
+
+	private static final int TAMANO_PAGINA = PaginasEnDisco.TAMANO_PAGINA;
+	// cabecera de todas las páginas
+	private static final int TIPO = 0;
+	private static final int GENERACION = 4;
+	private static final int NUMERO = 8;
+	private static final int INICIO_REGISTROS = 10;
+	private static final int CABECERA = 16;
+	// la página 0
+	private static final int PAGINA_CABECERA = 0;
+	private static final int MAGIA = 0;
+	private static final int CERRADO = 4;
+	private static final int RAIZ = 8;
+	private static final int GENERACION_FICHERO = 12;
+	private static final int NUMERO_VACUNAS = 16;
+	private static final int ALTAS = 24;
+	// "VAD1"
+	private static final int VALOR_MAGIA = 0x56414431;
+	private static final byte HOJA = 1;
+	private static final byte INTERNA = 2;
+	// páginas internas
+	private static final int PRIMER_HIJO = 16;
+	private static final int ENTRADAS = 20;
+	private static final int TAMANO_ENTRADA = 12;
+	private static final int MAXIMO_CLAVES = (TAMANO_PAGINA - ENTRADAS) / TAMANO_ENTRADA;
+	// con hojas de 7 registros y páginas internas de 2 hijos no se llega
+	private static final int ALTURA_MAXIMA = 64;
+
+	private static final Cleaner LIMPIADOR = Cleaner.create();
+
+	private final ReentrantLock cerrojo = new ReentrantLock();
+	private final PaginasEnDisco paginas;
+	private final boolean deTrabajo;
+	// para montar registros y compactar hojas
+	private final ByteBuffer auxiliar = ByteBuffer.allocate(TAMANO_PAGINA).order(ByteOrder.nativeOrder());
+	private final ByteBuffer registro = ByteBuffer.allocate(TAMANO_PAGINA).order(ByteOrder.nativeOrder());
+	// camino de la última bajada para escribir: páginas internas y el hijo
+	// que se tomó en cada una
+	private final int[] camino = new int[ALTURA_MAXIMA];
+	private final int[] posiciones = new int[ALTURA_MAXIMA];
+	private int altura;
+	private int raiz;
+	private int generacion = 1;
+	private long altas;
+	private long version;
+	private volatile int tamano;
+	// generación de cada copia sin recoger, con cuántas hay
+	private final TreeMap<Integer, Integer> copiasVivas = new TreeMap<Integer, Integer>();
+	// páginas sustituidas que alguna copia puede leer, por orden: (generación
+	// en que se sustituyó << 32) | página
+	private long[] pendientes = new long[64];
+	private int primerPendiente;
+	private int numeroPendientes;
+	private WeakReference<Copia> ultimaCopia;
+
+	/**
+	 * @param fichero Tipo Path - el fichero; si no existe o es de trabajo
+	 * empieza vacío
+	 * @param paginasEnMemoria Tipo int - al menos PaginasEnDisco.MINIMO_MARCOS
+	 * @param deTrabajo Tipo boolean - true para vaciarlo al abrirlo y borrarlo
+	 * al cerrarlo
+	 * @throws IOException si no se puede abrir el fichero, no es de vacunas o
+	 * no se cerró bien
+	 */
+	ArbolEnDisco(Path fichero, int paginasEnMemoria, boolean deTrabajo) throws IOException {
+		this.paginas = new PaginasEnDisco(fichero, paginasEnMemoria, deTrabajo);
+		this.deTrabajo = deTrabajo;
+		try {
+			if (this.paginas.getNumeroPaginas() == 0) {
+				this.paginas.nueva();
+				this.raiz = this.paginas.nueva();
+				this.iniciarHoja(this.paginas.escribir(this.raiz));
+			} else {
+				this.reabrir();
+			}
+			if (!deTrabajo) {
+				// desde aquí, hasta cerrar(), el fichero no está bien cerrado
+				this.escribirCabecera(false);
+				this.paginas.volcar();
+			}
+		} catch (IOException | RuntimeException e) {
+			this.paginas.cerrar();
+			throw e;
+		}
+	}
+
+	private void reabrir() throws IOException {
+		ByteBuffer c = this.paginas.leer(PAGINA_CABECERA);
+		if (c.getInt(MAGIA) != VALOR_MAGIA) {
+			throw new IOException("No es un fichero de vacunas en disco");
+		}
+		if (c.get(CERRADO) != 1) {
+			throw new IOException("El fichero no se cerró bien y puede tener páginas de distintos momentos");
+		}
+		this.raiz = c.getInt(RAIZ);
+		this.generacion = c.getInt(GENERACION_FICHERO);
+		this.tamano = c.getInt(NUMERO_VACUNAS);
+		this.altas = c.getLong(ALTAS);
+		// las hojas están todas a la misma altura: de la última fila de
+		// páginas internas salen las hojas sin leerlas
+		int numeroPaginas = this.paginas.getNumeroPaginas();
+		boolean[] usadas = new boolean[numeroPaginas];
+		usadas[PAGINA_CABECERA] = true;
+		int[] fila = { this.comprobarPagina(this.raiz, usadas) };
+		int numeroFila = 1;
+		for (;;) {
+			this.paginas.empezarOperacion();
+			if (this.paginas.leer(fila[0]).get(TIPO) != INTERNA) {
+				break;
+			}
+			int[] siguiente = new int[64];
+			int numeroSiguiente = 0;
+			for (int j = 0; j < numeroFila; j++) {
+				this.paginas.empezarOperacion();
+				ByteBuffer b = this.paginas.leer(fila[j]);
+				for (int i = 0; i <= numero(b); i++) {
+					if (numeroSiguiente == siguiente.length) {
+						siguiente = Arrays.copyOf(siguiente, siguiente.length * 2);
+					}
+					siguiente[numeroSiguiente++] = this.comprobarPagina(hijo(b, i), usadas);
+				}
+			}
+			fila = siguiente;
+			numeroFila = numeroSiguiente;
+		}
+		for (int pagina = numeroPaginas - 1; pagina > PAGINA_CABECERA; pagina--) {
+			if (!usadas[pagina]) {
+				this.paginas.liberar(pagina);
+			}
+		}
+	}
+
+	private int comprobarPagina(int pagina, boolean[] usadas) throws IOException {
+		if (pagina <= PAGINA_CABECERA || pagina >= usadas.length || usadas[pagina]) {
+			throw new IOException("El árbol del fichero está dañado: página " + pagina);
+		}
+		usadas[pagina] = true;
+		return pagina;
+	}
+
+	private void escribirCabecera(boolean cerrado) {
+		ByteBuffer c = this.paginas.escribir(PAGINA_CABECERA);
+		c.putInt(MAGIA, VALOR_MAGIA);
+		c.put(CERRADO, (byte) (cerrado ? 1 : 0));
+		c.putInt(RAIZ, this.raiz);
+		c.putInt(GENERACION_FICHERO, this.generacion);
+		c.putInt(NUMERO_VACUNAS, this.tamano);
+		c.putLong(ALTAS, this.altas);
+	}
+
+	/**
+	 * Escribe todas las páginas y la cabecera, si el fichero se conserva, y lo
+	 * cierra. Después no se puede usar.
+	 */
+	void cerrar() throws IOException {
+		this.cerrojo.lock();
+		try {
+			if (!this.deTrabajo) {
+				this.paginas.empezarOperacion();
+				this.escribirCabecera(true);
+				this.paginas.volcar();
+			}
+			this.paginas.cerrar();
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	int tamano() {
+		return this.tamano;
+	}
+
+	// -------- lecturas y cambios de un registro
+
+	/**
+	 * Vista de la vacuna con ese código: solo se lee su número de alta, los
+	 * datos los lee la vista cuando se piden
+	 *
+	 * @return Tipo VacunaEnDisco - o null si no está
+	 */
+	VacunaEnDisco vista(String codigo) {
+		long clave = CodigoVacuna.empaquetarSiCabe(codigo);
+		if (clave == 0) {
+			return null;
+		}
+		this.cerrojo.lock();
+		try {
+			this.paginas.empezarOperacion();
+			long posicion = this.buscar(clave, 0);
+			if (posicion < 0) {
+				return null;
+			}
+			return new VacunaEnDisco(this, codigo, clave,
+					this.paginas.leer((int) (posicion >>> 32)).getLong((int) posicion + ALTA));
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	boolean vigente(long clave, long alta) {
+		this.cerrojo.lock();
+		try {
+			this.paginas.empezarOperacion();
+			return this.buscar(clave, alta) >= 0;
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	/**
+	 * @param campo Tipo int - ESTADO, CONTADA o PRECIO
+	 * @param siNoEsta Tipo long - lo que se devuelve si la vacuna ya no es esa
+	 */
+	long leer(long clave, long alta, int campo, long siNoEsta) {
+		this.cerrojo.lock();
+		try {
+			this.paginas.empezarOperacion();
+			long posicion = this.buscar(clave, alta);
+			if (posicion < 0) {
+				return siNoEsta;
+			}
+			return this.paginas.leer((int) (posicion >>> 32)).getLong((int) posicion + campo);
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	/**
+	 * @param texto Tipo int - NOMBRE, PRINCIPIO_ACTIVO o FARMACEUTICA
+	 */
+	String leerTexto(long clave, long alta, int texto, String siNoEsta) {
+		this.cerrojo.lock();
+		try {
+			this.paginas.empezarOperacion();
+			long posicion = this.buscar(clave, alta);
+			if (posicion < 0) {
+				return siNoEsta;
+			}
+			return texto(this.paginas.leer((int) (posicion >>> 32)), (int) posicion, texto);
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	/**
+	 * compareAndSet de un campo long del registro
+	 *
+	 * @return Tipo int - CAMBIADO, DISTINTO si no tenía el valor anterior o
+	 * NO_ESTA si la vacuna ya no es esa
+	 */
+	int cambiar(long clave, long alta, int campo, long anterior, long nuevo) {
+		this.cerrojo.lock();
+		try {
+			this.paginas.empezarOperacion();
+			long posicion = this.buscar(clave, alta);
+			if (posicion < 0) {
+				return NO_ESTA;
+			}
+			if (this.paginas.leer((int) (posicion >>> 32)).getLong((int) posicion + campo) != anterior) {
+				return DISTINTO;
+			}
+			// la copia de una página deja los registros en el mismo sitio
+			this.paginas.escribir(this.bajarEscribiendo(clave)).putLong((int) posicion + campo, nuevo);
+			this.version++;
+			return CAMBIADO;
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	/**
+	 * @return Tipo boolean - false si la vacuna ya no es esa
+	 */
+	boolean escribir(long clave, long alta, int campo, long valor) {
+		this.cerrojo.lock();
+		try {
+			this.paginas.empezarOperacion();
+			long posicion = this.buscar(clave, alta);
+			if (posicion < 0) {
+				return false;
+			}
+			this.paginas.escribir(this.bajarEscribiendo(clave)).putLong((int) posicion + campo, valor);
+			this.version++;
+			return true;
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	/**
+	 * Cambia el tamaño del registro: lo vuelve a poner en su hoja, que puede
+	 * dividirse
+	 *
+	 * @param texto Tipo int - NOMBRE, PRINCIPIO_ACTIVO o FARMACEUTICA
+	 * @return Tipo boolean - false si la vacuna ya no es esa
+	 * @throws IllegalArgumentException si los textos ocupan más de
+	 * MAXIMO_TEXTOS bytes
+	 */
+	boolean escribirTexto(long clave, long alta, int texto, String valor) {
+		byte[] bytes = bytes(valor);
+		this.cerrojo.lock();
+		try {
+			this.paginas.empezarOperacion();
+			long posicion = this.buscar(clave, alta);
+			if (posicion < 0) {
+				return false;
+			}
+			byte[][] textos = bytesTextos(this.paginas.leer((int) (posicion >>> 32)), (int) posicion);
+			textos[texto] = bytes;
+			comprobarTextos(textos);
+			int pagina = this.bajarEscribiendo(clave);
+			ByteBuffer hoja = this.paginas.escribir(pagina);
+			int i = buscarEnHoja(hoja, clave);
+			int r = registro(hoja, i);
+			this.registro.put(0, hoja, r, TEXTOS);
+			int longitud = montarTextos(this.registro, textos);
+			quitarDeHoja(hoja, i);
+			this.insertarEnHoja(pagina, i, longitud);
+			this.version++;
+			return true;
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	// -------- guardar y quitar vacunas
+
+	/**
+	 * Copia los datos y el estado de la vacuna a un registro; la vacuna no se
+	 * guarda. Su estado queda también como el contado.
+	 *
+	 * @return Tipo Vacuna - copia suelta de la que había con ese código, con
+	 * su palabra contada, o null
+	 * @throws IllegalArgumentException si el código no cabe en 8 caracteres
+	 * ASCII o los textos ocupan más de MAXIMO_TEXTOS bytes
+	 */
+	Vacuna guardar(Vacuna v) {
+		String codigo = v.getCodigo();
+		long clave = CodigoVacuna.empaquetar(codigo);
+		// se leen antes: v puede ser una vista de aquí mismo
+		byte[][] textos = new byte[][] { bytes(v.getNombre()), bytes(v.getPrincipioActivo()),
+				bytes(v.getFarmaceutica()) };
+		comprobarTextos(textos);
+		long palabra = v.getPalabraEstado();
+		double precio = v.getPrecioRecomendado();
+		this.cerrojo.lock();
+		try {
+			this.paginas.empezarOperacion();
+			int pagina = this.bajarEscribiendo(clave);
+			ByteBuffer hoja = this.paginas.escribir(pagina);
+			int i = buscarEnHoja(hoja, clave);
+			Vacuna sustituida = null;
+			if (i >= 0) {
+				sustituida = materializarContada(hoja, registro(hoja, i));
+				quitarDeHoja(hoja, i);
+			} else {
+				i = -i - 1;
+				this.tamano++;
+			}
+			ByteBuffer r = this.registro;
+			r.putLong(CLAVE, clave);
+			r.putLong(ALTA, ++this.altas);
+			r.putLong(ESTADO, palabra);
+			r.putLong(CONTADA, palabra);
+			r.putLong(PRECIO, Double.doubleToRawLongBits(precio));
+			this.insertarEnHoja(pagina, i, montarTextos(r, textos));
+			this.version++;
+			return sustituida;
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	/**
+	 * @return Tipo Vacuna - copia suelta de la que había con ese código, con
+	 * su palabra contada, o null
+	 */
+	Vacuna quitar(String codigo) {
+		long clave = CodigoVacuna.empaquetarSiCabe(codigo);
+		if (clave == 0) {
+			return null;
+		}
+		this.cerrojo.lock();
+		try {
+			this.paginas.empezarOperacion();
+			// sin copiar páginas si no está
+			if (this.buscar(clave, 0) < 0) {
+				return null;
+			}
+			int pagina = this.bajarEscribiendo(clave);
+			ByteBuffer hoja = this.paginas.escribir(pagina);
+			int i = buscarEnHoja(hoja, clave);
+			Vacuna quitada = materializarContada(hoja, registro(hoja, i));
+			quitarDeHoja(hoja, i);
+			if (numero(hoja) == 0 && this.altura > 0) {
+				this.quitarHijo(this.altura - 1);
+			} else if (this.altura > 0 && ocupados(hoja) < TAMANO_PAGINA / 4) {
+				this.juntarConVecina(pagina);
+			}
+			this.tamano--;
+			this.version++;
+			return quitada;
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	/**
+	 * Hasta maximo códigos empaquetados en orden, los primeros después de
+	 * desde (o desde incluido)
+	 */
+	long[] siguientes(long desde, boolean incluido, int maximo) {
+		long[] claves = new long[maximo];
+		int numero = 0;
+		this.cerrojo.lock();
+		try {
+			long clave = desde;
+			boolean conClave = incluido;
+			while (numero < maximo) {
+				this.paginas.empezarOperacion();
+				// la menor clave de separación a la derecha del camino: donde
+				// empieza la hoja siguiente
+				long cota = 0;
+				int pagina = this.raiz;
+				ByteBuffer b = this.paginas.leer(pagina);
+				while (b.get(TIPO) == INTERNA) {
+					int i = hijoPara(b, clave);
+					if (i < numero(b)) {
+						cota = claveInterna(b, i);
+					}
+					b = this.paginas.leer(hijo(b, i));
+				}
+				int i = buscarEnHoja(b, clave);
+				i = (i >= 0) ? (conClave ? i : i + 1) : -i - 1;
+				for (; i < numero(b) && numero < maximo; i++) {
+					claves[numero++] = claveRegistro(b, i);
+				}
+				if (i < numero(b) || cota == 0) {
+					break;
+				}
+				clave = cota;
+				conClave = true;
+			}
+		} finally {
+			this.cerrojo.unlock();
+		}
+		return Arrays.copyOf(claves, numero);
+	}
+
+	// -------- páginas (todo con el cerrojo)
+
+	/**
+	 * @param alta Tipo long - 0 si vale cualquiera
+	 * @return Tipo long - (página << 32) | posición del registro en la hoja,
+	 * o -1
+	 */
+	private long buscar(long clave, long alta) {
+		int pagina = this.raiz;
+		ByteBuffer b = this.paginas.leer(pagina);
+		while (b.get(TIPO) == INTERNA) {
+			pagina = hijo(b, hijoPara(b, clave));
+			b = this.paginas.leer(pagina);
+		}
+		int i = buscarEnHoja(b, clave);
+		if (i < 0) {
+			return -1;
+		}
+		int r = registro(b, i);
+		if (alta != 0 && b.getLong(r + ALTA) != alta) {
+			return -1;
+		}
+		return ((long) pagina << 32) | r;
+	}
+
+	// baja hasta la hoja de la clave copiando las páginas compartidas con
+	// alguna copia y deja el camino en camino y posiciones
+	private int bajarEscribiendo(long clave) {
+		this.raiz = this.escribible(this.raiz);
+		int pagina = this.raiz;
+		this.altura = 0;
+		for (;;) {
+			ByteBuffer b = this.paginas.escribir(pagina);
+			if (b.get(TIPO) == HOJA) {
+				return pagina;
+			}
+			int i = hijoPara(b, clave);
+			int h = hijo(b, i);
+			int escribible = this.escribible(h);
+			if (escribible != h) {
+				ponerHijo(b, i, escribible);
+			}
+			this.camino[this.altura] = pagina;
+			this.posiciones[this.altura] = i;
+			this.altura++;
+			pagina = escribible;
+		}
+	}
+
+	private int escribible(int pagina) {
+		ByteBuffer b = this.paginas.leer(pagina);
+		int generacionPagina = b.getInt(GENERACION);
+		if (generacionPagina == this.generacion) {
+			return pagina;
+		}
+		int copia = this.paginas.nueva();
+		ByteBuffer c = this.paginas.escribir(copia);
+		c.put(0, b, 0, TAMANO_PAGINA);
+		c.putInt(GENERACION, this.generacion);
+		this.sustituida(pagina, generacionPagina);
+		return copia;
+	}
+
+	// una página que ya no está en el árbol actual
+	private void sustituida(int pagina, int generacionPagina) {
+		// solo la pueden leer las copias de su generación en adelante
+		if (this.copiasVivas.isEmpty() || this.copiasVivas.lastKey() < generacionPagina) {
+			this.paginas.liberar(pagina);
+			return;
+		}
+		if (this.primerPendiente + this.numeroPendientes == this.pendientes.length) {
+			if (this.primerPendiente > this.pendientes.length / 2) {
+				System.arraycopy(this.pendientes, this.primerPendiente, this.pendientes, 0, this.numeroPendientes);
+				this.primerPendiente = 0;
+			} else {
+				this.pendientes = Arrays.copyOf(this.pendientes, this.pendientes.length * 2);
+			}
+		}
+		this.pendientes[this.primerPendiente + this.numeroPendientes++] = ((long) this.generacion << 32) | pagina;
+	}
+
+	// las sustituidas en una generación que ya no lee ninguna copia
+	private void liberarPendientes() {
+		int minima = this.copiasVivas.isEmpty() ? Integer.MAX_VALUE : this.copiasVivas.firstKey();
+		while (this.numeroPendientes > 0 && (int) (this.pendientes[this.primerPendiente] >>> 32) <= minima) {
+			this.paginas.liberar((int) this.pendientes[this.primerPendiente]);
+			this.primerPendiente++;
+			this.numeroPendientes--;
+		}
+		if (this.numeroPendientes == 0) {
+			this.primerPendiente = 0;
+		}
+	}
+
+	private void iniciarHoja(ByteBuffer b) {
+		b.put(TIPO, HOJA);
+		b.putInt(GENERACION, this.generacion);
+		b.putShort(NUMERO, (short) 0);
+		b.putShort(INICIO_REGISTROS, (short) TAMANO_PAGINA);
+	}
+
+	private void iniciarInterna(ByteBuffer b) {
+		b.put(TIPO, INTERNA);
+		b.putInt(GENERACION, this.generacion);
+		b.putShort(NUMERO, (short) 0);
+	}
+
+	// pone en la posición i de la hoja el registro montado, de esa longitud
+	private void insertarEnHoja(int pagina, int i, int longitud) {
+		ByteBuffer hoja = this.paginas.escribir(pagina);
+		if (libre(hoja) < longitud + 2) {
+			this.compactar(hoja);
+		}
+		if (libre(hoja) >= longitud + 2) {
+			int n = numero(hoja);
+			for (int j = n; j > i; j--) {
+				hoja.putShort(CABECERA + 2 * j, hoja.getShort(CABECERA + 2 * (j - 1)));
+			}
+			int r = (hoja.getShort(INICIO_REGISTROS) & 0xFFFF) - longitud;
+			hoja.put(r, this.registro, 0, longitud);
+			hoja.putShort(CABECERA + 2 * i, (short) r);
+			hoja.putShort(INICIO_REGISTROS, (short) r);
+			hoja.putShort(NUMERO, (short) (n + 1));
+			return;
+		}
+		this.dividirHoja(pagina, i, longitud);
+	}
+
+	// junta los registros al final de la hoja, sin los huecos de los quitados
+	private void compactar(ByteBuffer hoja) {
+		this.auxiliar.put(0, hoja, 0, TAMANO_PAGINA);
+		int fin = TAMANO_PAGINA;
+		for (int j = 0; j < numero(hoja); j++) {
+			int r = registro(this.auxiliar, j);
+			int longitud = longitudRegistro(this.auxiliar, r);
+			fin -= longitud;
+			hoja.put(fin, this.auxiliar, r, longitud);
+			hoja.putShort(CABECERA + 2 * j, (short) fin);
+		}
+		hoja.putShort(INICIO_REGISTROS, (short) fin);
+	}
+
+	// la hoja con el registro montado en la posición i no cabe: la mitad de
+	// los bytes se queda y el resto va a una hoja nueva a su derecha
+	private void dividirHoja(int pagina, int i, int longitud) {
+		ByteBuffer hoja = this.paginas.escribir(pagina);
+		this.auxiliar.put(0, hoja, 0, TAMANO_PAGINA);
+		int n = numero(this.auxiliar);
+		int total = longitud;
+		for (int j = 0; j < n; j++) {
+			total += longitudRegistro(this.auxiliar, registro(this.auxiliar, j));
+		}
+		int derecha = this.paginas.nueva();
+		ByteBuffer otra = this.paginas.escribir(derecha);
+		this.iniciarHoja(otra);
+		this.iniciarHoja(hoja);
+		int izquierda = 0;
+		for (int j = 0; j <= n; j++) {
+			ByteBuffer origen = (j == i) ? this.registro : this.auxiliar;
+			int r = (j == i) ? 0 : registro(this.auxiliar, (j < i) ? j : j - 1);
+			int l = (j == i) ? longitud : longitudRegistro(this.auxiliar, r);
+			// a la izquierda hasta la mitad, y al menos uno a cada lado
+			boolean aLaIzquierda = j < n && (j == 0 || izquierda + l <= total / 2);
+			if (aLaIzquierda && numero(otra) == 0) {
+				izquierda += l;
+				anadirAHoja(hoja, origen, r, l);
+			} else {
+				anadirAHoja(otra, origen, r, l);
+			}
+		}
+		this.insertarEnPadre(this.altura - 1, claveRegistro(otra, 0), derecha);
+	}
+
+	// el hijo posiciones[nivel] de camino[nivel] se dividió: la clave y la
+	// página de la derecha van justo detrás
+	private void insertarEnPadre(int nivel, long clave, int derecha) {
+		if (nivel < 0) {
+			int nuevaRaiz = this.paginas.nueva();
+			ByteBuffer b = this.paginas.escribir(nuevaRaiz);
+			this.iniciarInterna(b);
+			ponerHijo(b, 0, this.raiz);
+			ponerEntrada(b, 0, clave, derecha);
+			b.putShort(NUMERO, (short) 1);
+			this.raiz = nuevaRaiz;
+			return;
+		}
+		int pagina = this.camino[nivel];
+		int i = this.posiciones[nivel];
+		ByteBuffer b = this.paginas.escribir(pagina);
+		int n = numero(b);
+		if (n < MAXIMO_CLAVES) {
+			for (int j = n; j > i; j--) {
+				ponerEntrada(b, j, claveInterna(b, j - 1), hijo(b, j));
+			}
+			ponerEntrada(b, i, clave, derecha);
+			b.putShort(NUMERO, (short) (n + 1));
+			return;
+		}
+		// llena: la clave del medio sube
+		long[] claves = new long[n + 1];
+		int[] hijos = new int[n + 2];
+		hijos[0] = hijo(b, 0);
+		for (int j = 0, k = 0; j <= n; j++) {
+			if (j == i) {
+				claves[j] = clave;
+				hijos[j + 1] = derecha;
+			} else {
+				claves[j] = claveInterna(b, k);
+				hijos[j + 1] = hijo(b, k + 1);
+				k++;
+			}
+		}
+		int medio = (n + 1) / 2;
+		int otraPagina = this.paginas.nueva();
+		ByteBuffer otra = this.paginas.escribir(otraPagina);
+		this.iniciarInterna(otra);
+		ponerHijo(b, 0, hijos[0]);
+		for (int j = 0; j < medio; j++) {
+			ponerEntrada(b, j, claves[j], hijos[j + 1]);
+		}
+		b.putShort(NUMERO, (short) medio);
+		ponerHijo(otra, 0, hijos[medio + 1]);
+		for (int j = medio + 1; j <= n; j++) {
+			ponerEntrada(otra, j - medio - 1, claves[j], hijos[j + 1]);
+		}
+		otra.putShort(NUMERO, (short) (n - medio));
+		this.insertarEnPadre(nivel - 1, claves[medio], otraPagina);
+	}
+
+	// el hijo posiciones[nivel] de camino[nivel] se quedó vacío
+	private void quitarHijo(int nivel) {
+		int pagina = this.camino[nivel];
+		int i = this.posiciones[nivel];
+		ByteBuffer b = this.paginas.escribir(pagina);
+		// es de esta generación: se escribió al bajar
+		this.sustituida(hijo(b, i), this.generacion);
+		int n = numero(b);
+		if (n == 0) {
+			if (nivel > 0) {
+				this.quitarHijo(nivel - 1);
+			} else {
+				this.iniciarHoja(b);
+			}
+			return;
+		}
+		if (i == 0) {
+			ponerHijo(b, 0, hijo(b, 1));
+		}
+		for (int j = Math.max(i - 1, 0); j < n - 1; j++) {
+			ponerEntrada(b, j, claveInterna(b, j + 1), hijo(b, j + 2));
+		}
+		b.putShort(NUMERO, (short) (n - 1));
+		if (nivel == 0 && n == 1) {
+			// una raíz con un solo hijo sobra, y el hijo también si es igual
+			do {
+				int unico = hijo(b, 0);
+				this.sustituida(pagina, b.getInt(GENERACION));
+				pagina = unico;
+				b = this.paginas.leer(pagina);
+			} while (b.get(TIPO) == INTERNA && numero(b) == 0);
+			this.raiz = pagina;
+		}
+	}
+
+	// la hoja del final del camino se quedó con poco: si cabe con su vecina
+	// en tres cuartos de página, la de la derecha pasa a la de la izquierda y
+	// sale del padre
+	private void juntarConVecina(int pagina) {
+		int nivel = this.altura - 1;
+		ByteBuffer padre = this.paginas.escribir(this.camino[nivel]);
+		int i = this.posiciones[nivel];
+		if (numero(padre) == 0) {
+			// hija única
+			return;
+		}
+		int j = (i < numero(padre)) ? i + 1 : i - 1;
+		if (ocupados(this.paginas.leer(pagina)) + ocupados(this.paginas.leer(hijo(padre, j))) > TAMANO_PAGINA * 3
+				/ 4) {
+			return;
+		}
+		int vecina = this.escribible(hijo(padre, j));
+		ponerHijo(padre, j, vecina);
+		ByteBuffer izquierda = this.paginas.escribir((i < j) ? pagina : vecina);
+		ByteBuffer derecha = this.paginas.escribir((i < j) ? vecina : pagina);
+		this.compactar(izquierda);
+		for (int k = 0; k < numero(derecha); k++) {
+			int r = registro(derecha, k);
+			anadirAHoja(izquierda, derecha, r, longitudRegistro(derecha, r));
+		}
+		this.posiciones[nivel] = Math.max(i, j);
+		this.quitarHijo(nivel);
+	}
+
+	// -------- formato de las páginas
+
+	private static int numero(ByteBuffer b) {
+		return b.getShort(NUMERO) & 0xFFFF;
+	}
+
+	private static int libre(ByteBuffer hoja) {
+		return (hoja.getShort(INICIO_REGISTROS) & 0xFFFF) - CABECERA - 2 * numero(hoja);
+	}
+
+	// bytes de los registros de la hoja y sus posiciones, sin los huecos
+	private static int ocupados(ByteBuffer hoja) {
+		int n = numero(hoja);
+		int bytes = 2 * n;
+		for (int i = 0; i < n; i++) {
+			bytes += longitudRegistro(hoja, registro(hoja, i));
+		}
+		return bytes;
+	}
+
+	private static int registro(ByteBuffer hoja, int i) {
+		return hoja.getShort(CABECERA + 2 * i) & 0xFFFF;
+	}
+
+	private static long claveRegistro(ByteBuffer hoja, int i) {
+		return hoja.getLong(registro(hoja, i) + CLAVE);
+	}
+
+	private static int longitudRegistro(ByteBuffer b, int r) {
+		return posicionTexto(b, r, NUMERO_TEXTOS) - r;
+	}
+
+	// donde empieza el texto en el registro r: su longitud y sus bytes
+	private static int posicionTexto(ByteBuffer b, int r, int texto) {
+		int p = r + TEXTOS;
+		for (int i = 0; i < texto; i++) {
+			p += 2 + Math.max(b.getShort(p), 0);
+		}
+		return p;
+	}
+
+	// los códigos empaquetados son ASCII: positivos y con el mismo orden con
+	// signo que sin él
+	private static int buscarEnHoja(ByteBuffer hoja, long clave) {
+		int bajo = 0;
+		int alto = numero(hoja) - 1;
+		while (bajo <= alto) {
+			int medio = (bajo + alto) >>> 1;
+			long k = claveRegistro(hoja, medio);
+			if (k < clave) {
+				bajo = medio + 1;
+			} else if (k > clave) {
+				alto = medio - 1;
+			} else {
+				return medio;
+			}
+		}
+		return -(bajo + 1);
+	}
+
+	private static void anadirAHoja(ByteBuffer hoja, ByteBuffer origen, int r, int longitud) {
+		int n = numero(hoja);
+		int inicio = (hoja.getShort(INICIO_REGISTROS) & 0xFFFF) - longitud;
+		hoja.put(inicio, origen, r, longitud);
+		hoja.putShort(CABECERA + 2 * n, (short) inicio);
+		hoja.putShort(INICIO_REGISTROS, (short) inicio);
+		hoja.putShort(NUMERO, (short) (n + 1));
+	}
+
+	// su espacio se recupera al compactar
+	private static void quitarDeHoja(ByteBuffer hoja, int i) {
+		int n = numero(hoja);
+		for (int j = i; j < n - 1; j++) {
+			hoja.putShort(CABECERA + 2 * j, hoja.getShort(CABECERA + 2 * (j + 1)));
+		}
+		hoja.putShort(NUMERO, (short) (n - 1));
+		if (n == 1) {
+			hoja.putShort(INICIO_REGISTROS, (short) TAMANO_PAGINA);
+		}
+	}
+
+	private static long claveInterna(ByteBuffer b, int i) {
+		return b.getLong(ENTRADAS + i * TAMANO_ENTRADA);
+	}
+
+	private static int hijo(ByteBuffer b, int i) {
+		return (i == 0) ? b.getInt(PRIMER_HIJO) : b.getInt(ENTRADAS + (i - 1) * TAMANO_ENTRADA + 8);
+	}
+
+	private static void ponerHijo(ByteBuffer b, int i, int pagina) {
+		b.putInt((i == 0) ? PRIMER_HIJO : ENTRADAS + (i - 1) * TAMANO_ENTRADA + 8, pagina);
+	}
+
+	// la clave i y el hijo i + 1
+	private static void ponerEntrada(ByteBuffer b, int i, long clave, int pagina) {
+		b.putLong(ENTRADAS + i * TAMANO_ENTRADA, clave);
+		b.putInt(ENTRADAS + i * TAMANO_ENTRADA + 8, pagina);
+	}
+
+	// el primer hijo cuya cota superior es mayor que la clave
+	private static int hijoPara(ByteBuffer b, long clave) {
+		int bajo = 0;
+		int alto = numero(b);
+		while (bajo < alto) {
+			int medio = (bajo + alto) >>> 1;
+			if (clave < claveInterna(b, medio)) {
+				alto = medio;
+			} else {
+				bajo = medio + 1;
+			}
+		}
+		return bajo;
+	}
+
+	private static String texto(ByteBuffer hoja, int r, int texto) {
+		byte[] bytes = bytesTexto(hoja, r, texto);
+		return (bytes == null) ? null : new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] bytesTexto(ByteBuffer hoja, int r, int texto) {
+		int p = posicionTexto(hoja, r, texto);
+		int longitud = hoja.getShort(p);
+		if (longitud < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[longitud];
+		hoja.get(p + 2, bytes);
+		return bytes;
+	}
+
+	private static byte[][] bytesTextos(ByteBuffer hoja, int r) {
+		byte[][] textos = new byte[NUMERO_TEXTOS][];
+		for (int i = 0; i < NUMERO_TEXTOS; i++) {
+			textos[i] = bytesTexto(hoja, r, i);
+		}
+		return textos;
+	}
+
+	private static byte[] bytes(String texto) {
+		return (texto == null) ? null : texto.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void comprobarTextos(byte[][] textos) {
+		int total = 0;
+		for (byte[] t : textos) {
+			total += (t == null) ? 0 : t.length;
+		}
+		if (total > MAXIMO_TEXTOS) {
+			throw new IllegalArgumentException("El nombre, el principio activo y la farmacéutica ocupan más de "
+					+ MAXIMO_TEXTOS + " bytes en UTF-8");
+		}
+	}
+
+	// pone los textos detrás de los campos fijos del registro montado
+	private static int montarTextos(ByteBuffer r, byte[][] textos) {
+		int p = TEXTOS;
+		for (byte[] t : textos) {
+			if (t == null) {
+				r.putShort(p, (short) -1);
+				p += 2;
+			} else {
+				r.putShort(p, (short) t.length);
+				r.put(p + 2, t);
+				p += 2 + t.length;
+			}
+		}
+		return p;
+	}
+
+	private static Vacuna materializar(ByteBuffer hoja, int r, int estado) {
+		Vacuna v = new Vacuna(CodigoVacuna.desempaquetar(hoja.getLong(r + CLAVE)), texto(hoja, r, NOMBRE),
+				texto(hoja, r, PRINCIPIO_ACTIVO), texto(hoja, r, FARMACEUTICA),
+				Double.longBitsToDouble(hoja.getLong(r + PRECIO)));
+		v.restaurarEstado(hoja.getLong(r + estado));
+		return v;
+	}
+
+	private static Vacuna materializarContada(ByteBuffer hoja, int r) {
+		Vacuna v = materializar(hoja, r, ESTADO);
+		v.setPalabraContada(hoja.getLong(r + CONTADA));
+		return v;
+	}
+
+	// -------- copias
+
+	/**
+	 * Las vacunas tal como están ahora; si no ha cambiado nada desde la
+	 * última copia y sigue viva, la misma
+	 */
+	Copia copiar() {
+		this.cerrojo.lock();
+		try {
+			Copia copia = (this.ultimaCopia == null) ? null : this.ultimaCopia.get();
+			if (copia == null || copia.version != this.version) {
+				this.paginas.empezarOperacion();
+				copia = new Copia(this.raiz, this.tamano, this.version);
+				this.copiasVivas.merge(this.generacion, 1, Integer::sum);
+				LIMPIADOR.register(copia, new Recogida(this, this.generacion));
+				this.ultimaCopia = new WeakReference<Copia>(copia);
+				// desde aquí todas las páginas actuales son compartidas
+				this.generacion++;
+			}
+			return copia;
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	// lo que hace el GC al recoger una copia; no puede tenerla
+	private static final class Recogida implements Runnable {
+
+		private final ArbolEnDisco arbol;
+		private final int generacion;
+
+		Recogida(ArbolEnDisco arbol, int generacion) {
+			this.arbol = arbol;
+			this.generacion = generacion;
+		}
+
+		@Override
+		public void run() {
+			this.arbol.cerrojo.lock();
+			try {
+				this.arbol.copiasVivas.merge(this.generacion, -1, (a, b) -> (a + b == 0) ? null : a + b);
+				this.arbol.liberarPendientes();
+			} finally {
+				this.arbol.cerrojo.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Copia de las vacunas: las páginas del árbol en un momento. Lee del
+	 * fichero con el cerrojo del árbol, una hoja cada vez, y da copias sueltas
+	 * con el estado contado.
+	 */
+	final class Copia implements ICopiaVacunas {
+
+		private final int raizCopia;
+		private final int numero;
+		private final long version;
+
+		// con el cerrojo
+		private Copia(int raiz, int numero, long version) {
+			this.raizCopia = raiz;
+			this.numero = numero;
+			this.version = version;
+		}
+
+		@Override
+		public long getVersion() {
+			return this.version;
+		}
+
+		@Override
+		public int tamano() {
+			return this.numero;
+		}
+
+		@Override
+		public Vacuna buscarVacuna(String codigo) {
+			long clave = CodigoVacuna.empaquetarSiCabe(codigo);
+			if (clave == 0) {
+				return null;
+			}
+			cerrojo.lock();
+			try {
+				paginas.empezarOperacion();
+				ByteBuffer b = paginas.leer(this.raizCopia);
+				while (b.get(TIPO) == INTERNA) {
+					b = paginas.leer(hijo(b, hijoPara(b, clave)));
+				}
+				int i = buscarEnHoja(b, clave);
+				return (i < 0) ? null : materializar(b, registro(b, i), CONTADA);
+			} finally {
+				cerrojo.unlock();
+			}
+		}
+
+		@Override
+		public boolean recorrer(Predicate<Vacuna> accion) {
+			Recorrido recorrido = new Recorrido(this.raizCopia);
+			for (List<Vacuna> hoja = recorrido.siguienteHoja(); hoja != null; hoja = recorrido.siguienteHoja()) {
+				for (Vacuna v : hoja) {
+					if (!accion.test(v)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public Iterator<Vacuna> iterator() {
+			Recorrido recorrido = new Recorrido(this.raizCopia);
+			return new Iterator<Vacuna>() {
+				private Iterator<Vacuna> hoja = Collections.emptyIterator();
+
+				@Override
+				public boolean hasNext() {
+					while (!this.hoja.hasNext()) {
+						List<Vacuna> siguiente = recorrido.siguienteHoja();
+						if (siguiente == null) {
+							return false;
+						}
+						this.hoja = siguiente.iterator();
+					}
+					return true;
+				}
+
+				@Override
+				public Vacuna next() {
+					if (!this.hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return this.hoja.next();
+				}
+			};
+		}
+
+		// hojas de un subárbol en orden; de cada página interna se guardan
+		// los hijos para no volver a leerla
+		private final class Recorrido {
+
+			private final int[][] hijos = new int[ALTURA_MAXIMA][];
+			private final int[] siguientes = new int[ALTURA_MAXIMA];
+			private int nivel;
+			private int pagina;
+
+			Recorrido(int pagina) {
+				this.pagina = pagina;
+			}
+
+			// las vacunas de la hoja siguiente, o null al acabar
+			List<Vacuna> siguienteHoja() {
+				while (this.pagina >= 0) {
+					List<Vacuna> hoja = null;
+					cerrojo.lock();
+					try {
+						paginas.empezarOperacion();
+						ByteBuffer b = paginas.leer(this.pagina);
+						if (b.get(TIPO) == HOJA) {
+							hoja = new ArrayList<Vacuna>(numero(b));
+							for (int i = 0; i < numero(b); i++) {
+								hoja.add(materializar(b, registro(b, i), CONTADA));
+							}
+						} else {
+							int[] h = new int[numero(b) + 1];
+							for (int i = 0; i < h.length; i++) {
+								h[i] = hijo(b, i);
+							}
+							this.hijos[this.nivel] = h;
+							this.siguientes[this.nivel] = 1;
+							this.nivel++;
+							this.pagina = h[0];
+						}
+					} finally {
+						cerrojo.unlock();
+					}
+					if (hoja != null) {
+						this.subir();
+						return hoja;
+					}
+				}
+				return null;
+			}
+
+			private void subir() {
+				while (this.nivel > 0 && this.siguientes[this.nivel - 1] == this.hijos[this.nivel - 1].length) {
+					this.nivel--;
+				}
+				this.pagina = (this.nivel == 0) ? -1 : this.hijos[this.nivel - 1][this.siguientes[this.nivel - 1]++];
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Un cambio en un VacAlmacen tal como lo reciben los suscriptores de
+ * FlujoCambios: qué le pasó a qué código y cómo quedó su estado. No lleva la
+ * vacuna, solo lo necesario para saber qué volver a leer.
+ *
+ * @author luPinheiro
+ */
+public final class CambioVacuna {
+
+	public enum Tipo {
+		AGREGADA, ELIMINADA, FASE, AUTORIZADA, RECHAZADA
+	}
+
+	private final long secuencia;
+	private final Tipo tipo;
+	private final String codigo;
+	private final long palabra;
+
+	CambioVacuna(long secuencia, Tipo tipo, String codigo, long palabra) {
+		this.secuencia = secuencia;
+		this.tipo = tipo;
+		this.codigo = codigo;
+		this.palabra = palabra;
+	}
+
+	// tipo de un cambio de estado, igual que en el registro de operaciones
+	static Tipo tipoCambio(long anterior, long nuevo) {
+		if ((nuevo & ~anterior & VacunaAutorizacion.AUTORIZADA) != 0) {
+			return Tipo.AUTORIZADA;
+		}
+		if ((nuevo & ~anterior & VacunaAutorizacion.RECHAZADA) != 0) {
+			return Tipo.RECHAZADA;
+		}
+		return Tipo.FASE;
+	}
+
+	/**
+	 * @return Tipo long - posición del cambio en el flujo; los de un mismo
+	 * código tienen secuencias crecientes en el orden en que se aplicaron
+	 */
+	public long getSecuencia() {
+		return this.secuencia;
+	}
+
+	public Tipo getTipo() {
+		return this.tipo;
+	}
+
+	public String getCodigo() {
+		return this.codigo;
+	}
+
+	// estado después del cambio; en ELIMINADA, el que tenía al eliminarla
+	public EstadoVacuna getEstado() {
+		return VacunaAutorizacion.estado(this.palabra);
+	}
+
+	public int getFasesCompletadas() {
+		return VacunaAutorizacion.fasesCompletadas(this.palabra);
+	}
+
+	@Override
+	public String toString() {
+		return this.secuencia + " " + this.tipo + " " + this.codigo + " " + this.getEstado() + " fases: "
+				+ this.getFasesCompletadas();
+	}
+}
@@ -0,0 +1,26 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Datos de texto de una vacuna por los que se puede buscar.
+ *
+ * @author luPinheiro
+ */
+public enum CampoTexto {
+	NOMBRE, PRINCIPIO_ACTIVO, FARMACEUTICA;
+
+	String de(Vacuna v) {
+		switch (this) {
+		case NOMBRE:
+			return v.getNombre();
+		case PRINCIPIO_ACTIVO:
+			return v.getPrincipioActivo();
+		default:
+			return v.getFarmaceutica();
+		}
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Catálogo de vacunas en un fichero binario de registros de tamaño fijo que
+ * se abre con FileChannel.map, así arrancar no obliga a crear ningún objeto.
+ *
+ * Formato (big endian):
+ * - cabecera de 64 bytes: magia, versión, número de registros, número de
+ *   autorizadas, rechazadas y pendientes, y posición y tamaño de la tabla de
+ *   textos.
+ * - registros de 40 bytes ordenados por código: código en 8 bytes ASCII
+ *   rellenos con ceros, posición en la tabla de textos del nombre, principio
+ *   activo y farmacéutica (-1 si es null), bits de fases y estado de
+ *   VacunaAutorizacion, precio, día epoch de fechaResultado y 4 bytes libres.
+ * - posiciones de los registros autorizados, rechazados y pendientes (int).
+ * - tabla de textos: cada texto distinto una sola vez, [longitud][UTF-8].
+ *
+ * @author luPinheiro
+ */
+public class CatalogoBinario {
+
+	private static final int MAGIA = 0x56434154; // "VCAT"
+	private static final int VERSION = 1;
+	private static final int TAMANO_CABECERA = 64;
+	private static final int TAMANO_REGISTRO = 40;
+
+	private static final int POS_NOMBRE = 8;
+	private static final int POS_PRINCIPIO = 12;
+	private static final int POS_FARMACEUTICA = 16;
+	private static final int POS_ESTADO = 20;
+	private static final int POS_PRECIO = 24;
+	private static final int POS_FECHA = 32;
+
+	private final ByteBuffer datos;
+	private final int numeroRegistros;
+	private final int[] inicioEstado = new int[EstadoVacuna.values().length];
+	private final int[] numeroEstado = new int[EstadoVacuna.values().length];
+	private final int inicioTextos;
+	// cada texto se decodifica una vez y se comparte entre las vacunas
+	private final ConcurrentHashMap<Integer, String> textos = new ConcurrentHashMap<Integer, String>();
+
+	private CatalogoBinario(ByteBuffer datos) throws IOException {
+		this.datos = datos;
+		if (datos.capacity() < TAMANO_CABECERA || datos.getInt(0) != MAGIA || datos.getInt(4) != VERSION) {
+			throw new IOException("El fichero no es un catálogo de vacunas");
+		}
+		this.numeroRegistros = datos.getInt(8);
+		int inicio = TAMANO_CABECERA + this.numeroRegistros * TAMANO_REGISTRO;
+		for (EstadoVacuna estado : EstadoVacuna.values()) {
+			this.numeroEstado[estado.ordinal()] = datos.getInt(12 + 4 * estado.ordinal());
+			this.inicioEstado[estado.ordinal()] = inicio;
+			inicio += 4 * this.numeroEstado[estado.ordinal()];
+		}
+		this.inicioTextos = (int) datos.getLong(24);
+		if (this.inicioTextos != inicio || this.inicioTextos + datos.getLong(32) != datos.capacity()) {
+			throw new IOException("Catálogo de vacunas dañado");
+		}
+	}
+
+	/**
+	 * Abre un catálogo proyectándolo en memoria; no lee los registros.
+	 */
+	public static CatalogoBinario abrir(Path fichero) throws IOException {
+		try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+			if (canal.size() > Integer.MAX_VALUE) {
+				throw new IOException("Catálogo demasiado grande para proyectarlo: " + fichero);
+			}
+			MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+			return new CatalogoBinario(mapa);
+		}
+	}
+
+	/**
+	 * Escribe las vacunas en un fichero de catálogo. Los códigos tienen que ser
+	 * ASCII de 8 caracteres como mucho, como los que acepta la aplicación.
+	 */
+	public static void escribir(Iterable<Vacuna> vacunas, Path fichero) throws IOException {
+		List<Vacuna> ordenadas = new ArrayList<Vacuna>();
+		for (Vacuna v : vacunas) {
+			ordenadas.add(v);
+		}
+		long[] claves = new long[ordenadas.size()];
+		// con códigos ASCII el orden de String es el mismo que el de las claves
+		ordenadas.sort(Comparator.comparing(Vacuna::getCodigo));
+
+		ByteArrayOutputStream tablaTextos = new ByteArrayOutputStream();
+		DataOutputStream salidaTextos = new DataOutputStream(tablaTextos);
+		HashMap<String, Integer> posicionTextos = new HashMap<String, Integer>();
+		List<List<Integer>> porEstado = new ArrayList<List<Integer>>();
+		for (int i = 0; i < EstadoVacuna.values().length; i++) {
+			porEstado.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < ordenadas.size(); i++) {
+			claves[i] = CodigoVacuna.empaquetar(ordenadas.get(i).getCodigo());
+			if (i > 0 && claves[i] == claves[i - 1]) {
+				throw new IllegalArgumentException("Código repetido: " + ordenadas.get(i).getCodigo());
+			}
+			porEstado.get(ordenadas.get(i).getEstado().ordinal()).add(i);
+		}
+
+		Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+		try (OutputStream fich = Files.newOutputStream(temporal)) {
+			DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(fich, 64 * 1024));
+			ByteBuffer registros = ByteBuffer.allocate(ordenadas.size() * TAMANO_REGISTRO);
+			for (int i = 0; i < ordenadas.size(); i++) {
+				Vacuna v = ordenadas.get(i);
+				long estado = v.getPalabraEstado();
+				registros.putLong(claves[i]);
+				registros.putInt(posicionTexto(v.getNombre(), posicionTextos, salidaTextos));
+				registros.putInt(posicionTexto(v.getPrincipioActivo(), posicionTextos, salidaTextos));
+				registros.putInt(posicionTexto(v.getFarmaceutica(), posicionTextos, salidaTextos));
+				registros.putInt((int) estado);
+				registros.putDouble(v.getPrecioRecomendado());
+				registros.putInt((int) (estado >> VacunaAutorizacion.DESPLAZAMIENTO_FECHA));
+				registros.putInt(0);
+			}
+
+			int inicioTextos = TAMANO_CABECERA + ordenadas.size() * (TAMANO_REGISTRO + 4);
+			salida.writeInt(MAGIA);
+			salida.writeInt(VERSION);
+			salida.writeInt(ordenadas.size());
+			for (List<Integer> posiciones : porEstado) {
+				salida.writeInt(posiciones.size());
+			}
+			salida.writeLong(inicioTextos);
+			salida.writeLong(tablaTextos.size());
+			salida.write(new byte[TAMANO_CABECERA - 40]);
+			salida.write(registros.array());
+			for (List<Integer> posiciones : porEstado) {
+				for (int posicion : posiciones) {
+					salida.writeInt(posicion);
+				}
+			}
+			tablaTextos.writeTo(salida);
+			salida.flush();
+		}
+		Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static int posicionTexto(String texto, HashMap<String, Integer> posiciones, DataOutputStream tabla)
+			throws IOException {
+		if (texto == null) {
+			return -1;
+		}
+		Integer posicion = posiciones.get(texto);
+		if (posicion == null) {
+			posicion = tabla.size();
+			byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+			tabla.writeInt(bytes.length);
+			tabla.write(bytes);
+			posiciones.put(texto, posicion);
+		}
+		return posicion;
+	}
+
+	public int getNumeroRegistros() {
+		return this.numeroRegistros;
+	}
+
+	/**
+	 * @return Tipo int - posición del registro con ese código, o -1
+	 */
+	public int buscar(String codigo) {
+		long buscada = CodigoVacuna.empaquetarSiCabe(codigo);
+		if (buscada == 0) {
+			return -1;
+		}
+		int bajo = 0;
+		int alto = this.numeroRegistros - 1;
+		while (bajo <= alto) {
+			int medio = (bajo + alto) >>> 1;
+			int comparacion = Long.compareUnsigned(this.datos.getLong(posicion(medio)), buscada);
+			if (comparacion < 0) {
+				bajo = medio + 1;
+			} else if (comparacion > 0) {
+				alto = medio - 1;
+			} else {
+				return medio;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param codigo Tipo String - código desde el que se busca
+	 * @param incluido Tipo boolean - si un registro con ese mismo código vale
+	 * @return Tipo int - posición del primer registro con un código mayor (o
+	 * igual, si incluido) que codigo; getNumeroRegistros() si no hay ninguno
+	 */
+	public int primeroDesde(String codigo, boolean incluido) {
+		long buscada = CodigoVacuna.empaquetarSiCabe(codigo);
+		int bajo = 0;
+		int alto = this.numeroRegistros;
+		while (bajo < alto) {
+			int medio = (bajo + alto) >>> 1;
+			// los códigos empaquetados se ordenan igual que los String; si no
+			// cabe en un long se compara el texto
+			int comparacion = buscada != 0
+					? Long.compareUnsigned(this.datos.getLong(posicion(medio)), buscada)
+					: this.getCodigo(medio).compareTo(codigo);
+			if (comparacion < 0 || (comparacion == 0 && !incluido)) {
+				bajo = medio + 1;
+			} else {
+				alto = medio;
+			}
+		}
+		return bajo;
+	}
+
+	public String getCodigo(int registro) {
+		return CodigoVacuna.desempaquetar(this.datos.getLong(posicion(registro)));
+	}
+
+	public EstadoVacuna getEstado(int registro) {
+		return VacunaAutorizacion.estado(this.palabraEstado(registro));
+	}
+
+	int getNumeroEnEstado(EstadoVacuna estado) {
+		return this.numeroEstado[estado.ordinal()];
+	}
+
+	// posición del n-ésimo registro que estaba en ese estado al escribir el fichero
+	int getRegistroEnEstado(EstadoVacuna estado, int n) {
+		return this.datos.getInt(this.inicioEstado[estado.ordinal()] + 4 * n);
+	}
+
+	/**
+	 * Crea el objeto Vacuna de un registro; solo se llama cuando alguien lo
+	 * necesita de verdad.
+	 */
+	public Vacuna materializar(int registro) {
+		int base = posicion(registro);
+		Vacuna v = new Vacuna(this.getCodigo(registro), this.texto(this.datos.getInt(base + POS_NOMBRE)),
+				this.texto(this.datos.getInt(base + POS_PRINCIPIO)),
+				this.texto(this.datos.getInt(base + POS_FARMACEUTICA)), this.datos.getDouble(base + POS_PRECIO));
+		v.restaurarEstado(this.palabraEstado(registro));
+		return v;
+	}
+
+	// un dato de texto sin materializar la vacuna; un mismo texto es siempre
+	// el mismo String
+	String getTexto(int registro, CampoTexto campo) {
+		int desplazamiento;
+		switch (campo) {
+		case NOMBRE:
+			desplazamiento = POS_NOMBRE;
+			break;
+		case PRINCIPIO_ACTIVO:
+			desplazamiento = POS_PRINCIPIO;
+			break;
+		default:
+			desplazamiento = POS_FARMACEUTICA;
+		}
+		return this.texto(this.datos.getInt(posicion(registro) + desplazamiento));
+	}
+
+	double getPrecio(int registro) {
+		return this.datos.getDouble(posicion(registro) + POS_PRECIO);
+	}
+
+	long palabraEstado(int registro) {
+		int base = posicion(registro);
+		long bits = this.datos.getInt(base + POS_ESTADO) & 0xFFFFFFFFL;
+		return bits | ((long) this.datos.getInt(base + POS_FECHA) << VacunaAutorizacion.DESPLAZAMIENTO_FECHA);
+	}
+
+	private static int posicion(int registro) {
+		return TAMANO_CABECERA + registro * TAMANO_REGISTRO;
+	}
+
+	private String texto(int posicion) {
+		if (posicion < 0) {
+			return null;
+		}
+		return this.textos.computeIfAbsent(posicion, p -> {
+			int inicio = this.inicioTextos + p;
+			byte[] bytes = new byte[this.datos.getInt(inicio)];
+			// duplicate() para no mover la posición compartida entre hilos
+			ByteBuffer lectura = this.datos.duplicate();
+			lectura.position(inicio + 4);
+			lectura.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		});
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Reglas del código de una vacuna:
+ * - Comienza por la letra V seguida de una vocal en mayúsculas.
+ * - A continuación, tres o cuatro letras minúsculas.
+ * - Finaliza, o con dos números del 4 al 7, o bien con el número 8.
+ *
+ * La comprobación recorre el texto una sola vez y no crea ningún objeto, así
+ * que se puede usar desde cualquier hilo tantas veces como haga falta.
+ *
+ * @author luPinheiro
+ */
+public final class CodigoVacuna {
+
+	public static final int LONGITUD_MINIMA = 6; // V + vocal + 3 letras + 8
+	public static final int LONGITUD_MAXIMA = 8; // V + vocal + 4 letras + 2 números
+
+	private CodigoVacuna() {
+	}
+
+	/**
+	 * @param codigo Tipo CharSequence - texto a comprobar (String,
+	 * StringBuilder, CharBuffer...)
+	 * @return Tipo boolean - true si es un código de vacuna válido
+	 */
+	public static boolean esValido(CharSequence codigo) {
+		if (codigo == null) {
+			return false;
+		}
+		int longitud = codigo.length();
+		if (longitud < LONGITUD_MINIMA || longitud > LONGITUD_MAXIMA) {
+			return false;
+		}
+		if (codigo.charAt(0) != 'V' || !esVocalMayuscula(codigo.charAt(1))) {
+			return false;
+		}
+		// las letras nunca son números, así que basta con avanzar mientras haya
+		// minúsculas (como mucho cuatro) y mirar lo que queda
+		int i = 2;
+		while (i < 6 && i < longitud && esMinuscula(codigo.charAt(i))) {
+			i++;
+		}
+		if (i < 5) {
+			return false;
+		}
+		switch (longitud - i) {
+		case 1:
+			return codigo.charAt(i) == '8';
+		case 2:
+			return esNumeroCuatroASiete(codigo.charAt(i)) && esNumeroCuatroASiete(codigo.charAt(i + 1));
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Empaqueta un código de hasta 8 caracteres ASCII en un long: un byte por
+	 * carácter, alineado a la izquierda y relleno con ceros. Todos los códigos
+	 * válidos caben sin perder nada, ninguno da 0, y comparar los long sin
+	 * signo ordena igual que comparar los códigos.
+	 *
+	 * @param codigo Tipo CharSequence - código de 1 a 8 caracteres ASCII
+	 * @return Tipo long - código empaquetado
+	 */
+	public static long empaquetar(CharSequence codigo) {
+		long clave = empaquetarSiCabe(codigo);
+		if (clave == 0) {
+			throw new IllegalArgumentException("El código no cabe en 8 caracteres ASCII: " + codigo);
+		}
+		return clave;
+	}
+
+	// como empaquetar, pero devuelve 0 en vez de lanzar una excepción
+	static long empaquetarSiCabe(CharSequence codigo) {
+		if (codigo == null || codigo.length() == 0 || codigo.length() > LONGITUD_MAXIMA) {
+			return 0;
+		}
+		long clave = 0;
+		for (int i = 0; i < LONGITUD_MAXIMA; i++) {
+			int c = 0;
+			if (i < codigo.length()) {
+				c = codigo.charAt(i);
+				if (c == 0 || c > 0x7F) {
+					return 0;
+				}
+			}
+			clave = (clave << 8) | c;
+		}
+		return clave;
+	}
+
+	public static String desempaquetar(long clave) {
+		char[] letras = new char[LONGITUD_MAXIMA];
+		int longitud = 0;
+		for (int desplazamiento = 56; desplazamiento >= 0 && ((clave >>> desplazamiento) & 0xFF) != 0; desplazamiento -= 8) {
+			letras[longitud++] = (char) ((clave >>> desplazamiento) & 0xFF);
+		}
+		return new String(letras, 0, longitud);
+	}
+
+	private static boolean esVocalMayuscula(char c) {
+		return c == 'A' || c == 'E' || c == 'I' || c == 'O' || c == 'U';
+	}
+
+	private static boolean esMinuscula(char c) {
+		return c >= 'a' && c <= 'z';
+	}
+
+	private static boolean esNumeroCuatroASiete(char c) {
+		return c >= '4' && c <= '7';
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Colección que lee de un CatalogoBinario proyectado en memoria. Las vacunas
+ * del catálogo se materializan la primera vez que se piden y desde entonces
+ * viven en un mapa normal, igual que las que se agregan después; las que se
+ * eliminan o sustituyen quedan ocultas en el catálogo.
+ *
+ * @author luPinheiro
+ */
+class ColeccionCatalogo implements IColeccionVacunas {
+
+	private final CatalogoBinario catalogo;
+	private final ConcurrentHashMap<String, Vacuna> materializadas = new ConcurrentHashMap<String, Vacuna>();
+	// códigos del catálogo que ya no se leen de él
+	private final Set<String> ocultas = ConcurrentHashMap.newKeySet();
+	// términos de los textos del catálogo por número de registro; se crea con
+	// la primera búsqueda de texto
+	private volatile IndiceTexto<Integer> indiceTexto;
+	// recuentos de lo que sigue visible en el catálogo; se crean la primera
+	// vez que se piden y se protegen con this
+	private EstadisticasVacunas estadisticas;
+
+	ColeccionCatalogo(CatalogoBinario catalogo) {
+		this.catalogo = catalogo;
+	}
+
+	// compute bloquea solo la entrada del código, así materializar, ocultar
+	// y quitar una misma vacuna del catálogo no se pisan entre hilos
+	@Override
+	public Vacuna obtener(String codigo) {
+		Vacuna v = this.materializadas.get(codigo);
+		if (v != null || this.ocultas.contains(codigo)) {
+			return v;
+		}
+		return this.materializadas.compute(codigo, (clave, actual) -> {
+			if (actual == null) {
+				actual = this.sacarDelCatalogo(clave);
+			}
+			return actual;
+		});
+	}
+
+	@Override
+	public Vacuna guardar(Vacuna v) {
+		Vacuna[] anterior = new Vacuna[1];
+		this.materializadas.compute(v.getCodigo(), (clave, actual) -> {
+			anterior[0] = (actual != null) ? actual : this.sacarDelCatalogo(clave);
+			return v;
+		});
+		return anterior[0];
+	}
+
+	@Override
+	public Vacuna quitar(String codigo) {
+		Vacuna[] anterior = new Vacuna[1];
+		this.materializadas.compute(codigo, (clave, actual) -> {
+			anterior[0] = (actual != null) ? actual : this.sacarDelCatalogo(clave);
+			return null;
+		});
+		return anterior[0];
+	}
+
+	// materializa la vacuna del catálogo, si sigue visible, y la oculta en él
+	private Vacuna sacarDelCatalogo(String codigo) {
+		if (this.ocultas.contains(codigo)) {
+			return null;
+		}
+		int registro = this.catalogo.buscar(codigo);
+		if (registro < 0) {
+			return null;
+		}
+		Vacuna v = this.catalogo.materializar(registro);
+		synchronized (this) {
+			this.ocultas.add(codigo);
+			if (this.estadisticas != null) {
+				this.estadisticas.contar(v, v.getPalabraEstado(), -1);
+			}
+		}
+		return v;
+	}
+
+	@Override
+	public CatalogoBinario catalogo() {
+		return this.catalogo;
+	}
+
+	@Override
+	public synchronized EstadisticasVacunas estadisticasPropias() {
+		if (this.estadisticas == null) {
+			EstadisticasVacunas recuentos = new EstadisticasVacunas();
+			for (int r = 0; r < this.catalogo.getNumeroRegistros(); r++) {
+				if (!this.ocultas.contains(this.catalogo.getCodigo(r))) {
+					recuentos.contarEstado(this.catalogo.palabraEstado(r), 1);
+					recuentos.contarPrecio(this.catalogo.getTexto(r, CampoTexto.FARMACEUTICA), this.catalogo.getPrecio(r), 1);
+				}
+			}
+			this.estadisticas = recuentos;
+		}
+		return this.estadisticas;
+	}
+
+	@Override
+	public int tamano() {
+		// ocultas solo tiene códigos del catálogo, estén o no materializados
+		return this.catalogo.getNumeroRegistros() - this.ocultas.size() + this.materializadas.size();
+	}
+
+	@Override
+	public boolean estaVacia() {
+		return this.tamano() == 0;
+	}
+
+	@Override
+	public void recorrerEstadoPropio(EstadoVacuna estado, Predicate<Vacuna> accion) {
+		for (int i = 0; i < this.catalogo.getNumeroEnEstado(estado); i++) {
+			int registro = this.catalogo.getRegistroEnEstado(estado, i);
+			if (!this.ocultas.contains(this.catalogo.getCodigo(registro))) {
+				// copia solo para consultar, no se guarda
+				if (!accion.test(this.catalogo.materializar(registro))) {
+					return;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void recorrerPropiasConTexto(List<String> terminos, Set<CampoTexto> campos, boolean todos,
+			Predicate<Vacuna> accion) {
+		for (int registro : this.indiceTexto().buscar(terminos, campos, todos)) {
+			if (!this.ocultas.contains(this.catalogo.getCodigo(registro))) {
+				if (!accion.test(this.catalogo.materializar(registro))) {
+					return;
+				}
+			}
+		}
+	}
+
+	private IndiceTexto<Integer> indiceTexto() {
+		IndiceTexto<Integer> indice = this.indiceTexto;
+		if (indice == null) {
+			synchronized (this) {
+				indice = this.indiceTexto;
+				if (indice == null) {
+					indice = new IndiceTexto<Integer>(false);
+					// los textos del catálogo se repiten mucho (farmacéuticas,
+					// principios activos) y cada uno es un único String: se
+					// parte en términos una sola vez
+					IdentityHashMap<String, List<String>> partidos = new IdentityHashMap<String, List<String>>();
+					for (int r = 0; r < this.catalogo.getNumeroRegistros(); r++) {
+						for (CampoTexto campo : CampoTexto.values()) {
+							String texto = this.catalogo.getTexto(r, campo);
+							if (texto != null) {
+								indice.agregar(r, campo, partidos.computeIfAbsent(texto, IndiceTexto::terminos));
+							}
+						}
+					}
+					this.indiceTexto = indice;
+				}
+			}
+		}
+		return indice;
+	}
+
+	// el catálogo ya está ordenado por código
+	@Override
+	public Iterator<Vacuna> propiasEnOrden(String desde, boolean incluido) {
+		return new Iterator<Vacuna>() {
+			private int registro = (desde == null) ? 0 : catalogo.primeroDesde(desde, incluido);
+			private Vacuna siguiente = this.avanzar();
+
+			private Vacuna avanzar() {
+				while (this.registro < catalogo.getNumeroRegistros()) {
+					int r = this.registro++;
+					if (!ocultas.contains(catalogo.getCodigo(r))) {
+						return catalogo.materializar(r);
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.siguiente != null;
+			}
+
+			@Override
+			public Vacuna next() {
+				if (this.siguiente == null) {
+					throw new NoSuchElementException();
+				}
+				Vacuna v = this.siguiente;
+				this.siguiente = this.avanzar();
+				return v;
+			}
+		};
+	}
+
+	// las materializadas y después las del catálogo que siguen visibles
+	@Override
+	public Iterable<Vacuna> vacunas() {
+		return () -> new Iterator<Vacuna>() {
+			private final Iterator<Vacuna> enMapa = materializadas.values().iterator();
+			private int registro = 0;
+			private Vacuna siguiente = this.avanzar();
+
+			private Vacuna avanzar() {
+				if (this.enMapa.hasNext()) {
+					return this.enMapa.next();
+				}
+				while (this.registro < catalogo.getNumeroRegistros()) {
+					int r = this.registro++;
+					if (!ocultas.contains(catalogo.getCodigo(r))) {
+						return catalogo.materializar(r);
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.siguiente != null;
+			}
+
+			@Override
+			public Vacuna next() {
+				if (this.siguiente == null) {
+					throw new NoSuchElementException();
+				}
+				Vacuna v = this.siguiente;
+				this.siguiente = this.avanzar();
+				return v;
+			}
+		};
+	}
+}
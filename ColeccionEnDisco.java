@@ -0,0 +1,223 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Colección que guarda las vacunas en un ArbolEnDisco. Como
+ * ColeccionFueraHeap, no se queda con las que recibe: copia sus datos a un
+ * registro y devuelve vistas (VacunaEnDisco) ya vinculadas al almacén, sin
+ * índices en VacAlmacen. El orden de código es el del árbol; los listados por
+ * estado y las búsquedas de texto recorren una copia del árbol y se quedan con
+ * las que siguen cumpliendo. Las instantáneas son esas copias.
+ *
+ * @author luPinheiro
+ */
+class ColeccionEnDisco implements IColeccionVacunas {
+
+	// códigos que se piden al árbol de cada vez al recorrerlo en orden
+	private static final int LOTE = 256;
+
+	private final ArbolEnDisco arbol;
+	private volatile IObservadorVacuna observador;
+	// débil: mientras alguien tenga una instantánea el árbol guarda sus
+	// páginas
+	private volatile WeakReference<InstantaneaAlmacen> instantanea = new WeakReference<InstantaneaAlmacen>(null);
+
+	ColeccionEnDisco(Path fichero, int paginasEnMemoria) throws IOException {
+		this(fichero, paginasEnMemoria, true);
+	}
+
+	/**
+	 * @param deTrabajo Tipo boolean - false para conservar el fichero y volver
+	 * a abrirlo con lo que tenía al cerrar()
+	 */
+	ColeccionEnDisco(Path fichero, int paginasEnMemoria, boolean deTrabajo) throws IOException {
+		this.arbol = new ArbolEnDisco(fichero, paginasEnMemoria, deTrabajo);
+	}
+
+	@Override
+	public void cerrar() throws IOException {
+		this.arbol.cerrar();
+	}
+
+	@Override
+	public boolean guardaPropias() {
+		return true;
+	}
+
+	@Override
+	public void vincular(IObservadorVacuna observador) {
+		this.observador = observador;
+	}
+
+	@Override
+	public Vacuna obtener(String codigo) {
+		return this.conObservador(this.arbol.vista(codigo));
+	}
+
+	@Override
+	public boolean contiene(Vacuna v) {
+		return v instanceof VacunaEnDisco && ((VacunaEnDisco) v).esDe(this.arbol);
+	}
+
+	// la que había sale con el observador del almacén, que la tenía contada:
+	// así desindexar la descuenta
+	@Override
+	public Vacuna guardar(Vacuna v) {
+		return this.conObservador(this.arbol.guardar(v));
+	}
+
+	@Override
+	public Vacuna quitar(String codigo) {
+		return this.conObservador(this.arbol.quitar(codigo));
+	}
+
+	private Vacuna conObservador(Vacuna v) {
+		if (v != null) {
+			v.setObservador(this.observador);
+		}
+		return v;
+	}
+
+	@Override
+	public int tamano() {
+		return this.arbol.tamano();
+	}
+
+	@Override
+	public boolean estaVacia() {
+		return this.arbol.tamano() == 0;
+	}
+
+	// las que están al empezar, como vistas; las que se eliminan mientras
+	// tanto no salen
+	@Override
+	public Iterable<Vacuna> vacunas() {
+		return () -> {
+			Iterator<Vacuna> copias = this.arbol.copiar().iterator();
+			return this.vistas(new Iterator<String>() {
+				@Override
+				public boolean hasNext() {
+					return copias.hasNext();
+				}
+
+				@Override
+				public String next() {
+					return copias.next().getCodigo();
+				}
+			}, v -> true);
+		};
+	}
+
+	// vistas de las vacunas de esos códigos que siguen estando y cumplen la
+	// condición
+	private Iterator<Vacuna> vistas(Iterator<String> codigos, Predicate<Vacuna> condicion) {
+		return new Iterator<Vacuna>() {
+			private Vacuna siguiente = this.avanzar();
+
+			private Vacuna avanzar() {
+				while (codigos.hasNext()) {
+					Vacuna v = obtener(codigos.next());
+					if (v != null && condicion.test(v)) {
+						return v;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.siguiente != null;
+			}
+
+			@Override
+			public Vacuna next() {
+				if (this.siguiente == null) {
+					throw new NoSuchElementException();
+				}
+				Vacuna v = this.siguiente;
+				this.siguiente = this.avanzar();
+				return v;
+			}
+		};
+	}
+
+	// por el estado contado, como los índices de VacAlmacen
+	@Override
+	public void recorrerEstadoPropio(EstadoVacuna estado, Predicate<Vacuna> accion) {
+		this.recorrer(c -> VacunaAutorizacion.estado(c.getPalabraEstado()) == estado,
+				v -> VacunaAutorizacion.estado(v.getPalabraContada()) == estado, accion);
+	}
+
+	@Override
+	public void recorrerPropiasConTexto(List<String> terminos, Set<CampoTexto> campos, boolean todos,
+			Predicate<Vacuna> accion) {
+		Predicate<Vacuna> cumple = v -> IndiceTexto.cumple(v, terminos, campos, todos);
+		this.recorrer(cumple, cumple, accion);
+	}
+
+	// las copias de la instantánea tienen como estado el contado; la
+	// condición se vuelve a mirar en la vista, que puede haber cambiado
+	private void recorrer(Predicate<Vacuna> enLaCopia, Predicate<Vacuna> enLaVista, Predicate<Vacuna> accion) {
+		for (Vacuna c : this.arbol.copiar()) {
+			if (enLaCopia.test(c)) {
+				Vacuna v = this.obtener(c.getCodigo());
+				if (v != null && enLaVista.test(v) && !accion.test(v)) {
+					return;
+				}
+			}
+		}
+	}
+
+	@Override
+	public Iterator<Vacuna> propiasEnOrden(String desde, boolean incluido) {
+		long clave = (desde == null) ? 0 : CodigoVacuna.empaquetarSiCabe(desde);
+		// un desde que no es un código: se recorre desde el principio
+		return this.vistas(new Iterator<String>() {
+			private long[] lote = arbol.siguientes(clave, desde == null || incluido, LOTE);
+			private int i;
+
+			@Override
+			public boolean hasNext() {
+				if (this.i == this.lote.length && this.lote.length == LOTE) {
+					this.lote = arbol.siguientes(this.lote[LOTE - 1], false, LOTE);
+					this.i = 0;
+				}
+				return this.i < this.lote.length;
+			}
+
+			@Override
+			public String next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return CodigoVacuna.desempaquetar(this.lote[this.i++]);
+			}
+		}, v -> clave != 0 || desde == null || (incluido ? v.getCodigo().compareTo(desde) >= 0
+				: v.getCodigo().compareTo(desde) > 0));
+	}
+
+	// la misma mientras no cambie nada y alguien la tenga
+	@Override
+	public InstantaneaAlmacen instantanea() {
+		ArbolEnDisco.Copia copia = this.arbol.copiar();
+		InstantaneaAlmacen i = this.instantanea.get();
+		if (i == null || i.getVersion() != copia.getVersion()) {
+			i = InstantaneaAlmacen.de(copia);
+			this.instantanea = new WeakReference<InstantaneaAlmacen>(i);
+		}
+		return i;
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Colección que guarda las vacunas en RegistrosFueraHeap. No se queda con las
+ * que recibe: copia sus datos a un registro y devuelve vistas
+ * (VacunaFueraHeap) que leen y escriben ahí, ya vinculadas al almacén. Como
+ * no hay objetos que indexar, VacAlmacen no tiene índices de estado, de
+ * código ni de texto para ellas: los listados por estado y las búsquedas de
+ * texto recorren una copia de los registros, y el orden de código lo lleva
+ * RegistrosFueraHeap. Las instantáneas son esas mismas copias.
+ *
+ * @author luPinheiro
+ */
+class ColeccionFueraHeap implements IColeccionVacunas {
+
+	private final RegistrosFueraHeap registros = new RegistrosFueraHeap();
+	private volatile IObservadorVacuna observador;
+	private volatile InstantaneaAlmacen instantanea;
+
+	@Override
+	public boolean guardaPropias() {
+		return true;
+	}
+
+	@Override
+	public void vincular(IObservadorVacuna observador) {
+		this.observador = observador;
+	}
+
+	@Override
+	public Vacuna obtener(String codigo) {
+		return this.conObservador(this.registros.vista(codigo));
+	}
+
+	@Override
+	public boolean contiene(Vacuna v) {
+		return v instanceof VacunaFueraHeap && ((VacunaFueraHeap) v).esDe(this.registros);
+	}
+
+	// la que había sale con el observador del almacén, que la tenía contada:
+	// así desindexar la descuenta
+	@Override
+	public Vacuna guardar(Vacuna v) {
+		return this.conObservador(this.registros.guardar(v));
+	}
+
+	@Override
+	public Vacuna quitar(String codigo) {
+		return this.conObservador(this.registros.quitar(codigo));
+	}
+
+	private Vacuna conObservador(Vacuna v) {
+		if (v != null) {
+			v.setObservador(this.observador);
+		}
+		return v;
+	}
+
+	@Override
+	public int tamano() {
+		return this.registros.tamano();
+	}
+
+	@Override
+	public boolean estaVacia() {
+		return this.registros.tamano() == 0;
+	}
+
+	// vista de lo que está en el hueco de la copia, si sigue ahí
+	private Vacuna vista(RegistrosFueraHeap.Copia copia, int hueco) {
+		VacunaFueraHeap v = copia.vista(this.registros, hueco);
+		return v.esDe(this.registros) ? this.conObservador(v) : null;
+	}
+
+	// las que están al empezar, como vistas; las que se eliminan mientras
+	// tanto no salen
+	@Override
+	public Iterable<Vacuna> vacunas() {
+		return () -> new Iterator<Vacuna>() {
+			private final RegistrosFueraHeap.Copia copia = registros.copiar();
+			private final PrimitiveIterator.OfInt huecos = this.copia.huecos();
+			private Vacuna siguiente = this.avanzar();
+
+			private Vacuna avanzar() {
+				while (this.huecos.hasNext()) {
+					Vacuna v = vista(this.copia, this.huecos.nextInt());
+					if (v != null) {
+						return v;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.siguiente != null;
+			}
+
+			@Override
+			public Vacuna next() {
+				if (this.siguiente == null) {
+					throw new NoSuchElementException();
+				}
+				Vacuna v = this.siguiente;
+				this.siguiente = this.avanzar();
+				return v;
+			}
+		};
+	}
+
+	// por el estado contado, como los índices de VacAlmacen
+	@Override
+	public void recorrerEstadoPropio(EstadoVacuna estado, Predicate<Vacuna> accion) {
+		RegistrosFueraHeap.Copia copia = this.registros.copiar();
+		for (PrimitiveIterator.OfInt huecos = copia.huecos(); huecos.hasNext();) {
+			int hueco = huecos.nextInt();
+			if (VacunaAutorizacion.estado(copia.leer(hueco, RegistrosFueraHeap.CONTADA)) == estado) {
+				Vacuna v = this.vista(copia, hueco);
+				if (v != null && !accion.test(v)) {
+					return;
+				}
+			}
+		}
+	}
+
+	@Override
+	public Iterator<Vacuna> propiasEnOrden(String desde, boolean incluido) {
+		PrimitiveIterator.OfLong codigos = this.registros.codigosEnOrden(desde, incluido);
+		return new Iterator<Vacuna>() {
+			private Vacuna siguiente = this.avanzar();
+
+			private Vacuna avanzar() {
+				while (codigos.hasNext()) {
+					Vacuna v = obtener(CodigoVacuna.desempaquetar(codigos.nextLong()));
+					if (v != null) {
+						return v;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.siguiente != null;
+			}
+
+			@Override
+			public Vacuna next() {
+				if (this.siguiente == null) {
+					throw new NoSuchElementException();
+				}
+				Vacuna v = this.siguiente;
+				this.siguiente = this.avanzar();
+				return v;
+			}
+		};
+	}
+
+	@Override
+	public void recorrerPropiasConTexto(List<String> terminos, Set<CampoTexto> campos, boolean todos,
+			Predicate<Vacuna> accion) {
+		RegistrosFueraHeap.Copia copia = this.registros.copiar();
+		for (PrimitiveIterator.OfInt huecos = copia.huecos(); huecos.hasNext();) {
+			int hueco = huecos.nextInt();
+			if (IndiceTexto.cumple(copia.materializar(hueco), terminos, campos, todos)) {
+				Vacuna v = this.vista(copia, hueco);
+				if (v != null && !accion.test(v)) {
+					return;
+				}
+			}
+		}
+	}
+
+	// la misma mientras no cambie nada
+	@Override
+	public InstantaneaAlmacen instantanea() {
+		RegistrosFueraHeap.Copia copia = this.registros.copiar();
+		InstantaneaAlmacen i = this.instantanea;
+		if (i == null || i.getVersion() != copia.getVersion()) {
+			i = InstantaneaAlmacen.de(copia);
+			this.instantanea = i;
+		}
+		return i;
+	}
+}
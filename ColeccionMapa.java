@@ -0,0 +1,59 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Colección en un mapa de Java: HashMap, o ConcurrentHashMap en los almacenes
+ * concurrentes.
+ *
+ * @author luPinheiro
+ */
+class ColeccionMapa implements IColeccionVacunas {
+                          //clave, valor
+	private final Map<String, Vacuna> mapa;
+
+	ColeccionMapa(boolean concurrente) {
+		if (concurrente) {
+			this.mapa = new ConcurrentHashMap<String, Vacuna>();
+		} else {
+			this.mapa = new HashMap<String, Vacuna>();
+		}
+	}
+
+	@Override
+	public Vacuna obtener(String codigo) {
+		return this.mapa.get(codigo);
+	}
+
+	@Override
+	public Vacuna guardar(Vacuna v) {
+		return this.mapa.put(v.getCodigo(), v);
+	}
+
+	@Override
+	public Vacuna quitar(String codigo) {
+		return this.mapa.remove(codigo);
+	}
+
+	@Override
+	public int tamano() {
+		return this.mapa.size();
+	}
+
+	@Override
+	public boolean estaVacia() {
+		return this.mapa.isEmpty();
+	}
+
+	@Override
+	public Iterable<Vacuna> vacunas() {
+		return this.mapa.values();
+	}
+}
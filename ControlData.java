@@ -5,7 +5,8 @@
  */
 package gal.teis.vacunas;
 
-import java.util.Scanner;
+import java.io.IOException;
+import java.util.NoSuchElementException;
 
 /**
  *
@@ -31,255 +32,170 @@ public class ControlData {
     }
 
     /**
-     * Controla a introdución correcta dunha variable tipo byte utilizando unha
-     * variable Scanner que se pasa por parámetro
+     * Lee un byte con un LectorEntrada, sin expresiones regulares ni
+     * excepciones para las entradas no válidas: se avisa y se lee la palabra
+     * siguiente. El teclado y los guiones se leen igual, con estos métodos
      *
-     * @param sc Tipo Scanner
-     * @return Tipo byte - valor de tipo byte introducido por teclado
+     * @param entrada Tipo LectorEntrada
+     * @return Tipo byte - valor de tipo byte leído
+     * @throws IOException si falla la lectura
+     * @throws NoSuchElementException si se acaba la entrada
      */
-    public static byte leerByte(Scanner sc) {
-
-        byte valor = 0;
-        boolean correcto;
-
-        do {
-            correcto=true;
-            try{
-            valor=sc.nextByte();
-            }catch(Exception e){
-            System.out.println("ERROR. No ha introducido un valor válido. Introduzca otro número: ");
-            sc.next();
-            correcto=false;
-            }
-        }while(!correcto);
-        
-        return valor;          
-            
+    public static byte leerByte(LectorEntrada entrada) throws IOException {
+        return (byte) leerEntero(entrada, Byte.MIN_VALUE, Byte.MAX_VALUE);
     }
 
     /**
-     * Controla a introdución correcta dunha variable tipo byte utilizando unha
-     * variable Scanner que se pasa por parámetro
-     *
-     * @param sc Tipo Scanner
-     * @return valor Tipo short - valor de tipo short introducido por teclado
+     * @param entrada Tipo LectorEntrada
+     * @return Tipo short - valor de tipo short leído
+     * @throws IOException si falla la lectura
+     * @throws NoSuchElementException si se acaba la entrada
      */
-    public static short leerShort(Scanner sc) {
-        short valor = 0;
-        boolean correcto;
-
-        do {
-            correcto=true;
-            try{
-            valor=sc.nextShort();
-            }catch(Exception e){
-            System.out.println("ERROR. No ha introducido un valor válido. Introduzca otro número: ");
-            sc.next();
-            correcto=false;
-            }
-        }while(!correcto);
-        
-        return valor;          
+    public static short leerShort(LectorEntrada entrada) throws IOException {
+        return (short) leerEntero(entrada, Short.MIN_VALUE, Short.MAX_VALUE);
     }
 
     /**
-     * Controla a introdución correcta dunha variable tipo byte utilizando unha
-     * variable Scanner que se pasa por parámetro
-     *
-     * @param sc Tipo Scanner
-     * @return Tipo int - valor de tipo int introducido por teclado
+     * @param entrada Tipo LectorEntrada
+     * @return Tipo int - valor de tipo int leído
+     * @throws IOException si falla la lectura
+     * @throws NoSuchElementException si se acaba la entrada
      */
-    public static int leerInt(Scanner sc) {
-        int valor = 0;
-        boolean correcto;
-
-        do {
-            correcto=true;
-            try{
-            valor=sc.nextInt();
-            }catch(Exception e){
-            System.out.println("ERROR. No ha introducido un valor válido. Introduzca otro número: ");
-            sc.next();
-            correcto=false;
-            }
-        }while(!correcto);
-        
-        return valor;          
+    public static int leerInt(LectorEntrada entrada) throws IOException {
+        return (int) leerEntero(entrada, Integer.MIN_VALUE, Integer.MAX_VALUE);
     }
 
     /**
-     * Controla a introdución correcta dunha variable tipo byte utilizando unha
-     * variable Scanner que se pasa por parámetro
-     *
-     * @param sc Tipo Scanner
-     * @return Tipo long - valor de tipo long introducido por teclado
+     * @param entrada Tipo LectorEntrada
+     * @return Tipo long - valor de tipo long leído
+     * @throws IOException si falla la lectura
+     * @throws NoSuchElementException si se acaba la entrada
      */
-    public static long leerLong(Scanner sc) {
-        long valor = 0;
-        boolean correcto;
-
-        do {
-            correcto=true;
-            try{
-            valor=sc.nextLong();
-            }catch(Exception e){
-            System.out.println("ERROR. No ha introducido un valor válido. Introduzca otro número: ");
-            sc.next();
-            correcto=false;
-            }
-        }while(!correcto);
-        
-        return valor;          
+    public static long leerLong(LectorEntrada entrada) throws IOException {
+        return leerEntero(entrada, Long.MIN_VALUE, Long.MAX_VALUE);
     }
 
     /**
-     * Controla a introdución correcta dunha variable tipo byte utilizando unha
-     * variable Scanner que se pasa por parámetro
-     *
-     * @param sc Tipo Scanner
-     * @return Tipo float - valor de tipo float introducido por teclado
+     * @param entrada Tipo LectorEntrada
+     * @return Tipo float - valor de tipo float leído
+     * @throws IOException si falla la lectura
+     * @throws NoSuchElementException si se acaba la entrada
      */
-    public static float leerFloat(Scanner sc) {
-        float valor = 0;
-        boolean correcto;
-
-        do {
-            correcto=true;
-            try{
-            valor=sc.nextFloat();
-            }catch(Exception e){
-            System.out.println("ERROR. No ha introducido un valor válido. Introduzca otro número: ");
-            sc.next();
-            correcto=false;
-            }
-        }while(!correcto);
-        
-        return valor;          
+    public static float leerFloat(LectorEntrada entrada) throws IOException {
+        return (float) leerDouble(entrada);
     }
 
     /**
-     * Controla a introdución correcta dunha variable tipo byte utilizando unha
-     * variable Scanner que se pasa por parámetro
+     * Lee un double con un LectorEntrada; admite punto o coma decimal
      *
-     * @param sc Tipo Scanner
-     * @return Tipo double - valor de tipo double introducido por teclado
+     * @param entrada Tipo LectorEntrada
+     * @return Tipo double - valor de tipo double leído
+     * @throws IOException si falla la lectura
+     * @throws NoSuchElementException si se acaba la entrada
      */
-    public static double leerDouble(Scanner sc) {
-        double valor = 0;
-        boolean correcto;
-
-        do {
-            correcto=true;
-            try{
-            valor=sc.nextDouble();
-            }catch(Exception e){
+    public static double leerDouble(LectorEntrada entrada) throws IOException {
+        while (!entrada.leerDecimal()) {
             System.out.println("ERROR. No ha introducido un valor válido. Introduzca otro número: ");
-            sc.next();
-            correcto=false;
-            }
-        }while(!correcto);
-        
-        return valor;          
+        }
+        return entrada.getDecimal();
     }
 
     /**
-     * Controla a introdución correcta dunha variable tipo byte utilizando unha
-     * variable Scanner que se pasa por parámetro
-     *
-     * @param sc Tipo Scanner
-     * @return Tipo boolean - valor de tipo boolean introducido por teclado
+     * @param entrada Tipo LectorEntrada
+     * @return Tipo boolean - valor de tipo boolean leído
+     * @throws IOException si falla la lectura
+     * @throws NoSuchElementException si se acaba la entrada
      */
-    public static boolean leerBoolean(Scanner sc) {
-        boolean valor = false;
-        boolean correcto;
-
-        do {
-            correcto=true;
-            try{
-            valor=sc.nextBoolean();
-            }catch(Exception e){
+    public static boolean leerBoolean(LectorEntrada entrada) throws IOException {
+        while (!entrada.leerBooleano()) {
             System.out.println("ERROR. No ha introducido un valor válido. Introduzca otro número: ");
-            sc.next();
-            correcto=false;
-            }
-        }while(!correcto);
-        
-        return valor;          
+        }
+        return entrada.getBooleano();
     }
 
     /**
-     * Controla a introdución correcta dunha variable tipo byte utilizando unha
-     * variable Scanner que se pasa por parámetro
+     * Lee la siguiente línea no vacía de un LectorEntrada
      *
-     * @param sc Tipo Scanner
-     * @return Tipo String - valor de tipo String introducido por teclado
+     * @param entrada Tipo LectorEntrada
+     * @return Tipo String - línea leída
+     * @throws IOException si falla la lectura
+     * @throws NoSuchElementException si se acaba la entrada
      */
-    public static String leerString(Scanner sc) {
-        String resultado = null;
-
+    public static String leerString(LectorEntrada entrada) throws IOException {
+        String resultado;
         do {
-            resultado = sc.nextLine();
+            resultado = entrada.leerLinea();
+            if (resultado == null) {
+                throw new NoSuchElementException("No quedan líneas en la entrada");
+            }
         } while (resultado.isEmpty());
-
         return resultado;
     }
 
     /**
-     * Controla a introdución correcta dunha variable tipo byte utilizando unha
-     * variable Scanner que se pasa por parámetro
-     *
-     * @param sc Tipo Scanner
-     * @return Tipo char - valor de tipo char introducido por teclado
+     * @param entrada Tipo LectorEntrada
+     * @return Tipo char - primer carácter de la siguiente línea no vacía
+     * @throws IOException si falla la lectura
+     * @throws NoSuchElementException si se acaba la entrada
      */
-    public static char leerChar(Scanner sc) {
-        String resultado = null;
-
-        do {
-            resultado = sc.nextLine();
-        } while (resultado.isEmpty());
-
-        return resultado.charAt(0);
+    public static char leerChar(LectorEntrada entrada) throws IOException {
+        return leerString(entrada).charAt(0);
     }
 
     /**
-     * Controla a introdución correcta dunha variable tipo byte utilizando unha
-     * variable Scanner que se pasa por parámetro
-     *
-     * @param sc Tipo Scanner
-     * @return Tipo char - valor de la pimera letra que se introduce por teclado
+     * @param entrada Tipo LectorEntrada
+     * @return Tipo char - primera letra de la siguiente línea que empiece por
+     * una letra
+     * @throws IOException si falla la lectura
+     * @throws NoSuchElementException si se acaba la entrada
      */
-    public static char leerLetra(Scanner sc) {
-        char caracter = '\0';
-
+    public static char leerLetra(LectorEntrada entrada) throws IOException {
+        char caracter;
         do {
-            caracter = (sc.nextLine()).charAt(0);
+            caracter = leerString(entrada).charAt(0);
         } while (!Character.isLetter(caracter));
-
         return caracter;
     }
 
     /**
-     * Controla a introdución correcta dunha variable tipo byte utilizando unha
-     * variable Scanner que se pasa por parámetro
+     * Lee un nombre (letras, tildes, guiones y espacios), comprobando la línea
+     * carácter a carácter en vez de con una expresión regular
      *
-     * @param sc Tipo Scanner
-     * @return Tipo String - valor de tipo String introducido por teclado
+     * @param entrada Tipo LectorEntrada
+     * @return Tipo String - nombre leído
+     * @throws IOException si falla la lectura
+     * @throws NoSuchElementException si se acaba la entrada
      */
-    public static String leerNome(Scanner sc) {
-        String nome = null;
-        boolean repetir = true;
-
-        do {
-            nome = sc.nextLine();
-            if (nome.isEmpty() || !nome.toUpperCase().matches("[A-ZÁÉÍÓÚÜÑ\\-\\s]*")) {
-                System.out.println("\tERRO: debe introducir algún nome válido "
-                        + "\n\t\tVolva a introducir: ");
-            } else {
-                repetir = false;
+    public static String leerNome(LectorEntrada entrada) throws IOException {
+        while (true) {
+            String nome = entrada.leerLinea();
+            if (nome == null) {
+                throw new NoSuchElementException("No quedan líneas en la entrada");
             }
-        } while (repetir);
+            if (!nome.isEmpty() && esNome(nome)) {
+                return nome;
+            }
+            System.out.println("\tERRO: debe introducir algún nome válido "
+                    + "\n\t\tVolva a introducir: ");
+        }
+    }
 
-        return nome;
+    private static long leerEntero(LectorEntrada entrada, long minimo, long maximo) throws IOException {
+        while (!entrada.leerEntero(minimo, maximo)) {
+            System.out.println("ERROR. No ha introducido un valor válido. Introduzca otro número: ");
+        }
+        return entrada.getEntero();
     }
-}
 
+    // lo mismo que [A-ZÁÉÍÓÚÜÑ\-\s]* sobre el texto en mayúsculas
+    private static boolean esNome(String nome) {
+        for (int i = 0; i < nome.length(); i++) {
+            char c = Character.toUpperCase(nome.charAt(i));
+            boolean valido = (c >= 'A' && c <= 'Z') || "ÁÉÍÓÚÜÑ- \t\n\u000B\f\r".indexOf(c) >= 0;
+            if (!valido) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tabla de textos compartida para los datos que se repiten mucho entre
+ * vacunas: unas decenas de farmacéuticas y principios activos para millones
+ * de vacunas. Cada texto distinto tiene un número pequeño: las vacunas en
+ * memoria guardan el String de la tabla (compartido) y los registros fuera
+ * del heap, el número.
+ *
+ * Un texto no sale nunca de la tabla, así que tiene un máximo de textos:
+ * con la tabla llena, los textos que no están se quedan fuera
+ * (FUERA_DE_TABLA) y cada vacuna guarda el suyo. Un texto está siempre
+ * dentro o siempre fuera. La tabla la comparten todos los almacenes, pero
+ * solo para ahorrar memoria: que un texto esté o no en ella no dice nada de
+ * las vacunas de ningún almacén.
+ *
+ * @author luPinheiro
+ */
+final class DiccionarioTextos {
+
+	// el 0 es null
+	static final int SIN_TEXTO = 0;
+	static final int FUERA_DE_TABLA = -1;
+	// unos 16384 textos cortos son menos de 2 MB por tabla
+	static final int MAXIMO_TEXTOS = 1 << 14;
+	static final DiccionarioTextos FARMACEUTICAS = new DiccionarioTextos(MAXIMO_TEXTOS);
+	static final DiccionarioTextos PRINCIPIOS_ACTIVOS = new DiccionarioTextos(MAXIMO_TEXTOS);
+
+	private final ConcurrentHashMap<String, Integer> numeros = new ConcurrentHashMap<String, Integer>();
+	// se añade con el cerrojo de this y se publica con el volatile
+	private volatile String[] textos = new String[64];
+	private int numero = 1;
+	private final int maximo;
+
+	/**
+	 * @param maximo Tipo int - cuántos textos caben, sin contar null
+	 */
+	DiccionarioTextos(int maximo) {
+		this.maximo = maximo;
+	}
+
+	/**
+	 * @param texto Tipo String - puede ser null
+	 * @return Tipo int - número del texto; si no estaba y cabe se añade, y si
+	 * no cabe FUERA_DE_TABLA
+	 */
+	int numero(String texto) {
+		if (texto == null) {
+			return SIN_TEXTO;
+		}
+		Integer n = this.numeros.get(texto);
+		return (n != null) ? n : this.anadir(texto);
+	}
+
+	private synchronized int anadir(String texto) {
+		Integer n = this.numeros.get(texto);
+		if (n != null) {
+			return n;
+		}
+		if (this.numero > this.maximo) {
+			return FUERA_DE_TABLA;
+		}
+		String[] tabla = this.textos;
+		if (this.numero == tabla.length) {
+			tabla = Arrays.copyOf(tabla, tabla.length * 2);
+		}
+		tabla[this.numero] = texto;
+		this.textos = tabla;
+		// el texto ya está en la tabla antes de que nadie vea su número
+		this.numeros.put(texto, this.numero);
+		return this.numero++;
+	}
+
+	/**
+	 * @return Tipo String - el de la tabla con ese texto, añadiéndolo si cabe,
+	 * o el mismo texto si no cabe
+	 */
+	String compartido(String texto) {
+		int n = this.numero(texto);
+		return (n == FUERA_DE_TABLA) ? texto : this.texto(n);
+	}
+
+	/**
+	 * @return Tipo String - el de la tabla con ese texto, o el mismo texto si
+	 * no está (sin añadirlo)
+	 */
+	String compartidoSiEsta(String texto) {
+		int n = this.buscar(texto);
+		return (n == FUERA_DE_TABLA) ? texto : this.texto(n);
+	}
+
+	/**
+	 * @return Tipo int - número del texto, o FUERA_DE_TABLA si no está (sin
+	 * añadirlo)
+	 */
+	int buscar(String texto) {
+		if (texto == null) {
+			return SIN_TEXTO;
+		}
+		Integer n = this.numeros.get(texto);
+		return (n != null) ? n : FUERA_DE_TABLA;
+	}
+
+	String texto(int numero) {
+		String[] tabla = this.textos;
+		if (numero < tabla.length && (numero == SIN_TEXTO || tabla[numero] != null)) {
+			return tabla[numero];
+		}
+		// un número que llegó a este hilo sin pasar por el mapa
+		synchronized (this) {
+			return this.textos[numero];
+		}
+	}
+
+	// los números van de 1 a tamano() - 1
+	synchronized int tamano() {
+		return this.numero;
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Una operación sobre el almacén tal como se guarda en el registro de
+ * operaciones. Los cambios de fase, autorización y rechazo guardan la palabra
+ * de estado resultante, que se puede volver a aplicar sin efectos extra.
+ *
+ * El registro se escribe después del cambio, no antes: los oyentes del
+ * almacén reciben la operación ya hecha en memoria, y la operación termina
+ * cuando su entrada está en disco. Por eso escribir() no puede fallar por los
+ * datos: una entrada que no se pudiera escribir dejaría en memoria un cambio
+ * que se pierde al recuperar. Los textos van con una marca: 0 si son null, 1
+ * con writeUTF si caben seguro en sus 65535 bytes y 2 con su longitud en un
+ * int y los bytes en UTF-8 si no; un código que no cabe lleva CODIGO_LARGO en
+ * el byte del tipo y va del mismo modo. Los registros de antes, con
+ * writeBoolean y writeUTF, se siguen leyendo igual.
+ *
+ * @author luPinheiro
+ */
+class EntradaRegistro {
+
+	enum Tipo {
+		AGREGAR, ELIMINAR, FASE, AUTORIZAR, RECHAZAR
+	}
+
+	private static final Tipo[] TIPOS = Tipo.values();
+	// marca de cada texto
+	private static final int TEXTO_NULL = 0;
+	private static final int TEXTO_CORTO = 1;
+	private static final int TEXTO_LARGO = 2;
+	// writeUTF usa como mucho 3 bytes por carácter y admite 65535
+	private static final int MAXIMO_CORTO = 65535 / 3;
+	// en el byte del tipo
+	private static final int CODIGO_LARGO = 0x80;
+
+	private final Tipo tipo;
+	private final String codigo;
+	private final String nombre;
+	private final String principioActivo;
+	private final String farmaceutica;
+	private final double precioRecomendado;
+	private final long estado;
+
+	private EntradaRegistro(Tipo tipo, String codigo, String nombre, String principioActivo, String farmaceutica,
+			double precioRecomendado, long estado) {
+		this.tipo = tipo;
+		this.codigo = codigo;
+		this.nombre = nombre;
+		this.principioActivo = principioActivo;
+		this.farmaceutica = farmaceutica;
+		this.precioRecomendado = precioRecomendado;
+		this.estado = estado;
+	}
+
+	static EntradaRegistro agregar(Vacuna v) {
+		return new EntradaRegistro(Tipo.AGREGAR, v.getCodigo(), v.getNombre(), v.getPrincipioActivo(),
+				v.getFarmaceutica(), v.getPrecioRecomendado(), v.getPalabraEstado());
+	}
+
+	static EntradaRegistro eliminar(String codigo) {
+		return new EntradaRegistro(Tipo.ELIMINAR, codigo, null, null, null, 0, 0);
+	}
+
+	static EntradaRegistro cambioEstado(Vacuna v, long anterior, long nuevo) {
+		Tipo tipo = Tipo.FASE;
+		if ((nuevo & ~anterior & VacunaAutorizacion.AUTORIZADA) != 0) {
+			tipo = Tipo.AUTORIZAR;
+		} else if ((nuevo & ~anterior & VacunaAutorizacion.RECHAZADA) != 0) {
+			tipo = Tipo.RECHAZAR;
+		}
+		return new EntradaRegistro(tipo, v.getCodigo(), null, null, null, 0, nuevo);
+	}
+
+	Tipo getTipo() {
+		return this.tipo;
+	}
+
+	String getCodigo() {
+		return this.codigo;
+	}
+
+	long getEstado() {
+		return this.estado;
+	}
+
+	// crea la vacuna de una entrada AGREGAR con su estado
+	Vacuna crearVacuna() {
+		Vacuna v = new Vacuna(this.codigo, this.nombre, this.principioActivo, this.farmaceutica,
+				this.precioRecomendado);
+		v.restaurarEstado(this.estado);
+		return v;
+	}
+
+	// vuelve a ejecutar la operación sobre un almacén
+	void aplicar(VacAlmacen almacen) {
+		switch (this.tipo) {
+		case AGREGAR:
+			almacen.agregar(this.crearVacuna());
+			break;
+		case ELIMINAR:
+			almacen.eliminar(this.codigo);
+			break;
+		default:
+			Vacuna v = almacen.buscarVacuna(this.codigo);
+			if (v != null) {
+				v.restaurarEstado(this.estado);
+			}
+			break;
+		}
+	}
+
+	void escribir(DataOutput salida) throws IOException {
+		if (this.codigo.length() <= MAXIMO_CORTO) {
+			salida.writeByte(this.tipo.ordinal());
+			salida.writeUTF(this.codigo);
+		} else {
+			salida.writeByte(this.tipo.ordinal() | CODIGO_LARGO);
+			escribirLargo(salida, this.codigo);
+		}
+		if (this.tipo == Tipo.AGREGAR) {
+			escribirTexto(salida, this.nombre);
+			escribirTexto(salida, this.principioActivo);
+			escribirTexto(salida, this.farmaceutica);
+			salida.writeDouble(this.precioRecomendado);
+		}
+		if (this.tipo != Tipo.ELIMINAR) {
+			salida.writeLong(this.estado);
+		}
+	}
+
+	static EntradaRegistro leer(DataInput entrada) throws IOException {
+		int marca = entrada.readUnsignedByte();
+		int ordinal = marca & ~CODIGO_LARGO;
+		if (ordinal >= TIPOS.length) {
+			throw new IOException("Tipo de operación desconocido: " + ordinal);
+		}
+		Tipo tipo = TIPOS[ordinal];
+		String codigo = ((marca & CODIGO_LARGO) == 0) ? entrada.readUTF() : leerLargo(entrada);
+		String nombre = null;
+		String principioActivo = null;
+		String farmaceutica = null;
+		double precio = 0;
+		long estado = 0;
+		if (tipo == Tipo.AGREGAR) {
+			nombre = leerTexto(entrada);
+			principioActivo = leerTexto(entrada);
+			farmaceutica = leerTexto(entrada);
+			precio = entrada.readDouble();
+		}
+		if (tipo != Tipo.ELIMINAR) {
+			estado = entrada.readLong();
+		}
+		return new EntradaRegistro(tipo, codigo, nombre, principioActivo, farmaceutica, precio, estado);
+	}
+
+	private static void escribirTexto(DataOutput salida, String texto) throws IOException {
+		if (texto == null) {
+			salida.writeByte(TEXTO_NULL);
+		} else if (texto.length() <= MAXIMO_CORTO) {
+			salida.writeByte(TEXTO_CORTO);
+			salida.writeUTF(texto);
+		} else {
+			salida.writeByte(TEXTO_LARGO);
+			escribirLargo(salida, texto);
+		}
+	}
+
+	private static void escribirLargo(DataOutput salida, String texto) throws IOException {
+		byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+		salida.writeInt(bytes.length);
+		salida.write(bytes);
+	}
+
+	private static String leerTexto(DataInput entrada) throws IOException {
+		int marca = entrada.readUnsignedByte();
+		switch (marca) {
+		case TEXTO_NULL:
+			return null;
+		case TEXTO_CORTO:
+			return entrada.readUTF();
+		case TEXTO_LARGO:
+			return leerLargo(entrada);
+		default:
+			throw new IOException("Marca de texto desconocida: " + marca);
+		}
+	}
+
+	private static String leerLargo(DataInput entrada) throws IOException {
+		int longitud = entrada.readInt();
+		if (longitud < 0) {
+			throw new IOException("Longitud de texto no válida: " + longitud);
+		}
+		byte[] bytes = new byte[longitud];
+		entrada.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
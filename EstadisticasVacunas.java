@@ -0,0 +1,178 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Agregados de un conjunto de vacunas que se mantienen con cada cambio en vez
+ * de recorrer el almacén: cuántas hay en cada estado y con cada número de
+ * fases completadas, y los precios de cada farmacéutica. Leer cualquiera de
+ * ellos cuesta lo mismo con mil vacunas que con millones.
+ *
+ * Se puede usar desde varios hilos. Quien cuenta una vacuna tiene que
+ * descontarla después con los mismos datos.
+ *
+ * @author luPinheiro
+ */
+class EstadisticasVacunas {
+
+	// las vacunas sin farmacéutica se cuentan con la farmacéutica vacía
+	static final String SIN_FARMACEUTICA = "";
+
+	private final AtomicLongArray porEstado = new AtomicLongArray(EstadoVacuna.values().length);
+	private final AtomicLongArray porFases = new AtomicLongArray(4);
+	// precios por el número de la farmacéutica en DiccionarioTextos: se
+	// agrupa comparando int. Crece con el cerrojo de this
+	private volatile Precios[] porFarmaceutica = new Precios[64];
+	// las que están fuera de la tabla, por su texto; salen al descontar la
+	// última vacuna
+	private final ConcurrentHashMap<String, Precios> porFarmaceuticaFuera = new ConcurrentHashMap<String, Precios>();
+
+	/**
+	 * @param palabra Tipo long - palabra de estado de VacunaAutorizacion
+	 * @param signo Tipo int - 1 para contar, -1 para descontar
+	 */
+	void contarEstado(long palabra, int signo) {
+		this.porEstado.addAndGet(VacunaAutorizacion.estado(palabra).ordinal(), signo);
+		this.porFases.addAndGet(VacunaAutorizacion.fasesCompletadas(palabra), signo);
+	}
+
+	/**
+	 * @param farmaceutica Tipo String - puede ser null
+	 */
+	void contarPrecio(String farmaceutica, double precio, int signo) {
+		String texto = (farmaceutica == null) ? SIN_FARMACEUTICA : farmaceutica;
+		int numero = DiccionarioTextos.FARMACEUTICAS.numero(texto);
+		if (numero == DiccionarioTextos.FUERA_DE_TABLA) {
+			this.porFarmaceuticaFuera.compute(texto, (f, precios) -> {
+				Precios p = (precios == null) ? new Precios() : precios;
+				synchronized (p) {
+					p.contar(precio, signo);
+					return (p.numero == 0) ? null : p;
+				}
+			});
+			return;
+		}
+		Precios precios = this.precios(numero, true);
+		synchronized (precios) {
+			precios.contar(precio, signo);
+		}
+	}
+
+	// los de una farmacéutica; si no hay y crear es false, null
+	private Precios precios(int farmaceutica, boolean crear) {
+		Precios[] tabla = this.porFarmaceutica;
+		Precios precios = (farmaceutica < tabla.length) ? tabla[farmaceutica] : null;
+		if (precios != null || !crear) {
+			return precios;
+		}
+		synchronized (this) {
+			tabla = this.porFarmaceutica;
+			if (farmaceutica >= tabla.length) {
+				tabla = Arrays.copyOf(tabla, Math.max(farmaceutica + 1, tabla.length * 2));
+			}
+			precios = tabla[farmaceutica];
+			if (precios == null) {
+				precios = new Precios();
+				tabla[farmaceutica] = precios;
+			}
+			this.porFarmaceutica = tabla;
+			return precios;
+		}
+	}
+
+	void contar(Vacuna v, long palabra, int signo) {
+		this.contarEstado(palabra, signo);
+		this.contarPrecio(v.getFarmaceutica(), v.getPrecioRecomendado(), signo);
+	}
+
+	long getNumeroEnEstado(EstadoVacuna estado) {
+		return this.porEstado.get(estado.ordinal());
+	}
+
+	long getNumeroConFases(int fases) {
+		return this.porFases.get(fases);
+	}
+
+	// null si no hay vacunas de esa farmacéutica
+	PreciosFarmaceutica getPrecios(String farmaceutica) {
+		int numero = DiccionarioTextos.FARMACEUTICAS.buscar(farmaceutica);
+		if (numero == DiccionarioTextos.FUERA_DE_TABLA) {
+			return resumen(this.porFarmaceuticaFuera.get(farmaceutica));
+		}
+		return (numero == DiccionarioTextos.SIN_TEXTO) ? null : this.getPrecios(numero);
+	}
+
+	private PreciosFarmaceutica getPrecios(int farmaceutica) {
+		Precios precios = this.precios(farmaceutica, false);
+		if (precios == null) {
+			// puede que solo no se vea aún desde este hilo
+			synchronized (this) {
+				precios = this.precios(farmaceutica, false);
+			}
+		}
+		return resumen(precios);
+	}
+
+	private static PreciosFarmaceutica resumen(Precios precios) {
+		if (precios == null) {
+			return null;
+		}
+		synchronized (precios) {
+			return (precios.numero == 0) ? null : precios.resumen();
+		}
+	}
+
+	Map<String, PreciosFarmaceutica> getPreciosPorFarmaceutica() {
+		Map<String, PreciosFarmaceutica> resumen = new HashMap<String, PreciosFarmaceutica>();
+		Precios[] tabla;
+		synchronized (this) {
+			tabla = this.porFarmaceutica;
+		}
+		for (int farmaceutica = 1; farmaceutica < tabla.length; farmaceutica++) {
+			PreciosFarmaceutica precios = (tabla[farmaceutica] == null) ? null : this.getPrecios(farmaceutica);
+			if (precios != null) {
+				resumen.put(DiccionarioTextos.FARMACEUTICAS.texto(farmaceutica), precios);
+			}
+		}
+		for (Map.Entry<String, Precios> e : this.porFarmaceuticaFuera.entrySet()) {
+			PreciosFarmaceutica precios = resumen(e.getValue());
+			if (precios != null) {
+				resumen.put(e.getKey(), precios);
+			}
+		}
+		return resumen;
+	}
+
+	// precios de una farmacéutica; se toca con su propio cerrojo. Se queda
+	// aunque se descuenten todas sus vacunas
+	private static final class Precios {
+		private long numero;
+		private double suma;
+		// cuántas vacunas hay con cada precio, para saber el mínimo y el
+		// máximo aunque se eliminen
+		private final TreeMap<Double, Integer> valores = new TreeMap<Double, Integer>();
+
+		void contar(double precio, int signo) {
+			this.numero += signo;
+			this.suma += signo * precio;
+			this.valores.merge(precio, signo, (a, b) -> (a + b == 0) ? null : a + b);
+			if (this.valores.isEmpty()) {
+				this.suma = 0; // sin restos de redondeo acumulados
+			}
+		}
+
+		PreciosFarmaceutica resumen() {
+			return new PreciosFarmaceutica(this.numero, this.suma, this.valores.firstKey(), this.valores.lastKey());
+		}
+	}
+}
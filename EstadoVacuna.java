@@ -0,0 +1,15 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Estados posibles de una vacuna frente a la EMA.
+ *
+ * @author luPinheiro
+ */
+public enum EstadoVacuna {
+	PENDIENTE, AUTORIZADA, RECHAZADA
+}
@@ -0,0 +1,250 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.Closeable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Publica cada agregar, eliminar, cambio de fase, autorización y rechazo de
+ * un VacAlmacen como un CambioVacuna, para quien quiera enterarse de lo que
+ * cambia sin volver a leer el listado entero.
+ *
+ * Los cambios se guardan en un anillo de tamaño fijo: el hilo que modifica el
+ * almacén solo reserva una posición con un incremento atómico y la rellena,
+ * nunca espera por nadie. Cada suscriptor lleva su propia posición en el
+ * anillo y recibe los cambios en el ejecutor, a medida que los pide con
+ * request(). Si un suscriptor se queda más de un anillo por detrás, los
+ * cambios que no leyó ya se han sobrescrito: recibe onError y tendrá que
+ * volver a leer el almacén y suscribirse de nuevo.
+ *
+ * Los cambios de un mismo código llegan en el orden en que se aplicaron.
+ *
+ * @author luPinheiro
+ */
+public class FlujoCambios implements IOyenteAlmacen, Flow.Publisher<CambioVacuna>, Closeable {
+
+	public static final int CAPACIDAD = 1 << 16;
+
+	private final VacAlmacen almacen;
+	private final Executor ejecutor;
+	private final AtomicReferenceArray<CambioVacuna> anillo;
+	private final int mascara;
+	// secuencia que se dará al siguiente cambio
+	private final AtomicLong siguiente = new AtomicLong();
+	private final CopyOnWriteArrayList<Suscripcion> suscripciones = new CopyOnWriteArrayList<Suscripcion>();
+	// primera secuencia que ya no se publica; vale mientras no esté cerrado
+	private volatile long fin = Long.MAX_VALUE;
+	private volatile boolean cerrado;
+
+	private FlujoCambios(VacAlmacen almacen, int capacidad, Executor ejecutor) {
+		if (capacidad < 1 || capacidad > 1 << 30) {
+			throw new IllegalArgumentException("Capacidad no válida: " + capacidad);
+		}
+		int tamano = Integer.highestOneBit(capacidad);
+		if (tamano < capacidad) {
+			tamano <<= 1;
+		}
+		this.almacen = almacen;
+		this.ejecutor = ejecutor;
+		this.anillo = new AtomicReferenceArray<CambioVacuna>(tamano);
+		this.mascara = tamano - 1;
+	}
+
+	public static FlujoCambios abrir(VacAlmacen almacen) {
+		return abrir(almacen, CAPACIDAD, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Empieza a publicar los cambios del almacén.
+	 *
+	 * @param almacen Tipo VacAlmacen - almacén que se sigue
+	 * @param capacidad Tipo int - cambios que caben en el anillo, se redondea a
+	 * potencia de dos; es lo que puede retrasarse un suscriptor
+	 * @param ejecutor Tipo Executor - donde se llama a los suscriptores; si
+	 * bloquean en onNext, mejor uno propio que el común
+	 * @return Tipo FlujoCambios - ya registrado como oyente del almacén
+	 */
+	public static FlujoCambios abrir(VacAlmacen almacen, int capacidad, Executor ejecutor) {
+		FlujoCambios flujo = new FlujoCambios(almacen, capacidad, ejecutor);
+		almacen.agregarOyente(flujo);
+		return flujo;
+	}
+
+	public int getCapacidad() {
+		return this.anillo.length();
+	}
+
+	public int getNumeroSuscriptores() {
+		return this.suscripciones.size();
+	}
+
+	/**
+	 * El suscriptor recibe los cambios publicados desde ahora, no los
+	 * anteriores.
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super CambioVacuna> suscriptor) {
+		Suscripcion s = new Suscripcion(suscriptor, this.siguiente.get());
+		if (!this.cerrado) {
+			this.suscripciones.add(s);
+		}
+		suscriptor.onSubscribe(s);
+		// si se cerró entre medias recibe onComplete
+		s.avisar();
+	}
+
+	@Override
+	public void vacunaAgregada(Vacuna v) {
+		this.publicar(CambioVacuna.Tipo.AGREGADA, v.getCodigo(), v.getPalabraEstado());
+	}
+
+	@Override
+	public void vacunaEliminada(Vacuna v) {
+		this.publicar(CambioVacuna.Tipo.ELIMINADA, v.getCodigo(), v.getPalabraEstado());
+	}
+
+	@Override
+	public void estadoCambiado(Vacuna v, long anterior, long nuevo) {
+		this.publicar(CambioVacuna.tipoCambio(anterior, nuevo), v.getCodigo(), nuevo);
+	}
+
+	// se llama con el cerrojo del código: no puede esperar
+	private void publicar(CambioVacuna.Tipo tipo, String codigo, long palabra) {
+		if (this.cerrado) {
+			return;
+		}
+		long secuencia = this.siguiente.getAndIncrement();
+		this.anillo.set((int) secuencia & this.mascara, new CambioVacuna(secuencia, tipo, codigo, palabra));
+		for (Suscripcion s : this.suscripciones) {
+			// sin demanda no hace falta despertarlo, ya lo hará request()
+			if (s.demanda.get() > 0) {
+				s.avisar();
+			}
+		}
+	}
+
+	/**
+	 * Deja de seguir el almacén. Los suscriptores reciben lo que quede en el
+	 * anillo y después onComplete.
+	 */
+	@Override
+	public void close() {
+		if (this.cerrado) {
+			return;
+		}
+		this.almacen.quitarOyente(this);
+		this.fin = this.siguiente.get();
+		this.cerrado = true;
+		for (Suscripcion s : this.suscripciones) {
+			s.avisar();
+		}
+	}
+
+	// Una suscripción solo se ejecuta en un hilo a la vez: avisar() cuenta
+	// los avisos y solo el primero la manda al ejecutor, que repite hasta que
+	// no queden avisos sin atender.
+	private final class Suscripcion implements Flow.Subscription, Runnable {
+
+		private final Flow.Subscriber<? super CambioVacuna> suscriptor;
+		private final AtomicLong demanda = new AtomicLong();
+		private final AtomicInteger avisos = new AtomicInteger();
+		// solo lo toca el hilo que entrega
+		private long posicion;
+		private volatile boolean terminada;
+		private volatile Throwable error;
+
+		Suscripcion(Flow.Subscriber<? super CambioVacuna> suscriptor, long posicion) {
+			this.suscriptor = suscriptor;
+			this.posicion = posicion;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				this.error = new IllegalArgumentException("Hay que pedir al menos un cambio: " + n);
+			} else {
+				// Long.MAX_VALUE es demanda sin límite
+				this.demanda.getAndAccumulate(n, (a, b) -> (a + b < 0) ? Long.MAX_VALUE : a + b);
+			}
+			this.avisar();
+		}
+
+		@Override
+		public void cancel() {
+			this.terminada = true;
+			FlujoCambios.this.suscripciones.remove(this);
+		}
+
+		void avisar() {
+			if (this.avisos.getAndIncrement() == 0) {
+				try {
+					FlujoCambios.this.ejecutor.execute(this);
+				} catch (RejectedExecutionException e) {
+					// sin ejecutor no se le puede entregar nada
+					this.cancel();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			int atendidos = this.avisos.get();
+			do {
+				this.entregar();
+				atendidos = this.avisos.addAndGet(-atendidos);
+			} while (atendidos != 0);
+		}
+
+		private void entregar() {
+			if (this.terminada) {
+				return;
+			}
+			if (this.error != null) {
+				this.cancel();
+				this.suscriptor.onError(this.error);
+				return;
+			}
+			long pedidos = this.demanda.get();
+			long entregados = 0;
+			while (entregados < pedidos && !this.terminada) {
+				CambioVacuna c = FlujoCambios.this.anillo.get((int) this.posicion & FlujoCambios.this.mascara);
+				if (c == null || c.getSecuencia() < this.posicion) {
+					break; // aún no publicado; quien lo publique avisará
+				}
+				if (c.getSecuencia() > this.posicion) {
+					this.cancel();
+					this.suscriptor.onError(new IllegalStateException("Suscriptor demasiado lento: se perdieron "
+							+ (c.getSecuencia() - this.posicion) + " cambios o más desde la secuencia " + this.posicion));
+					return;
+				}
+				this.posicion++;
+				entregados++;
+				try {
+					this.suscriptor.onNext(c);
+				} catch (RuntimeException e) {
+					this.cancel();
+					this.suscriptor.onError(e);
+					return;
+				}
+			}
+			if (entregados > 0 && pedidos != Long.MAX_VALUE) {
+				this.demanda.addAndGet(-entregados);
+			}
+			if (!this.terminada && FlujoCambios.this.cerrado && this.posicion >= FlujoCambios.this.fin) {
+				this.cancel();
+				this.suscriptor.onComplete();
+			}
+		}
+	}
+}
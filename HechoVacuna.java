@@ -0,0 +1,70 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.time.Instant;
+
+/**
+ * Un resultado de fase o una decisión en el historial de una vacuna
+ * (VacAlmacen.getHistorial), con el momento en que lo vio el almacén.
+ *
+ * @author luPinheiro
+ */
+public final class HechoVacuna {
+
+	public enum Tipo {
+		FASE_SUPERADA, FASE_NO_SUPERADA, AUTORIZADA, RECHAZADA
+	}
+
+	private static final Tipo[] TIPOS = Tipo.values();
+
+	private final String codigo;
+	// (milisegundos epoch << 4) | (fase << 2) | tipo, como en HistorialVacunas
+	private final long hecho;
+	// posición en el historial de su vacuna; desempata los del mismo momento
+	private final int posicion;
+
+	HechoVacuna(String codigo, long hecho, int posicion) {
+		this.codigo = codigo;
+		this.hecho = hecho;
+		this.posicion = posicion;
+	}
+
+	public String getCodigo() {
+		return this.codigo;
+	}
+
+	public Tipo getTipo() {
+		return TIPOS[(int) (this.hecho & 3)];
+	}
+
+	// 1 a 3 en los resultados de fase, 0 en las decisiones
+	public int getFase() {
+		return (int) ((this.hecho >>> 2) & 3);
+	}
+
+	public Instant getInstante() {
+		return Instant.ofEpochMilli(this.getMilisegundos());
+	}
+
+	long getMilisegundos() {
+		return this.hecho >>> 4;
+	}
+
+	long getHecho() {
+		return this.hecho;
+	}
+
+	int getPosicion() {
+		return this.posicion;
+	}
+
+	@Override
+	public String toString() {
+		return this.getInstante() + " " + this.codigo + " " + this.getTipo()
+				+ ((this.getFase() > 0) ? " " + this.getFase() : "");
+	}
+}
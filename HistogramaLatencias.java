@@ -0,0 +1,139 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Histograma de duraciones en nanosegundos con cubos de ancho creciente, como
+ * HdrHistogram: hasta 63 ns un cubo por nanosegundo y a partir de ahí 32
+ * cubos por cada potencia de dos, así el error de cualquier percentil es como
+ * mucho de un 3 % y caben de 1 ns a más de un minuto en poco más de mil
+ * contadores.
+ *
+ * Anotar una duración son dos sumas atómicas sin cerrojos. Cada hilo suma en
+ * una de varias franjas según su id, para que varios núcleos no se peleen por
+ * el mismo contador; las franjas solo se juntan al leer.
+ *
+ * @author luPinheiro
+ */
+class HistogramaLatencias {
+
+	private static final int BITS_SUBCUBO = 6;
+	private static final int SUBCUBOS = 1 << BITS_SUBCUBO;
+	private static final int MEDIO = SUBCUBOS / 2;
+	// 2^36 ns, unos 68 s; lo que tarde más cuenta en el último cubo
+	private static final int BITS_MAXIMO = 36;
+	static final int CUBOS = SUBCUBOS + (BITS_MAXIMO - BITS_SUBCUBO + 1) * MEDIO;
+	// detrás de los cubos de cada franja: suma de duraciones y máximo
+	private static final int SUMA = CUBOS;
+	private static final int MAXIMO = CUBOS + 1;
+
+	private static final int FRANJAS = Math.min(8,
+			Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+
+	// se crean al primer uso, la mayoría de operaciones las hace un solo hilo
+	private final AtomicReferenceArray<AtomicLongArray> franjas = new AtomicReferenceArray<AtomicLongArray>(FRANJAS);
+
+	void anotar(long nanos) {
+		if (nanos < 0) {
+			nanos = 0; // reloj que retrocede entre núcleos
+		}
+		AtomicLongArray franja = this.franja();
+		franja.getAndIncrement(cubo(nanos));
+		franja.getAndAdd(SUMA, nanos);
+		long maximo = franja.get(MAXIMO);
+		while (nanos > maximo && !franja.compareAndSet(MAXIMO, maximo, nanos)) {
+			maximo = franja.get(MAXIMO);
+		}
+	}
+
+	@SuppressWarnings("deprecation") // getId() sigue siendo válido en Java 17
+	private AtomicLongArray franja() {
+		int i = (int) Thread.currentThread().getId() & (FRANJAS - 1);
+		AtomicLongArray franja = this.franjas.get(i);
+		if (franja == null) {
+			this.franjas.compareAndSet(i, null, new AtomicLongArray(CUBOS + 2));
+			franja = this.franjas.get(i);
+		}
+		return franja;
+	}
+
+	static int cubo(long nanos) {
+		if (nanos < SUBCUBOS) {
+			return (int) nanos;
+		}
+		int exponente = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponente > BITS_MAXIMO) {
+			return CUBOS - 1;
+		}
+		int desplazamiento = exponente - BITS_SUBCUBO + 1;
+		return SUBCUBOS + (desplazamiento - 1) * MEDIO + (int) (nanos >>> desplazamiento) - MEDIO;
+	}
+
+	// mayor duración que cae en el cubo
+	static long techo(int cubo) {
+		if (cubo < SUBCUBOS) {
+			return cubo;
+		}
+		int desplazamiento = (cubo - SUBCUBOS) / MEDIO + 1;
+		long base = (long) ((cubo - SUBCUBOS) % MEDIO + MEDIO) << desplazamiento;
+		return base + (1L << desplazamiento) - 1;
+	}
+
+	/**
+	 * Junta las franjas; lo que se anote mientras tanto puede contar o no.
+	 *
+	 * @param veces Tipo long - llamadas de la operación, cronometradas o no
+	 */
+	ResumenLatencias resumen(long veces) {
+		long[] cubos = new long[CUBOS];
+		long numero = 0;
+		long suma = 0;
+		long maximo = 0;
+		for (int f = 0; f < FRANJAS; f++) {
+			AtomicLongArray franja = this.franjas.get(f);
+			if (franja == null) {
+				continue;
+			}
+			for (int c = 0; c < CUBOS; c++) {
+				long n = franja.get(c);
+				cubos[c] += n;
+				numero += n;
+			}
+			suma += franja.get(SUMA);
+			maximo = Math.max(maximo, franja.get(MAXIMO));
+		}
+		return new ResumenLatencias(veces, numero == 0 ? 0 : (double) suma / numero,
+				percentil(cubos, numero, 0.5, maximo), percentil(cubos, numero, 0.9, maximo),
+				percentil(cubos, numero, 0.99, maximo), percentil(cubos, numero, 0.999, maximo), maximo);
+	}
+
+	// el techo del cubo, sin pasar del máximo anotado
+	private static long percentil(long[] cubos, long numero, double fraccion, long maximo) {
+		if (numero == 0) {
+			return 0;
+		}
+		long hasta = (long) Math.ceil(numero * fraccion);
+		long vistos = 0;
+		for (int c = 0; c < cubos.length; c++) {
+			vistos += cubos[c];
+			if (vistos >= hasta) {
+				return Math.min(techo(c), maximo);
+			}
+		}
+		return maximo;
+	}
+
+	// los hilos que estén anotando en ese momento pueden dejar alguna
+	// duración a medias (el cubo sin la suma o al revés)
+	void reiniciar() {
+		for (int f = 0; f < FRANJAS; f++) {
+			this.franjas.set(f, null);
+		}
+	}
+}
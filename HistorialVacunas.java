@@ -0,0 +1,174 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.LongSupplier;
+
+/**
+ * Historial de los resultados de fase y las decisiones de las vacunas de un
+ * VacAlmacen, con el momento en que los vio el almacén.
+ *
+ * Cada vacuna tiene un long[] al que solo se añade: un long por hecho,
+ * (milisegundos epoch << 4) | (fase << 2) | tipo. Cada hecho está además en
+ * un índice ordenado por momento, uno por fase y uno por decisión, así
+ * "autorizadas entre A y B" o "resultados de la fase 2 de los últimos 30
+ * días" son un subSet del índice: logarítmico más lo que sale.
+ *
+ * Solo están los hechos que vio pasar el almacén: una vacuna que llega ya
+ * autorizada o con fases superadas no trae de cuándo son, y no se inventa.
+ * Las anotaciones de un código se hacen con su cerrojo en VacAlmacen; las
+ * consultas no necesitan ninguno. El historial está solo en memoria y empieza
+ * al arrancar (ver VacAlmacen.setRecuperando).
+ *
+ * @author luPinheiro
+ */
+final class HistorialVacunas {
+
+	// un índice por fase (1 a 3 en las posiciones 0 a 2) y uno por decisión
+	private static final int INDICE_AUTORIZADAS = 3;
+	private static final int INDICE_RECHAZADAS = 4;
+	private static final long MAXIMO_MILISEGUNDOS = Long.MAX_VALUE >>> 4;
+	private static final long[] SIN_HECHOS = new long[0];
+	private static final Comparator<HechoVacuna> ORDEN = Comparator.comparingLong(HechoVacuna::getMilisegundos)
+			.thenComparing(HechoVacuna::getCodigo).thenComparingInt(HechoVacuna::getPosicion);
+
+	private final Map<String, long[]> historiales;
+	private final List<NavigableSet<HechoVacuna>> indices = new ArrayList<NavigableSet<HechoVacuna>>();
+	// milisegundos epoch; otro reloj para probar
+	private final LongSupplier reloj;
+
+	HistorialVacunas(boolean concurrente, LongSupplier reloj) {
+		this.historiales = concurrente ? new ConcurrentHashMap<String, long[]>() : new HashMap<String, long[]>();
+		for (int i = 0; i <= INDICE_RECHAZADAS; i++) {
+			this.indices.add(concurrente ? new ConcurrentSkipListSet<HechoVacuna>(ORDEN)
+					: new TreeSet<HechoVacuna>(ORDEN));
+		}
+		this.reloj = reloj;
+	}
+
+	/**
+	 * Con el cerrojo del código: las fases superadas y la decisión que hay en
+	 * actual y no en contada, como las cuenta VacAlmacen.estadoCambiado.
+	 */
+	void anotarCambio(String codigo, long contada, long actual) {
+		long nuevas = actual & ~contada;
+		long ahora = this.reloj.getAsLong();
+		for (byte fase = 1; fase <= 3; fase++) {
+			if ((nuevas & VacunaAutorizacion.faseSuperada(fase)) != 0) {
+				this.anotar(codigo, ahora, fase, HechoVacuna.Tipo.FASE_SUPERADA);
+			}
+		}
+		if ((nuevas & VacunaAutorizacion.AUTORIZADA) != 0) {
+			this.anotar(codigo, ahora, (byte) 0, HechoVacuna.Tipo.AUTORIZADA);
+		} else if ((nuevas & VacunaAutorizacion.RECHAZADA) != 0) {
+			this.anotar(codigo, ahora, (byte) 0, HechoVacuna.Tipo.RECHAZADA);
+		}
+	}
+
+	// con el cerrojo del código
+	void anotarFaseNoSuperada(String codigo, byte fase) {
+		this.anotar(codigo, this.reloj.getAsLong(), fase, HechoVacuna.Tipo.FASE_NO_SUPERADA);
+	}
+
+	private void anotar(String codigo, long momento, byte fase, HechoVacuna.Tipo tipo) {
+		long[] hechos = this.historiales.getOrDefault(codigo, SIN_HECHOS);
+		long hecho = (limitar(momento) << 4) | ((long) fase << 2) | tipo.ordinal();
+		// copia del tamaño justo: quien lo lee sin cerrojo ve uno u otro entero
+		long[] nuevos = Arrays.copyOf(hechos, hechos.length + 1);
+		nuevos[hechos.length] = hecho;
+		this.historiales.put(codigo, nuevos);
+		this.indices.get(indice(tipo, fase)).add(new HechoVacuna(codigo, hecho, hechos.length));
+	}
+
+	// con el cerrojo del código, al eliminar su vacuna; al sustituirla se
+	// queda, porque es del código
+	void quitar(String codigo) {
+		long[] hechos = this.historiales.remove(codigo);
+		if (hechos != null) {
+			for (int i = 0; i < hechos.length; i++) {
+				HechoVacuna h = new HechoVacuna(codigo, hechos[i], i);
+				this.indices.get(indice(h.getTipo(), (byte) h.getFase())).remove(h);
+			}
+		}
+	}
+
+	// los hechos del código, del más antiguo al más reciente
+	List<HechoVacuna> historial(String codigo) {
+		long[] hechos = this.historiales.getOrDefault(codigo, SIN_HECHOS);
+		List<HechoVacuna> historial = new ArrayList<HechoVacuna>(hechos.length);
+		for (int i = 0; i < hechos.length; i++) {
+			historial.add(new HechoVacuna(codigo, hechos[i], i));
+		}
+		return Collections.unmodifiableList(historial);
+	}
+
+	List<HechoVacuna> decisiones(boolean autorizadas, Instant desde, Instant hasta, int maximo) {
+		return this.buscar(autorizadas ? INDICE_AUTORIZADAS : INDICE_RECHAZADAS, desde, hasta, maximo);
+	}
+
+	List<HechoVacuna> resultadosFase(byte fase, Instant desde, Instant hasta, int maximo) {
+		return this.buscar(fase - 1, desde, hasta, maximo);
+	}
+
+	// los del índice con desde <= momento < hasta, en orden de momento
+	private List<HechoVacuna> buscar(int indice, Instant desde, Instant hasta, int maximo) {
+		List<HechoVacuna> encontrados = new ArrayList<HechoVacuna>();
+		long inicio = milisegundos(desde);
+		long fin = milisegundos(hasta);
+		if (inicio >= fin) {
+			return encontrados;
+		}
+		for (HechoVacuna h : this.indices.get(indice).subSet(sonda(inicio), sonda(fin))) {
+			if (encontrados.size() >= maximo) {
+				break;
+			}
+			encontrados.add(h);
+		}
+		return encontrados;
+	}
+
+	// antes que cualquier hecho de ese milisegundo
+	private static HechoVacuna sonda(long milisegundos) {
+		return new HechoVacuna("", milisegundos << 4, -1);
+	}
+
+	private static int indice(HechoVacuna.Tipo tipo, byte fase) {
+		switch (tipo) {
+		case AUTORIZADA:
+			return INDICE_AUTORIZADAS;
+		case RECHAZADA:
+			return INDICE_RECHAZADAS;
+		default:
+			return fase - 1;
+		}
+	}
+
+	private static long milisegundos(Instant instante) {
+		if (instante.isBefore(Instant.EPOCH)) {
+			return 0;
+		}
+		if (instante.getEpochSecond() >= MAXIMO_MILISEGUNDOS / 1000) {
+			return MAXIMO_MILISEGUNDOS;
+		}
+		return limitar(instante.toEpochMilli());
+	}
+
+	private static long limitar(long milisegundos) {
+		return Math.max(0, Math.min(milisegundos, MAXIMO_MILISEGUNDOS));
+	}
+}
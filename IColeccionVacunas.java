@@ -0,0 +1,99 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Dónde guarda VacAlmacen sus vacunas. VacAlmacen se encarga de los cerrojos
+ * por código, los índices y los oyentes; la colección solo guarda y devuelve.
+ * Tiene que admitir lecturas a la vez que escrituras de códigos distintos.
+ *
+ * @author luPinheiro
+ */
+interface IColeccionVacunas {
+
+	public Vacuna obtener(String codigo);
+
+	// devuelve la vacuna que había con ese código, o null
+	public Vacuna guardar(Vacuna v);
+
+	public Vacuna quitar(String codigo);
+
+	public int tamano();
+
+	public boolean estaVacia();
+
+	public Iterable<Vacuna> vacunas();
+
+	// Vacunas de ese estado que la colección guarda por su cuenta y que
+	// VacAlmacen no tiene en sus índices, por ejemplo las de un catálogo
+	// mapeado que aún no se han pedido. Se para cuando la acción devuelve
+	// false.
+	public default void recorrerEstadoPropio(EstadoVacuna estado, Predicate<Vacuna> accion) {
+	}
+
+	// Las mismas vacunas que recorrerEstadoPropio, de cualquier estado, en
+	// orden de código a partir de desde (null es desde el principio). Son
+	// copias para consultar.
+	public default Iterator<Vacuna> propiasEnOrden(String desde, boolean incluido) {
+		return Collections.emptyIterator();
+	}
+
+	// Las mismas vacunas que recorrerEstadoPropio, de cualquier estado, que
+	// cumplen una búsqueda de texto (ver IndiceTexto.buscar). Son copias para
+	// consultar.
+	public default void recorrerPropiasConTexto(List<String> terminos, Set<CampoTexto> campos, boolean todos,
+			Predicate<Vacuna> accion) {
+	}
+
+	// Catálogo del que lee las vacunas que guarda por su cuenta, o null. Las
+	// instantáneas lo leen directamente: no cambia nunca.
+	public default CatalogoBinario catalogo() {
+		return null;
+	}
+
+	// Recuentos de las vacunas que guarda por su cuenta (ver
+	// recorrerEstadoPropio), o null si no tiene.
+	public default EstadisticasVacunas estadisticasPropias() {
+		return null;
+	}
+
+	// true si no se queda con las vacunas que recibe sino con copias, y
+	// obtener da otra vista cada vez (ver ColeccionFueraHeap). VacAlmacen no
+	// las indexa: las recorre con recorrerEstadoPropio, propiasEnOrden y
+	// recorrerPropiasConTexto, y las instantáneas las da instantanea().
+	public default boolean guardaPropias() {
+		return false;
+	}
+
+	// Observador del almacén, para las vistas que crea una colección que
+	// guarda propias.
+	public default void vincular(IObservadorVacuna observador) {
+	}
+
+	// true si v es la vacuna que tiene ahora con su código
+	public default boolean contiene(Vacuna v) {
+		return this.obtener(v.getCodigo()) == v;
+	}
+
+	// Las vacunas como están ahora, con el estado contado; solo las que
+	// guardan propias.
+	public default InstantaneaAlmacen instantanea() {
+		return null;
+	}
+
+	// Deja en su sitio lo que guarda, si lo guarda en un fichero que se
+	// conserva, y suelta lo que tenga abierto. Después no se usa.
+	public default void cerrar() throws IOException {
+	}
+
+}
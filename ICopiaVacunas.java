@@ -0,0 +1,29 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.function.Predicate;
+
+/**
+ * Las vacunas de una colección que guarda sus propias copias (ver
+ * IColeccionVacunas.guardaPropias) tal como estaban en un momento: no cambia
+ * nunca. InstantaneaAlmacen se apoya en ella. Las vacunas que da son copias
+ * sueltas con el estado que tenía contado el almacén.
+ *
+ * @author luPinheiro
+ */
+interface ICopiaVacunas extends Iterable<Vacuna> {
+
+	long getVersion();
+
+	int tamano();
+
+	Vacuna buscarVacuna(String codigo);
+
+	// en el mismo orden que iterator(), hasta que la acción devuelva false;
+	// false si se paró
+	boolean recorrer(Predicate<Vacuna> accion);
+}
@@ -0,0 +1,38 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Recibe los cambios de estado y de datos de una vacuna. Lo usa VacAlmacen
+ * para mantener sus índices al día cuando se modifica una fase, se autoriza o
+ * rechaza una vacuna o se cambia alguno de sus datos directamente.
+ *
+ * @author luPinheiro
+ */
+interface IObservadorVacuna {
+
+	// anterior y nuevo son palabras de estado de VacunaAutorizacion; se llama
+	// tras cada compareAndSet con éxito (fases, autorización o rechazo)
+	public void estadoCambiado(VacunaAutorizacion vacuna, long anterior, long nuevo);
+
+	// un resultado de fase no superada (1 a 3), que no cambia la palabra de
+	// estado; para el historial
+	public default void faseNoSuperada(VacunaAutorizacion vacuna, byte fase) {
+	}
+
+	// los setters de Vacuna no cambian el dato por su cuenta: piden al
+	// observador que ejecute el cambio, y así puede mirar la vacuna justo
+	// antes y justo después sin que otro hilo se cuele entre medias
+	public default void modificarDatos(Vacuna vacuna, Runnable cambio) {
+		cambio.run();
+	}
+
+	// donde se anota cuánto tardan las transiciones; null si no se miden
+	public default MetricasAlmacen getMetricas() {
+		return null;
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Recibe todas las operaciones que modifican un VacAlmacen. Los avisos de un
+ * mismo código llegan en el mismo orden en que se aplicaron, porque se hacen
+ * mientras el almacén tiene bloqueada la entrada de ese código.
+ *
+ * @author luPinheiro
+ */
+public interface IOyenteAlmacen {
+
+	public void vacunaAgregada(Vacuna v);
+
+	public void vacunaEliminada(Vacuna v);
+
+	// cambio de fase, autorización o rechazo; anterior y nuevo son palabras de
+	// estado de VacunaAutorizacion. Los avisos de un código se encadenan: el
+	// anterior de uno es el nuevo del aviso previo, y dos cambios muy seguidos
+	// pueden llegar juntos en un solo aviso
+	public void estadoCambiado(Vacuna v, long anterior, long nuevo);
+
+	// nombre, principio activo, farmacéutica o precio cambiados con un setter;
+	// v ya tiene los datos nuevos
+	public default void datosModificados(Vacuna v) {
+	}
+
+	// VacAlmacen avisa del principio y fin de una carga en bloque hecha por un
+	// hilo, por si el oyente puede agrupar el trabajo de todas sus operaciones
+	public default void inicioLote() {
+	}
+
+	public default void finLote() {
+	}
+
+}
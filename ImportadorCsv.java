@@ -0,0 +1,268 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Importa vacunas en bloque desde un fichero CSV con las columnas
+ * codigo, nombre, principio activo, farmacéutica y precio.
+ *
+ * El fichero se lee en streaming por bloques de líneas; cada bloque se
+ * analiza y valida (CodigoVacuna) en paralelo en el ForkJoinPool común y los bloques se
+ * agregan al almacén en orden con VacAlmacen.agregarTodas. Solo hay en memoria
+ * unos pocos bloques a la vez, sea cual sea el tamaño del fichero.
+ *
+ * Si la primera línea empieza por "codigo" o "código" se toma como cabecera
+ * (una marca de orden de bytes UTF-8 al principio se salta). El separador, si
+ * no se indica, es ';' si la cabecera lo tiene y ',' si no; sin cabecera, el
+ * que deja más líneas del primer bloque con las cinco columnas. Con ';' el
+ * precio puede llevar coma decimal. Los campos pueden ir entre comillas
+ * dobles ("" dentro de un campo es una comilla). Si un código se repite en
+ * cualquier parte del fichero gana la última línea, y las anteriores salen
+ * como rechazadas: para eso se guarda la línea de cada código importado
+ * mientras dura la importación.
+ *
+ * @author luPinheiro
+ */
+public class ImportadorCsv {
+
+	public static final int LINEAS_POR_BLOQUE = 8192;
+	// separador para importar: el que se vea en el fichero
+	public static final char DETECTAR = 0;
+	private static final int NUMERO_COLUMNAS = 5;
+
+	private ImportadorCsv() {
+	}
+
+	public static InformeImportacion importar(Path fichero, VacAlmacen almacen) throws IOException {
+		return importar(fichero, almacen, DETECTAR);
+	}
+
+	/**
+	 * @param separador Tipo char - ';', ',' o DETECTAR
+	 */
+	public static InformeImportacion importar(Path fichero, VacAlmacen almacen, char separador) throws IOException {
+		try (BufferedReader lector = Files.newBufferedReader(fichero, StandardCharsets.UTF_8)) {
+			return importar(lector, almacen, separador);
+		}
+	}
+
+	public static InformeImportacion importar(Reader entrada, VacAlmacen almacen) throws IOException {
+		return importar(entrada, almacen, DETECTAR);
+	}
+
+	public static InformeImportacion importar(Reader entrada, VacAlmacen almacen, char separador)
+			throws IOException {
+		if (separador != DETECTAR && separador != ';' && separador != ',') {
+			throw new IllegalArgumentException("El separador tiene que ser ';' o ','");
+		}
+		BufferedReader lector = (entrada instanceof BufferedReader) ? (BufferedReader) entrada
+				: new BufferedReader(entrada, 64 * 1024);
+		InformeImportacion informe = new InformeImportacion();
+		// línea de la que sale cada código ya agregado, de todos los bloques
+		HashMap<String, Long> importados = new HashMap<String, Long>();
+		int maximoEnCurso = ForkJoinPool.getCommonPoolParallelism() + 1;
+		ArrayDeque<CompletableFuture<Bloque>> enCurso = new ArrayDeque<CompletableFuture<Bloque>>();
+
+		long numeroLinea = 0;
+		long primeraDelBloque = 1;
+		List<String> lineas = new ArrayList<String>(LINEAS_POR_BLOQUE);
+		String linea;
+		while ((linea = lector.readLine()) != null) {
+			numeroLinea++;
+			if (numeroLinea == 1) {
+				if (linea.startsWith("\uFEFF")) {
+					linea = linea.substring(1);
+				}
+				String inicio = linea.trim().toLowerCase();
+				if (inicio.startsWith("codigo") || inicio.startsWith("código")) {
+					if (separador == DETECTAR) {
+						separador = (linea.indexOf(';') >= 0) ? ';' : ',';
+					}
+					primeraDelBloque = numeroLinea + 1;
+					continue;
+				}
+			}
+			lineas.add(linea);
+			if (lineas.size() == LINEAS_POR_BLOQUE) {
+				if (separador == DETECTAR) {
+					separador = elegirSeparador(lineas);
+				}
+				enCurso.add(analizarEnParalelo(lineas, primeraDelBloque, separador));
+				lineas = new ArrayList<String>(LINEAS_POR_BLOQUE);
+				primeraDelBloque = numeroLinea + 1;
+				if (enCurso.size() >= maximoEnCurso) {
+					agregar(enCurso.poll().join(), importados, almacen, informe);
+				}
+			}
+		}
+		if (!lineas.isEmpty()) {
+			if (separador == DETECTAR) {
+				separador = elegirSeparador(lineas);
+			}
+			enCurso.add(analizarEnParalelo(lineas, primeraDelBloque, separador));
+		}
+		while (!enCurso.isEmpty()) {
+			agregar(enCurso.poll().join(), importados, almacen, informe);
+		}
+		informe.ordenarRechazadas();
+		return informe;
+	}
+
+	// sin cabecera: el que da las cinco columnas en más líneas; una primera
+	// línea mal formada no decide por todo el fichero
+	private static char elegirSeparador(List<String> lineas) {
+		int conPuntoYComa = 0;
+		int conComa = 0;
+		List<String> campos = new ArrayList<String>(NUMERO_COLUMNAS);
+		for (String linea : lineas) {
+			if (separarCampos(linea, ';', campos) == null && campos.size() == NUMERO_COLUMNAS) {
+				conPuntoYComa++;
+			}
+			if (separarCampos(linea, ',', campos) == null && campos.size() == NUMERO_COLUMNAS) {
+				conComa++;
+			}
+		}
+		return (conComa > conPuntoYComa) ? ',' : ';';
+	}
+
+	private static CompletableFuture<Bloque> analizarEnParalelo(List<String> lineas, long primeraLinea,
+			char separador) {
+		return CompletableFuture.supplyAsync(() -> analizar(lineas, primeraLinea, separador),
+				ForkJoinPool.commonPool());
+	}
+
+	// en orden de bloque: un código que ya vino en un bloque anterior
+	// sustituye a aquella vacuna en el almacén, y su línea sale rechazada
+	private static void agregar(Bloque bloque, HashMap<String, Long> importados, VacAlmacen almacen,
+			InformeImportacion informe) {
+		int nuevas = 0;
+		for (String codigo : bloque.vacunas.keySet()) {
+			long numeroLinea = bloque.lineas.get(codigo);
+			Long anterior = importados.put(codigo, numeroLinea);
+			if (anterior == null) {
+				nuevas++;
+			} else {
+				bloque.rechazadas.add(new InformeImportacion.LineaRechazada(anterior,
+						"código repetido (" + codigo + "), se queda el de la línea " + numeroLinea));
+			}
+		}
+		almacen.agregarTodas(bloque.vacunas.values());
+		informe.sumarImportadas(nuevas);
+		informe.rechazar(bloque.rechazadas);
+	}
+
+	// vacunas válidas de un bloque (si un código se repite en el bloque gana
+	// la última) y líneas rechazadas
+	private static class Bloque {
+		private final LinkedHashMap<String, Vacuna> vacunas = new LinkedHashMap<String, Vacuna>();
+		// línea de la que sale cada vacuna de vacunas
+		private final HashMap<String, Long> lineas = new HashMap<String, Long>();
+		private final List<InformeImportacion.LineaRechazada> rechazadas = new ArrayList<InformeImportacion.LineaRechazada>();
+	}
+
+	private static Bloque analizar(List<String> lineas, long primeraLinea, char separador) {
+		Bloque bloque = new Bloque();
+		List<String> campos = new ArrayList<String>(NUMERO_COLUMNAS);
+		for (int i = 0; i < lineas.size(); i++) {
+			long numeroLinea = primeraLinea + i;
+			String linea = lineas.get(i);
+			if (linea.trim().isEmpty()) {
+				continue;
+			}
+			String error = separarCampos(linea, separador, campos);
+			if (error == null && campos.size() != NUMERO_COLUMNAS) {
+				error = "se esperaban " + NUMERO_COLUMNAS + " columnas y hay " + campos.size();
+			}
+			if (error == null) {
+				error = crearVacuna(campos, separador, numeroLinea, bloque);
+			}
+			if (error != null) {
+				bloque.rechazadas.add(new InformeImportacion.LineaRechazada(numeroLinea, error));
+			}
+		}
+		return bloque;
+	}
+
+	private static String crearVacuna(List<String> campos, char separador, long numeroLinea, Bloque bloque) {
+		String codigo = campos.get(0).trim();
+		if (!CodigoVacuna.esValido(codigo)) {
+			return "código no válido (" + codigo + ")";
+		}
+		String nombre = campos.get(1).trim();
+		if (nombre.isEmpty()) {
+			return "falta el nombre";
+		}
+		String textoPrecio = campos.get(4).trim();
+		if (separador == ';') {
+			textoPrecio = textoPrecio.replace(',', '.');
+		}
+		double precio;
+		try {
+			precio = Double.parseDouble(textoPrecio);
+		} catch (NumberFormatException e) {
+			return "precio no válido (" + campos.get(4) + ")";
+		}
+		if (precio < 0 || Double.isNaN(precio) || Double.isInfinite(precio)) {
+			return "precio no válido (" + campos.get(4) + ")";
+		}
+		Long anterior = bloque.lineas.put(codigo, numeroLinea);
+		if (anterior != null) {
+			bloque.rechazadas.add(new InformeImportacion.LineaRechazada(anterior,
+					"código repetido (" + codigo + "), se queda el de la línea " + numeroLinea));
+		}
+		bloque.vacunas.remove(codigo);
+		bloque.vacunas.put(codigo, new Vacuna(codigo, nombre, campos.get(2).trim(), campos.get(3).trim(), precio));
+		return null;
+	}
+
+	// separa una línea en campos; devuelve un mensaje de error o null
+	private static String separarCampos(String linea, char separador, List<String> campos) {
+		campos.clear();
+		StringBuilder campo = new StringBuilder();
+		boolean entreComillas = false;
+		for (int i = 0; i < linea.length(); i++) {
+			char c = linea.charAt(i);
+			if (entreComillas) {
+				if (c == '"') {
+					if (i + 1 < linea.length() && linea.charAt(i + 1) == '"') {
+						campo.append('"');
+						i++;
+					} else {
+						entreComillas = false;
+					}
+				} else {
+					campo.append(c);
+				}
+			} else if (c == '"') {
+				entreComillas = true;
+			} else if (c == separador) {
+				campos.add(campo.toString());
+				campo.setLength(0);
+			} else {
+				campo.append(c);
+			}
+		}
+		if (entreComillas) {
+			return "comillas sin cerrar";
+		}
+		campos.add(campo.toString());
+		return null;
+	}
+}
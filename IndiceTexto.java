@@ -0,0 +1,206 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice invertido de los textos de las vacunas: para cada campo, qué claves
+ * (códigos, o registros de un catálogo) contienen cada término. Los términos
+ * se guardan en minúsculas y sin tildes ni diéresis (ñ pasa a n y ç a c), así
+ * que "ARNm", "arnm" y "ÁRNm" son el mismo término.
+ *
+ * Una búsqueda solo mira las listas de los términos pedidos, así que tarda lo
+ * mismo con mil vacunas que con millones; depende de cuántas coincidan.
+ *
+ * @author luPinheiro
+ */
+class IndiceTexto<K> {
+
+	private final EnumMap<CampoTexto, Map<String, Set<K>>> campos = new EnumMap<CampoTexto, Map<String, Set<K>>>(CampoTexto.class);
+	private final boolean concurrente;
+
+	IndiceTexto(boolean concurrente) {
+		this.concurrente = concurrente;
+		for (CampoTexto campo : CampoTexto.values()) {
+			this.campos.put(campo, concurrente ? new ConcurrentHashMap<String, Set<K>>() : new HashMap<String, Set<K>>());
+		}
+	}
+
+	void agregar(K clave, Vacuna v) {
+		for (CampoTexto campo : CampoTexto.values()) {
+			this.agregar(clave, campo, campo.de(v));
+		}
+	}
+
+	void agregar(K clave, CampoTexto campo, String texto) {
+		this.agregar(clave, campo, terminos(texto));
+	}
+
+	void agregar(K clave, CampoTexto campo, List<String> terminos) {
+		for (String termino : terminos) {
+			// compute es atómico por término, así dos códigos con cerrojos
+			// distintos pueden tocar la misma lista
+			this.campos.get(campo).compute(termino, (t, claves) -> {
+				if (claves == null) {
+					claves = this.concurrente ? ConcurrentHashMap.<K>newKeySet(2) : new HashSet<K>(2);
+				}
+				claves.add(clave);
+				return claves;
+			});
+		}
+	}
+
+	void quitar(K clave, Vacuna v) {
+		for (CampoTexto campo : CampoTexto.values()) {
+			for (String termino : terminos(campo.de(v))) {
+				this.campos.get(campo).computeIfPresent(termino, (t, claves) -> {
+					claves.remove(clave);
+					return claves.isEmpty() ? null : claves;
+				});
+			}
+		}
+	}
+
+	/**
+	 * @param terminos Tipo List - términos ya normalizados con terminos()
+	 * @param campos Tipo Set - campos donde se buscan
+	 * @param todos Tipo boolean - true si tienen que estar todos los términos
+	 * (Y), false si basta con uno (O)
+	 * @return Tipo Set - claves que cumplen la consulta; es una copia
+	 */
+	Set<K> buscar(List<String> terminos, Set<CampoTexto> campos, boolean todos) {
+		Set<K> resultado = new HashSet<K>();
+		if (terminos.isEmpty()) {
+			return resultado;
+		}
+		// listas de cada término en los campos pedidos
+		List<List<Set<K>>> listas = new ArrayList<List<Set<K>>>(terminos.size());
+		int masCorto = 0;
+		int tamanoMasCorto = Integer.MAX_VALUE;
+		for (String termino : terminos) {
+			List<Set<K>> delTermino = new ArrayList<Set<K>>(campos.size());
+			int tamano = 0;
+			for (CampoTexto campo : campos) {
+				Set<K> claves = this.campos.get(campo).get(termino);
+				if (claves != null) {
+					delTermino.add(claves);
+					tamano += claves.size();
+				}
+			}
+			if (todos && tamano < tamanoMasCorto) {
+				masCorto = listas.size();
+				tamanoMasCorto = tamano;
+			}
+			listas.add(delTermino);
+		}
+		if (!todos) {
+			for (List<Set<K>> delTermino : listas) {
+				for (Set<K> claves : delTermino) {
+					resultado.addAll(claves);
+				}
+			}
+			return resultado;
+		}
+		// Y: se recorre solo el término más raro y se pregunta a los demás, así
+		// "vacuna 7" no copia la lista de "vacuna", que tiene casi todas
+		for (Set<K> claves : listas.get(masCorto)) {
+			for (K clave : claves) {
+				boolean enTodos = true;
+				for (int t = 0; t < listas.size() && enTodos; t++) {
+					enTodos = t == masCorto || contiene(listas.get(t), clave);
+				}
+				if (enTodos) {
+					resultado.add(clave);
+				}
+			}
+		}
+		return resultado;
+	}
+
+	/**
+	 * La misma consulta que buscar() sobre una sola vacuna, para quien no
+	 * tiene índice y recorre las vacunas
+	 *
+	 * @return Tipo boolean - true si buscar() la daría
+	 */
+	static boolean cumple(Vacuna v, List<String> terminos, Set<CampoTexto> campos, boolean todos) {
+		if (terminos.isEmpty()) {
+			return false;
+		}
+		List<List<String>> enCampos = new ArrayList<List<String>>(campos.size());
+		for (CampoTexto campo : campos) {
+			enCampos.add(terminos(campo.de(v)));
+		}
+		for (String termino : terminos) {
+			boolean esta = false;
+			for (int c = 0; c < enCampos.size() && !esta; c++) {
+				esta = enCampos.get(c).contains(termino);
+			}
+			if (esta != todos) {
+				return esta;
+			}
+		}
+		return todos;
+	}
+
+	private static <K> boolean contiene(List<Set<K>> listas, K clave) {
+		for (Set<K> claves : listas) {
+			if (claves.contains(clave)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parte un texto en términos: secuencias de letras y números, en
+	 * minúsculas y sin tildes. Todo lo demás separa.
+	 *
+	 * @param texto Tipo CharSequence - texto a partir, puede ser null
+	 * @return Tipo List - términos sin repetir, en orden de aparición
+	 */
+	static List<String> terminos(CharSequence texto) {
+		List<String> terminos = new ArrayList<String>();
+		if (texto == null) {
+			return terminos;
+		}
+		StringBuilder actual = new StringBuilder();
+		for (int i = 0; i <= texto.length(); i++) {
+			char c = i < texto.length() ? texto.charAt(i) : ' ';
+			if (Character.getType(c) == Character.NON_SPACING_MARK) {
+				continue; // tilde suelta de un texto ya descompuesto
+			}
+			if (Character.isLetterOrDigit(c)) {
+				actual.append(plegar(c));
+			} else if (actual.length() > 0) {
+				String termino = actual.toString();
+				if (!terminos.contains(termino)) {
+					terminos.add(termino);
+				}
+				actual.setLength(0);
+			}
+		}
+		return terminos;
+	}
+
+	// minúscula sin tilde: á -> a, Ü -> u, ñ -> n, ç -> c
+	private static char plegar(char c) {
+		if (c < 0x80) {
+			return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+		}
+		char base = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD).charAt(0);
+		return Character.toLowerCase(base);
+	}
+}
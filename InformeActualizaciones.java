@@ -0,0 +1,52 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.EnumMap;
+
+/**
+ * Resultado de aplicar un lote de actualizaciones: qué pasó con cada una, en
+ * el mismo orden en que llegaron, y cuántas hubo de cada resultado.
+ *
+ * @author luPinheiro
+ */
+public class InformeActualizaciones {
+
+	private final ResultadoActualizacion[] resultados;
+	private final EnumMap<ResultadoActualizacion, Integer> numeroPorResultado = new EnumMap<ResultadoActualizacion, Integer>(ResultadoActualizacion.class);
+
+	InformeActualizaciones(ResultadoActualizacion[] resultados) {
+		this.resultados = resultados;
+		for (ResultadoActualizacion r : resultados) {
+			this.numeroPorResultado.merge(r, 1, Integer::sum);
+		}
+	}
+
+	public int getNumeroActualizaciones() {
+		return this.resultados.length;
+	}
+
+	/**
+	 * @param i Tipo int - posición de la actualización en el lote
+	 * @return Tipo ResultadoActualizacion - qué pasó con ella
+	 */
+	public ResultadoActualizacion getResultado(int i) {
+		return this.resultados[i];
+	}
+
+	public int getNumero(ResultadoActualizacion resultado) {
+		return this.numeroPorResultado.getOrDefault(resultado, 0);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder texto = new StringBuilder("Actualizaciones: ").append(this.resultados.length);
+		for (ResultadoActualizacion r : this.numeroPorResultado.keySet()) {
+			texto.append(' ').append(r).append(": ").append(this.numeroPorResultado.get(r));
+		}
+		return texto.toString();
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Resultado de una importación: cuántas vacunas se agregaron y qué líneas se
+ * rechazaron y por qué.
+ *
+ * @author luPinheiro
+ */
+public class InformeImportacion {
+
+	private long importadas;
+	private final List<LineaRechazada> rechazadas = new ArrayList<LineaRechazada>();
+
+	void sumarImportadas(int n) {
+		this.importadas += n;
+	}
+
+	void rechazar(List<LineaRechazada> lineas) {
+		this.rechazadas.addAll(lineas);
+	}
+
+	// las de un código repetido en otro bloque llegan después que las de
+	// su bloque
+	void ordenarRechazadas() {
+		this.rechazadas.sort(Comparator.comparingLong(LineaRechazada::getNumeroLinea));
+	}
+
+	public long getImportadas() {
+		return this.importadas;
+	}
+
+	// en orden de número de línea
+	public List<LineaRechazada> getRechazadas() {
+		return Collections.unmodifiableList(this.rechazadas);
+	}
+
+	@Override
+	public String toString() {
+		return "Vacunas importadas: " + this.importadas + " Líneas rechazadas: " + this.rechazadas.size();
+	}
+
+	/**
+	 * Una línea del fichero que no se pudo importar.
+	 */
+	public static class LineaRechazada {
+
+		private final long numeroLinea;
+		private final String motivo;
+
+		LineaRechazada(long numeroLinea, String motivo) {
+			this.numeroLinea = numeroLinea;
+			this.motivo = motivo;
+		}
+
+		public long getNumeroLinea() {
+			return this.numeroLinea;
+		}
+
+		public String getMotivo() {
+			return this.motivo;
+		}
+
+		@Override
+		public String toString() {
+			return "Línea " + this.numeroLinea + ": " + this.motivo;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Las vacunas de un VacAlmacen tal como estaban en un momento, sin cambios a
+ * medias: VacAlmacen.instantanea() la devuelve al instante y después se puede
+ * recorrer todo el tiempo que haga falta mientras el almacén se sigue
+ * modificando. Cada modificación del almacén crea una instantánea nueva que
+ * comparte con la anterior casi todo (ver MapaPersistente); esta no cambia
+ * nunca.
+ *
+ * Guarda una copia congelada de cada vacuna con los datos y la palabra de
+ * estado que contó el almacén. Las que siguen en un catálogo mapeado sin
+ * haberse pedido se leen del catálogo, que tampoco cambia.
+ *
+ * La de un almacén cuya colección guarda sus propias copias (fuera del heap,
+ * en disco) es una ICopiaVacunas de esa colección.
+ *
+ * @author luPinheiro
+ */
+public final class InstantaneaAlmacen implements Iterable<Vacuna> {
+
+	// código que sigue en el catálogo pero ya no está en el almacén
+	private static final Vacuna ELIMINADA = new Vacuna();
+
+	private final MapaPersistente<Vacuna> vacunas;
+	private final CatalogoBinario catalogo;
+	private final ICopiaVacunas copia;
+	private final long version;
+	private final int numero;
+
+	private InstantaneaAlmacen(MapaPersistente<Vacuna> vacunas, CatalogoBinario catalogo, long version, int numero) {
+		this.vacunas = vacunas;
+		this.catalogo = catalogo;
+		this.copia = null;
+		this.version = version;
+		this.numero = numero;
+	}
+
+	private InstantaneaAlmacen(ICopiaVacunas copia) {
+		this.vacunas = MapaPersistente.<Vacuna>vacio();
+		this.catalogo = null;
+		this.copia = copia;
+		this.version = copia.getVersion();
+		this.numero = copia.tamano();
+	}
+
+	/**
+	 * @param catalogo Tipo CatalogoBinario - de donde lee el almacén las
+	 * vacunas que no tiene en memoria, o null
+	 */
+	static InstantaneaAlmacen vacia(CatalogoBinario catalogo) {
+		return new InstantaneaAlmacen(MapaPersistente.<Vacuna>vacio(), catalogo, 0,
+				(catalogo == null) ? 0 : catalogo.getNumeroRegistros());
+	}
+
+	// con y sin no valen para esta: cada copia de la colección es otra
+	static InstantaneaAlmacen de(ICopiaVacunas copia) {
+		return new InstantaneaAlmacen(copia);
+	}
+
+	/**
+	 * @return Tipo long - número de modificaciones del almacén que incluye;
+	 * una instantánea posterior tiene un número mayor
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	public int getNumeroVacunas() {
+		return this.numero;
+	}
+
+	public boolean estaVacia() {
+		return this.numero == 0;
+	}
+
+	/**
+	 * @param codigo Tipo String
+	 * @return Tipo Vacuna - copia de la vacuna como estaba, o null si no
+	 * estaba; cambiarla no afecta ni a la instantánea ni al almacén
+	 */
+	public Vacuna buscarVacuna(String codigo) {
+		if (this.copia != null) {
+			return this.copia.buscarVacuna(codigo);
+		}
+		Vacuna v = this.vacunas.obtener(codigo);
+		if (v == null) {
+			int registro = (this.catalogo == null) ? -1 : this.catalogo.buscar(codigo);
+			return (registro < 0) ? null : this.catalogo.materializar(registro);
+		}
+		return (v == ELIMINADA) ? null : v.copiar(v.getPalabraEstado());
+	}
+
+	/**
+	 * Recorre copias de las vacunas, como buscarVacuna, en un orden que no
+	 * cambia mientras no cambien los códigos
+	 */
+	@Override
+	public Iterator<Vacuna> iterator() {
+		if (this.copia != null) {
+			return this.copia.iterator();
+		}
+		return new Iterator<Vacuna>() {
+			private final Iterator<Vacuna> congeladas = vacunas.valores();
+			private int registro = 0;
+			private Vacuna siguiente = this.avanzar();
+
+			private Vacuna avanzar() {
+				while (this.congeladas.hasNext()) {
+					Vacuna v = this.congeladas.next();
+					if (v != ELIMINADA) {
+						return v.copiar(v.getPalabraEstado());
+					}
+				}
+				while (catalogo != null && this.registro < catalogo.getNumeroRegistros()) {
+					int r = this.registro++;
+					if (vacunas.obtener(catalogo.getCodigo(r)) == null) {
+						return catalogo.materializar(r);
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.siguiente != null;
+			}
+
+			@Override
+			public Vacuna next() {
+				if (this.siguiente == null) {
+					throw new NoSuchElementException();
+				}
+				Vacuna v = this.siguiente;
+				this.siguiente = this.avanzar();
+				return v;
+			}
+		};
+	}
+
+	// en el mismo orden que iterator() pero sin copiar las congeladas: solo
+	// para leerlas, nadie de fuera debe quedarse con ellas
+	void recorrer(Predicate<Vacuna> accion) {
+		if (this.copia != null) {
+			this.copia.recorrer(accion);
+			return;
+		}
+		boolean seguir = this.vacunas.recorrer(v -> v == ELIMINADA || accion.test(v));
+		for (int r = 0; seguir && this.catalogo != null && r < this.catalogo.getNumeroRegistros(); r++) {
+			if (this.vacunas.obtener(this.catalogo.getCodigo(r)) == null) {
+				seguir = accion.test(this.catalogo.materializar(r));
+			}
+		}
+	}
+
+	/**
+	 * @param congelada Tipo Vacuna - copia que nadie más va a cambiar
+	 * @return Tipo InstantaneaAlmacen - la siguiente versión, con la vacuna
+	 * congelada en lugar de la que hubiera con su código
+	 */
+	InstantaneaAlmacen con(Vacuna congelada) {
+		String codigo = congelada.getCodigo();
+		if (this.catalogo == null) {
+			// sin catálogo el número es el tamaño del mapa: no hace falta
+			// buscar antes lo que había
+			MapaPersistente<Vacuna> vacunas = this.vacunas.con(codigo, congelada);
+			return new InstantaneaAlmacen(vacunas, null, this.version + 1, vacunas.tamano());
+		}
+		Vacuna anterior = this.vacunas.obtener(codigo);
+		boolean nueva = (anterior == null) ? !this.enCatalogo(codigo) : anterior == ELIMINADA;
+		return new InstantaneaAlmacen(this.vacunas.con(codigo, congelada), this.catalogo, this.version + 1,
+				nueva ? this.numero + 1 : this.numero);
+	}
+
+	/**
+	 * @return Tipo InstantaneaAlmacen - la siguiente versión, sin la vacuna
+	 * de ese código; esta misma si ya no estaba
+	 */
+	InstantaneaAlmacen sin(String codigo) {
+		if (this.catalogo == null) {
+			MapaPersistente<Vacuna> vacunas = this.vacunas.sin(codigo);
+			return (vacunas == this.vacunas) ? this
+					: new InstantaneaAlmacen(vacunas, null, this.version + 1, vacunas.tamano());
+		}
+		Vacuna anterior = this.vacunas.obtener(codigo);
+		boolean enCatalogo = this.enCatalogo(codigo);
+		if (anterior == ELIMINADA || (anterior == null && !enCatalogo)) {
+			return this;
+		}
+		// la del catálogo se tapa para que no vuelva a aparecer
+		MapaPersistente<Vacuna> vacunas = enCatalogo ? this.vacunas.con(codigo, ELIMINADA) : this.vacunas.sin(codigo);
+		return new InstantaneaAlmacen(vacunas, this.catalogo, this.version + 1, this.numero - 1);
+	}
+
+	private boolean enCatalogo(String codigo) {
+		return this.catalogo != null && this.catalogo.buscar(codigo) >= 0;
+	}
+}
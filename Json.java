@@ -0,0 +1,239 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lo justo de JSON para el servidor: escribir vacunas y leer objetos planos
+ * (textos, números, true/false y null, sin objetos ni listas dentro).
+ *
+ * @author luPinheiro
+ */
+final class Json {
+
+	private Json() {
+	}
+
+	static StringBuilder vacuna(Vacuna v, StringBuilder json) {
+		json.append("{\"codigo\":");
+		texto(v.getCodigo(), json);
+		json.append(",\"nombre\":");
+		texto(v.getNombre(), json);
+		json.append(",\"principioActivo\":");
+		texto(v.getPrincipioActivo(), json);
+		json.append(",\"farmaceutica\":");
+		texto(v.getFarmaceutica(), json);
+		json.append(",\"precioRecomendado\":");
+		numero(v.getPrecioRecomendado(), json);
+		json.append(",\"estado\":\"").append(v.getEstado()).append('"');
+		json.append(",\"fasesCompletadas\":").append(v.getFasesCompletadas());
+		json.append(",\"resultadoUltimaFase\":").append(v.getResultadoUltimaFase());
+		LocalDate fecha = v.getFechaResultado();
+		json.append(",\"fechaResultado\":");
+		texto(fecha == null ? null : fecha.toString(), json);
+		return json.append('}');
+	}
+
+	static StringBuilder vacunas(Iterable<Vacuna> vacunas, StringBuilder json) {
+		json.append('[');
+		boolean primera = true;
+		for (Vacuna v : vacunas) {
+			if (!primera) {
+				json.append(',');
+			}
+			vacuna(v, json);
+			primera = false;
+		}
+		return json.append(']');
+	}
+
+	static StringBuilder texto(String texto, StringBuilder json) {
+		if (texto == null) {
+			return json.append("null");
+		}
+		json.append('"');
+		for (int i = 0; i < texto.length(); i++) {
+			char c = texto.charAt(i);
+			switch (c) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				} else {
+					json.append(c);
+				}
+			}
+		}
+		return json.append('"');
+	}
+
+	// NaN e infinito no existen en JSON
+	static StringBuilder numero(double numero, StringBuilder json) {
+		if (Double.isNaN(numero) || Double.isInfinite(numero)) {
+			return json.append("null");
+		}
+		return json.append(numero);
+	}
+
+	/**
+	 * @param json Tipo String - un objeto plano: {"a": "x", "b": 1.5, "c": true}
+	 * @return Tipo Map - String, Double, Boolean o null por cada clave
+	 * @throws IllegalArgumentException si no es un objeto plano válido
+	 */
+	static Map<String, Object> leerObjeto(String json) {
+		Lector lector = new Lector(json);
+		Map<String, Object> objeto = new HashMap<String, Object>();
+		lector.esperar('{');
+		if (!lector.siguienteEs('}')) {
+			do {
+				String clave = lector.texto();
+				lector.esperar(':');
+				objeto.put(clave, lector.valor());
+			} while (lector.siguienteEs(','));
+			lector.esperar('}');
+		}
+		lector.saltarEspacios();
+		if (lector.posicion < json.length()) {
+			throw lector.error("sobra texto al final");
+		}
+		return objeto;
+	}
+
+	private static final class Lector {
+		private final String json;
+		private int posicion;
+
+		Lector(String json) {
+			this.json = json;
+		}
+
+		void saltarEspacios() {
+			while (this.posicion < this.json.length() && " \t\r\n".indexOf(this.json.charAt(this.posicion)) >= 0) {
+				this.posicion++;
+			}
+		}
+
+		// consume c si es lo siguiente
+		boolean siguienteEs(char c) {
+			this.saltarEspacios();
+			if (this.posicion < this.json.length() && this.json.charAt(this.posicion) == c) {
+				this.posicion++;
+				return true;
+			}
+			return false;
+		}
+
+		void esperar(char c) {
+			if (!this.siguienteEs(c)) {
+				throw this.error("se esperaba '" + c + "'");
+			}
+		}
+
+		Object valor() {
+			this.saltarEspacios();
+			if (this.posicion >= this.json.length()) {
+				throw this.error("falta un valor");
+			}
+			char c = this.json.charAt(this.posicion);
+			if (c == '"') {
+				return this.texto();
+			}
+			if (this.json.startsWith("true", this.posicion)) {
+				this.posicion += 4;
+				return Boolean.TRUE;
+			}
+			if (this.json.startsWith("false", this.posicion)) {
+				this.posicion += 5;
+				return Boolean.FALSE;
+			}
+			if (this.json.startsWith("null", this.posicion)) {
+				this.posicion += 4;
+				return null;
+			}
+			int inicio = this.posicion;
+			while (this.posicion < this.json.length() && "+-.0123456789eE".indexOf(this.json.charAt(this.posicion)) >= 0) {
+				this.posicion++;
+			}
+			try {
+				return Double.valueOf(this.json.substring(inicio, this.posicion));
+			} catch (NumberFormatException e) {
+				this.posicion = inicio;
+				throw this.error("valor no válido");
+			}
+		}
+
+		String texto() {
+			this.esperar('"');
+			StringBuilder texto = new StringBuilder();
+			while (this.posicion < this.json.length()) {
+				char c = this.json.charAt(this.posicion++);
+				if (c == '"') {
+					return texto.toString();
+				}
+				if (c != '\\') {
+					texto.append(c);
+					continue;
+				}
+				if (this.posicion >= this.json.length()) {
+					break;
+				}
+				char escapado = this.json.charAt(this.posicion++);
+				switch (escapado) {
+				case 'n':
+					texto.append('\n');
+					break;
+				case 'r':
+					texto.append('\r');
+					break;
+				case 't':
+					texto.append('\t');
+					break;
+				case 'b':
+					texto.append('\b');
+					break;
+				case 'f':
+					texto.append('\f');
+					break;
+				case 'u':
+					if (this.posicion + 4 > this.json.length()) {
+						throw this.error("escape \\u incompleto");
+					}
+					try {
+						texto.append((char) Integer.parseInt(this.json.substring(this.posicion, this.posicion + 4), 16));
+					} catch (NumberFormatException e) {
+						throw this.error("escape \\u no válido");
+					}
+					this.posicion += 4;
+					break;
+				default:
+					texto.append(escapado); // \" \\ \/
+				}
+			}
+			throw this.error("texto sin cerrar");
+		}
+
+		IllegalArgumentException error(String motivo) {
+			return new IllegalArgumentException("JSON no válido en la posición " + this.posicion + ": " + motivo);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Origen de las respuestas del menú de Aplicacion: el teclado (o lo que llegue
+ * por una tubería) o un guion. Los dos se leen con un LectorEntrada y los
+ * mismos métodos de ControlData; en un guion, además, cada respuesta ocupa
+ * su línea y lo que siga a un número en la misma línea se descarta. Al
+ * acabarse la entrada lanza NoSuchElementException.
+ *
+ * @author luPinheiro
+ */
+class LectorComandos {
+
+	private final LectorEntrada entrada;
+	private final boolean guion;
+
+	/**
+	 * @param entrada Tipo LectorEntrada
+	 * @param guion Tipo boolean - true si es un guion y no el teclado
+	 */
+	LectorComandos(LectorEntrada entrada, boolean guion) {
+		this.entrada = entrada;
+		this.guion = guion;
+	}
+
+	/**
+	 * @return Tipo boolean - true si se leen comandos de un guion
+	 */
+	boolean isGuion() {
+		return this.guion;
+	}
+
+	int leerInt() {
+		try {
+			int valor = ControlData.leerInt(this.entrada);
+			this.terminarLinea();
+			return valor;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	double leerDouble() {
+		try {
+			double valor = ControlData.leerDouble(this.entrada);
+			this.terminarLinea();
+			return valor;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	String leerString() {
+		try {
+			return ControlData.leerString(this.entrada);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	char leerChar() {
+		try {
+			return ControlData.leerChar(this.entrada);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void terminarLinea() throws IOException {
+		if (this.guion) {
+			this.entrada.leerLinea();
+		}
+	}
+}
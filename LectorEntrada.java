@@ -0,0 +1,374 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Lee números, booleanos y líneas de un InputStream como Scanner, pero sin
+ * expresiones regulares ni excepciones para las entradas no válidas: los
+ * bytes se leen en bloques de 64 KiB y cada palabra (lo que hay entre
+ * espacios) se analiza a mano sobre el propio array.
+ *
+ * Los leerX devuelven false si la palabra no es un valor válido, y la saltan,
+ * como Scanner con hasNextInt() y next(); el valor leído queda en
+ * getEntero(), getDecimal() o getBooleano(). Al acabarse la entrada lanzan
+ * NoSuchElementException, como Scanner.
+ *
+ * Las líneas se decodifican con el juego de caracteres indicado, que tiene que
+ * ser compatible con ASCII (UTF-8, ISO-8859-1...): los números y los saltos de
+ * línea se buscan byte a byte. No es seguro para varios hilos.
+ *
+ * @author luPinheiro
+ */
+public final class LectorEntrada implements Closeable {
+
+	private static final int TAMANO_BLOQUE = 1 << 16;
+	// con hasta 15 cifras y 10^22 como mucho el double sale exacto con una
+	// sola multiplicación o división (Clinger); si no, Double.parseDouble
+	private static final int CIFRAS_EXACTAS = 15;
+	private static final double[] POTENCIAS = new double[23];
+
+	static {
+		POTENCIAS[0] = 1;
+		for (int i = 1; i < POTENCIAS.length; i++) {
+			POTENCIAS[i] = POTENCIAS[i - 1] * 10;
+		}
+	}
+
+	private final InputStream entrada;
+	private final Charset juego;
+	private final byte[] bloque;
+	private int posicion;
+	private int limite;
+	private boolean agotada;
+	// palabra o trozo de línea que cruza el final del bloque
+	private byte[] copia = new byte[64];
+	private int longitud;
+
+	private long entero;
+	private double decimal;
+	private boolean booleano;
+
+	public LectorEntrada(InputStream entrada) {
+		this(entrada, Charset.defaultCharset());
+	}
+
+	/**
+	 * @param entrada Tipo InputStream - de donde se lee; no hace falta que
+	 * tenga búfer
+	 * @param juego Tipo Charset - para decodificar las líneas
+	 */
+	public LectorEntrada(InputStream entrada, Charset juego) {
+		this.entrada = entrada;
+		this.juego = juego;
+		this.bloque = new byte[TAMANO_BLOQUE];
+	}
+
+	/**
+	 * @return Tipo boolean - true si queda alguna palabra por leer
+	 * @throws IOException si falla la lectura
+	 */
+	public boolean haySiguiente() throws IOException {
+		return this.saltarEspacios();
+	}
+
+	/**
+	 * Lee la siguiente palabra como entero.
+	 *
+	 * @param minimo Tipo long - menor valor admitido
+	 * @param maximo Tipo long - mayor valor admitido
+	 * @return Tipo boolean - true si es un entero entre minimo y maximo, que
+	 * queda en getEntero(); false si no, y la palabra se salta
+	 * @throws IOException si falla la lectura
+	 * @throws NoSuchElementException si no quedan palabras
+	 */
+	public boolean leerEntero(long minimo, long maximo) throws IOException {
+		this.leerPalabra();
+		byte[] b = this.copia;
+		int fin = this.longitud;
+		int i = 0;
+		boolean negativo = b[0] == '-';
+		if (negativo || b[0] == '+') {
+			i++;
+		}
+		if (i == fin) {
+			return false;
+		}
+		// en negativo, como Long.parseLong, para que quepa Long.MIN_VALUE
+		long limite = negativo ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long limiteCifra = limite / 10;
+		long valor = 0;
+		for (; i < fin; i++) {
+			int cifra = b[i] - '0';
+			if (cifra < 0 || cifra > 9 || valor < limiteCifra) {
+				return false;
+			}
+			valor *= 10;
+			if (valor < limite + cifra) {
+				return false;
+			}
+			valor -= cifra;
+		}
+		if (!negativo) {
+			valor = -valor;
+		}
+		if (valor < minimo || valor > maximo) {
+			return false;
+		}
+		this.entero = valor;
+		return true;
+	}
+
+	/**
+	 * Lee la siguiente palabra como número decimal: signo, cifras con punto o
+	 * coma decimal y exponente opcional (1,5 o -2.5e3).
+	 *
+	 * @return Tipo boolean - true si es un número, que queda en getDecimal();
+	 * false si no, y la palabra se salta
+	 * @throws IOException si falla la lectura
+	 * @throws NoSuchElementException si no quedan palabras
+	 */
+	public boolean leerDecimal() throws IOException {
+		this.leerPalabra();
+		byte[] b = this.copia;
+		int fin = this.longitud;
+		int i = 0;
+		boolean negativo = b[0] == '-';
+		if (negativo || b[0] == '+') {
+			i++;
+		}
+		long mantisa = 0;
+		int cifras = 0; // significativas, sin los ceros de delante
+		int decimales = 0;
+		boolean hayCifras = false;
+		boolean haySeparador = false;
+		for (; i < fin; i++) {
+			int c = b[i];
+			if (c >= '0' && c <= '9') {
+				hayCifras = true;
+				if (cifras < 18) { // que quepan en el long
+					mantisa = mantisa * 10 + (c - '0');
+					if (mantisa != 0) {
+						cifras++;
+					}
+					if (haySeparador) {
+						decimales++;
+					}
+				} else if (!haySeparador) {
+					decimales--; // cifra que no cabe: solo cuenta su posición
+				}
+			} else if ((c == '.' || c == ',') && !haySeparador) {
+				haySeparador = true;
+			} else {
+				break;
+			}
+		}
+		if (!hayCifras) {
+			return false;
+		}
+		int exponente = 0;
+		if (i < fin) {
+			if (b[i] != 'e' && b[i] != 'E') {
+				return false;
+			}
+			i++;
+			boolean exponenteNegativo = i < fin && b[i] == '-';
+			if (i < fin && (exponenteNegativo || b[i] == '+')) {
+				i++;
+			}
+			if (i == fin) {
+				return false;
+			}
+			for (; i < fin; i++) {
+				int cifra = b[i] - '0';
+				if (cifra < 0 || cifra > 9) {
+					return false;
+				}
+				// más allá de esto el double ya es cero o infinito
+				if (exponente < 100_000) {
+					exponente = exponente * 10 + cifra;
+				}
+			}
+			if (exponenteNegativo) {
+				exponente = -exponente;
+			}
+		}
+		int potencia = exponente - decimales;
+		if (cifras <= CIFRAS_EXACTAS && potencia >= -22 && potencia <= 22) {
+			double valor = potencia < 0 ? mantisa / POTENCIAS[-potencia] : mantisa * POTENCIAS[potencia];
+			this.decimal = negativo ? -valor : valor;
+		} else {
+			// la sintaxis ya está comprobada: no puede fallar
+			this.decimal = Double.parseDouble(new String(b, 0, fin, StandardCharsets.US_ASCII).replace(',', '.'));
+		}
+		return true;
+	}
+
+	/**
+	 * Lee la siguiente palabra como true o false, sin distinguir mayúsculas.
+	 *
+	 * @return Tipo boolean - true si es un booleano, que queda en
+	 * getBooleano(); false si no, y la palabra se salta
+	 * @throws IOException si falla la lectura
+	 * @throws NoSuchElementException si no quedan palabras
+	 */
+	public boolean leerBooleano() throws IOException {
+		this.leerPalabra();
+		if (this.esPalabra("true")) {
+			this.booleano = true;
+			return true;
+		}
+		if (this.esPalabra("false")) {
+			this.booleano = false;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Lee lo que queda de la línea actual, como Scanner.nextLine(): después de
+	 * leer un número es el resto de su línea, normalmente vacío.
+	 *
+	 * @return Tipo String - la línea sin el salto, o null si no queda nada
+	 * @throws IOException si falla la lectura
+	 */
+	public String leerLinea() throws IOException {
+		this.longitud = 0;
+		while (true) {
+			int inicio = this.posicion;
+			for (int i = inicio; i < this.limite; i++) {
+				if (this.bloque[i] == '\n') {
+					this.posicion = i + 1;
+					if (this.longitud == 0) {
+						// la línea entera está en el bloque: sin copiarla
+						return this.decodificar(this.bloque, inicio, i);
+					}
+					this.copiar(inicio, i);
+					return this.decodificar(this.copia, 0, this.longitud);
+				}
+			}
+			this.copiar(inicio, this.limite);
+			this.posicion = this.limite;
+			if (!this.llenar()) {
+				// una última línea sin salto también cuenta
+				return this.longitud == 0 ? null : this.decodificar(this.copia, 0, this.longitud);
+			}
+		}
+	}
+
+	public long getEntero() {
+		return this.entero;
+	}
+
+	public double getDecimal() {
+		return this.decimal;
+	}
+
+	public boolean getBooleano() {
+		return this.booleano;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.entrada.close();
+	}
+
+	// sin el \r de los ficheros de Windows
+	private String decodificar(byte[] b, int desde, int hasta) {
+		if (hasta > desde && b[hasta - 1] == '\r') {
+			hasta--;
+		}
+		return new String(b, desde, hasta - desde, this.juego);
+	}
+
+	// deja la siguiente palabra en copia[0..longitud)
+	private void leerPalabra() throws IOException {
+		if (!this.saltarEspacios()) {
+			throw new NoSuchElementException("No quedan datos en la entrada");
+		}
+		this.longitud = 0;
+		while (true) {
+			int inicio = this.posicion;
+			int i = inicio;
+			while (i < this.limite && !esEspacio(this.bloque[i])) {
+				i++;
+			}
+			this.copiar(inicio, i);
+			this.posicion = i;
+			if (i < this.limite || !this.llenar()) {
+				return;
+			}
+		}
+	}
+
+	private boolean esPalabra(String palabra) {
+		if (this.longitud != palabra.length()) {
+			return false;
+		}
+		for (int i = 0; i < this.longitud; i++) {
+			// solo letras ASCII: con | 0x20 quedan en minúscula
+			if ((this.copia[i] | 0x20) != palabra.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// false si se acaba la entrada sin encontrar nada más que espacios
+	private boolean saltarEspacios() throws IOException {
+		while (true) {
+			while (this.posicion < this.limite) {
+				if (!esEspacio(this.bloque[this.posicion])) {
+					return true;
+				}
+				this.posicion++;
+			}
+			if (!this.llenar()) {
+				return false;
+			}
+		}
+	}
+
+	private void copiar(int desde, int hasta) {
+		int n = hasta - desde;
+		if (this.longitud + n > this.copia.length) {
+			this.copia = Arrays.copyOf(this.copia, Math.max(this.copia.length * 2, this.longitud + n));
+		}
+		System.arraycopy(this.bloque, desde, this.copia, this.longitud, n);
+		this.longitud += n;
+	}
+
+	// false si no queda nada; espera por lo menos un byte, no un bloque
+	// entero, para que por teclado se lea cada línea al pulsar intro
+	private boolean llenar() throws IOException {
+		if (this.agotada) {
+			return false;
+		}
+		int leidos;
+		do {
+			leidos = this.entrada.read(this.bloque, 0, this.bloque.length);
+		} while (leidos == 0);
+		if (leidos < 0) {
+			this.agotada = true;
+			this.posicion = this.limite = 0;
+			return false;
+		}
+		this.posicion = 0;
+		this.limite = leidos;
+		return true;
+	}
+
+	private static boolean esEspacio(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0B;
+	}
+}
@@ -0,0 +1,383 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Mapa de texto a valor que nunca cambia: con() y sin() devuelven un mapa
+ * nuevo y el de antes sigue valiendo para quien lo tenga. Es un árbol de
+ * dispersión de 32 ramas por nivel (HAMT, con la disposición de CHAMP: en
+ * cada nodo primero los pares clave-valor y después los hijos) y un cambio
+ * solo copia los nodos del camino hasta la clave, unos cuatro con un millón
+ * de claves; el resto se comparte con el mapa anterior.
+ *
+ * Como nada se modifica, se puede leer desde cualquier hilo sin cerrojos.
+ *
+ * @author luPinheiro
+ */
+final class MapaPersistente<V> {
+
+	private static final int BITS = 5;
+	private static final int RAMAS = 1 << BITS;
+	// más allá de 32 bits ya no queda dispersión: las claves que coinciden en
+	// los 32 se guardan juntas y se buscan una a una
+	private static final int BITS_DISPERSION = 32;
+	private static final int PROFUNDIDAD = (BITS_DISPERSION + BITS - 1) / BITS + 1;
+
+	private static final MapaPersistente<?> VACIO = new MapaPersistente<Object>(new Nodo(0, 0, new Object[0]), 0);
+
+	private final Nodo raiz;
+	private final int tamano;
+
+	private MapaPersistente(Nodo raiz, int tamano) {
+		this.raiz = raiz;
+		this.tamano = tamano;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <V> MapaPersistente<V> vacio() {
+		return (MapaPersistente<V>) VACIO;
+	}
+
+	int tamano() {
+		return this.tamano;
+	}
+
+	@SuppressWarnings("unchecked")
+	V obtener(String clave) {
+		return (V) this.raiz.obtener(clave, dispersion(clave), 0);
+	}
+
+	/**
+	 * @return Tipo MapaPersistente - el mapa con clave asociada a valor; este
+	 * mismo si ya lo estaba
+	 */
+	MapaPersistente<V> con(String clave, V valor) {
+		boolean[] nueva = new boolean[1];
+		Nodo raiz = this.raiz.con(clave, dispersion(clave), valor, 0, nueva);
+		return (raiz == this.raiz) ? this : new MapaPersistente<V>(raiz, nueva[0] ? this.tamano + 1 : this.tamano);
+	}
+
+	/**
+	 * @return Tipo MapaPersistente - el mapa sin la clave; este mismo si no
+	 * la tenía
+	 */
+	MapaPersistente<V> sin(String clave) {
+		Nodo raiz = this.raiz.sin(clave, dispersion(clave), 0);
+		return (raiz == this.raiz) ? this : new MapaPersistente<V>(raiz, this.tamano - 1);
+	}
+
+	/**
+	 * Recorre los valores, en un orden que solo depende de las claves, hasta
+	 * que la acción devuelva false
+	 *
+	 * @return Tipo boolean - false si la acción paró el recorrido
+	 */
+	@SuppressWarnings("unchecked")
+	boolean recorrer(Predicate<? super V> accion) {
+		return this.raiz.recorrer((Predicate<Object>) accion);
+	}
+
+	Iterator<V> valores() {
+		return new Valores<V>(this.raiz);
+	}
+
+	private static int dispersion(String clave) {
+		int h = clave.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static final class Nodo {
+		// qué ramas tienen un par clave-valor y cuáles un hijo
+		final int datos;
+		final int hijos;
+		// pares clave-valor por orden de rama y detrás los hijos en orden
+		// inverso; en un nodo de colisión, solo pares
+		final Object[] contenido;
+
+		Nodo(int datos, int hijos, Object[] contenido) {
+			this.datos = datos;
+			this.hijos = hijos;
+			this.contenido = contenido;
+		}
+
+		private int indicePar(int bit) {
+			return 2 * Integer.bitCount(this.datos & (bit - 1));
+		}
+
+		private int indiceHijo(int bit) {
+			return this.contenido.length - 1 - Integer.bitCount(this.hijos & (bit - 1));
+		}
+
+		private Nodo hijo(int bit) {
+			return (Nodo) this.contenido[this.indiceHijo(bit)];
+		}
+
+		Object obtener(String clave, int hash, int desplazamiento) {
+			if (desplazamiento >= BITS_DISPERSION) {
+				for (int i = 0; i < this.contenido.length; i += 2) {
+					if (clave.equals(this.contenido[i])) {
+						return this.contenido[i + 1];
+					}
+				}
+				return null;
+			}
+			int bit = 1 << ((hash >>> desplazamiento) & (RAMAS - 1));
+			if ((this.datos & bit) != 0) {
+				int i = this.indicePar(bit);
+				return clave.equals(this.contenido[i]) ? this.contenido[i + 1] : null;
+			}
+			if ((this.hijos & bit) != 0) {
+				return this.hijo(bit).obtener(clave, hash, desplazamiento + BITS);
+			}
+			return null;
+		}
+
+		Nodo con(String clave, int hash, Object valor, int desplazamiento, boolean[] nueva) {
+			if (desplazamiento >= BITS_DISPERSION) {
+				return this.conColision(clave, valor, nueva);
+			}
+			int bit = 1 << ((hash >>> desplazamiento) & (RAMAS - 1));
+			if ((this.datos & bit) != 0) {
+				int i = this.indicePar(bit);
+				Object otra = this.contenido[i];
+				if (clave.equals(otra)) {
+					if (this.contenido[i + 1] == valor) {
+						return this;
+					}
+					Object[] copia = this.contenido.clone();
+					copia[i + 1] = valor;
+					return new Nodo(this.datos, this.hijos, copia);
+				}
+				// dos claves en la misma rama: bajan a un hijo nuevo
+				nueva[0] = true;
+				Nodo hijo = fusionar((String) otra, dispersion((String) otra), this.contenido[i + 1], clave, hash, valor,
+						desplazamiento + BITS);
+				return this.parAHijo(bit, i, hijo);
+			}
+			if ((this.hijos & bit) != 0) {
+				int i = this.indiceHijo(bit);
+				Nodo hijo = (Nodo) this.contenido[i];
+				Nodo nuevo = hijo.con(clave, hash, valor, desplazamiento + BITS, nueva);
+				if (nuevo == hijo) {
+					return this;
+				}
+				Object[] copia = this.contenido.clone();
+				copia[i] = nuevo;
+				return new Nodo(this.datos, this.hijos, copia);
+			}
+			nueva[0] = true;
+			int i = this.indicePar(bit);
+			Object[] copia = new Object[this.contenido.length + 2];
+			System.arraycopy(this.contenido, 0, copia, 0, i);
+			copia[i] = clave;
+			copia[i + 1] = valor;
+			System.arraycopy(this.contenido, i, copia, i + 2, this.contenido.length - i);
+			return new Nodo(this.datos | bit, this.hijos, copia);
+		}
+
+		private Nodo conColision(String clave, Object valor, boolean[] nueva) {
+			for (int i = 0; i < this.contenido.length; i += 2) {
+				if (clave.equals(this.contenido[i])) {
+					if (this.contenido[i + 1] == valor) {
+						return this;
+					}
+					Object[] copia = this.contenido.clone();
+					copia[i + 1] = valor;
+					return new Nodo(0, 0, copia);
+				}
+			}
+			nueva[0] = true;
+			Object[] copia = Arrays.copyOf(this.contenido, this.contenido.length + 2);
+			copia[this.contenido.length] = clave;
+			copia[this.contenido.length + 1] = valor;
+			return new Nodo(0, 0, copia);
+		}
+
+		// quita el par i de la rama bit y pone el hijo en su lugar
+		private Nodo parAHijo(int bit, int i, Nodo hijo) {
+			Object[] copia = new Object[this.contenido.length - 1];
+			System.arraycopy(this.contenido, 0, copia, 0, i);
+			int nuevoHijo = this.contenido.length - 2 - Integer.bitCount(this.hijos & (bit - 1));
+			System.arraycopy(this.contenido, i + 2, copia, i, nuevoHijo - i);
+			copia[nuevoHijo] = hijo;
+			System.arraycopy(this.contenido, nuevoHijo + 2, copia, nuevoHijo + 1, this.contenido.length - nuevoHijo - 2);
+			return new Nodo(this.datos ^ bit, this.hijos | bit, copia);
+		}
+
+		// al revés: el hijo de la rama bit, que ya solo tiene un par, sube
+		private Nodo hijoAPar(int bit, Nodo hijo) {
+			int iHijo = this.indiceHijo(bit);
+			int i = 2 * Integer.bitCount(this.datos & (bit - 1));
+			Object[] copia = new Object[this.contenido.length + 1];
+			System.arraycopy(this.contenido, 0, copia, 0, i);
+			copia[i] = hijo.contenido[0];
+			copia[i + 1] = hijo.contenido[1];
+			System.arraycopy(this.contenido, i, copia, i + 2, iHijo - i);
+			System.arraycopy(this.contenido, iHijo + 1, copia, iHijo + 2, this.contenido.length - iHijo - 1);
+			return new Nodo(this.datos | bit, this.hijos ^ bit, copia);
+		}
+
+		private static Nodo fusionar(String clave1, int hash1, Object valor1, String clave2, int hash2, Object valor2,
+				int desplazamiento) {
+			if (desplazamiento >= BITS_DISPERSION) {
+				return new Nodo(0, 0, new Object[] { clave1, valor1, clave2, valor2 });
+			}
+			int rama1 = (hash1 >>> desplazamiento) & (RAMAS - 1);
+			int rama2 = (hash2 >>> desplazamiento) & (RAMAS - 1);
+			if (rama1 == rama2) {
+				Nodo hijo = fusionar(clave1, hash1, valor1, clave2, hash2, valor2, desplazamiento + BITS);
+				return new Nodo(0, 1 << rama1, new Object[] { hijo });
+			}
+			Object[] pares = (rama1 < rama2) ? new Object[] { clave1, valor1, clave2, valor2 }
+					: new Object[] { clave2, valor2, clave1, valor1 };
+			return new Nodo((1 << rama1) | (1 << rama2), 0, pares);
+		}
+
+		Nodo sin(String clave, int hash, int desplazamiento) {
+			if (desplazamiento >= BITS_DISPERSION) {
+				for (int i = 0; i < this.contenido.length; i += 2) {
+					if (clave.equals(this.contenido[i])) {
+						Object[] copia = new Object[this.contenido.length - 2];
+						System.arraycopy(this.contenido, 0, copia, 0, i);
+						System.arraycopy(this.contenido, i + 2, copia, i, this.contenido.length - i - 2);
+						return new Nodo(0, 0, copia);
+					}
+				}
+				return this;
+			}
+			int bit = 1 << ((hash >>> desplazamiento) & (RAMAS - 1));
+			if ((this.datos & bit) != 0) {
+				int i = this.indicePar(bit);
+				if (!clave.equals(this.contenido[i])) {
+					return this;
+				}
+				Object[] copia = new Object[this.contenido.length - 2];
+				System.arraycopy(this.contenido, 0, copia, 0, i);
+				System.arraycopy(this.contenido, i + 2, copia, i, this.contenido.length - i - 2);
+				return new Nodo(this.datos ^ bit, this.hijos, copia);
+			}
+			if ((this.hijos & bit) != 0) {
+				int i = this.indiceHijo(bit);
+				Nodo hijo = (Nodo) this.contenido[i];
+				Nodo nuevo = hijo.sin(clave, hash, desplazamiento + BITS);
+				if (nuevo == hijo) {
+					return this;
+				}
+				// un hijo que se queda con un solo par no hace falta
+				if (nuevo.hijos == 0 && nuevo.contenido.length == 2) {
+					return this.hijoAPar(bit, nuevo);
+				}
+				Object[] copia = this.contenido.clone();
+				copia[i] = nuevo;
+				return new Nodo(this.datos, this.hijos, copia);
+			}
+			return this;
+		}
+
+		// un nodo de colisión no tiene ramas, solo pares
+		boolean esColision() {
+			return this.datos == 0 && this.hijos == 0;
+		}
+
+		// en orden de rama: los pares están en ese orden desde el principio y
+		// los hijos desde el final
+		boolean recorrer(Predicate<Object> accion) {
+			if (this.esColision()) {
+				for (int i = 1; i < this.contenido.length; i += 2) {
+					if (!accion.test(this.contenido[i])) {
+						return false;
+					}
+				}
+				return true;
+			}
+			int par = 1;
+			int hijo = this.contenido.length - 1;
+			for (int ramas = this.datos | this.hijos; ramas != 0; ramas &= ramas - 1) {
+				if ((this.datos & ramas & -ramas) != 0) {
+					if (!accion.test(this.contenido[par])) {
+						return false;
+					}
+					par += 2;
+				} else if (!((Nodo) this.contenido[hijo--]).recorrer(accion)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	// recorrido en profundidad con una pila de nodos, en el mismo orden que
+	// recorrer()
+	private static final class Valores<V> implements Iterator<V> {
+		private final Nodo[] nodos = new Nodo[PROFUNDIDAD + 1];
+		// de cada nivel: ramas que quedan por visitar y posiciones del
+		// siguiente par y del siguiente hijo
+		private final int[] ramas = new int[PROFUNDIDAD + 1];
+		private final int[] pares = new int[PROFUNDIDAD + 1];
+		private final int[] hijos = new int[PROFUNDIDAD + 1];
+		private int nivel = -1;
+		private Object siguiente;
+
+		Valores(Nodo raiz) {
+			this.bajar(raiz);
+			this.avanzar();
+		}
+
+		private void bajar(Nodo nodo) {
+			this.nivel++;
+			this.nodos[this.nivel] = nodo;
+			this.ramas[this.nivel] = nodo.datos | nodo.hijos;
+			this.pares[this.nivel] = 1;
+			this.hijos[this.nivel] = nodo.contenido.length - 1;
+		}
+
+		private void avanzar() {
+			while (this.nivel >= 0) {
+				Nodo nodo = this.nodos[this.nivel];
+				if (nodo.esColision()) {
+					if (this.pares[this.nivel] < nodo.contenido.length) {
+						this.siguiente = nodo.contenido[this.pares[this.nivel]];
+						this.pares[this.nivel] += 2;
+						return;
+					}
+				} else if (this.ramas[this.nivel] != 0) {
+					int bit = this.ramas[this.nivel] & -this.ramas[this.nivel];
+					this.ramas[this.nivel] ^= bit;
+					if ((nodo.datos & bit) != 0) {
+						this.siguiente = nodo.contenido[this.pares[this.nivel]];
+						this.pares[this.nivel] += 2;
+						return;
+					}
+					this.bajar((Nodo) nodo.contenido[this.hijos[this.nivel]--]);
+					continue;
+				}
+				this.nodos[this.nivel--] = null;
+			}
+			this.siguiente = null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.siguiente != null;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public V next() {
+			if (this.siguiente == null) {
+				throw new NoSuchElementException();
+			}
+			Object valor = this.siguiente;
+			this.avanzar();
+			return (V) valor;
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Cuántas veces se ejecuta cada operación de un VacAlmacen y cuánto tarda.
+ * Siempre está midiendo, así que tiene que costar poco: cada llamada suma uno
+ * a un LongAdder, y el tiempo se toma con dos lecturas del reloj y se anota
+ * en un HistogramaLatencias, sin cerrojos. Leer el reloj cuesta más que
+ * buscar una vacuna, así que en las operaciones rápidas solo se cronometra una
+ * de cada MUESTREO llamadas, al azar; las veces se cuentan todas.
+ *
+ * Para verlo desde fuera se publica como MBean de la plataforma con
+ * publicar().
+ *
+ * @author luPinheiro
+ */
+public class MetricasAlmacen implements MetricasAlmacenMXBean {
+
+	public static final String DOMINIO = "gal.teis.vacunas";
+
+	// de las operaciones rápidas se cronometra una de cada tantas
+	public static final int MUESTREO = 64;
+
+	// valor de empezar() cuando esa llamada no se cronometra
+	static final long SIN_TIEMPO = Long.MIN_VALUE;
+
+	public enum Operacion {
+		AGREGAR(false), BUSCAR_VACUNA(true), ELIMINAR(false), LISTAR_VACUNAS(false),
+		VER_VACUNAS_AUTORIZADAS(false), VER_VACUNAS_RECHAZADAS(false), VER_VACUNAS_PENDIENTES(false),
+		VER_ULTIMA_FASE_INVESTIGADA(false), MODIFICAR_FASE(true), AUTORIZAR(true), RECHAZAR(true);
+
+		private final boolean muestreada;
+
+		private Operacion(boolean muestreada) {
+			this.muestreada = muestreada;
+		}
+
+		// true si solo se cronometra una de cada MUESTREO llamadas
+		public boolean isMuestreada() {
+			return this.muestreada;
+		}
+	}
+
+	private static final Operacion[] OPERACIONES = Operacion.values();
+
+	private final LongAdder[] veces = new LongAdder[OPERACIONES.length];
+	private final HistogramaLatencias[] histogramas = new HistogramaLatencias[OPERACIONES.length];
+	private ObjectName nombre;
+
+	MetricasAlmacen() {
+		for (int i = 0; i < OPERACIONES.length; i++) {
+			this.veces[i] = new LongAdder();
+			this.histogramas[i] = new HistogramaLatencias();
+		}
+	}
+
+	/**
+	 * @param op Tipo Operacion - operación que va a empezar
+	 * @return Tipo long - lo que hay que pasar a terminar()
+	 */
+	long empezar(Operacion op) {
+		if (op.muestreada && (ThreadLocalRandom.current().nextInt() & (MUESTREO - 1)) != 0) {
+			return SIN_TIEMPO;
+		}
+		return System.nanoTime();
+	}
+
+	void terminar(Operacion op, long inicio) {
+		this.veces[op.ordinal()].increment();
+		if (inicio != SIN_TIEMPO) {
+			this.histogramas[op.ordinal()].anotar(System.nanoTime() - inicio);
+		}
+	}
+
+	/**
+	 * @param op Tipo Operacion - operación de la que se quiere el resumen
+	 * @return Tipo ResumenLatencias - el número es el de todas las llamadas;
+	 * los tiempos, de las cronometradas
+	 */
+	public ResumenLatencias getResumen(Operacion op) {
+		return this.histogramas[op.ordinal()].resumen(this.veces[op.ordinal()].sum());
+	}
+
+	@Override
+	public ResumenLatencias getAgregar() {
+		return this.getResumen(Operacion.AGREGAR);
+	}
+
+	@Override
+	public ResumenLatencias getBuscarVacuna() {
+		return this.getResumen(Operacion.BUSCAR_VACUNA);
+	}
+
+	@Override
+	public ResumenLatencias getEliminar() {
+		return this.getResumen(Operacion.ELIMINAR);
+	}
+
+	@Override
+	public ResumenLatencias getListarVacunas() {
+		return this.getResumen(Operacion.LISTAR_VACUNAS);
+	}
+
+	@Override
+	public ResumenLatencias getVerVacunasAutorizadas() {
+		return this.getResumen(Operacion.VER_VACUNAS_AUTORIZADAS);
+	}
+
+	@Override
+	public ResumenLatencias getVerVacunasRechazadas() {
+		return this.getResumen(Operacion.VER_VACUNAS_RECHAZADAS);
+	}
+
+	@Override
+	public ResumenLatencias getVerVacunasPendientes() {
+		return this.getResumen(Operacion.VER_VACUNAS_PENDIENTES);
+	}
+
+	@Override
+	public ResumenLatencias getVerUltimaFaseInvestigada() {
+		return this.getResumen(Operacion.VER_ULTIMA_FASE_INVESTIGADA);
+	}
+
+	@Override
+	public ResumenLatencias getModificarFase() {
+		return this.getResumen(Operacion.MODIFICAR_FASE);
+	}
+
+	@Override
+	public ResumenLatencias getAutorizar() {
+		return this.getResumen(Operacion.AUTORIZAR);
+	}
+
+	@Override
+	public ResumenLatencias getRechazar() {
+		return this.getResumen(Operacion.RECHAZAR);
+	}
+
+	@Override
+	public Map<String, ResumenLatencias> getOperaciones() {
+		Map<String, ResumenLatencias> operaciones = new LinkedHashMap<String, ResumenLatencias>();
+		for (Operacion op : OPERACIONES) {
+			operaciones.put(op.name(), this.getResumen(op));
+		}
+		return operaciones;
+	}
+
+	@Override
+	public void reiniciar() {
+		for (int i = 0; i < OPERACIONES.length; i++) {
+			this.veces[i].reset();
+			this.histogramas[i].reiniciar();
+		}
+	}
+
+	/**
+	 * Publica las métricas en el servidor de MBeans de la plataforma como
+	 * gal.teis.vacunas:type=VacAlmacen,name=nombre. Si ya estaban publicadas
+	 * con otro nombre, se retiran de aquel.
+	 *
+	 * @param nombre Tipo String - distingue este almacén de otros del proceso
+	 * @return Tipo ObjectName - nombre con el que se publicó
+	 * @throws IllegalArgumentException si el nombre no vale para JMX
+	 * @throws IllegalStateException si ya hay otro MBean con ese nombre
+	 */
+	public synchronized ObjectName publicar(String nombre) {
+		this.retirar();
+		try {
+			ObjectName objeto = new ObjectName(DOMINIO + ":type=VacAlmacen,name=" + nombre);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objeto);
+			this.nombre = objeto;
+			return objeto;
+		} catch (MalformedObjectNameException e) {
+			throw new IllegalArgumentException("Nombre no válido para JMX: " + nombre, e);
+		} catch (JMException e) {
+			throw new IllegalStateException("No se pudieron publicar las métricas como " + nombre, e);
+		}
+	}
+
+	public synchronized void retirar() {
+		if (this.nombre == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.nombre);
+		} catch (JMException e) {
+			// ya lo había retirado otro
+		}
+		this.nombre = null;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder texto = new StringBuilder();
+		for (Operacion op : OPERACIONES) {
+			ResumenLatencias r = this.getResumen(op);
+			if (r.getNumero() > 0) {
+				texto.append(op).append(": ").append(r).append(System.lineSeparator());
+			}
+		}
+		return texto.toString();
+	}
+}
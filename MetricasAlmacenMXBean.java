@@ -0,0 +1,46 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.Map;
+
+/**
+ * Lo que publica MetricasAlmacen por JMX (jconsole, VisualVM, exportadores).
+ * Cada atributo es el ResumenLatencias de una operación.
+ *
+ * @author luPinheiro
+ */
+public interface MetricasAlmacenMXBean {
+
+	public ResumenLatencias getAgregar();
+
+	public ResumenLatencias getBuscarVacuna();
+
+	public ResumenLatencias getEliminar();
+
+	public ResumenLatencias getListarVacunas();
+
+	public ResumenLatencias getVerVacunasAutorizadas();
+
+	public ResumenLatencias getVerVacunasRechazadas();
+
+	public ResumenLatencias getVerVacunasPendientes();
+
+	public ResumenLatencias getVerUltimaFaseInvestigada();
+
+	public ResumenLatencias getModificarFase();
+
+	public ResumenLatencias getAutorizar();
+
+	public ResumenLatencias getRechazar();
+
+	// todas, por nombre de operación
+	public Map<String, ResumenLatencias> getOperaciones();
+
+	// vuelve a empezar a contar desde cero
+	public void reiniciar();
+
+}
@@ -0,0 +1,44 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Una página de vacunas en orden de código. El cursor es el código de la
+ * última vacuna de la página: pasándolo en la siguiente petición se sigue
+ * justo detrás, aunque entre medias se agreguen o eliminen vacunas.
+ *
+ * @author luPinheiro
+ */
+public class PaginaVacunas {
+
+	private final List<Vacuna> vacunas;
+	private final String cursor;
+
+	PaginaVacunas(List<Vacuna> vacunas, String cursor) {
+		this.vacunas = Collections.unmodifiableList(vacunas);
+		this.cursor = cursor;
+	}
+
+	// en orden de código
+	public List<Vacuna> getVacunas() {
+		return this.vacunas;
+	}
+
+	/**
+	 * @return Tipo String - cursor para pedir la página siguiente, o null si
+	 * esta es la última
+	 */
+	public String getCursor() {
+		return this.cursor;
+	}
+
+	public boolean hayMas() {
+		return this.cursor != null;
+	}
+}
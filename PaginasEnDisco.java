@@ -0,0 +1,254 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Fichero de páginas de 8 KiB con un número fijo de ellas en memoria (marcos
+ * en memoria directa). Una página que no está en memoria se lee del fichero
+ * en un marco libre; si no lo hay, se desaloja una con el algoritmo del reloj
+ * (segunda oportunidad): la manecilla recorre los marcos, quita la marca de
+ * uso a los que la tienen y se queda con el primero que no la tenía. Una
+ * página cambiada se escribe en el fichero al desalojarla.
+ *
+ * Un fichero de trabajo se vacía al abrirlo y se borra al cerrarlo o al salir
+ * (en Unix deja de verse nada más abrirlo); uno que se conserva se abre con
+ * las páginas que tenga y volcar() escribe las cambiadas. Las páginas están
+ * en el orden nativo. No es seguro para hilos: quien lo usa lo protege con su
+ * cerrojo.
+ *
+ * Los ByteBuffer que da valen hasta que se desaloja su página. Las páginas
+ * usadas desde el último empezarOperacion() no se desalojan, así que los de
+ * una misma operación valen hasta que acaba; una operación no puede usar más
+ * páginas que MINIMO_MARCOS.
+ *
+ * @author luPinheiro
+ */
+final class PaginasEnDisco {
+
+	static final int TAMANO_PAGINA = 8192;
+	static final int MINIMO_MARCOS = 64;
+
+	private static final int SIN_PAGINA = -1;
+	// marcos por bloque de memoria directa (8 MiB)
+	private static final int MARCOS_POR_BLOQUE = 1024;
+	private static final byte[] CEROS = new byte[TAMANO_PAGINA];
+
+	private final FileChannel fichero;
+	private final ByteBuffer[] marcos;
+	private final int[] paginaDeMarco;
+	private final boolean[] usado;
+	private final boolean[] cambiado;
+	private final long[] operacionDeMarco;
+	private int[] marcoDePagina = new int[1024];
+	private int numeroPaginas;
+	private int[] libres = new int[64];
+	private int numeroLibres;
+	private int manecilla;
+	private long operacion;
+
+	/**
+	 * @param ruta Tipo Path - el fichero; se crea si no existe
+	 * @param numeroMarcos Tipo int - páginas en memoria, al menos
+	 * MINIMO_MARCOS
+	 * @param deTrabajo Tipo boolean - true para vaciarlo al abrirlo y borrarlo
+	 * al cerrarlo
+	 * @throws IOException si no se puede abrir el fichero
+	 */
+	PaginasEnDisco(Path ruta, int numeroMarcos, boolean deTrabajo) throws IOException {
+		if (numeroMarcos < MINIMO_MARCOS) {
+			throw new IllegalArgumentException("Hacen falta al menos " + MINIMO_MARCOS + " páginas en memoria");
+		}
+		this.fichero = deTrabajo
+				? FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+						StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)
+				: FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.READ,
+						StandardOpenOption.WRITE);
+		// una página a medias al final (se cortó al escribirla) no cuenta
+		this.numeroPaginas = (int) (this.fichero.size() / TAMANO_PAGINA);
+		while (this.marcoDePagina.length < this.numeroPaginas) {
+			this.marcoDePagina = new int[this.marcoDePagina.length * 2];
+		}
+		this.marcos = new ByteBuffer[numeroMarcos];
+		for (int inicio = 0; inicio < numeroMarcos; inicio += MARCOS_POR_BLOQUE) {
+			int numero = Math.min(MARCOS_POR_BLOQUE, numeroMarcos - inicio);
+			ByteBuffer bloque = ByteBuffer.allocateDirect(numero * TAMANO_PAGINA);
+			for (int i = 0; i < numero; i++) {
+				// slice no conserva el orden
+				this.marcos[inicio + i] = bloque.slice(i * TAMANO_PAGINA, TAMANO_PAGINA)
+						.order(ByteOrder.nativeOrder());
+			}
+		}
+		this.paginaDeMarco = new int[numeroMarcos];
+		Arrays.fill(this.paginaDeMarco, SIN_PAGINA);
+		Arrays.fill(this.marcoDePagina, SIN_PAGINA);
+		this.usado = new boolean[numeroMarcos];
+		this.cambiado = new boolean[numeroMarcos];
+		this.operacionDeMarco = new long[numeroMarcos];
+	}
+
+	void empezarOperacion() {
+		this.operacion++;
+	}
+
+	// las que hay en el fichero, libres o no
+	int getNumeroPaginas() {
+		return this.numeroPaginas;
+	}
+
+	/**
+	 * Escribe en el fichero las páginas cambiadas y espera a que estén en el
+	 * disco
+	 */
+	void volcar() throws IOException {
+		for (int m = 0; m < this.marcos.length; m++) {
+			if (this.paginaDeMarco[m] != SIN_PAGINA && this.cambiado[m]) {
+				this.escribirEnFichero(this.paginaDeMarco[m], this.marcos[m]);
+				this.cambiado[m] = false;
+			}
+		}
+		this.fichero.force(true);
+	}
+
+	// sin volcar: lo que no se haya volcado se pierde
+	void cerrar() throws IOException {
+		this.fichero.close();
+	}
+
+	ByteBuffer leer(int pagina) {
+		return this.marcos[this.marco(pagina)];
+	}
+
+	// la página se escribirá en el fichero al desalojarla
+	ByteBuffer escribir(int pagina) {
+		int m = this.marco(pagina);
+		this.cambiado[m] = true;
+		return this.marcos[m];
+	}
+
+	/**
+	 * @return Tipo int - número de una página nueva, a ceros y ya en memoria
+	 */
+	int nueva() {
+		int pagina;
+		if (this.numeroLibres > 0) {
+			pagina = this.libres[--this.numeroLibres];
+		} else {
+			pagina = this.numeroPaginas++;
+			if (pagina == this.marcoDePagina.length) {
+				int anterior = this.marcoDePagina.length;
+				this.marcoDePagina = Arrays.copyOf(this.marcoDePagina, anterior * 2);
+				Arrays.fill(this.marcoDePagina, anterior, this.marcoDePagina.length, SIN_PAGINA);
+			}
+		}
+		int m = this.marcoDePagina[pagina];
+		if (m == SIN_PAGINA) {
+			m = this.marcoLibre();
+			this.paginaDeMarco[m] = pagina;
+			this.marcoDePagina[pagina] = m;
+		}
+		this.marcos[m].put(0, CEROS);
+		this.cambiado[m] = true;
+		this.usado[m] = true;
+		this.operacionDeMarco[m] = this.operacion;
+		return pagina;
+	}
+
+	// la página queda libre para nueva(); lo que tenía se pierde sin escribirlo
+	void liberar(int pagina) {
+		int m = this.marcoDePagina[pagina];
+		if (m != SIN_PAGINA) {
+			this.paginaDeMarco[m] = SIN_PAGINA;
+			this.marcoDePagina[pagina] = SIN_PAGINA;
+			this.cambiado[m] = false;
+		}
+		if (this.numeroLibres == this.libres.length) {
+			this.libres = Arrays.copyOf(this.libres, this.libres.length * 2);
+		}
+		this.libres[this.numeroLibres++] = pagina;
+	}
+
+	private int marco(int pagina) {
+		int m = this.marcoDePagina[pagina];
+		if (m == SIN_PAGINA) {
+			m = this.marcoLibre();
+			this.leerDelFichero(pagina, this.marcos[m]);
+			this.paginaDeMarco[m] = pagina;
+			this.marcoDePagina[pagina] = m;
+			this.cambiado[m] = false;
+		}
+		this.usado[m] = true;
+		this.operacionDeMarco[m] = this.operacion;
+		return m;
+	}
+
+	// reloj: en dos vueltas ya no queda ninguna marca de uso que quitar
+	private int marcoLibre() {
+		for (int vistos = 0; vistos < 2 * this.marcos.length; vistos++) {
+			int m = this.manecilla;
+			this.manecilla = (m + 1 == this.marcos.length) ? 0 : m + 1;
+			if (this.paginaDeMarco[m] == SIN_PAGINA) {
+				return m;
+			}
+			if (this.operacionDeMarco[m] == this.operacion) {
+				continue;
+			}
+			if (this.usado[m]) {
+				this.usado[m] = false;
+				continue;
+			}
+			this.desalojar(m);
+			return m;
+		}
+		throw new IllegalStateException("Todas las páginas en memoria están en uso en esta operación");
+	}
+
+	private void desalojar(int m) {
+		int pagina = this.paginaDeMarco[m];
+		if (this.cambiado[m]) {
+			this.escribirEnFichero(pagina, this.marcos[m]);
+			this.cambiado[m] = false;
+		}
+		this.marcoDePagina[pagina] = SIN_PAGINA;
+		this.paginaDeMarco[m] = SIN_PAGINA;
+	}
+
+	private void leerDelFichero(int pagina, ByteBuffer marco) {
+		long posicion = (long) pagina * TAMANO_PAGINA;
+		marco.clear();
+		try {
+			while (marco.hasRemaining()) {
+				if (this.fichero.read(marco, posicion + marco.position()) < 0) {
+					// nunca se llegó a escribir
+					marco.put(marco.position(), CEROS, 0, marco.remaining());
+					break;
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo leer la página " + pagina, e);
+		}
+	}
+
+	private void escribirEnFichero(int pagina, ByteBuffer marco) {
+		long posicion = (long) pagina * TAMANO_PAGINA;
+		marco.clear();
+		try {
+			while (marco.hasRemaining()) {
+				this.fichero.write(marco, posicion + marco.position());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo escribir la página " + pagina, e);
+		}
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Guarda en disco todo lo que pasa en un VacAlmacen: cada agregar, eliminar,
+ * cambio de fase, autorización y rechazo se anota en un registro de solo
+ * añadir, y cada cierto número de operaciones se escribe una instantánea
+ * completa. Al arrancar se carga la última instantánea y se repite solo la
+ * parte del registro posterior a ella.
+ *
+ * En un almacén concurrente las instantáneas se hacen en segundo plano sin
+ * parar a los demás hilos; en uno normal se hacen al llamar a
+ * tomarInstantanea() desde el hilo que usa el almacén.
+ *
+ * @author luPinheiro
+ */
+public class PersistenciaVacunas implements IOyenteAlmacen, Closeable {
+
+	public static final int REGISTROS_POR_INSTANTANEA = 100_000;
+
+	private static final String PREFIJO_INSTANTANEA = "instantanea-";
+	private static final String EXTENSION_INSTANTANEA = ".dat";
+	private static final int MAGIA = 0x56414353; // "VACS"
+	private static final int VERSION = 1;
+
+	private final Path directorio;
+	private final VacAlmacen almacen;
+	private final RegistroOperaciones registro;
+	private final int registrosPorInstantanea;
+	private final AtomicLong desdeInstantanea = new AtomicLong();
+	private final AtomicBoolean instantaneaEnCurso = new AtomicBoolean();
+	private final ExecutorService hiloInstantaneas;
+	// última secuencia anotada por cada hilo dentro de un lote; -1 fuera de lote
+	private final ThreadLocal<long[]> secuenciaLote = ThreadLocal.withInitial(() -> new long[] { -1 });
+
+	private PersistenciaVacunas(Path directorio, VacAlmacen almacen, long ultimaSecuencia,
+			int registrosPorInstantanea) throws IOException {
+		this.directorio = directorio;
+		this.almacen = almacen;
+		this.registrosPorInstantanea = registrosPorInstantanea;
+		this.registro = new RegistroOperaciones(directorio, ultimaSecuencia);
+		if (almacen.isConcurrente()) {
+			this.hiloInstantaneas = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "vacunas-instantaneas");
+				t.setDaemon(true);
+				return t;
+			});
+		} else {
+			this.hiloInstantaneas = null;
+		}
+	}
+
+	public static PersistenciaVacunas abrir(Path directorio, VacAlmacen almacen) throws IOException {
+		return abrir(directorio, almacen, REGISTROS_POR_INSTANTANEA);
+	}
+
+	/**
+	 * Recupera en el almacén los datos guardados en el directorio y empieza a
+	 * anotar sus operaciones.
+	 *
+	 * @param directorio Tipo Path - carpeta de datos, se crea si no existe
+	 * @param almacen Tipo VacAlmacen - almacén donde se cargan los datos
+	 * @param registrosPorInstantanea Tipo int - operaciones entre instantáneas
+	 * automáticas
+	 * @return Tipo PersistenciaVacunas - ya registrada como oyente del almacén
+	 */
+	public static PersistenciaVacunas abrir(Path directorio, VacAlmacen almacen, int registrosPorInstantanea)
+			throws IOException {
+		Files.createDirectories(directorio);
+
+		long ultimaSecuencia = 0;
+		// lo que se repite ya pasó y el historial no sabe cuándo
+		almacen.setRecuperando(true);
+		try {
+			List<Path> instantaneas = listar(directorio, PREFIJO_INSTANTANEA, EXTENSION_INSTANTANEA);
+			if (!instantaneas.isEmpty()) {
+				ultimaSecuencia = cargarInstantanea(instantaneas.get(instantaneas.size() - 1), almacen);
+			}
+			long desdeInstantanea = ultimaSecuencia;
+			for (Path segmento : listar(directorio, RegistroOperaciones.PREFIJO, RegistroOperaciones.EXTENSION)) {
+				ultimaSecuencia = Math.max(ultimaSecuencia, repetirSegmento(segmento, desdeInstantanea, almacen));
+			}
+		} finally {
+			almacen.setRecuperando(false);
+		}
+
+		PersistenciaVacunas persistencia = new PersistenciaVacunas(directorio, almacen, ultimaSecuencia,
+				registrosPorInstantanea);
+		almacen.agregarOyente(persistencia);
+		return persistencia;
+	}
+
+	@Override
+	public void vacunaAgregada(Vacuna v) {
+		this.anotar(EntradaRegistro.agregar(v));
+	}
+
+	@Override
+	public void vacunaEliminada(Vacuna v) {
+		this.anotar(EntradaRegistro.eliminar(v.getCodigo()));
+	}
+
+	@Override
+	public void estadoCambiado(Vacuna v, long anterior, long nuevo) {
+		this.anotar(EntradaRegistro.cambioEstado(v, anterior, nuevo));
+	}
+
+	// al recuperar, la vacuna se sustituye por otra con los datos nuevos
+	@Override
+	public void datosModificados(Vacuna v) {
+		this.anotar(EntradaRegistro.agregar(v));
+	}
+
+	// en un lote solo se espera al disco al final, con una única espera
+	@Override
+	public void inicioLote() {
+		this.secuenciaLote.get()[0] = 0;
+	}
+
+	@Override
+	public void finLote() {
+		long[] lote = this.secuenciaLote.get();
+		long ultima = lote[0];
+		lote[0] = -1;
+		if (ultima > 0) {
+			this.registro.esperarDurable(ultima);
+		}
+	}
+
+	// la operación no termina hasta que su lote está en disco
+	private void anotar(EntradaRegistro e) {
+		long secuencia = this.registro.anotar(e);
+		long[] lote = this.secuenciaLote.get();
+		if (lote[0] >= 0) {
+			lote[0] = secuencia;
+		} else {
+			this.registro.esperarDurable(secuencia);
+		}
+		if (this.desdeInstantanea.incrementAndGet() >= this.registrosPorInstantanea && this.hiloInstantaneas != null
+				&& this.instantaneaEnCurso.compareAndSet(false, true)) {
+			this.hiloInstantaneas.execute(() -> {
+				try {
+					this.tomarInstantanea();
+				} catch (IOException ex) {
+					System.out.println("ERROR. No se pudo guardar la instantánea: " + ex.getMessage());
+				} finally {
+					this.instantaneaEnCurso.set(false);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Escribe una copia completa del almacén y borra las instantáneas y
+	 * segmentos del registro que ya no hacen falta para recuperarlo.
+	 */
+	public synchronized void tomarInstantanea() throws IOException {
+		// todo lo anotado hasta aquí queda en segmentos anteriores; lo que se
+		// cambie mientras se copia se anota después y se repite al recuperar
+		long secuencia = this.registro.rotar();
+		this.desdeInstantanea.set(0);
+
+		Path destino = this.directorio.resolve(nombre(PREFIJO_INSTANTANEA, secuencia, EXTENSION_INSTANTANEA));
+		Path temporal = destino.resolveSibling(destino.getFileName() + ".tmp");
+		try (OutputStream fichero = Files.newOutputStream(temporal)) {
+			CheckedOutputStream comprobado = new CheckedOutputStream(new BufferedOutputStream(fichero, 64 * 1024),
+					new CRC32());
+			DataOutputStream salida = new DataOutputStream(comprobado);
+			salida.writeInt(MAGIA);
+			salida.writeInt(VERSION);
+			salida.writeLong(secuencia);
+			long total = 0;
+			// una sola versión del almacén, tomada después de rotar: tiene
+			// todo lo anotado en los segmentos que se van a borrar
+			for (Vacuna v : this.almacen.instantanea()) {
+				salida.writeBoolean(true);
+				EntradaRegistro.agregar(v).escribir(salida);
+				total++;
+			}
+			salida.writeBoolean(false);
+			salida.writeLong(total);
+			salida.writeInt((int) comprobado.getChecksum().getValue());
+			salida.flush();
+		}
+		try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+			canal.force(true);
+		}
+		Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		sincronizarDirectorio(this.directorio);
+
+		for (Path anterior : listar(this.directorio, PREFIJO_INSTANTANEA, EXTENSION_INSTANTANEA)) {
+			if (secuenciaDe(anterior, PREFIJO_INSTANTANEA, EXTENSION_INSTANTANEA) < secuencia) {
+				Files.deleteIfExists(anterior);
+			}
+		}
+		for (Path segmento : listar(this.directorio, RegistroOperaciones.PREFIJO, RegistroOperaciones.EXTENSION)) {
+			if (secuenciaDe(segmento, RegistroOperaciones.PREFIJO, RegistroOperaciones.EXTENSION) <= secuencia) {
+				Files.deleteIfExists(segmento);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.almacen.quitarOyente(this);
+		if (this.hiloInstantaneas != null) {
+			this.hiloInstantaneas.shutdown();
+			try {
+				this.hiloInstantaneas.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		this.registro.close();
+	}
+
+	// carga una instantánea y devuelve la secuencia del registro que incluye
+	private static long cargarInstantanea(Path fichero, VacAlmacen almacen) throws IOException {
+		try (InputStream entrada = Files.newInputStream(fichero)) {
+			CheckedInputStream comprobado = new CheckedInputStream(new BufferedInputStream(entrada, 64 * 1024),
+					new CRC32());
+			DataInputStream datos = new DataInputStream(comprobado);
+			if (datos.readInt() != MAGIA || datos.readInt() != VERSION) {
+				throw new IOException("Formato de instantánea desconocido: " + fichero);
+			}
+			long secuencia = datos.readLong();
+			long leidas = 0;
+			while (datos.readBoolean()) {
+				almacen.agregar(EntradaRegistro.leer(datos).crearVacuna());
+				leidas++;
+			}
+			long total = datos.readLong();
+			int esperado = (int) comprobado.getChecksum().getValue();
+			if (datos.readInt() != esperado || total != leidas) {
+				throw new IOException("Instantánea dañada: " + fichero);
+			}
+			return secuencia;
+		}
+	}
+
+	// repite las entradas posteriores a la instantánea y devuelve la última
+	// secuencia válida; si el final está a medio escribir se recorta
+	private static long repetirSegmento(Path segmento, long desde, VacAlmacen almacen) throws IOException {
+		long ultima = 0;
+		long posicionValida = 0;
+		long tamano = Files.size(segmento);
+		CRC32 crc = new CRC32();
+		try (DataInputStream datos = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(segmento), 64 * 1024))) {
+			while (true) {
+				byte[] bytes;
+				int crcLeido;
+				try {
+					int longitud = datos.readInt();
+					// no cabe en lo que queda del segmento: basura al final
+					if (longitud <= 0 || longitud > tamano - posicionValida - 8) {
+						break;
+					}
+					bytes = new byte[longitud];
+					datos.readFully(bytes);
+					crcLeido = datos.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				crc.reset();
+				crc.update(bytes, 0, bytes.length);
+				if ((int) crc.getValue() != crcLeido) {
+					break;
+				}
+				DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(bytes));
+				long secuencia = entrada.readLong();
+				if (secuencia > desde) {
+					EntradaRegistro.leer(entrada).aplicar(almacen);
+				}
+				ultima = secuencia;
+				posicionValida += 8 + bytes.length;
+			}
+		}
+		if (posicionValida < tamano) {
+			try (FileChannel canal = FileChannel.open(segmento, StandardOpenOption.WRITE)) {
+				canal.truncate(posicionValida);
+			}
+		}
+		return ultima;
+	}
+
+	private static void sincronizarDirectorio(Path directorio) {
+		try (FileChannel canal = FileChannel.open(directorio, StandardOpenOption.READ)) {
+			canal.force(true);
+		} catch (IOException e) {
+			// no todos los sistemas permiten abrir un directorio
+		}
+	}
+
+	private static String nombre(String prefijo, long secuencia, String extension) {
+		return String.format("%s%020d%s", prefijo, secuencia, extension);
+	}
+
+	private static long secuenciaDe(Path fichero, String prefijo, String extension) {
+		String nombre = fichero.getFileName().toString();
+		return Long.parseLong(nombre.substring(prefijo.length(), nombre.length() - extension.length()));
+	}
+
+	// ficheros con ese prefijo y extensión, ordenados por secuencia
+	private static List<Path> listar(Path directorio, String prefijo, String extension) throws IOException {
+		List<Path> ficheros = new ArrayList<Path>();
+		try (DirectoryStream<Path> contenido = Files.newDirectoryStream(directorio, prefijo + "*" + extension)) {
+			for (Path fichero : contenido) {
+				ficheros.add(fichero);
+			}
+		}
+		Collections.sort(ficheros);
+		return ficheros;
+	}
+}
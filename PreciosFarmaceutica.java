@@ -0,0 +1,62 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Precio recomendado mínimo, medio y máximo de las vacunas de una
+ * farmacéutica en un momento dado.
+ *
+ * @author luPinheiro
+ */
+public class PreciosFarmaceutica {
+
+	private final long numeroVacunas;
+	private final double suma;
+	private final double minimo;
+	private final double maximo;
+
+	PreciosFarmaceutica(long numeroVacunas, double suma, double minimo, double maximo) {
+		this.numeroVacunas = numeroVacunas;
+		this.suma = suma;
+		this.minimo = minimo;
+		this.maximo = maximo;
+	}
+
+	public long getNumeroVacunas() {
+		return this.numeroVacunas;
+	}
+
+	public double getMinimo() {
+		return this.minimo;
+	}
+
+	public double getMedia() {
+		return this.suma / this.numeroVacunas;
+	}
+
+	public double getMaximo() {
+		return this.maximo;
+	}
+
+	// las dos partes de un almacén con catálogo: lo materializado y lo que
+	// sigue en el fichero
+	static PreciosFarmaceutica combinar(PreciosFarmaceutica a, PreciosFarmaceutica b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		return new PreciosFarmaceutica(a.numeroVacunas + b.numeroVacunas, a.suma + b.suma,
+				Math.min(a.minimo, b.minimo), Math.max(a.maximo, b.maximo));
+	}
+
+	@Override
+	public String toString() {
+		return "Vacunas: " + this.numeroVacunas + " Precio mínimo: " + this.minimo + " medio: " + this.getMedia()
+				+ " máximo: " + this.maximo;
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Registro de operaciones de solo añadir. Cada entrada se guarda como
+ * [longitud][secuencia][entrada][crc32] en el segmento actual. Se anota
+ * después de hacer el cambio en memoria, no antes (ver EntradaRegistro).
+ *
+ * Los hilos que anotan solo copian la entrada a un búfer en memoria; un hilo
+ * escritor vuelca todo lo pendiente de una vez y hace un único force() por
+ * lote (group commit), así varias operaciones comparten el mismo fsync.
+ *
+ * @author luPinheiro
+ */
+class RegistroOperaciones implements Closeable {
+
+	static final String PREFIJO = "registro-";
+	static final String EXTENSION = ".log";
+
+	private final Path directorio;
+	private final ReentrantLock cerrojo = new ReentrantLock();
+	private final Condition hayPendientes = cerrojo.newCondition();
+	private final Condition hayDurables = cerrojo.newCondition();
+	private final CRC32 crc = new CRC32();
+	private final Thread escritor;
+
+	private FileChannel canal;
+	private ByteArrayOutputStream pendiente = new ByteArrayOutputStream(64 * 1024);
+	private ByteArrayOutputStream libre = new ByteArrayOutputStream(64 * 1024);
+	private final ByteArrayOutputStream entrada = new ByteArrayOutputStream(256);
+	private final DataOutputStream datosEntrada = new DataOutputStream(entrada);
+	private long secuencia;
+	private long secuenciaDurable;
+	private boolean cerrado;
+	private IOException error;
+
+	/**
+	 * @param directorio Tipo Path - carpeta de los segmentos
+	 * @param ultimaSecuencia Tipo long - última secuencia ya usada; el nuevo
+	 * segmento empieza en la siguiente
+	 */
+	RegistroOperaciones(Path directorio, long ultimaSecuencia) throws IOException {
+		this.directorio = directorio;
+		this.secuencia = ultimaSecuencia;
+		this.secuenciaDurable = ultimaSecuencia;
+		this.canal = abrirSegmento(ultimaSecuencia + 1);
+		this.escritor = new Thread(this::escribirLotes, "vacunas-registro");
+		this.escritor.setDaemon(true);
+		this.escritor.start();
+	}
+
+	static String nombreSegmento(long primeraSecuencia) {
+		return String.format("%s%020d%s", PREFIJO, primeraSecuencia, EXTENSION);
+	}
+
+	private FileChannel abrirSegmento(long primeraSecuencia) throws IOException {
+		return FileChannel.open(this.directorio.resolve(nombreSegmento(primeraSecuencia)), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Añade una entrada al búfer del lote actual, sin esperar al disco.
+	 *
+	 * @return Tipo long - secuencia asignada a la entrada
+	 */
+	long anotar(EntradaRegistro e) {
+		this.cerrojo.lock();
+		try {
+			this.comprobarEstado();
+			long sec = ++this.secuencia;
+			this.entrada.reset();
+			this.datosEntrada.writeLong(sec);
+			e.escribir(this.datosEntrada);
+			byte[] bytes = this.entrada.toByteArray();
+			this.crc.reset();
+			this.crc.update(bytes, 0, bytes.length);
+			DataOutputStream salida = new DataOutputStream(this.pendiente);
+			salida.writeInt(bytes.length);
+			salida.write(bytes);
+			salida.writeInt((int) this.crc.getValue());
+			this.hayPendientes.signal();
+			return sec;
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	// espera a que la entrada con esa secuencia esté en disco
+	void esperarDurable(long sec) {
+		this.cerrojo.lock();
+		try {
+			while (this.secuenciaDurable < sec) {
+				this.comprobarError();
+				this.hayDurables.awaitUninterruptibly();
+			}
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	long getUltimaSecuencia() {
+		this.cerrojo.lock();
+		try {
+			return this.secuencia;
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	/**
+	 * Cierra el segmento actual, ya en disco, y empieza otro nuevo.
+	 *
+	 * @return Tipo long - última secuencia del segmento cerrado
+	 */
+	long rotar() throws IOException {
+		this.cerrojo.lock();
+		try {
+			// mientras se tiene el cerrojo nadie anota; se espera a que el
+			// escritor termine con lo pendiente
+			while (this.secuenciaDurable < this.secuencia) {
+				this.comprobarError();
+				this.hayDurables.awaitUninterruptibly();
+			}
+			this.canal.close();
+			this.canal = abrirSegmento(this.secuencia + 1);
+			return this.secuencia;
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	private void comprobarError() {
+		if (this.error != null) {
+			throw new UncheckedIOException(this.error);
+		}
+	}
+
+	private void comprobarEstado() {
+		this.comprobarError();
+		if (this.cerrado) {
+			throw new IllegalStateException("El registro de operaciones está cerrado");
+		}
+	}
+
+	private void escribirLotes() {
+		while (true) {
+			ByteArrayOutputStream lote;
+			long hasta;
+			FileChannel destino;
+			this.cerrojo.lock();
+			try {
+				while (this.pendiente.size() == 0 && !this.cerrado) {
+					this.hayPendientes.awaitUninterruptibly();
+				}
+				if (this.pendiente.size() == 0) {
+					return;
+				}
+				lote = this.pendiente;
+				this.pendiente = this.libre;
+				this.libre = lote;
+				hasta = this.secuencia;
+				destino = this.canal;
+			} finally {
+				this.cerrojo.unlock();
+			}
+
+			IOException fallo = null;
+			try {
+				ByteBuffer bytes = ByteBuffer.wrap(lote.toByteArray());
+				while (bytes.hasRemaining()) {
+					destino.write(bytes);
+				}
+				destino.force(false);
+			} catch (IOException ex) {
+				fallo = ex;
+			}
+			lote.reset();
+
+			this.cerrojo.lock();
+			try {
+				if (fallo != null) {
+					this.error = fallo;
+				} else {
+					this.secuenciaDurable = hasta;
+				}
+				this.hayDurables.signalAll();
+				if (fallo != null) {
+					return;
+				}
+			} finally {
+				this.cerrojo.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.cerrojo.lock();
+		try {
+			this.cerrado = true;
+			this.hayPendientes.signal();
+		} finally {
+			this.cerrojo.unlock();
+		}
+		try {
+			this.escritor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.canal.close();
+		if (this.error != null) {
+			throw this.error;
+		}
+	}
+}
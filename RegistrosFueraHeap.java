@@ -0,0 +1,853 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+
+/**
+ * Vacunas guardadas fuera del heap, en memoria directa
+ * (ByteBuffer.allocateDirect): un registro de 64 bytes por vacuna en páginas
+ * de 1024 registros, los nombres en un área aparte que solo crece y una tabla
+ * hash de direccionamiento abierto (código empaquetado, registro) también en
+ * páginas directas. En el heap solo quedan los ByteBuffer de cada página, así
+ * que ni crece ni da más trabajo al GC con el número de vacunas. Solo admite
+ * códigos que quepan en 8 caracteres ASCII (CodigoVacuna), como todos los
+ * válidos.
+ *
+ * Registro (8 long en el orden nativo):
+ * - CODIGO: código empaquetado; en un hueco libre, el siguiente hueco libre.
+ * - NOMBRE: posición del texto en el área de textos, -1 si es null.
+ * - PRINCIPIO_ACTIVO, FARMACEUTICA: número del texto en DiccionarioTextos;
+ *   si está fuera de la tabla, ~posición del texto en el área de textos.
+ * - ESTADO: palabra de estado de VacunaAutorizacion.
+ * - CONTADA: palabra con la que el almacén tiene contada la vacuna.
+ * - PRECIO: bits del double.
+ * - ALTA: número que se da a la vacuna al guardarla, mayor que 0; al
+ *   quitarla se cambia de signo y el hueco queda libre. Las vistas
+ *   (VacunaFueraHeap) lo comparan para saber si siguen siendo de su vacuna.
+ *
+ * Sustituir una vacuna la escribe en otro hueco, y los huecos libres se
+ * reutilizan por orden de llegada. Una vista de una vacuna eliminada o
+ * sustituida ya no lee su hueco (ver VacunaFueraHeap).
+ *
+ * Las escrituras toman el cerrojo de escritura y las lecturas son
+ * optimistas, como en ColeccionCodigoLong. copiar() congela los registros
+ * tal como están sin copiar ninguno: desde entonces sus páginas son
+ * compartidas y la siguiente escritura en cada una la copia antes. Los textos
+ * nunca se sobrescriben (un nombre nuevo se añade al final) y se comparten sin
+ * copiar; el espacio de los nombres sustituidos no se recupera.
+ *
+ * @author luPinheiro
+ */
+final class RegistrosFueraHeap {
+
+	static final int CODIGO = 0;
+	static final int NOMBRE = 8;
+	static final int PRINCIPIO_ACTIVO = 16;
+	static final int FARMACEUTICA = 24;
+	static final int ESTADO = 32;
+	static final int CONTADA = 40;
+	static final int PRECIO = 48;
+	static final int ALTA = 56;
+
+	// resultados de cambiar
+	static final int CAMBIADO = 0;
+	static final int DISTINTO = 1;
+	static final int NO_ESTA = 2;
+
+	private static final int TAMANO_REGISTRO = 64;
+	private static final int BITS_PAGINA = 10;
+	static final int REGISTROS_POR_PAGINA = 1 << BITS_PAGINA;
+	// tabla: entradas de 16 bytes (código, hueco) en páginas de 64 KiB
+	private static final int TAMANO_ENTRADA = 16;
+	private static final int BITS_PAGINA_TABLA = 12;
+	private static final int TAMANO_PAGINA_TEXTOS = 1 << 20;
+	private static final long SIN_TEXTO = -1;
+	private static final int SIN_HUECO = -1;
+	// códigos nuevos que se juntan sin ordenar antes de pasarlos al índice
+	// ordenado, que se rehace entero
+	private static final int MINIMO_PENDIENTES = 4096;
+	private static final int MAXIMO_PENDIENTES = 1 << 20;
+
+	private final StampedLock cerrojo = new StampedLock();
+	private ByteBuffer[] paginas = new ByteBuffer[16];
+	// generación en la que se creó o se copió cada página; si es anterior a
+	// la actual, alguna copia la comparte
+	private int[] generacionPaginas = new int[16];
+	private int numeroPaginas;
+	private int huecosUsados;
+	private int primerLibre = SIN_HUECO;
+	private int ultimoLibre = SIN_HUECO;
+	private Tabla tabla;
+	private ByteBuffer[] textos = new ByteBuffer[16];
+	private int numeroPaginasTexto;
+	private int finTexto;
+	private int tamano;
+	private long version;
+	private long altas;
+	private int generacion;
+	private Copia ultimaCopia;
+	// índice ordenado de los códigos para propiasEnOrden: los ordenados, fuera
+	// del heap, y los agregados después, sin ordenar
+	private ByteBuffer ordenados = reservar(0);
+	private int numeroOrdenados;
+	private long[] pendientes = new long[1024];
+	private int numeroPendientes;
+
+	RegistrosFueraHeap() {
+		this.tabla = new Tabla(1 << BITS_PAGINA_TABLA, 0);
+	}
+
+	private static ByteBuffer reservar(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	private static int posicion(int hueco, int campo) {
+		return (hueco & (REGISTROS_POR_PAGINA - 1)) * TAMANO_REGISTRO + campo;
+	}
+
+	private static long leer(ByteBuffer[] paginas, int hueco, int campo) {
+		return paginas[hueco >>> BITS_PAGINA].getLong(posicion(hueco, campo));
+	}
+
+	// el texto de un campo: NOMBRE, PRINCIPIO_ACTIVO o FARMACEUTICA
+	private static String texto(ByteBuffer[] textos, int campo, long valor) {
+		if (campo == NOMBRE || valor < 0) {
+			return texto(textos, (campo == NOMBRE) ? valor : ~valor);
+		}
+		return diccionario(campo).texto((int) valor);
+	}
+
+	private static DiccionarioTextos diccionario(int campo) {
+		return (campo == PRINCIPIO_ACTIVO) ? DiccionarioTextos.PRINCIPIOS_ACTIVOS : DiccionarioTextos.FARMACEUTICAS;
+	}
+
+	private static String texto(ByteBuffer[] textos, long posicion) {
+		if (posicion == SIN_TEXTO) {
+			return null;
+		}
+		ByteBuffer pagina = textos[(int) (posicion >>> 32)];
+		int inicio = (int) posicion;
+		byte[] bytes = new byte[pagina.getInt(inicio)];
+		pagina.get(inicio + 4, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	int tamano() {
+		return this.tamano;
+	}
+
+	// -------- vistas: leen y escriben el registro de una vacuna
+
+	/**
+	 * Vista del registro con ese código
+	 *
+	 * @return Tipo VacunaFueraHeap - sin observador, o null si no está
+	 */
+	VacunaFueraHeap vista(String codigo) {
+		long clave = CodigoVacuna.empaquetarSiCabe(codigo);
+		if (clave == 0) {
+			return null;
+		}
+		long sello = this.cerrojo.tryOptimisticRead();
+		ByteBuffer[] p = this.paginas;
+		int hueco = this.tabla.buscar(clave);
+		long alta = 0;
+		// una entrada a medio escribir puede dar un hueco que aún no se ve
+		if (hueco >= 0 && (hueco >>> BITS_PAGINA) < p.length && p[hueco >>> BITS_PAGINA] != null) {
+			alta = leer(p, hueco, ALTA);
+		} else if (hueco != SIN_HUECO) {
+			sello = 0;
+		}
+		if (!this.cerrojo.validate(sello)) {
+			sello = this.cerrojo.readLock();
+			try {
+				hueco = this.tabla.buscar(clave);
+				alta = (hueco == SIN_HUECO) ? 0 : leer(this.paginas, hueco, ALTA);
+			} finally {
+				this.cerrojo.unlockRead(sello);
+			}
+		}
+		return (hueco == SIN_HUECO) ? null : new VacunaFueraHeap(this, codigo, hueco, alta);
+	}
+
+	// true si el hueco sigue teniendo esa vacuna; al quitarla su alta cambia
+	// de signo y al reutilizar el hueco es otra
+	boolean vigente(int hueco, long alta) {
+		long sello = this.cerrojo.tryOptimisticRead();
+		long altaActual = leer(this.paginas, hueco, ALTA);
+		if (!this.cerrojo.validate(sello)) {
+			sello = this.cerrojo.readLock();
+			try {
+				altaActual = leer(this.paginas, hueco, ALTA);
+			} finally {
+				this.cerrojo.unlockRead(sello);
+			}
+		}
+		return altaActual == alta;
+	}
+
+	/**
+	 * @param campo Tipo int - ESTADO, CONTADA o PRECIO
+	 * @param siNoEsta Tipo long - lo que se devuelve si la vacuna ya no es esa
+	 */
+	long leer(int hueco, long alta, int campo, long siNoEsta) {
+		long sello = this.cerrojo.tryOptimisticRead();
+		ByteBuffer[] p = this.paginas;
+		long altaActual = leer(p, hueco, ALTA);
+		long valor = leer(p, hueco, campo);
+		if (!this.cerrojo.validate(sello)) {
+			sello = this.cerrojo.readLock();
+			try {
+				altaActual = leer(this.paginas, hueco, ALTA);
+				valor = leer(this.paginas, hueco, campo);
+			} finally {
+				this.cerrojo.unlockRead(sello);
+			}
+		}
+		return (altaActual == alta) ? valor : siNoEsta;
+	}
+
+	/**
+	 * @param campo Tipo int - NOMBRE, PRINCIPIO_ACTIVO o FARMACEUTICA
+	 */
+	String leerTexto(int hueco, long alta, int campo, String siNoEsta) {
+		long sello = this.cerrojo.tryOptimisticRead();
+		ByteBuffer[] t = this.textos;
+		long altaActual = leer(this.paginas, hueco, ALTA);
+		long posicion = leer(this.paginas, hueco, campo);
+		if (!this.cerrojo.validate(sello)) {
+			sello = this.cerrojo.readLock();
+			try {
+				t = this.textos;
+				altaActual = leer(this.paginas, hueco, ALTA);
+				posicion = leer(this.paginas, hueco, campo);
+			} finally {
+				this.cerrojo.unlockRead(sello);
+			}
+		}
+		return (altaActual == alta) ? texto(t, campo, posicion) : siNoEsta;
+	}
+
+	/**
+	 * compareAndSet de una palabra del registro
+	 *
+	 * @return Tipo int - CAMBIADO, DISTINTO si no tenía el valor anterior o
+	 * NO_ESTA si la vacuna ya no es esa
+	 */
+	int cambiar(int hueco, long alta, int campo, long anterior, long nuevo) {
+		long sello = this.cerrojo.writeLock();
+		try {
+			if (leer(this.paginas, hueco, ALTA) != alta) {
+				return NO_ESTA;
+			}
+			if (leer(this.paginas, hueco, campo) != anterior) {
+				return DISTINTO;
+			}
+			this.escribir(hueco, campo, nuevo);
+			this.version++;
+			return CAMBIADO;
+		} finally {
+			this.cerrojo.unlockWrite(sello);
+		}
+	}
+
+	/**
+	 * @return Tipo boolean - false si la vacuna ya no es esa
+	 */
+	boolean escribir(int hueco, long alta, int campo, long valor) {
+		long sello = this.cerrojo.writeLock();
+		try {
+			if (leer(this.paginas, hueco, ALTA) != alta) {
+				return false;
+			}
+			this.escribir(hueco, campo, valor);
+			this.version++;
+			return true;
+		} finally {
+			this.cerrojo.unlockWrite(sello);
+		}
+	}
+
+	/**
+	 * @return Tipo boolean - false si la vacuna ya no es esa
+	 */
+	boolean escribirTexto(int hueco, long alta, int campo, String texto) {
+		long sello = this.cerrojo.writeLock();
+		try {
+			if (leer(this.paginas, hueco, ALTA) != alta) {
+				return false;
+			}
+			this.escribir(hueco, campo, this.guardarTexto(campo, texto));
+			this.version++;
+			return true;
+		} finally {
+			this.cerrojo.unlockWrite(sello);
+		}
+	}
+
+	// -------- guardar y quitar vacunas
+
+	/**
+	 * Copia los datos y el estado de la vacuna a un registro; la vacuna no se
+	 * guarda. Su estado queda también como el contado.
+	 *
+	 * @return Tipo Vacuna - copia suelta de la que había con ese código, con
+	 * su palabra contada, o null
+	 * @throws IllegalArgumentException si el código no cabe en 8 caracteres
+	 * ASCII
+	 */
+	Vacuna guardar(Vacuna v) {
+		String codigo = v.getCodigo();
+		long clave = CodigoVacuna.empaquetar(codigo);
+		// se leen antes: v puede ser una vista de aquí mismo
+		String nombre = v.getNombre();
+		String principioActivo = v.getPrincipioActivo();
+		String farmaceutica = v.getFarmaceutica();
+		long palabra = v.getPalabraEstado();
+		double precio = v.getPrecioRecomendado();
+		long sello = this.cerrojo.writeLock();
+		try {
+			int anterior = this.tabla.buscar(clave);
+			int hueco = this.nuevoHueco();
+			this.escribir(hueco, CODIGO, clave);
+			this.escribir(hueco, NOMBRE, this.guardarTexto(nombre));
+			this.escribir(hueco, PRINCIPIO_ACTIVO, this.guardarTexto(PRINCIPIO_ACTIVO, principioActivo));
+			this.escribir(hueco, FARMACEUTICA, this.guardarTexto(FARMACEUTICA, farmaceutica));
+			this.escribir(hueco, ESTADO, palabra);
+			this.escribir(hueco, CONTADA, palabra);
+			this.escribir(hueco, PRECIO, Double.doubleToRawLongBits(precio));
+			this.escribir(hueco, ALTA, ++this.altas);
+			this.version++;
+			if (anterior == SIN_HUECO) {
+				this.tabla = this.tabla.conEntrada(clave, hueco, this);
+				this.tamano++;
+				this.anotarPendiente(clave);
+				return null;
+			}
+			this.tabla.cambiarHueco(clave, hueco, this);
+			Vacuna sustituida = this.materializarContada(anterior, codigo);
+			this.liberar(anterior);
+			return sustituida;
+		} finally {
+			this.cerrojo.unlockWrite(sello);
+		}
+	}
+
+	/**
+	 * @return Tipo Vacuna - copia suelta de la que había con ese código, con
+	 * su palabra contada, o null
+	 */
+	Vacuna quitar(String codigo) {
+		long clave = CodigoVacuna.empaquetarSiCabe(codigo);
+		if (clave == 0) {
+			return null;
+		}
+		long sello = this.cerrojo.writeLock();
+		try {
+			int hueco = this.tabla.buscar(clave);
+			if (hueco == SIN_HUECO) {
+				return null;
+			}
+			Vacuna quitada = this.materializarContada(hueco, codigo);
+			this.tabla.quitar(clave, this);
+			this.liberar(hueco);
+			this.tamano--;
+			this.version++;
+			return quitada;
+		} finally {
+			this.cerrojo.unlockWrite(sello);
+		}
+	}
+
+	private Vacuna materializarContada(int hueco, String codigo) {
+		Vacuna v = materializar(this.paginas, this.textos, hueco, codigo, ESTADO);
+		v.setPalabraContada(leer(this.paginas, hueco, CONTADA));
+		return v;
+	}
+
+	private static Vacuna materializar(ByteBuffer[] paginas, ByteBuffer[] textos, int hueco, String codigo,
+			int estado) {
+		Vacuna v = new Vacuna(codigo, texto(textos, leer(paginas, hueco, NOMBRE)),
+				texto(textos, PRINCIPIO_ACTIVO, leer(paginas, hueco, PRINCIPIO_ACTIVO)),
+				texto(textos, FARMACEUTICA, leer(paginas, hueco, FARMACEUTICA)),
+				Double.longBitsToDouble(leer(paginas, hueco, PRECIO)));
+		v.restaurarEstado(leer(paginas, hueco, estado));
+		return v;
+	}
+
+	// los demás métodos privados se llaman con el cerrojo de escritura
+
+	private int nuevoHueco() {
+		if (this.primerLibre != SIN_HUECO) {
+			int hueco = this.primerLibre;
+			this.primerLibre = (int) leer(this.paginas, hueco, CODIGO);
+			if (this.primerLibre == SIN_HUECO) {
+				this.ultimoLibre = SIN_HUECO;
+			}
+			return hueco;
+		}
+		if (this.huecosUsados == this.numeroPaginas * REGISTROS_POR_PAGINA) {
+			if (this.numeroPaginas == this.paginas.length) {
+				this.paginas = Arrays.copyOf(this.paginas, this.numeroPaginas * 2);
+				this.generacionPaginas = Arrays.copyOf(this.generacionPaginas, this.numeroPaginas * 2);
+			}
+			this.paginas[this.numeroPaginas] = reservar(REGISTROS_POR_PAGINA * TAMANO_REGISTRO);
+			this.generacionPaginas[this.numeroPaginas] = this.generacion;
+			this.numeroPaginas++;
+		}
+		return this.huecosUsados++;
+	}
+
+	// al final de la cola, para tardar en reutilizarlo; las vistas que queden
+	// lo dejan de leer por el alta cambiada de signo
+	private void liberar(int hueco) {
+		this.escribir(hueco, ALTA, -leer(this.paginas, hueco, ALTA));
+		this.escribir(hueco, CODIGO, SIN_HUECO);
+		if (this.ultimoLibre == SIN_HUECO) {
+			this.primerLibre = hueco;
+		} else {
+			this.escribir(this.ultimoLibre, CODIGO, hueco);
+		}
+		this.ultimoLibre = hueco;
+	}
+
+	private void escribir(int hueco, int campo, long valor) {
+		int pagina = hueco >>> BITS_PAGINA;
+		if (this.generacionPaginas[pagina] != this.generacion) {
+			this.paginas[pagina] = copiarPagina(this.paginas[pagina]);
+			this.generacionPaginas[pagina] = this.generacion;
+		}
+		this.paginas[pagina].putLong(posicion(hueco, campo), valor);
+	}
+
+	private static ByteBuffer copiarPagina(ByteBuffer pagina) {
+		ByteBuffer copia = reservar(pagina.capacity());
+		copia.put(0, pagina, 0, pagina.capacity());
+		return copia;
+	}
+
+	// lo que se guarda en el campo: NOMBRE, PRINCIPIO_ACTIVO o FARMACEUTICA
+	private long guardarTexto(int campo, String texto) {
+		if (campo == NOMBRE) {
+			return this.guardarTexto(texto);
+		}
+		int numero = diccionario(campo).numero(texto);
+		return (numero == DiccionarioTextos.FUERA_DE_TABLA) ? ~this.guardarTexto(texto) : numero;
+	}
+
+	private long guardarTexto(String texto) {
+		if (texto == null) {
+			return SIN_TEXTO;
+		}
+		byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+		int necesarios = 4 + bytes.length;
+		if (this.numeroPaginasTexto == 0
+				|| this.finTexto + necesarios > this.textos[this.numeroPaginasTexto - 1].capacity()) {
+			if (this.numeroPaginasTexto == this.textos.length) {
+				this.textos = Arrays.copyOf(this.textos, this.numeroPaginasTexto * 2);
+			}
+			// un texto más grande que una página va en una página propia
+			this.textos[this.numeroPaginasTexto++] = reservar(Math.max(TAMANO_PAGINA_TEXTOS, necesarios));
+			this.finTexto = 0;
+		}
+		ByteBuffer pagina = this.textos[this.numeroPaginasTexto - 1];
+		pagina.putInt(this.finTexto, bytes.length);
+		pagina.put(this.finTexto + 4, bytes);
+		long posicion = ((long) (this.numeroPaginasTexto - 1) << 32) | this.finTexto;
+		this.finTexto += necesarios;
+		return posicion;
+	}
+
+	// -------- copias
+
+	/**
+	 * Las vacunas tal como están ahora; si no ha cambiado nada desde la
+	 * última copia, la misma
+	 */
+	Copia copiar() {
+		long sello = this.cerrojo.writeLock();
+		try {
+			if (this.ultimaCopia == null || this.ultimaCopia.version != this.version) {
+				this.ultimaCopia = new Copia(Arrays.copyOf(this.paginas, this.numeroPaginas), this.tabla.congelar(),
+						this.textos, this.huecosUsados, this.tamano, this.version);
+				// desde aquí todas las páginas actuales son compartidas
+				this.generacion++;
+			}
+			return this.ultimaCopia;
+		} finally {
+			this.cerrojo.unlockWrite(sello);
+		}
+	}
+
+	// -------- índice ordenado
+
+	private void anotarPendiente(long clave) {
+		if (this.numeroPendientes == this.pendientes.length) {
+			this.pendientes = Arrays.copyOf(this.pendientes, this.numeroPendientes * 2);
+		}
+		this.pendientes[this.numeroPendientes++] = clave;
+		if (this.numeroPendientes >= Math.max(MINIMO_PENDIENTES, Math.min(this.numeroOrdenados / 4, MAXIMO_PENDIENTES))) {
+			this.ordenarPendientes();
+		}
+	}
+
+	// mezcla los pendientes con los ordenados; de paso quita los códigos que
+	// ya no están y los repetidos (eliminados y vueltos a agregar)
+	private void ordenarPendientes() {
+		Arrays.sort(this.pendientes, 0, this.numeroPendientes);
+		ByteBuffer nuevos = reservar((this.numeroOrdenados + this.numeroPendientes) * 8);
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		long ultima = 0;
+		while (i < this.numeroOrdenados || j < this.numeroPendientes) {
+			long clave;
+			if (j == this.numeroPendientes
+					|| (i < this.numeroOrdenados && this.ordenados.getLong(i * 8) <= this.pendientes[j])) {
+				clave = this.ordenados.getLong(8 * i++);
+			} else {
+				clave = this.pendientes[j++];
+			}
+			if (clave != ultima && this.tabla.buscar(clave) != SIN_HUECO) {
+				nuevos.putLong(8 * n++, clave);
+				ultima = clave;
+			}
+		}
+		this.ordenados = nuevos;
+		this.numeroOrdenados = n;
+		this.numeroPendientes = 0;
+	}
+
+	/**
+	 * Los códigos a partir de desde, en orden. Puede traer alguno que ya no
+	 * esté: hay que buscarlos.
+	 *
+	 * @param desde Tipo String - código desde el que se empieza, o null
+	 * @param incluido Tipo boolean - si ese mismo código vale
+	 */
+	PrimitiveIterator.OfLong codigosEnOrden(String desde, boolean incluido) {
+		ByteBuffer base;
+		int numeroBase;
+		long[] nuevos;
+		long sello = this.cerrojo.writeLock();
+		try {
+			if (this.numeroPendientes > MINIMO_PENDIENTES) {
+				this.ordenarPendientes();
+			}
+			Arrays.sort(this.pendientes, 0, this.numeroPendientes);
+			base = this.ordenados;
+			numeroBase = this.numeroOrdenados;
+			nuevos = Arrays.copyOf(this.pendientes, this.numeroPendientes);
+		} finally {
+			this.cerrojo.unlockWrite(sello);
+		}
+		long clave = (desde == null) ? 0 : CodigoVacuna.empaquetarSiCabe(desde);
+		int inicioBase = (desde == null) ? 0 : primeroDesde(i -> base.getLong(8 * i), numeroBase, desde, clave, incluido);
+		int inicioNuevos = (desde == null) ? 0 : primeroDesde(i -> nuevos[i], nuevos.length, desde, clave, incluido);
+		return new PrimitiveIterator.OfLong() {
+			private int i = inicioBase;
+			private int j = inicioNuevos;
+			private long ultima = 0;
+			private long siguiente = this.avanzar();
+
+			private long avanzar() {
+				while (this.i < numeroBase || this.j < nuevos.length) {
+					long k;
+					if (this.j == nuevos.length || (this.i < numeroBase && base.getLong(8 * this.i) <= nuevos[this.j])) {
+						k = base.getLong(8 * this.i++);
+					} else {
+						k = nuevos[this.j++];
+					}
+					if (k != this.ultima) {
+						this.ultima = k;
+						return k;
+					}
+				}
+				return 0;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.siguiente != 0;
+			}
+
+			@Override
+			public long nextLong() {
+				if (this.siguiente == 0) {
+					throw new NoSuchElementException();
+				}
+				long k = this.siguiente;
+				this.siguiente = this.avanzar();
+				return k;
+			}
+		};
+	}
+
+	// como CatalogoBinario.primeroDesde: los códigos empaquetados se ordenan
+	// igual que los String; si desde no cabe en un long se compara el texto
+	private static int primeroDesde(java.util.function.IntToLongFunction codigo, int numero, String desde,
+			long clave, boolean incluido) {
+		int bajo = 0;
+		int alto = numero;
+		while (bajo < alto) {
+			int medio = (bajo + alto) >>> 1;
+			long k = codigo.applyAsLong(medio);
+			int comparacion = (clave != 0) ? Long.compareUnsigned(k, clave)
+					: CodigoVacuna.desempaquetar(k).compareTo(desde);
+			if (comparacion < 0 || (comparacion == 0 && !incluido)) {
+				bajo = medio + 1;
+			} else {
+				alto = medio;
+			}
+		}
+		return bajo;
+	}
+
+	// Tabla hash de (código, hueco) con sondeo lineal, en páginas que se
+	// copian antes de escribir como las de los registros. Al crecer se crea
+	// otra: las copias se quedan con la anterior.
+	private static final class Tabla {
+
+		private final ByteBuffer[] paginas;
+		// null en la de una copia, que no se escribe
+		private final int[] generaciones;
+		private final int mascara;
+
+		Tabla(int capacidad, int generacion) {
+			int porPagina = Math.min(capacidad, 1 << BITS_PAGINA_TABLA);
+			this.paginas = new ByteBuffer[capacidad / porPagina];
+			this.generaciones = new int[this.paginas.length];
+			for (int i = 0; i < this.paginas.length; i++) {
+				this.paginas[i] = reservar(porPagina * TAMANO_ENTRADA);
+				this.generaciones[i] = generacion;
+			}
+			this.mascara = capacidad - 1;
+		}
+
+		private Tabla(ByteBuffer[] paginas, int mascara) {
+			this.paginas = paginas;
+			this.generaciones = null;
+			this.mascara = mascara;
+		}
+
+		Tabla congelar() {
+			return new Tabla(this.paginas.clone(), this.mascara);
+		}
+
+		private static int posicion(int entrada) {
+			return (entrada & ((1 << BITS_PAGINA_TABLA) - 1)) * TAMANO_ENTRADA;
+		}
+
+		private long clave(int entrada) {
+			return this.paginas[entrada >>> BITS_PAGINA_TABLA].getLong(posicion(entrada));
+		}
+
+		private int hueco(int entrada) {
+			return this.paginas[entrada >>> BITS_PAGINA_TABLA].getInt(posicion(entrada) + 8);
+		}
+
+		// sin cerrojo, en una lectura optimista, puede dar cualquier cosa
+		// pero termina
+		int buscar(long clave) {
+			int i = ColeccionCodigoLong.posicionInicial(clave, this.mascara);
+			for (int sondeos = 0; sondeos <= this.mascara; sondeos++) {
+				long k = this.clave(i);
+				if (k == clave) {
+					return this.hueco(i);
+				}
+				if (k == 0) {
+					return SIN_HUECO;
+				}
+				i = (i + 1) & this.mascara;
+			}
+			return SIN_HUECO;
+		}
+
+		private void escribir(int entrada, long clave, int hueco, RegistrosFueraHeap registros) {
+			int pagina = entrada >>> BITS_PAGINA_TABLA;
+			if (this.generaciones[pagina] != registros.generacion) {
+				this.paginas[pagina] = copiarPagina(this.paginas[pagina]);
+				this.generaciones[pagina] = registros.generacion;
+			}
+			this.paginas[pagina].putLong(posicion(entrada), clave);
+			this.paginas[pagina].putInt(posicion(entrada) + 8, hueco);
+		}
+
+		// una clave nueva; devuelve esta tabla u otra más grande
+		Tabla conEntrada(long clave, int hueco, RegistrosFueraHeap registros) {
+			// factor de carga máximo 0,75, como ColeccionCodigoLong
+			if ((registros.tamano + 1) * 4L > (this.mascara + 1) * 3L) {
+				Tabla mayor = new Tabla((this.mascara + 1) * 2, registros.generacion);
+				for (int e = 0; e <= this.mascara; e++) {
+					long k = this.clave(e);
+					if (k != 0) {
+						mayor.conEntrada(k, this.hueco(e), registros);
+					}
+				}
+				return mayor.conEntrada(clave, hueco, registros);
+			}
+			int i = ColeccionCodigoLong.posicionInicial(clave, this.mascara);
+			while (this.clave(i) != 0) {
+				i = (i + 1) & this.mascara;
+			}
+			this.escribir(i, clave, hueco, registros);
+			return this;
+		}
+
+		void cambiarHueco(long clave, int hueco, RegistrosFueraHeap registros) {
+			int i = ColeccionCodigoLong.posicionInicial(clave, this.mascara);
+			while (this.clave(i) != clave) {
+				i = (i + 1) & this.mascara;
+			}
+			this.escribir(i, clave, hueco, registros);
+		}
+
+		// borrado con desplazamiento hacia atrás, como ColeccionCodigoLong
+		void quitar(long clave, RegistrosFueraHeap registros) {
+			int i = ColeccionCodigoLong.posicionInicial(clave, this.mascara);
+			while (this.clave(i) != clave) {
+				i = (i + 1) & this.mascara;
+			}
+			int hueco = i;
+			int j = (i + 1) & this.mascara;
+			while (this.clave(j) != 0) {
+				int inicial = ColeccionCodigoLong.posicionInicial(this.clave(j), this.mascara);
+				if (((j - inicial) & this.mascara) >= ((j - hueco) & this.mascara)) {
+					this.escribir(hueco, this.clave(j), this.hueco(j), registros);
+					hueco = j;
+				}
+				j = (j + 1) & this.mascara;
+			}
+			this.escribir(hueco, 0, 0, registros);
+		}
+	}
+
+	/**
+	 * Los registros en un momento: no cambia nunca. Da copias sueltas de las
+	 * vacunas con el estado que tenía contado el almacén, como las
+	 * instantáneas en memoria.
+	 */
+	static final class Copia implements ICopiaVacunas {
+
+		private final ByteBuffer[] paginas;
+		private final Tabla tabla;
+		private final ByteBuffer[] textos;
+		private final int huecos;
+		private final int tamano;
+		private final long version;
+
+		private Copia(ByteBuffer[] paginas, Tabla tabla, ByteBuffer[] textos, int huecos, int tamano, long version) {
+			this.paginas = paginas;
+			this.tabla = tabla;
+			this.textos = textos;
+			this.huecos = huecos;
+			this.tamano = tamano;
+			this.version = version;
+		}
+
+		@Override
+		public long getVersion() {
+			return this.version;
+		}
+
+		@Override
+		public int tamano() {
+			return this.tamano;
+		}
+
+		@Override
+		public Vacuna buscarVacuna(String codigo) {
+			long clave = CodigoVacuna.empaquetarSiCabe(codigo);
+			int hueco = (clave == 0) ? SIN_HUECO : this.tabla.buscar(clave);
+			return (hueco == SIN_HUECO) ? null : this.materializar(hueco);
+		}
+
+		boolean ocupado(int hueco) {
+			return this.leer(hueco, ALTA) > 0;
+		}
+
+		long leer(int hueco, int campo) {
+			return RegistrosFueraHeap.leer(this.paginas, hueco, campo);
+		}
+
+		Vacuna materializar(int hueco) {
+			String codigo = CodigoVacuna.desempaquetar(this.leer(hueco, CODIGO));
+			return RegistrosFueraHeap.materializar(this.paginas, this.textos, hueco, codigo, CONTADA);
+		}
+
+		// vista del registro que tenía el hueco en la copia; lee el actual
+		VacunaFueraHeap vista(RegistrosFueraHeap registros, int hueco) {
+			return new VacunaFueraHeap(registros, CodigoVacuna.desempaquetar(this.leer(hueco, CODIGO)), hueco,
+					this.leer(hueco, ALTA));
+		}
+
+		// en orden de hueco
+		@Override
+		public boolean recorrer(Predicate<Vacuna> accion) {
+			for (int hueco = 0; hueco < this.huecos; hueco++) {
+				if (this.ocupado(hueco) && !accion.test(this.materializar(hueco))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// huecos ocupados, en orden
+		PrimitiveIterator.OfInt huecos() {
+			return new PrimitiveIterator.OfInt() {
+				private int hueco = this.avanzar(0);
+
+				private int avanzar(int desde) {
+					int h = desde;
+					while (h < huecos && !ocupado(h)) {
+						h++;
+					}
+					return h;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return this.hueco < huecos;
+				}
+
+				@Override
+				public int nextInt() {
+					if (this.hueco >= huecos) {
+						throw new NoSuchElementException();
+					}
+					int h = this.hueco;
+					this.hueco = this.avanzar(h + 1);
+					return h;
+				}
+			};
+		}
+
+		@Override
+		public Iterator<Vacuna> iterator() {
+			PrimitiveIterator.OfInt ocupados = this.huecos();
+			return new Iterator<Vacuna>() {
+				@Override
+				public boolean hasNext() {
+					return ocupados.hasNext();
+				}
+
+				@Override
+				public Vacuna next() {
+					return materializar(ocupados.nextInt());
+				}
+			};
+		}
+	}
+}
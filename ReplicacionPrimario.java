@@ -0,0 +1,323 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Envía las operaciones de un VacAlmacen a réplicas de solo lectura
+ * (ReplicacionSeguidor) por TCP. A cada réplica que se conecta se le manda
+ * primero una instantánea del almacén y después, en orden, cada entrada del
+ * registro de operaciones (EntradaRegistro) posterior a ella.
+ *
+ * Como en RegistroOperaciones, el hilo que modifica el almacén solo copia la
+ * entrada, ya codificada, al búfer de cada réplica; un hilo por réplica
+ * vuelca todo lo pendiente de una vez al socket. Delante de cada envío, y
+ * cada INTERVALO_LATIDO sin cambios, manda un latido con la última secuencia
+ * y la hora, de donde la réplica saca su retraso. Una réplica que se queda
+ * más de MAXIMO_PENDIENTE bytes por detrás se desconecta: al volver a
+ * conectarse recibe otra instantánea.
+ *
+ * @author luPinheiro
+ */
+public class ReplicacionPrimario implements IOyenteAlmacen, Closeable {
+
+	static final int MAGIA = 0x56414352; // "VACR"
+	static final int VERSION = 1;
+	static final byte ENTRADA = 1;
+	static final byte LATIDO = 2;
+	static final long INTERVALO_LATIDO = 100; // ms
+	public static final int MAXIMO_PENDIENTE = 64 << 20;
+
+	private final VacAlmacen almacen;
+	private final ServerSocket servidor;
+	private final Thread aceptador;
+	private final CopyOnWriteArrayList<Seguidor> seguidores = new CopyOnWriteArrayList<Seguidor>();
+	// la secuencia y los búferes de todas las réplicas van con este cerrojo,
+	// así cada réplica recibe las entradas en el orden de su secuencia
+	private final ReentrantLock cerrojo = new ReentrantLock();
+	private final ByteArrayOutputStream trama = new ByteArrayOutputStream(256);
+	private final DataOutputStream datosTrama = new DataOutputStream(trama);
+	private long secuencia;
+	private volatile boolean cerrado;
+
+	private ReplicacionPrimario(VacAlmacen almacen, ServerSocket servidor) {
+		this.almacen = almacen;
+		this.servidor = servidor;
+		this.aceptador = new Thread(this::aceptar, "vacunas-replicacion");
+		this.aceptador.setDaemon(true);
+	}
+
+	/**
+	 * Empieza a aceptar réplicas y a anotar las operaciones del almacén.
+	 *
+	 * @param almacen Tipo VacAlmacen - almacén que se replica
+	 * @param direccion Tipo InetSocketAddress - dónde escuchar; puerto 0 para
+	 * uno libre
+	 * @return Tipo ReplicacionPrimario - ya registrado como oyente del almacén
+	 * @throws IOException si no se puede abrir el puerto
+	 */
+	public static ReplicacionPrimario abrir(VacAlmacen almacen, InetSocketAddress direccion) throws IOException {
+		ServerSocket servidor = new ServerSocket();
+		servidor.setReuseAddress(true);
+		servidor.bind(direccion);
+		ReplicacionPrimario primario = new ReplicacionPrimario(almacen, servidor);
+		almacen.agregarOyente(primario);
+		primario.aceptador.start();
+		return primario;
+	}
+
+	public InetSocketAddress getDireccion() {
+		return (InetSocketAddress) this.servidor.getLocalSocketAddress();
+	}
+
+	public int getNumeroSeguidores() {
+		return this.seguidores.size();
+	}
+
+	public long getUltimaSecuencia() {
+		this.cerrojo.lock();
+		try {
+			return this.secuencia;
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	@Override
+	public void vacunaAgregada(Vacuna v) {
+		this.anotar(EntradaRegistro.agregar(v));
+	}
+
+	@Override
+	public void vacunaEliminada(Vacuna v) {
+		this.anotar(EntradaRegistro.eliminar(v.getCodigo()));
+	}
+
+	@Override
+	public void estadoCambiado(Vacuna v, long anterior, long nuevo) {
+		this.anotar(EntradaRegistro.cambioEstado(v, anterior, nuevo));
+	}
+
+	// la réplica sustituye la vacuna por otra con los datos nuevos
+	@Override
+	public void datosModificados(Vacuna v) {
+		this.anotar(EntradaRegistro.agregar(v));
+	}
+
+	// se llama con el cerrojo del código: copia la trama y no espera a nadie
+	private void anotar(EntradaRegistro e) {
+		this.cerrojo.lock();
+		try {
+			long sec = ++this.secuencia;
+			if (this.seguidores.isEmpty()) {
+				return;
+			}
+			this.trama.reset();
+			this.datosTrama.writeByte(ENTRADA);
+			this.datosTrama.writeLong(sec);
+			this.datosTrama.writeLong(System.currentTimeMillis());
+			e.escribir(this.datosTrama);
+			byte[] bytes = this.trama.toByteArray();
+			for (Seguidor s : this.seguidores) {
+				s.anotar(bytes);
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		} finally {
+			this.cerrojo.unlock();
+		}
+	}
+
+	private void aceptar() {
+		while (!this.cerrado) {
+			Socket socket;
+			try {
+				socket = this.servidor.accept();
+			} catch (IOException e) {
+				if (!this.cerrado) {
+					System.out.println("ERROR. La replicación no acepta más réplicas: " + e.getMessage());
+				}
+				return;
+			}
+			Seguidor s;
+			this.cerrojo.lock();
+			try {
+				// la instantánea ya tiene todo lo anotado hasta aquí; lo que se
+				// esté aplicando ahora se anota después y la réplica lo repite,
+				// que no tiene efectos extra
+				s = new Seguidor(socket, this.almacen.instantanea(), this.secuencia);
+				this.seguidores.add(s);
+			} finally {
+				this.cerrojo.unlock();
+			}
+			s.hilo.start();
+		}
+	}
+
+	/**
+	 * Deja de anotar, manda a cada réplica lo que tenga pendiente y cierra las
+	 * conexiones. Las réplicas se quedan con los datos y siguen intentando
+	 * conectarse.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.almacen.quitarOyente(this);
+		this.cerrado = true;
+		this.servidor.close();
+		for (Seguidor s : this.seguidores) {
+			s.cerrar();
+		}
+		for (Seguidor s : this.seguidores) {
+			try {
+				s.hilo.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			this.aceptador.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Una réplica conectada: su búfer de entradas pendientes (con el cerrojo
+	// del primario) y el hilo que se las manda.
+	private final class Seguidor {
+
+		private final Socket socket;
+		private final InstantaneaAlmacen instantanea;
+		private final long secuenciaInstantanea;
+		private final Condition hayPendientes = cerrojo.newCondition();
+		private final Thread hilo;
+		private ByteArrayOutputStream pendiente = new ByteArrayOutputStream(64 * 1024);
+		private ByteArrayOutputStream libre = new ByteArrayOutputStream(64 * 1024);
+		private boolean terminado;
+
+		Seguidor(Socket socket, InstantaneaAlmacen instantanea, long secuenciaInstantanea) {
+			this.socket = socket;
+			this.instantanea = instantanea;
+			this.secuenciaInstantanea = secuenciaInstantanea;
+			this.hilo = new Thread(this::enviar, "vacunas-replicacion-" + socket.getRemoteSocketAddress());
+			this.hilo.setDaemon(true);
+		}
+
+		// con el cerrojo del primario
+		void anotar(byte[] trama) {
+			if (this.terminado) {
+				return;
+			}
+			if (this.pendiente.size() + trama.length > MAXIMO_PENDIENTE) {
+				// demasiado lenta: que vuelva a empezar con otra instantánea
+				System.out.println("ERROR. Réplica " + this.socket.getRemoteSocketAddress()
+						+ " desconectada: se retrasó más de " + (MAXIMO_PENDIENTE >> 20) + " MiB");
+				this.terminado = true;
+				this.pendiente = this.libre = null;
+				this.hayPendientes.signal();
+				this.cerrarSocket();
+				return;
+			}
+			this.pendiente.write(trama, 0, trama.length);
+			this.hayPendientes.signal();
+		}
+
+		void cerrar() {
+			cerrojo.lock();
+			try {
+				this.terminado = true;
+				this.hayPendientes.signal();
+			} finally {
+				cerrojo.unlock();
+			}
+		}
+
+		private void enviar() {
+			try {
+				this.socket.setTcpNoDelay(true);
+				DataOutputStream salida = new DataOutputStream(
+						new BufferedOutputStream(this.socket.getOutputStream(), 64 * 1024));
+				salida.writeInt(MAGIA);
+				salida.writeInt(VERSION);
+				salida.writeLong(this.secuenciaInstantanea);
+				for (Vacuna v : this.instantanea) {
+					salida.writeBoolean(true);
+					EntradaRegistro.agregar(v).escribir(salida);
+				}
+				salida.writeBoolean(false);
+				while (true) {
+					ByteArrayOutputStream lote;
+					long ultima;
+					boolean fin;
+					cerrojo.lock();
+					try {
+						if (this.pendiente != null && this.pendiente.size() == 0 && !this.terminado) {
+							this.hayPendientes.await(INTERVALO_LATIDO, TimeUnit.MILLISECONDS);
+						}
+						if (this.pendiente == null) {
+							return; // desconectada por lenta
+						}
+						lote = this.pendiente;
+						this.pendiente = this.libre;
+						this.libre = lote;
+						ultima = secuencia;
+						fin = this.terminado;
+					} finally {
+						cerrojo.unlock();
+					}
+					// el latido va delante: mientras aplica el lote, la réplica
+					// sabe cuántas entradas le faltan
+					salida.writeByte(LATIDO);
+					salida.writeLong(ultima);
+					salida.writeLong(System.currentTimeMillis());
+					lote.writeTo(salida);
+					lote.reset();
+					salida.flush();
+					if (fin) {
+						return;
+					}
+				}
+			} catch (IOException e) {
+				if (!cerrado && !this.socket.isClosed()) {
+					System.out.println("Réplica " + this.socket.getRemoteSocketAddress() + " desconectada: "
+							+ e.getMessage());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				seguidores.remove(this);
+				cerrojo.lock();
+				try {
+					this.terminado = true;
+					this.pendiente = this.libre = null;
+				} finally {
+					cerrojo.unlock();
+				}
+				this.cerrarSocket();
+			}
+		}
+
+		private void cerrarSocket() {
+			try {
+				this.socket.close();
+			} catch (IOException e) {
+				// ya estaba cerrado
+			}
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Réplica de solo lectura de un VacAlmacen de otro proceso: se conecta a su
+ * ReplicacionPrimario, carga la instantánea que le manda y después aplica en
+ * orden cada entrada del registro, en un único hilo. El almacén local se
+ * puede consultar mientras tanto (buscarVacuna, listados, ServidorVacunas en
+ * solo lectura); no se debe modificar más que desde aquí.
+ *
+ * Si se pierde la conexión, o pasa TIEMPO_SIN_DATOS sin recibir ni un latido,
+ * vuelve a conectarse cada ESPERA_RECONEXION y carga otra instantánea
+ * encima de lo que tenga: sustituye las vacunas y elimina las que ya no están
+ * en el primario.
+ *
+ * El retraso en milisegundos se mide con la hora del primario que viaja en
+ * cada entrada y latido, así que los dos relojes tienen que coincidir (la
+ * misma máquina, o sincronizados con NTP).
+ *
+ * @author luPinheiro
+ */
+public class ReplicacionSeguidor implements ReplicacionSeguidorMXBean, Closeable {
+
+	public static final long ESPERA_RECONEXION = 1000; // ms
+	public static final int TIEMPO_SIN_DATOS = 3000; // ms
+
+	private final VacAlmacen almacen;
+	private final InetSocketAddress primario;
+	private final Thread hilo;
+	private volatile Socket socket;
+	private volatile boolean cerrado;
+	private ObjectName nombre;
+
+	// solo los escribe el hilo de la réplica
+	private volatile boolean conectado;
+	private volatile long ultimaAplicada;
+	private volatile long ultimaPrimario;
+	// hora del primario en lo último aplicado, y el retraso medido entonces
+	private volatile long ultimaMarca;
+	private volatile long ultimoRetraso = -1;
+	private volatile long instantaneasCargadas;
+
+	private ReplicacionSeguidor(VacAlmacen almacen, InetSocketAddress primario) {
+		this.almacen = almacen;
+		this.primario = primario;
+		this.hilo = new Thread(this::seguir, "vacunas-replica");
+		this.hilo.setDaemon(true);
+	}
+
+	/**
+	 * Empieza a seguir al primario en segundo plano; si aún no está
+	 * escuchando, lo sigue intentando.
+	 *
+	 * @param almacen Tipo VacAlmacen - almacén local, concurrente si se va a
+	 * consultar desde otros hilos
+	 * @param primario Tipo InetSocketAddress - dirección de
+	 * ReplicacionPrimario
+	 * @return Tipo ReplicacionSeguidor - ya en marcha
+	 */
+	public static ReplicacionSeguidor conectar(VacAlmacen almacen, InetSocketAddress primario) {
+		ReplicacionSeguidor seguidor = new ReplicacionSeguidor(almacen, primario);
+		seguidor.hilo.start();
+		return seguidor;
+	}
+
+	@Override
+	public boolean isConectado() {
+		return this.conectado;
+	}
+
+	@Override
+	public long getUltimaSecuenciaAplicada() {
+		return this.ultimaAplicada;
+	}
+
+	@Override
+	public long getUltimaSecuenciaPrimario() {
+		return this.ultimaPrimario;
+	}
+
+	@Override
+	public long getRetrasoEntradas() {
+		return Math.max(0, this.ultimaPrimario - this.ultimaAplicada);
+	}
+
+	/**
+	 * @return Tipo long - lo que tardó en aplicarse lo último recibido; si
+	 * desde entonces no llega nada, ni siquiera latidos, lo que pasó desde el
+	 * último latido esperado. -1 si aún no recibió nada
+	 */
+	@Override
+	public long getRetrasoMilisegundos() {
+		if (this.ultimoRetraso < 0) {
+			return -1;
+		}
+		long callado = System.currentTimeMillis() - this.ultimaMarca - ReplicacionPrimario.INTERVALO_LATIDO;
+		return Math.max(this.ultimoRetraso, callado);
+	}
+
+	@Override
+	public long getInstantaneasCargadas() {
+		return this.instantaneasCargadas;
+	}
+
+	/**
+	 * Espera a que la réplica haya aplicado esa secuencia del primario.
+	 *
+	 * @return Tipo boolean - false si pasó el tiempo antes
+	 */
+	public boolean esperarSecuencia(long secuencia, long tiempo, TimeUnit unidad) throws InterruptedException {
+		long limite = System.nanoTime() + unidad.toNanos(tiempo);
+		while (this.ultimaAplicada < secuencia || !this.conectado) {
+			if (System.nanoTime() - limite >= 0) {
+				return false;
+			}
+			Thread.sleep(1);
+		}
+		return true;
+	}
+
+	private void seguir() {
+		boolean avisado = false;
+		while (!this.cerrado) {
+			try (Socket s = new Socket()) {
+				this.socket = s;
+				s.connect(this.primario, TIEMPO_SIN_DATOS);
+				s.setSoTimeout(TIEMPO_SIN_DATOS);
+				DataInputStream entrada = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+				this.cargarInstantanea(entrada);
+				System.out.println("Réplica de " + this.primario + " al día en la secuencia " + this.ultimaAplicada);
+				avisado = false;
+				this.aplicarEntradas(entrada);
+			} catch (IOException e) {
+				this.conectado = false;
+				if (!this.cerrado && !avisado) {
+					String motivo = (e instanceof EOFException) ? "el primario cerró la conexión" : e.getMessage();
+					System.out.println("ERROR. Réplica sin conexión con " + this.primario + ": " + motivo
+							+ ". Se sigue intentando.");
+					avisado = true;
+				}
+			}
+			this.conectado = false;
+			if (!this.cerrado) {
+				try {
+					Thread.sleep(ESPERA_RECONEXION);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void cargarInstantanea(DataInputStream entrada) throws IOException {
+		if (entrada.readInt() != ReplicacionPrimario.MAGIA || entrada.readInt() != ReplicacionPrimario.VERSION) {
+			throw new IOException("El otro extremo no es un primario de esta versión");
+		}
+		long secuencia = entrada.readLong();
+		// la primera vez el almacén está vacío; si no, hay que quitar después
+		// lo que el primario ya no tiene
+		Set<String> recibidas = (this.almacen.getNumeroVacunas() == 0) ? null : new HashSet<String>();
+		while (entrada.readBoolean()) {
+			EntradaRegistro e = EntradaRegistro.leer(entrada);
+			this.almacen.agregar(e.crearVacuna());
+			if (recibidas != null) {
+				recibidas.add(e.getCodigo());
+			}
+		}
+		if (recibidas != null) {
+			for (Vacuna v : this.almacen.instantanea()) {
+				if (!recibidas.contains(v.getCodigo())) {
+					this.almacen.eliminar(v.getCodigo());
+				}
+			}
+		}
+		this.ultimaAplicada = secuencia;
+		// un primario que volvió a arrancar empieza otra vez desde cero
+		this.ultimaPrimario = secuencia;
+		this.instantaneasCargadas++;
+		this.conectado = true;
+	}
+
+	private void aplicarEntradas(DataInputStream entrada) throws IOException {
+		while (!this.cerrado) {
+			byte tipo = entrada.readByte();
+			long secuencia = entrada.readLong();
+			long marca = entrada.readLong();
+			if (tipo == ReplicacionPrimario.ENTRADA) {
+				EntradaRegistro.leer(entrada).aplicar(this.almacen);
+				this.ultimaAplicada = secuencia;
+			} else if (tipo == ReplicacionPrimario.LATIDO) {
+				this.ultimaPrimario = secuencia;
+			} else {
+				throw new IOException("Mensaje de replicación desconocido: " + tipo);
+			}
+			this.ultimaMarca = marca;
+			this.ultimoRetraso = Math.max(0, System.currentTimeMillis() - marca);
+		}
+	}
+
+	/**
+	 * Publica el estado de la réplica en el servidor de MBeans de la
+	 * plataforma como gal.teis.vacunas:type=ReplicacionSeguidor,name=nombre.
+	 *
+	 * @param nombre Tipo String - distingue esta réplica de otras del proceso
+	 * @return Tipo ObjectName - nombre con el que se publicó
+	 * @throws IllegalArgumentException si el nombre no vale para JMX
+	 * @throws IllegalStateException si ya hay otro MBean con ese nombre
+	 */
+	public synchronized ObjectName publicar(String nombre) {
+		this.retirar();
+		try {
+			ObjectName objeto = new ObjectName(MetricasAlmacen.DOMINIO + ":type=ReplicacionSeguidor,name=" + nombre);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objeto);
+			this.nombre = objeto;
+			return objeto;
+		} catch (MalformedObjectNameException e) {
+			throw new IllegalArgumentException("Nombre no válido para JMX: " + nombre, e);
+		} catch (JMException e) {
+			throw new IllegalStateException("No se pudo publicar la réplica como " + nombre, e);
+		}
+	}
+
+	public synchronized void retirar() {
+		if (this.nombre == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.nombre);
+		} catch (JMException e) {
+			// ya lo había retirado otro
+		}
+		this.nombre = null;
+	}
+
+	// el almacén se queda con lo último aplicado
+	@Override
+	public void close() {
+		this.cerrado = true;
+		this.retirar();
+		Socket s = this.socket;
+		if (s != null) {
+			try {
+				s.close();
+			} catch (IOException e) {
+				// ya estaba cerrado
+			}
+		}
+		this.hilo.interrupt();
+		try {
+			this.hilo.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Réplica de " + this.primario + (this.conectado ? "" : " (sin conexión)") + ": secuencia "
+				+ this.ultimaAplicada + ", " + this.getRetrasoEntradas() + " entradas y "
+				+ this.getRetrasoMilisegundos() + " ms por detrás";
+	}
+}
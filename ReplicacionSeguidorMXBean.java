@@ -0,0 +1,32 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Lo que publica ReplicacionSeguidor por JMX: cuánto va la réplica por detrás
+ * del primario.
+ *
+ * @author luPinheiro
+ */
+public interface ReplicacionSeguidorMXBean {
+
+	public boolean isConectado();
+
+	// última entrada del primario aplicada en la réplica
+	public long getUltimaSecuenciaAplicada();
+
+	// última secuencia que la réplica sabe que tiene el primario
+	public long getUltimaSecuenciaPrimario();
+
+	public long getRetrasoEntradas();
+
+	// -1 si aún no recibió nada
+	public long getRetrasoMilisegundos();
+
+	// instantáneas completas cargadas: una por conexión
+	public long getInstantaneasCargadas();
+
+}
@@ -0,0 +1,31 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Qué pasó con cada resultado de fase o decisión de un lote.
+ *
+ * @author luPinheiro
+ */
+public enum ResultadoActualizacion {
+	// se aplicó y cambió la vacuna
+	APLICADA,
+	// la vacuna ya estaba así (autorizar una autorizada, rechazar una
+	// rechazada)
+	SIN_CAMBIOS,
+	// no hay ninguna vacuna con ese código
+	NO_EXISTE,
+	// no es la fase siguiente a la última completada, o ya tiene las tres
+	FASE_NO_SIGUIENTE,
+	// la fase no se superó; como en modificarFase, no se guarda
+	FASE_NO_SUPERADA,
+	// no se puede autorizar sin superar las tres fases
+	FASES_PENDIENTES,
+	// no se puede autorizar una vacuna rechazada
+	YA_RECHAZADA,
+	// no se puede rechazar una vacuna autorizada
+	YA_AUTORIZADA
+}
@@ -0,0 +1,71 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Cuántas veces se ejecutó una operación y cuánto tardó, en nanosegundos. Los
+ * percentiles tienen un error de como mucho un 3 % por arriba. En las
+ * operaciones muestreadas (MetricasAlmacen.Operacion.isMuestreada()) el
+ * número cuenta todas las llamadas y los tiempos salen de las cronometradas.
+ *
+ * @author luPinheiro
+ */
+public class ResumenLatencias {
+
+	private final long numero;
+	private final double media;
+	private final long percentil50;
+	private final long percentil90;
+	private final long percentil99;
+	private final long percentil999;
+	private final long maximo;
+
+	ResumenLatencias(long numero, double media, long percentil50, long percentil90, long percentil99,
+			long percentil999, long maximo) {
+		this.numero = numero;
+		this.media = media;
+		this.percentil50 = percentil50;
+		this.percentil90 = percentil90;
+		this.percentil99 = percentil99;
+		this.percentil999 = percentil999;
+		this.maximo = maximo;
+	}
+
+	public long getNumero() {
+		return this.numero;
+	}
+
+	public double getMedia() {
+		return this.media;
+	}
+
+	public long getPercentil50() {
+		return this.percentil50;
+	}
+
+	public long getPercentil90() {
+		return this.percentil90;
+	}
+
+	public long getPercentil99() {
+		return this.percentil99;
+	}
+
+	public long getPercentil999() {
+		return this.percentil999;
+	}
+
+	public long getMaximo() {
+		return this.maximo;
+	}
+
+	@Override
+	public String toString() {
+		return "Veces: " + this.numero + " ns media: " + Math.round(this.media) + " p50: " + this.percentil50
+				+ " p90: " + this.percentil90 + " p99: " + this.percentil99 + " p99.9: " + this.percentil999
+				+ " máximo: " + this.maximo;
+	}
+}
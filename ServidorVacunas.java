@@ -0,0 +1,369 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Servidor HTTP con las opciones del menú en JSON, para que muchos operadores
+ * usen el mismo almacén a la vez:
+ *
+ * GET /vacunas?prefijo=VA&cursor=..&maximo=.. páginas en orden de código
+ * (sin prefijo, todas); GET /vacunas?texto=..[&alguna=true] búsqueda por
+ * texto; GET /vacunas?estado=PENDIENTE&desde=..&maximo=.. listados por
+ * estado, y lo mismo con farmaceutica=.. o principioActivo=.. (el texto
+ * exacto); GET /vacunas/{codigo}; POST /vacunas agrega (o sustituye, como el
+ * menú); DELETE /vacunas/{codigo}; POST /vacunas/{codigo}/fases con
+ * {"fase": n, "resultado": true}, sin fase es la siguiente;
+ * POST /vacunas/{codigo}/autorizar y POST /vacunas/{codigo}/rechazar. Un
+ * dato que no es del tipo esperado, o una fase que no es 1, 2 o 3, responde
+ * 400 sin cambiar nada.
+ *
+ * En solo lectura (una réplica, ver ReplicacionSeguidor) solo atiende los
+ * GET; el resto responde 405.
+ *
+ * Con Java 21 o posterior cada petición va en su propio hilo virtual; antes,
+ * en un grupo fijo de hilos. En los dos casos las conexiones las atiende el
+ * selector del HttpServer, así que miles de clientes conectados no ocupan un
+ * hilo cada uno mientras no piden nada.
+ *
+ * @author luPinheiro
+ */
+public class ServidorVacunas implements Closeable {
+
+	public static final String RUTA = "/vacunas";
+	// hilos de plataforma cuando no hay virtuales; las peticiones que esperan
+	// al disco de la persistencia comparten fsync, así que conviene que haya
+	// bastantes a la vez
+	public static final int HILOS = 256;
+	public static final int MAXIMO_PAGINA = 1000;
+	private static final int MAXIMO_CUERPO = 64 * 1024;
+
+	private final VacAlmacen almacen;
+	private final HttpServer servidor;
+	private final ExecutorService ejecutor;
+	private final boolean soloLectura;
+
+	private ServidorVacunas(VacAlmacen almacen, HttpServer servidor, ExecutorService ejecutor, boolean soloLectura) {
+		this.almacen = almacen;
+		this.servidor = servidor;
+		this.ejecutor = ejecutor;
+		this.soloLectura = soloLectura;
+	}
+
+	public static ServidorVacunas arrancar(VacAlmacen almacen, InetSocketAddress direccion) throws IOException {
+		return arrancar(almacen, direccion, false);
+	}
+
+	/**
+	 * @param almacen Tipo VacAlmacen - tiene que ser concurrente
+	 * @param direccion Tipo InetSocketAddress - dónde escuchar; puerto 0 para
+	 * uno libre
+	 * @param soloLectura Tipo boolean - true para no admitir modificaciones
+	 * @return Tipo ServidorVacunas - ya atendiendo peticiones
+	 * @throws IOException si no se puede abrir el puerto
+	 */
+	public static ServidorVacunas arrancar(VacAlmacen almacen, InetSocketAddress direccion, boolean soloLectura)
+			throws IOException {
+		if (!almacen.isConcurrente()) {
+			throw new IllegalArgumentException("El servidor necesita un VacAlmacen concurrente");
+		}
+		HttpServer servidor = HttpServer.create(direccion, 1024);
+		ExecutorService ejecutor = crearEjecutor();
+		ServidorVacunas s = new ServidorVacunas(almacen, servidor, ejecutor, soloLectura);
+		servidor.createContext(RUTA, s::atender);
+		servidor.setExecutor(ejecutor);
+		servidor.start();
+		return s;
+	}
+
+	private static ExecutorService crearEjecutor() {
+		try {
+			// Java 21 o posterior; el proyecto compila con versiones anteriores
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			AtomicInteger numero = new AtomicInteger();
+			return Executors.newFixedThreadPool(HILOS, r -> {
+				Thread t = new Thread(r, "vacunas-http-" + numero.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	public InetSocketAddress getDireccion() {
+		return this.servidor.getAddress();
+	}
+
+	// deja terminar las peticiones en curso hasta un segundo
+	@Override
+	public void close() {
+		this.servidor.stop(1);
+		this.ejecutor.shutdown();
+		try {
+			this.ejecutor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void atender(HttpExchange intercambio) throws IOException {
+		try {
+			String ruta = intercambio.getRequestURI().getPath();
+			String[] partes = ruta.substring(RUTA.length()).split("/");
+			// partes[0] es lo que hay antes de la primera barra: vacío
+			if (partes.length > 0 && !partes[0].isEmpty()) {
+				responder(intercambio, 404, error("No existe " + ruta));
+				return;
+			}
+			String metodo = intercambio.getRequestMethod();
+			if (this.soloLectura && !metodo.equals("GET")) {
+				responder(intercambio, 405, error("Réplica de solo lectura: las modificaciones van al primario"));
+				return;
+			}
+			if (partes.length <= 1) {
+				if (metodo.equals("GET")) {
+					this.listar(intercambio);
+				} else if (metodo.equals("POST")) {
+					this.agregar(intercambio);
+				} else {
+					responder(intercambio, 405, error("Método no admitido: " + metodo));
+				}
+			} else if (partes.length == 2) {
+				if (metodo.equals("GET")) {
+					this.buscar(intercambio, partes[1]);
+				} else if (metodo.equals("DELETE")) {
+					this.eliminar(intercambio, partes[1]);
+				} else {
+					responder(intercambio, 405, error("Método no admitido: " + metodo));
+				}
+			} else if (partes.length == 3 && metodo.equals("POST")) {
+				this.actualizar(intercambio, partes[1], partes[2]);
+			} else {
+				responder(intercambio, 404, error("No existe " + ruta));
+			}
+		} catch (IllegalArgumentException e) {
+			responder(intercambio, 400, error(e.getMessage()));
+		} catch (RuntimeException e) {
+			responder(intercambio, 500, error(e.toString()));
+		} finally {
+			intercambio.close();
+		}
+	}
+
+	private void listar(HttpExchange intercambio) throws IOException {
+		Map<String, String> consulta = consulta(intercambio);
+		StringBuilder json = new StringBuilder(4096);
+		String texto = consulta.get("texto");
+		String estado = consulta.get("estado");
+		String farmaceutica = consulta.get("farmaceutica");
+		String principioActivo = consulta.get("principioActivo");
+		if (texto != null) {
+			List<Vacuna> vacunas = "true".equals(consulta.get("alguna")) ? this.almacen.buscarConAlguna(texto)
+					: this.almacen.buscarConTodas(texto);
+			Json.vacunas(vacunas, json.append("{\"vacunas\":")).append('}');
+		} else if (estado != null || farmaceutica != null || principioActivo != null) {
+			int desde = entero(consulta, "desde", 0);
+			int maximo = maximo(consulta);
+			List<Vacuna> vacunas;
+			if (estado != null) {
+				vacunas = this.almacen.buscarPorEstado(EstadoVacuna.valueOf(estado), desde, maximo);
+			} else if (farmaceutica != null) {
+				vacunas = this.almacen.buscarPorFarmaceutica(farmaceutica, desde, maximo);
+			} else {
+				vacunas = this.almacen.buscarPorPrincipioActivo(principioActivo, desde, maximo);
+			}
+			Json.vacunas(vacunas, json.append("{\"vacunas\":")).append(",\"desde\":");
+			if (vacunas.size() == maximo) {
+				json.append(desde + maximo);
+			} else {
+				json.append("null");
+			}
+			json.append('}');
+		} else {
+			String prefijo = consulta.get("prefijo");
+			String cursor = consulta.get("cursor");
+			PaginaVacunas pagina = (prefijo == null)
+					? this.almacen.buscarPorRango(null, null, cursor, maximo(consulta))
+					: this.almacen.buscarPorPrefijo(prefijo, cursor, maximo(consulta));
+			Json.vacunas(pagina.getVacunas(), json.append("{\"vacunas\":")).append(",\"cursor\":");
+			Json.texto(pagina.getCursor(), json).append('}');
+		}
+		responder(intercambio, 200, json);
+	}
+
+	private void buscar(HttpExchange intercambio, String codigo) throws IOException {
+		Vacuna v = this.almacen.buscarVacuna(codigo);
+		if (v == null) {
+			responder(intercambio, 404, error("No existe una vacuna con el código " + codigo));
+		} else {
+			responder(intercambio, 200, Json.vacuna(v, new StringBuilder(256)));
+		}
+	}
+
+	// como la opción 3 del menú: si ya hay una vacuna con ese código, la nueva
+	// la sustituye
+	private void agregar(HttpExchange intercambio) throws IOException {
+		Map<String, Object> datos = Json.leerObjeto(cuerpo(intercambio));
+		String codigo = texto(datos, "codigo");
+		if (codigo == null || !CodigoVacuna.esValido(codigo)) {
+			responder(intercambio, 400, error("El código introducido no es valido: " + codigo));
+			return;
+		}
+		Object precio = datos.get("precioRecomendado");
+		if (precio != null && !(precio instanceof Double)) {
+			throw new IllegalArgumentException("\"precioRecomendado\" tiene que ser un número: " + precio);
+		}
+		Vacuna v = new Vacuna(codigo, texto(datos, "nombre"), texto(datos, "principioActivo"),
+				texto(datos, "farmaceutica"), (precio == null) ? 0 : (Double) precio);
+		this.almacen.agregar(v);
+		responder(intercambio, 201, Json.vacuna(v, new StringBuilder(256)));
+	}
+
+	private void eliminar(HttpExchange intercambio, String codigo) throws IOException {
+		if (this.almacen.buscarVacuna(codigo) == null) {
+			responder(intercambio, 404, error("No existe una vacuna con el código " + codigo));
+			return;
+		}
+		this.almacen.eliminar(codigo);
+		responder(intercambio, 204, null);
+	}
+
+	private void actualizar(HttpExchange intercambio, String codigo, String accion) throws IOException {
+		Vacuna v = this.almacen.buscarVacuna(codigo);
+		if (v == null) {
+			responder(intercambio, 404, error("No existe una vacuna con el código " + codigo));
+			return;
+		}
+		ActualizacionVacuna actualizacion;
+		switch (accion) {
+		case "fases":
+			Map<String, Object> datos = Json.leerObjeto(cuerpo(intercambio));
+			Object fase = datos.get("fase");
+			Object resultado = datos.get("resultado");
+			if (!(resultado instanceof Boolean)) {
+				throw new IllegalArgumentException("\"resultado\" tiene que ser true o false: " + resultado);
+			}
+			// sin fase, la siguiente a la última completada, como en el menú
+			byte numeroFase = (fase == null) ? (byte) (v.getFasesCompletadas() + 1) : numeroFase(fase);
+			actualizacion = ActualizacionVacuna.fase(codigo, numeroFase, (Boolean) resultado);
+			break;
+		case "autorizar":
+			actualizacion = ActualizacionVacuna.autorizar(codigo);
+			break;
+		case "rechazar":
+			actualizacion = ActualizacionVacuna.rechazar(codigo);
+			break;
+		default:
+			responder(intercambio, 404, error("No existe la acción " + accion));
+			return;
+		}
+		ResultadoActualizacion r = actualizacion.aplicar(v);
+		StringBuilder json = new StringBuilder(300).append("{\"resultado\":\"").append(r).append("\",\"vacuna\":");
+		Json.vacuna(v, json).append('}');
+		switch (r) {
+		case APLICADA:
+		case SIN_CAMBIOS:
+		case FASE_NO_SUPERADA:
+			responder(intercambio, 200, json);
+			break;
+		default:
+			// las reglas no lo permiten en el estado actual
+			responder(intercambio, 409, json);
+		}
+	}
+
+	private static String texto(Map<String, Object> datos, String nombre) {
+		Object valor = datos.get(nombre);
+		if (valor != null && !(valor instanceof String)) {
+			throw new IllegalArgumentException("\"" + nombre + "\" tiene que ser un texto: " + valor);
+		}
+		return (String) valor;
+	}
+
+	// 1, 2 o 3 exactos: 2.5 o 259 no se truncan a otra fase
+	private static byte numeroFase(Object fase) {
+		if (!fase.equals(1.0) && !fase.equals(2.0) && !fase.equals(3.0)) {
+			throw new IllegalArgumentException("\"fase\" tiene que ser 1, 2 o 3: " + fase);
+		}
+		return ((Double) fase).byteValue();
+	}
+
+	private static Map<String, String> consulta(HttpExchange intercambio) {
+		Map<String, String> consulta = new HashMap<String, String>();
+		String texto = intercambio.getRequestURI().getRawQuery();
+		if (texto == null) {
+			return consulta;
+		}
+		for (String parametro : texto.split("&")) {
+			int igual = parametro.indexOf('=');
+			if (igual > 0) {
+				consulta.put(URLDecoder.decode(parametro.substring(0, igual), StandardCharsets.UTF_8),
+						URLDecoder.decode(parametro.substring(igual + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return consulta;
+	}
+
+	private static int entero(Map<String, String> consulta, String nombre, int porDefecto) {
+		String valor = consulta.get(nombre);
+		if (valor == null) {
+			return porDefecto;
+		}
+		try {
+			return Integer.parseInt(valor);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("\"" + nombre + "\" tiene que ser un número: " + valor);
+		}
+	}
+
+	private static int maximo(Map<String, String> consulta) {
+		return Math.min(entero(consulta, "maximo", 100), MAXIMO_PAGINA);
+	}
+
+	private static String cuerpo(HttpExchange intercambio) throws IOException {
+		try (InputStream entrada = intercambio.getRequestBody()) {
+			byte[] bytes = entrada.readNBytes(MAXIMO_CUERPO + 1);
+			if (bytes.length > MAXIMO_CUERPO) {
+				throw new IllegalArgumentException("Petición demasiado grande");
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static StringBuilder error(String mensaje) {
+		StringBuilder json = new StringBuilder(128).append("{\"error\":");
+		return Json.texto(mensaje, json).append('}');
+	}
+
+	private static void responder(HttpExchange intercambio, int estado, CharSequence json) throws IOException {
+		if (json == null) {
+			intercambio.sendResponseHeaders(estado, -1);
+			return;
+		}
+		byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+		intercambio.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		intercambio.sendResponseHeaders(estado, bytes.length);
+		try (OutputStream salida = intercambio.getResponseBody()) {
+			salida.write(bytes);
+		}
+	}
+}
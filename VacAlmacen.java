@@ -5,121 +5,1052 @@
  */
 package gal.teis.vacunas;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 /**
  *
  * @author luPinheiro
  */
 public class VacAlmacen {
-                          //clave, valor
-	private HashMap < String, Vacuna> coleccion = new HashMap <String, Vacuna>();
+	private final IColeccionVacunas coleccion;
+	// índices secundarios por estado: códigos de las vacunas en cada estado
+	private final EnumMap<EstadoVacuna, Set<String>> indicesEstado = new EnumMap<EstadoVacuna, Set<String>>(EstadoVacuna.class);
+	// índice ordenado de los códigos, para prefijos, rangos y paginar
+	private final NavigableSet<String> indiceCodigos;
+	private final boolean concurrente;
+	// índice invertido de nombre, principio activo y farmacéutica por código
+	private final IndiceTexto<String> indiceTexto;
+	// false si la colección guarda sus propias copias (ver
+	// IColeccionVacunas.guardaPropias): entonces los índices y la instantánea
+	// de aquí se quedan vacíos
+	private final boolean indexar;
+	// recuentos y precios de las vacunas que tiene el almacén (las de un
+	// catálogo que aún no se han pedido las cuenta la colección)
+	private final EstadisticasVacunas estadisticas = new EstadisticasVacunas();
+	// resultados de fase y decisiones con su momento, indexados por momento
+	private final HistorialVacunas historial;
+	// true mientras se repiten operaciones guardadas, que no pasan ahora y no
+	// van al historial
+	private volatile boolean recuperando;
+	// mantiene los índices cuando se autoriza o rechaza una vacuna del almacén
+	// o se cambian sus datos
+	private final IObservadorVacuna observador = new IObservadorVacuna() {
+		@Override
+		public void estadoCambiado(VacunaAutorizacion vacuna, long anterior, long nuevo) {
+			VacAlmacen.this.estadoCambiado(vacuna);
+		}
+
+		@Override
+		public void modificarDatos(Vacuna vacuna, Runnable cambio) {
+			VacAlmacen.this.modificarDatos(vacuna, cambio);
+		}
+
+		@Override
+		public void faseNoSuperada(VacunaAutorizacion vacuna, byte fase) {
+			VacAlmacen.this.faseNoSuperada(vacuna, fase);
+		}
+
+		@Override
+		public MetricasAlmacen getMetricas() {
+			return VacAlmacen.this.metricas;
+		}
+	};
+	// persistencia y demás componentes que siguen las modificaciones
+	private final MetricasAlmacen metricas = new MetricasAlmacen();
+	private final CopyOnWriteArrayList<IOyenteAlmacen> oyentes = new CopyOnWriteArrayList<IOyenteAlmacen>();
+	private final Object[] cerrojos = new Object[64];
+	// versión actual de las vacunas para quien las recorra sin cerrojos; se
+	// sustituye en cada modificación, con el cerrojo del código
+	private final AtomicReference<InstantaneaAlmacen> instantanea;
+	private static final String SALTO = System.lineSeparator();
 
         
 	public VacAlmacen() {
+		this(false);
+	}
+
+	/**
+	 * @param concurrente Tipo boolean - true para un almacén que pueden usar
+	 * varios hilos a la vez (ConcurrentHashMap e índices concurrentes)
+	 */
+	public VacAlmacen(boolean concurrente) {
+		this(new ColeccionMapa(concurrente), concurrente);
+	}
+
+	/**
+	 * Almacén que sirve las vacunas directamente de un catálogo binario
+	 * proyectado en memoria; cada vacuna se crea la primera vez que se pide.
+	 *
+	 * @param catalogo Tipo CatalogoBinario - catálogo ya abierto
+	 * @param concurrente Tipo boolean - true para un almacén que pueden usar
+	 * varios hilos a la vez
+	 */
+	public VacAlmacen(CatalogoBinario catalogo, boolean concurrente) {
+		this(new ColeccionCatalogo(catalogo), concurrente);
+	}
+
+	/**
+	 * Almacén indexado por el código empaquetado en un long en vez de por el
+	 * String: menos memoria por vacuna, pero búsquedas más lentas que las del
+	 * almacén por defecto (ver ColeccionCodigoLong). Solo admite códigos de
+	 * hasta 8 caracteres ASCII, como todos los válidos.
+	 */
+	public static VacAlmacen conCodigosEmpaquetados(boolean concurrente) {
+		return new VacAlmacen(new ColeccionCodigoLong(), concurrente);
+	}
+
+	/**
+	 * Almacén que guarda las vacunas fuera del heap, en memoria directa (ver
+	 * RegistrosFueraHeap), así el heap y el trabajo del GC no crecen con el
+	 * número de vacunas. buscarVacuna y los listados dan vistas que leen y
+	 * cambian el registro de la vacuna; agregar copia la vacuna al registro
+	 * y no se queda con ella. No hay índices en memoria: los listados por
+	 * estado y las búsquedas de texto recorren todos los registros. Solo
+	 * admite códigos de hasta 8 caracteres ASCII, como todos los válidos.
+	 */
+	public static VacAlmacen fueraDelHeap(boolean concurrente) {
+		return new VacAlmacen(new ColeccionFueraHeap(), concurrente);
+	}
+
+	/**
+	 * Almacén que guarda las vacunas en un fichero de páginas organizado como
+	 * un árbol B+ por código (ver ArbolEnDisco), con solo las páginas más
+	 * usadas en memoria: el catálogo puede ser mayor que la memoria. Como en
+	 * fueraDelHeap, buscarVacuna y los listados dan vistas de los registros y
+	 * no hay índices en memoria. El fichero es solo de trabajo (ver
+	 * abrirEnDisco para conservarlo).
+	 *
+	 * @param fichero Tipo Path - se vacía al abrirlo y se borra al cerrarlo
+	 * @param paginasEnMemoria Tipo int - páginas de 8 KiB en memoria, al menos
+	 * 64
+	 * @throws IOException si no se puede crear el fichero
+	 */
+	public static VacAlmacen enDisco(Path fichero, int paginasEnMemoria, boolean concurrente) throws IOException {
+		return new VacAlmacen(new ColeccionEnDisco(fichero, paginasEnMemoria), concurrente);
+	}
+
+	/**
+	 * Como enDisco, pero el fichero se conserva: si ya tiene vacunas se abre
+	 * con ellas, y cerrar() lo deja listo para la próxima vez. Un fichero que
+	 * no se cerró (el proceso terminó antes) no se abre; para no perder nada
+	 * si el proceso termina de golpe está PersistenciaVacunas.
+	 *
+	 * @param fichero Tipo Path - se crea si no existe
+	 * @param paginasEnMemoria Tipo int - páginas de 8 KiB en memoria, al menos
+	 * 64
+	 * @throws IOException si no se puede abrir, no es de vacunas o no se cerró
+	 */
+	public static VacAlmacen abrirEnDisco(Path fichero, int paginasEnMemoria, boolean concurrente) throws IOException {
+		VacAlmacen almacen = new VacAlmacen(new ColeccionEnDisco(fichero, paginasEnMemoria, false), concurrente);
+		for (Vacuna v : almacen.coleccion.vacunas()) {
+			almacen.estadisticas.contar(v, v.getPalabraContada(), 1);
+		}
+		return almacen;
+	}
+
+	VacAlmacen(IColeccionVacunas coleccion, boolean concurrente) {
 		super();
+		this.concurrente = concurrente;
+		this.coleccion = coleccion;
+		this.indexar = !coleccion.guardaPropias();
+		coleccion.vincular(this.observador);
+		for (EstadoVacuna estado : EstadoVacuna.values()) {
+			this.indicesEstado.put(estado, this.nuevoConjunto());
+		}
+		this.indiceCodigos = concurrente ? new ConcurrentSkipListSet<String>() : new TreeSet<String>();
+		this.indiceTexto = new IndiceTexto<String>(concurrente);
+		this.historial = new HistorialVacunas(concurrente, System::currentTimeMillis);
+		this.instantanea = new AtomicReference<InstantaneaAlmacen>(InstantaneaAlmacen.vacia(coleccion.catalogo()));
+		for (int i = 0; i < this.cerrojos.length; i++) {
+			this.cerrojos[i] = new Object();
+		}
+	}
+
+	/**
+	 * Cierra la colección; con abrirEnDisco deja el fichero listo para volver
+	 * a abrirlo. Después el almacén no se usa.
+	 */
+	public void cerrar() throws IOException {
+		this.coleccion.cerrar();
+	}
+
+	// PersistenciaVacunas, antes y después de cargar lo guardado
+	void setRecuperando(boolean recuperando) {
+		this.recuperando = recuperando;
+	}
+
+	public boolean isConcurrente() {
+		return this.concurrente;
+	}
+
+	public void agregarOyente(IOyenteAlmacen oyente) {
+		this.oyentes.add(oyente);
+	}
+
+	public void quitarOyente(IOyenteAlmacen oyente) {
+		this.oyentes.remove(oyente);
+	}
+
+	// cuántas veces se ejecuta cada operación y cuánto tarda; metricas.publicar()
+	// las enseña por JMX
+	public MetricasAlmacen getMetricas() {
+		return this.metricas;
+	}
+
+	public int getNumeroVacunas() {
+		return this.coleccion.tamano();
+	}
+
+	// recorre todas las vacunas del almacén, por ejemplo para hacer una copia;
+	// las que aún están en un catálogo mapeado se dan como copias de consulta
+	public Iterable<Vacuna> vacunas() {
+		return this.coleccion.vacunas();
+	}
+
+	/**
+	 * Las vacunas tal como están ahora, para recorrerlas sin cerrojos y sin
+	 * ver modificaciones a medias aunque otros hilos sigan cambiando el
+	 * almacén. Cuesta lo mismo que leer un campo; listarVacunas,
+	 * verUltimaFaseInvestigada y la persistencia recorren una.
+	 *
+	 * @return Tipo InstantaneaAlmacen - no cambia aunque cambie el almacén
+	 */
+	public InstantaneaAlmacen instantanea() {
+		return this.indexar ? this.instantanea.get() : this.coleccion.instantanea();
+	}
+
+	// con el cerrojo del código: la nueva versión de la vacuna, con el estado
+	// que tiene contado el almacén
+	private void congelar(Vacuna v) {
+		if (!this.indexar) {
+			return;
+		}
+		Vacuna congelada = v.copiar(v.getPalabraContada());
+		this.instantanea.updateAndGet(i -> i.con(congelada));
+	}
+
+	private void estadoCambiado(VacunaAutorizacion vacuna) {
+		String codigo = ((Vacuna) vacuna).getCodigo();
+		synchronized (this.cerrojo(codigo)) {
+			if (this.coleccion.contiene((Vacuna) vacuna)) {
+				// se pasa de lo contado a lo que hay ahora, no de anterior a
+				// nuevo: el compareAndSet se hace sin el cerrojo y dos cambios
+				// del mismo código pueden llegar aquí al revés. Si otro aviso
+				// (o agregar) ya leyó este estado, no queda nada que hacer.
+				long contada = vacuna.getPalabraContada();
+				long actual = vacuna.getPalabraEstado();
+				if (actual != contada) {
+					EstadoVacuna estadoContado = VacunaAutorizacion.estado(contada);
+					EstadoVacuna estadoActual = VacunaAutorizacion.estado(actual);
+					if (this.indexar && estadoContado != estadoActual) {
+						this.indicesEstado.get(estadoContado).remove(codigo);
+						this.indicesEstado.get(estadoActual).add(codigo);
+					}
+					this.estadisticas.contarEstado(contada, -1);
+					this.estadisticas.contarEstado(actual, 1);
+					if (!this.recuperando) {
+						this.historial.anotarCambio(codigo, contada, actual);
+					}
+					vacuna.setPalabraContada(actual);
+					this.congelar((Vacuna) vacuna);
+					for (IOyenteAlmacen oyente : this.oyentes) {
+						oyente.estadoCambiado((Vacuna) vacuna, contada, actual);
+					}
+				}
+			}
+		}
+	}
+
+	private void faseNoSuperada(VacunaAutorizacion vacuna, byte fase) {
+		String codigo = ((Vacuna) vacuna).getCodigo();
+		synchronized (this.cerrojo(codigo)) {
+			if (this.coleccion.contiene((Vacuna) vacuna) && !this.recuperando) {
+				this.historial.anotarFaseNoSuperada(codigo, fase);
+			}
+		}
+	}
+
+	// los términos se quitan con los datos de antes y se ponen con los nuevos
+	private void modificarDatos(Vacuna vacuna, Runnable cambio) {
+		String codigo = vacuna.getCodigo();
+		synchronized (this.cerrojo(codigo)) {
+			if (this.coleccion.contiene(vacuna)) {
+				if (this.indexar) {
+					this.indiceTexto.quitar(codigo, vacuna);
+				}
+				this.estadisticas.contarPrecio(vacuna.getFarmaceutica(), vacuna.getPrecioRecomendado(), -1);
+				cambio.run();
+				if (this.indexar) {
+					this.indiceTexto.agregar(codigo, vacuna);
+				}
+				this.estadisticas.contarPrecio(vacuna.getFarmaceutica(), vacuna.getPrecioRecomendado(), 1);
+				this.congelar(vacuna);
+				for (IOyenteAlmacen oyente : this.oyentes) {
+					oyente.datosModificados(vacuna);
+				}
+			} else {
+				cambio.run();
+			}
+		}
+	}
+
+	// Las modificaciones de un mismo código se hacen con su cerrojo, así un
+	// cambio de índice no se cruza con un agregar/eliminar de ese código y los
+	// oyentes reciben los avisos en orden y con el mapa ya actualizado.
+	private Object cerrojo(String codigo) {
+		int h = codigo.hashCode();
+		return this.cerrojos[(h ^ (h >>> 16)) & (this.cerrojos.length - 1)];
+	}
+
+	private Set<String> nuevoConjunto() {
+		if (this.concurrente) {
+			return ConcurrentHashMap.newKeySet();
+		}
+		return new HashSet<String>();
 	}
 
 	public void listarVacunas() {
-		if (coleccion.isEmpty()) {
-			System.out.println("No esisten vacunas para mostrar");
-		} else {
-			System.out.println("------Listado de Vacunas:----");                          //conyunto de claves
-			for (String clave : coleccion.keySet()) {
-				//devuelve una vacuna del listado
-				System.out.println(coleccion.get(clave).toString());
-                                
-			}
-			System.out.println("------Fin Listado de Vacunas:----");
-		}
-                
-        }
+		try {
+			this.listarVacunas(System.out, 0, Integer.MAX_VALUE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // PrintStream no lanza
+		}
+	}
+
+	/**
+	 * Escribe el listado de vacunas en cualquier destino, vacuna a vacuna y
+	 * sin construir el texto completo en memoria. Sale entero de una
+	 * instantánea: aunque otros hilos modifiquen el almacén mientras tanto,
+	 * cada vacuna aparece una vez y como estaba al empezar. Entre dos llamadas
+	 * sin modificaciones el orden no cambia, así que se puede paginar.
+	 *
+	 * @param destino Tipo Appendable - Writer, PrintStream, StringBuilder...
+	 * @param desde Tipo int - vacunas que se saltan antes de empezar
+	 * @param maximo Tipo int - vacunas que se escriben como mucho
+	 * @return Tipo int - vacunas escritas; menos que maximo en la última página
+	 * @throws IOException si falla la escritura en el destino
+	 */
+	public int listarVacunas(Appendable destino, int desde, int maximo) throws IOException {
+		long inicio = this.metricas.empezar(MetricasAlmacen.Operacion.LISTAR_VACUNAS);
+		int escritas = this.escribirListado(destino, desde, maximo);
+		this.metricas.terminar(MetricasAlmacen.Operacion.LISTAR_VACUNAS, inicio);
+		return escritas;
+	}
+
+	private int escribirListado(Appendable destino, int desde, int maximo) throws IOException {
+		// todo el listado sale de la misma versión del almacén
+		InstantaneaAlmacen vacunas = this.instantanea();
+		if (vacunas.estaVacia()) {
+			linea(destino, "No esisten vacunas para mostrar");
+			return 0;
+		}
+		linea(destino, "------Listado de Vacunas:----");                          //conyunto de claves
+		Pagina pagina = new Pagina(destino, desde, maximo);
+		vacunas.recorrer(pagina);
+		pagina.comprobar();
+		linea(destino, "------Fin Listado de Vacunas:----");
+		return pagina.escritas;
+	}
 
 	public Vacuna buscarVacuna(String codigo) {
-            if (this.coleccion.isEmpty()) {
-                return null;
+            long inicio = this.metricas.empezar(MetricasAlmacen.Operacion.BUSCAR_VACUNA);
+            Vacuna v = null;
+            if (!this.coleccion.estaVacia()) {
+               v = this.coleccion.obtener(codigo);
+               if (v != null && v.getObservador() == null) {
+               	this.adoptar(v);
+               }
             }
-            else {
-               return this.coleccion.get(codigo);
-               
-            }
-           
+            this.metricas.terminar(MetricasAlmacen.Operacion.BUSCAR_VACUNA, inicio);
+            return v;
+	}
+
+	/**
+	 * Página de las vacunas cuyo código empieza por prefijo, en orden de
+	 * código
+	 *
+	 * @param prefijo Tipo String - por ejemplo "VA"
+	 * @param cursor Tipo String - getCursor() de la página anterior, o null
+	 * para la primera
+	 * @param maximo Tipo int - vacunas por página
+	 * @return Tipo PaginaVacunas
+	 */
+	public PaginaVacunas buscarPorPrefijo(String prefijo, String cursor, int maximo) {
+		return this.buscarPorRango(prefijo, siguientePrefijo(prefijo), cursor, maximo);
+	}
+
+	/**
+	 * Página de las vacunas con código entre desde (incluido) y hasta
+	 * (excluido), en orden de código. Solo recorre el tramo pedido del índice
+	 * ordenado, sin ordenar ni copiar el almacén.
+	 *
+	 * @param desde Tipo String - primer código, o null desde el principio
+	 * @param hasta Tipo String - código donde se para, o null hasta el final
+	 * @param cursor Tipo String - getCursor() de la página anterior, o null
+	 * para la primera
+	 * @param maximo Tipo int - vacunas por página
+	 * @return Tipo PaginaVacunas
+	 */
+	public PaginaVacunas buscarPorRango(String desde, String hasta, String cursor, int maximo) {
+		if (maximo < 1) {
+			throw new IllegalArgumentException("Una página tiene que tener al menos una vacuna: " + maximo);
+		}
+		String inicio = desde;
+		boolean incluido = true;
+		if (cursor != null && (inicio == null || cursor.compareTo(inicio) >= 0)) {
+			inicio = cursor;
+			incluido = false;
+		}
+		Iterator<String> indexados = (inicio == null ? this.indiceCodigos
+				: this.indiceCodigos.tailSet(inicio, incluido)).iterator();
+		// las del catálogo que aún no se han pedido no están en el índice: se
+		// mezclan las dos secuencias ordenadas
+		Iterator<Vacuna> propias = this.coleccion.propiasEnOrden(inicio, incluido);
+		String codigoIndice = indexados.hasNext() ? indexados.next() : null;
+		Vacuna propia = propias.hasNext() ? propias.next() : null;
+		List<Vacuna> vacunas = new ArrayList<Vacuna>(Math.min(maximo, 1024));
+		while (codigoIndice != null || propia != null) {
+			boolean delIndice = propia == null
+					|| (codigoIndice != null && codigoIndice.compareTo(propia.getCodigo()) <= 0);
+			String codigo = delIndice ? codigoIndice : propia.getCodigo();
+			if (hasta != null && codigo.compareTo(hasta) >= 0) {
+				break;
+			}
+			if (vacunas.size() == maximo) {
+				// hay al menos una más: la página sigue
+				return new PaginaVacunas(vacunas, vacunas.get(maximo - 1).getCodigo());
+			}
+			Vacuna v;
+			if (delIndice) {
+				v = this.coleccion.obtener(codigo);
+				if (propia != null && codigo.equals(propia.getCodigo())) {
+					propia = propias.hasNext() ? propias.next() : null;
+				}
+				codigoIndice = indexados.hasNext() ? indexados.next() : null;
+			} else {
+				v = propia;
+				propia = propias.hasNext() ? propias.next() : null;
+			}
+			if (v != null) { // null si se eliminó mientras se recorría
+				vacunas.add(v);
+			}
+		}
+		return new PaginaVacunas(vacunas, null);
+	}
+
+	/**
+	 * Vacunas que tienen todas las palabras del texto en alguno de los campos
+	 * indicados (en todos si no se indica ninguno). No distingue mayúsculas
+	 * ni tildes: "arnm" encuentra "ARNm" y "vacina" encuentra "Vacina".
+	 *
+	 * @param texto Tipo String - palabras a buscar, por ejemplo "arnm pfizer"
+	 * @param campos Tipo CampoTexto - dónde se buscan
+	 * @return Tipo List - vacunas encontradas, en orden de código
+	 */
+	public List<Vacuna> buscarConTodas(String texto, CampoTexto... campos) {
+		return this.buscarTexto(texto, campos, true);
+	}
+
+	/**
+	 * Como buscarConTodas, pero basta con que aparezca una de las palabras
+	 */
+	public List<Vacuna> buscarConAlguna(String texto, CampoTexto... campos) {
+		return this.buscarTexto(texto, campos, false);
+	}
+
+	private List<Vacuna> buscarTexto(String texto, CampoTexto[] campos, boolean todos) {
+		List<String> terminos = IndiceTexto.terminos(texto);
+		Set<CampoTexto> enCampos = campos.length == 0 ? EnumSet.allOf(CampoTexto.class)
+				: EnumSet.copyOf(Arrays.asList(campos));
+		List<Vacuna> vacunas = new ArrayList<Vacuna>();
+		if (terminos.isEmpty()) {
+			return vacunas;
+		}
+		for (String codigo : this.indiceTexto.buscar(terminos, enCampos, todos)) {
+			Vacuna v = this.coleccion.obtener(codigo);
+			if (v != null) {
+				vacunas.add(v);
+			}
+		}
+		this.coleccion.recorrerPropiasConTexto(terminos, enCampos, todos, vacunas::add);
+		vacunas.sort(Comparator.comparing(Vacuna::getCodigo));
+		return vacunas;
+	}
+
+	/**
+	 * Cuántas vacunas hay en un estado, sin recorrer el almacén
+	 *
+	 * @param estado Tipo EstadoVacuna
+	 * @return Tipo long - número de vacunas en ese estado
+	 */
+	public long getNumeroEnEstado(EstadoVacuna estado) {
+		EstadisticasVacunas propias = this.coleccion.estadisticasPropias();
+		return this.estadisticas.getNumeroEnEstado(estado) + (propias == null ? 0 : propias.getNumeroEnEstado(estado));
+	}
+
+	/**
+	 * Cuántas vacunas tienen ese número de fases completadas, sin recorrer el
+	 * almacén
+	 *
+	 * @param fases Tipo int - de 0 a 3
+	 * @return Tipo long - número de vacunas con esas fases completadas
+	 */
+	public long getNumeroConFasesCompletadas(int fases) {
+		if (fases < 0 || fases > 3) {
+			throw new IllegalArgumentException("Una vacuna tiene de 0 a 3 fases completadas: " + fases);
+		}
+		EstadisticasVacunas propias = this.coleccion.estadisticasPropias();
+		return this.estadisticas.getNumeroConFases(fases) + (propias == null ? 0 : propias.getNumeroConFases(fases));
+	}
+
+	/**
+	 * Precio mínimo, medio y máximo de una farmacéutica, sin recorrer el
+	 * almacén
+	 *
+	 * @param farmaceutica Tipo String - nombre exacto de la farmacéutica
+	 * @return Tipo PreciosFarmaceutica - o null si no tiene vacunas
+	 */
+	public PreciosFarmaceutica getPreciosFarmaceutica(String farmaceutica) {
+		String clave = (farmaceutica == null) ? EstadisticasVacunas.SIN_FARMACEUTICA : farmaceutica;
+		EstadisticasVacunas propias = this.coleccion.estadisticasPropias();
+		return PreciosFarmaceutica.combinar(this.estadisticas.getPrecios(clave),
+				propias == null ? null : propias.getPrecios(clave));
+	}
+
+	/**
+	 * @return Tipo Map - precios de cada farmacéutica; las vacunas sin
+	 * farmacéutica aparecen con la farmacéutica vacía
+	 */
+	public Map<String, PreciosFarmaceutica> getPreciosPorFarmaceutica() {
+		Map<String, PreciosFarmaceutica> precios = this.estadisticas.getPreciosPorFarmaceutica();
+		EstadisticasVacunas propias = this.coleccion.estadisticasPropias();
+		if (propias != null) {
+			for (Map.Entry<String, PreciosFarmaceutica> e : propias.getPreciosPorFarmaceutica().entrySet()) {
+				precios.merge(e.getKey(), e.getValue(), PreciosFarmaceutica::combinar);
+			}
+		}
+		return precios;
+	}
+
+	// primer texto mayor que todos los que empiezan por prefijo, o null
+	private static String siguientePrefijo(String prefijo) {
+		for (int i = prefijo.length() - 1; i >= 0; i--) {
+			char c = prefijo.charAt(i);
+			if (c != Character.MAX_VALUE) {
+				return prefijo.substring(0, i) + (char) (c + 1);
+			}
+		}
+		return null;
 	}
 
 	public void agregar(Vacuna v) {
-                this.coleccion.put(v.getCodigo(), v);                               
+                long inicio = this.metricas.empezar(MetricasAlmacen.Operacion.AGREGAR);
+                String codigo = v.getCodigo();
+                synchronized (this.cerrojo(codigo)) {
+                	Vacuna anterior = this.coleccion.guardar(v);
+                	if (anterior != null && anterior != v) {
+                		this.desindexar(anterior);
+                	}
+                	if (!this.indexar) {
+                		this.agregarPropia(codigo);
+                	} else {
+                		// volver a agregar la misma vacuna no la cuenta otra vez
+                		boolean contada = anterior == v && v.getObservador() == this.observador;
+                		// primero el observador y luego se lee el estado: si cambia
+                		// entre medias, el observador corrige el índice
+                		v.setObservador(this.observador);
+                		if (!contada) {
+                			this.contar(v);
+                		}
+                		// el índice con el estado contado, que es del que parte el
+                		// próximo aviso del observador
+                		this.indicesEstado.get(VacunaAutorizacion.estado(v.getPalabraContada())).add(codigo);
+                		this.indiceCodigos.add(codigo);
+                		this.indiceTexto.agregar(codigo, v);
+                		this.congelar(v);
+                		for (IOyenteAlmacen oyente : this.oyentes) {
+                			oyente.vacunaAgregada(v);
+                		}
+                	}
+                }
+                this.metricas.terminar(MetricasAlmacen.Operacion.AGREGAR, inicio);
+	}
+
+	// con el cerrojo del código: la colección se quedó con una copia, que es
+	// la que se cuenta y la que reciben los oyentes
+	private void agregarPropia(String codigo) {
+		Vacuna guardada = this.coleccion.obtener(codigo);
+		this.estadisticas.contar(guardada, guardada.getPalabraContada(), 1);
+		for (IOyenteAlmacen oyente : this.oyentes) {
+			oyente.vacunaAgregada(guardada);
+		}
+	}
+
+	/**
+	 * Agrega muchas vacunas de una vez. Los oyentes saben que es un lote; la
+	 * persistencia, por ejemplo, espera al disco una sola vez al final.
+	 *
+	 * @param vacunas Tipo Collection - vacunas a agregar, en orden
+	 */
+	public void agregarTodas(Collection<Vacuna> vacunas) {
+		for (IOyenteAlmacen oyente : this.oyentes) {
+			oyente.inicioLote();
+		}
+		try {
+			for (Vacuna v : vacunas) {
+				this.agregar(v);
+			}
+		} finally {
+			for (IOyenteAlmacen oyente : this.oyentes) {
+				oyente.finLote();
+			}
+		}
+	}
+
+	/**
+	 * Aplica un lote de resultados de fase y decisiones con las mismas reglas
+	 * que el menú, modificarFase, autorizar y rechazar, sin escribir nada por
+	 * pantalla. En un almacén concurrente se reparte entre los núcleos; las
+	 * actualizaciones de un mismo código se aplican siempre en el orden del
+	 * lote, así "fase 1" y después "fase 2" de la misma vacuna funcionan.
+	 *
+	 * @param actualizaciones Tipo Collection - el lote, en orden de llegada
+	 * @return Tipo InformeActualizaciones - qué pasó con cada una
+	 */
+	public InformeActualizaciones aplicarEnLote(Collection<ActualizacionVacuna> actualizaciones) {
+		ActualizacionVacuna[] lote = actualizaciones.toArray(new ActualizacionVacuna[0]);
+		ResultadoActualizacion[] resultados = new ResultadoActualizacion[lote.length];
+		// se encadenan las de cada código: la primera de cada uno y, de cada
+		// una, la siguiente del mismo código
+		int[] primeras = new int[lote.length];
+		int[] siguientes = new int[lote.length];
+		int numeroCodigos = 0;
+		HashMap<String, Integer> ultimas = new HashMap<String, Integer>(lote.length * 2);
+		for (int i = 0; i < lote.length; i++) {
+			siguientes[i] = -1;
+			Integer ultima = ultimas.put(lote[i].getCodigo(), i);
+			if (ultima == null) {
+				primeras[numeroCodigos++] = i;
+			} else {
+				siguientes[ultima] = i;
+			}
+		}
+		// un almacén no concurrente no admite varios hilos
+		int trozos = this.concurrente ? Math.min(numeroCodigos, ForkJoinPool.getCommonPoolParallelism() * 4) : 1;
+		int codigos = numeroCodigos;
+		IntStream.range(0, trozos).parallel().forEach(t -> {
+			// cada trozo es un lote para los oyentes: la persistencia espera al
+			// disco una vez por trozo
+			for (IOyenteAlmacen oyente : this.oyentes) {
+				oyente.inicioLote();
+			}
+			try {
+				for (int c = (int) ((long) codigos * t / trozos); c < (long) codigos * (t + 1) / trozos; c++) {
+					for (int i = primeras[c]; i >= 0; i = siguientes[i]) {
+						String codigo = lote[i].getCodigo();
+						Vacuna v = (codigo == null) ? null : this.buscarVacuna(codigo);
+						resultados[i] = (v == null) ? ResultadoActualizacion.NO_EXISTE : lote[i].aplicar(v);
+					}
+				}
+			} finally {
+				for (IOyenteAlmacen oyente : this.oyentes) {
+					oyente.finLote();
+				}
+			}
+		});
+		return new InformeActualizaciones(resultados);
 	}
 
 	public void eliminar(String codigo) {
-            if (!(this.coleccion.isEmpty())) {             
-                this.coleccion.remove(codigo);
+            long inicio = this.metricas.empezar(MetricasAlmacen.Operacion.ELIMINAR);
+            if (!(this.coleccion.estaVacia())) {             
+                synchronized (this.cerrojo(codigo)) {
+                	Vacuna v = this.coleccion.quitar(codigo);
+                	if (v != null) {
+                		this.desindexar(v);
+                		this.historial.quitar(codigo);
+                		if (this.indexar) {
+                			this.instantanea.updateAndGet(i -> i.sin(codigo));
+                		}
+                		for (IOyenteAlmacen oyente : this.oyentes) {
+                			oyente.vacunaEliminada(v);
+                		}
+                	}
+                }
             }
+            this.metricas.terminar(MetricasAlmacen.Operacion.ELIMINAR, inicio);
 	}
-        
+
+	// una vacuna que la colección acaba de materializar (p. ej. de un catálogo)
+	// pasa a los índices del almacén y se sigue como las demás
+	private void adoptar(Vacuna v) {
+		String codigo = v.getCodigo();
+		synchronized (this.cerrojo(codigo)) {
+			if (v.getObservador() == null && this.coleccion.obtener(codigo) == v) {
+				v.setObservador(this.observador);
+				this.contar(v);
+				this.indicesEstado.get(VacunaAutorizacion.estado(v.getPalabraContada())).add(codigo);
+				this.indiceCodigos.add(codigo);
+				this.indiceTexto.agregar(codigo, v);
+				this.congelar(v);
+			}
+		}
+	}
+
+	// con el cerrojo del código y después de ponerle el observador
+	private void contar(Vacuna v) {
+		long palabra = v.getPalabraEstado();
+		v.setPalabraContada(palabra);
+		this.estadisticas.contar(v, palabra, 1);
+	}
+
+	private void desindexar(Vacuna v) {
+		if (v.getObservador() == this.observador) {
+			v.setObservador(null);
+			// solo las que tenía el almacén están contadas; una copia recién
+			// sacada del catálogo la descuenta la colección
+			this.estadisticas.contar(v, v.getPalabraContada(), -1);
+		}
+		if (!this.indexar) {
+			return;
+		}
+		// se quita de todos los índices por si hay un cambio de estado a medias
+		for (Set<String> indice : this.indicesEstado.values()) {
+			indice.remove(v.getCodigo());
+		}
+		this.indiceCodigos.remove(v.getCodigo());
+		this.indiceTexto.quitar(v.getCodigo(), v);
+	}
+
+	// escribe las vacunas de un estado recorriendo solo su índice
+	private int verVacunasEstado(EstadoVacuna estado, String cabecera, Appendable destino, int desde, int maximo) throws IOException {
+		if (coleccion.estaVacia()) {
+			linea(destino, "No esisten vacunas para mostrar");
+			return 0;
+		}
+		linea(destino, cabecera);
+		Pagina pagina = new Pagina(destino, desde, maximo);
+		this.recorrerEstado(estado, pagina);
+		pagina.comprobar();
+		linea(destino, "+++++++++++++++++++++++++++++++++");
+		return pagina.escritas;
+	}
+
+	// las del índice y después las que la colección tiene fuera de él, hasta
+	// que la acción devuelva false
+	private void recorrerEstado(EstadoVacuna estado, Predicate<Vacuna> accion) {
+		for (String clave : this.indicesEstado.get(estado)) {
+			Vacuna v = coleccion.obtener(clave);
+			if (v != null && !accion.test(v)) {
+				return;
+			}
+		}
+		this.coleccion.recorrerEstadoPropio(estado, accion);
+	}
+
+	/**
+	 * Las vacunas de un estado, paginando como verVacunasPendientes(Appendable,
+	 * int, int) pero sin escribirlas
+	 *
+	 * @param estado Tipo EstadoVacuna - estado buscado
+	 * @param desde Tipo int - vacunas que se saltan antes de empezar
+	 * @param maximo Tipo int - vacunas que se devuelven como mucho
+	 * @return Tipo List - menos que maximo en la última página
+	 */
+	public List<Vacuna> buscarPorEstado(EstadoVacuna estado, int desde, int maximo) {
+		if (maximo < 1) {
+			throw new IllegalArgumentException("Una página tiene que tener al menos una vacuna: " + maximo);
+		}
+		List<Vacuna> vacunas = new ArrayList<Vacuna>(Math.min(maximo, 1024));
+		int[] vistas = { 0 };
+		this.recorrerEstado(estado, v -> {
+			if (vistas[0]++ >= desde) {
+				vacunas.add(v);
+			}
+			return vacunas.size() < maximo;
+		});
+		return vacunas;
+	}
+
+	/**
+	 * Resultados de fase (superadas y no superadas) y decisiones de una vacuna
+	 * del almacén, del más antiguo al más reciente, con el momento en que los
+	 * vio el almacén. Lo que ya traía una vacuna al llegar no está, porque no
+	 * se sabe cuándo pasó (el día de la decisión está en getFechaResultado()).
+	 * Es del código: sigue al sustituir la vacuna y se borra al eliminarla. No
+	 * se guarda en disco y empieza al arrancar: lo que repite
+	 * PersistenciaVacunas al recuperar no se anota.
+	 *
+	 * @param codigo Tipo String
+	 * @return Tipo List - vacía si no hay nada o no está la vacuna
+	 */
+	public List<HechoVacuna> getHistorial(String codigo) {
+		return this.historial.historial(codigo);
+	}
+
+	/**
+	 * Autorizaciones o rechazos con desde <= momento < hasta, por momento. Sale
+	 * de un índice por momento: cuesta lo mismo con pocas que con muchas
+	 * vacunas en el almacén.
+	 *
+	 * @param decision Tipo EstadoVacuna - AUTORIZADA o RECHAZADA
+	 * @param desde Tipo Instant - incluido
+	 * @param hasta Tipo Instant - excluido
+	 * @param maximo Tipo int - hechos que se devuelven como mucho
+	 * @return Tipo List - los primeros maximo
+	 */
+	public List<HechoVacuna> buscarDecisiones(EstadoVacuna decision, Instant desde, Instant hasta, int maximo) {
+		if (decision == EstadoVacuna.PENDIENTE) {
+			throw new IllegalArgumentException("Solo hay decisiones de autorizar o rechazar");
+		}
+		return this.historial.decisiones(decision == EstadoVacuna.AUTORIZADA, desde, hasta, maximo);
+	}
+
+	/**
+	 * Las decisiones de los días desde a hasta, los dos incluidos, en la zona
+	 * horaria del sistema, como getFechaResultado()
+	 */
+	public List<HechoVacuna> buscarDecisiones(EstadoVacuna decision, LocalDate desde, LocalDate hasta, int maximo) {
+		ZoneId zona = ZoneId.systemDefault();
+		return this.buscarDecisiones(decision, desde.atStartOfDay(zona).toInstant(),
+				hasta.plusDays(1).atStartOfDay(zona).toInstant(), maximo);
+	}
+
+	/**
+	 * Resultados de una fase, superada o no, con desde <= momento < hasta, por
+	 * momento; como buscarDecisiones
+	 *
+	 * @param fase Tipo int - 1 a 3
+	 */
+	public List<HechoVacuna> buscarResultadosFase(int fase, Instant desde, Instant hasta, int maximo) {
+		if (fase < 1 || fase > 3) {
+			throw new IllegalArgumentException("Las fases van de 1 a 3: " + fase);
+		}
+		return this.historial.resultadosFase((byte) fase, desde, hasta, maximo);
+	}
+
+	/**
+	 * Las vacunas de una farmacéutica (el nombre exacto), paginando como
+	 * buscarPorEstado. Recorre el almacén comparando el texto; en las vacunas
+	 * en memoria es el String compartido de DiccionarioTextos, así que casi
+	 * siempre basta con la referencia o el hash que ya tiene calculado.
+	 *
+	 * @param farmaceutica Tipo String - null para las que no tienen
+	 * @return Tipo List - menos que maximo en la última página
+	 */
+	public List<Vacuna> buscarPorFarmaceutica(String farmaceutica, int desde, int maximo) {
+		return this.buscarPorTexto(DiccionarioTextos.FARMACEUTICAS.compartidoSiEsta(farmaceutica),
+				Vacuna::getFarmaceutica, desde, maximo);
+	}
+
+	/**
+	 * Las vacunas de un principio activo (el texto exacto), como
+	 * buscarPorFarmaceutica
+	 */
+	public List<Vacuna> buscarPorPrincipioActivo(String principioActivo, int desde, int maximo) {
+		return this.buscarPorTexto(DiccionarioTextos.PRINCIPIOS_ACTIVOS.compartidoSiEsta(principioActivo),
+				Vacuna::getPrincipioActivo, desde, maximo);
+	}
+
+	private List<Vacuna> buscarPorTexto(String texto, Function<Vacuna, String> textoDe, int desde, int maximo) {
+		if (maximo < 1) {
+			throw new IllegalArgumentException("Una página tiene que tener al menos una vacuna: " + maximo);
+		}
+		List<Vacuna> vacunas = new ArrayList<Vacuna>(Math.min(maximo, 1024));
+		int vistas = 0;
+		for (Vacuna v : this.coleccion.vacunas()) {
+			if (mismoTexto(textoDe.apply(v), texto) && vistas++ >= desde) {
+				vacunas.add(v);
+				if (vacunas.size() == maximo) {
+					break;
+				}
+			}
+		}
+		return vacunas;
+	}
+
+	private static boolean mismoTexto(String a, String b) {
+		return a == b || (a != null && b != null && a.hashCode() == b.hashCode() && a.equals(b));
+	}
+
         public void verVacunasAutorizadas() {
-            if (coleccion.isEmpty()) {
-			System.out.println("No esisten vacunas para mostrar");
-		} else {
-			System.out.println("++++++++++++Vacunas autorizadas:");                    //conyunto de claves
-			for (String clave : coleccion.keySet()) {
-				//devuelve una vacuna del listado
-                                if (coleccion.get(clave).isVacunaAutorizada()) {
-                                	System.out.println(coleccion.get(clave).toString());
-                                }
-                                
-			}
-			System.out.println("+++++++++++++++++++++++++++++++++");  
+		try {
+			this.verVacunasAutorizadas(System.out, 0, Integer.MAX_VALUE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
         }
 
+	/**
+	 * Como listarVacunas(Appendable, int, int), solo con las autorizadas
+	 */
+	public int verVacunasAutorizadas(Appendable destino, int desde, int maximo) throws IOException {
+		long inicio = this.metricas.empezar(MetricasAlmacen.Operacion.VER_VACUNAS_AUTORIZADAS);
+		int escritas = this.verVacunasEstado(EstadoVacuna.AUTORIZADA, "++++++++++++Vacunas autorizadas:", destino, desde, maximo);
+		this.metricas.terminar(MetricasAlmacen.Operacion.VER_VACUNAS_AUTORIZADAS, inicio);
+		return escritas;
+	}
+
         public void verVacunasRechazadas() {
-            if (coleccion.isEmpty()) {
-			System.out.println("No esisten vacunas para mostrar");
-		} else {
-			System.out.println("++++++++++++Vacunas Rechazadas:");                                            //conyunto de claves
-			for (String clave : coleccion.keySet()) {
-				//devuelve una vacuna del listado
-                                if (coleccion.get(clave).isVacunaRechazada()) {
-                                	System.out.println(coleccion.get(clave).toString());
-                                }
-                                
-			}
-			System.out.println("+++++++++++++++++++++++++++++++++");  
+		try {
+			this.verVacunasRechazadas(System.out, 0, Integer.MAX_VALUE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
         }
+
+	/**
+	 * Como listarVacunas(Appendable, int, int), solo con las rechazadas
+	 */
+	public int verVacunasRechazadas(Appendable destino, int desde, int maximo) throws IOException {
+		long inicio = this.metricas.empezar(MetricasAlmacen.Operacion.VER_VACUNAS_RECHAZADAS);
+		int escritas = this.verVacunasEstado(EstadoVacuna.RECHAZADA, "++++++++++++Vacunas Rechazadas:", destino, desde, maximo);
+		this.metricas.terminar(MetricasAlmacen.Operacion.VER_VACUNAS_RECHAZADAS, inicio);
+		return escritas;
+	}
         
         public void verVacunasPendientes() {
-            if (coleccion.isEmpty()) {
-			System.out.println("No esisten vacunas para mostrar");
-		} else {
-			System.out.println("++++++++++++Vacunas Pendientes:");                                            //conyunto de claves
-			for (String clave : coleccion.keySet()) {
-				//devuelve una vacuna del listado
-                                if (coleccion.get(clave).isVacunaPendiente()) {
-                                	System.out.println(coleccion.get(clave).toString());
-                                }                               
-			}
-			System.out.println("+++++++++++++++++++++++++++++++++"); 
+		try {
+			this.verVacunasPendientes(System.out, 0, Integer.MAX_VALUE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
         }
+
+	/**
+	 * Como listarVacunas(Appendable, int, int), solo con las pendientes
+	 */
+	public int verVacunasPendientes(Appendable destino, int desde, int maximo) throws IOException {
+		long inicio = this.metricas.empezar(MetricasAlmacen.Operacion.VER_VACUNAS_PENDIENTES);
+		int escritas = this.verVacunasEstado(EstadoVacuna.PENDIENTE, "++++++++++++Vacunas Pendientes:", destino, desde, maximo);
+		this.metricas.terminar(MetricasAlmacen.Operacion.VER_VACUNAS_PENDIENTES, inicio);
+		return escritas;
+	}
         
         public void verUltimaFaseInvestigada() {
-            if (coleccion.isEmpty()) {
-			System.out.println("No esisten vacunas para mostrar");
-		} else {
-                                                       //conyunto de claves
-			for (String clave : coleccion.keySet()) {
-				System.out.println("**********************************");  
-                System.out.println("Codigo Vacuna:"+coleccion.get(clave).getCodigo());
-                System.out.println("Nombre Vacuna:"+coleccion.get(clave).getNombre());
-                
-                if (coleccion.get(clave).getFasesCompletadas()==0) {
-                	System.out.println("Ultima fase investigada:"+coleccion.get(clave).getFasesCompletadas());
-                } else {
-                	System.out.println("Ultima fase investigada:"+coleccion.get(clave).getFasesCompletadas()+" resultado:"+coleccion.get(clave).getResultadoUltimaFase());
-                }
-                System.out.println("**********************************");                                
-			}
+		try {
+			this.verUltimaFaseInvestigada(System.out, 0, Integer.MAX_VALUE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
         }
+
+	/**
+	 * Escribe la última fase investigada de cada vacuna, paginando como
+	 * listarVacunas(Appendable, int, int)
+	 */
+	public int verUltimaFaseInvestigada(Appendable destino, int desde, int maximo) throws IOException {
+		long inicio = this.metricas.empezar(MetricasAlmacen.Operacion.VER_ULTIMA_FASE_INVESTIGADA);
+		int escritas = this.escribirUltimaFase(destino, desde, maximo);
+		this.metricas.terminar(MetricasAlmacen.Operacion.VER_ULTIMA_FASE_INVESTIGADA, inicio);
+		return escritas;
+	}
+
+	private int escribirUltimaFase(Appendable destino, int desde, int maximo) throws IOException {
+		// como el listado, de una sola versión: fases y resultado de cada
+		// vacuna salen de la misma palabra de estado
+		InstantaneaAlmacen vacunas = this.instantanea();
+		if (vacunas.estaVacia()) {
+			linea(destino, "No esisten vacunas para mostrar");
+			return 0;
+		}
+		int vistas = 0;
+		int escritas = 0;
+		for (Vacuna v : vacunas) {
+			if (escritas >= maximo) {
+				break;
+			}
+			if (vistas++ < desde) {
+				continue;
+			}
+			escribirFase(v, destino);
+			escritas++;
+		}
+		return escritas;
+	}
+
+	private static void escribirFase(Vacuna v, Appendable destino) throws IOException {
+		linea(destino, "**********************************");
+		destino.append("Codigo Vacuna:").append(v.getCodigo()).append(SALTO);
+		destino.append("Nombre Vacuna:").append(v.getNombre()).append(SALTO);
+		destino.append("Ultima fase investigada:").append(String.valueOf(v.getFasesCompletadas()));
+		if (v.getFasesCompletadas() != 0) {
+			destino.append(" resultado:").append(String.valueOf(v.getResultadoUltimaFase()));
+		}
+		destino.append(SALTO);
+		linea(destino, "**********************************");
+	}
+
+	private static void linea(Appendable destino, String texto) throws IOException {
+		destino.append(texto).append(SALTO);
+	}
+
+	// escribe las vacunas de una página; test devuelve false cuando está
+	// completa para que el recorrido pare. Guarda el primer error de escritura
+	// porque recorrerEstadoPropio no admite excepciones comprobadas.
+	private static final class Pagina implements Predicate<Vacuna> {
+		private final Appendable destino;
+		private final int desde;
+		private final int maximo;
+		private int vistas;
+		private int escritas;
+		private IOException error;
+
+		Pagina(Appendable destino, int desde, int maximo) {
+			this.destino = destino;
+			this.desde = desde;
+			this.maximo = maximo;
+		}
+
+		@Override
+		public boolean test(Vacuna v) {
+			if (this.escritas >= this.maximo || this.error != null) {
+				return false;
+			}
+			if (this.vistas++ < this.desde) {
+				return true;
+			}
+			try {
+				v.appendTo(this.destino).append(SALTO);
+				this.escritas++;
+			} catch (IOException e) {
+				this.error = e;
+				return false;
+			}
+			return this.escritas < this.maximo;
+		}
+
+		void comprobar() throws IOException {
+			if (this.error != null) {
+				throw this.error;
+			}
+		}
+	}
 }
@@ -5,6 +5,8 @@
  */
 package gal.teis.vacunas;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Objects;
 
 /**
@@ -15,6 +17,8 @@ public class Vacuna extends VacunaAutorizacion{
 
     private String codigo;
     private String nombre;
+    // se repiten mucho entre vacunas: se guarda el String compartido de
+    // DiccionarioTextos, o el propio si no cabe en la tabla
     private String principioActivo;
     private String farmaceutica;
     private double precioRecomendado;
@@ -26,8 +30,8 @@ public class Vacuna extends VacunaAutorizacion{
 	public Vacuna(String codigo, String nombre, String principioActivo, String farmaceutica, double precioRecomendado) {
         this.codigo = codigo;
         this.nombre = nombre;
-        this.principioActivo = principioActivo;
-        this.farmaceutica = farmaceutica;
+        this.principioActivo = DiccionarioTextos.PRINCIPIOS_ACTIVOS.compartido(principioActivo);
+        this.farmaceutica = DiccionarioTextos.FARMACEUTICAS.compartido(farmaceutica);
         this.precioRecomendado = precioRecomendado;
     }
 
@@ -35,16 +39,34 @@ public class Vacuna extends VacunaAutorizacion{
         return codigo;
     }
 
+    /**
+     * El código es la clave con la que el almacén guarda la vacuna y la
+     * encuentra en sus índices, sus instantáneas y su registro, así que solo
+     * se cambia en una vacuna suelta. Para cambiárselo a una guardada hay que
+     * eliminarla y agregarla con el nuevo.
+     *
+     * @param codigo Tipo String
+     * @throws IllegalStateException si la vacuna está en un almacén
+     */
     public void setCodigo(String codigo) {
+        if (this.estaGuardada()) {
+            throw new IllegalStateException("La vacuna " + this.getCodigo()
+                    + " está en un almacén: elimínela y agréguela con el nuevo código");
+        }
         this.codigo = codigo;
     }
 
+    // true si un almacén la tiene contada; al eliminarla vuelve a ser suelta
+    boolean estaGuardada() {
+        return this.getObservador() != null;
+    }
+
     public String getNombre() {
         return nombre;
     }
 
     public void setNombre(String nombre) {
-        this.nombre = nombre;
+        this.modificar(() -> this.nombre = nombre);
     }
 
     public String getPrincipioActivo() {
@@ -52,7 +74,8 @@ public class Vacuna extends VacunaAutorizacion{
     }
 
     public void setPrincipioActivo(String principioActivo) {
-        this.principioActivo = principioActivo;
+        String compartido = DiccionarioTextos.PRINCIPIOS_ACTIVOS.compartido(principioActivo);
+        this.modificar(() -> this.principioActivo = compartido);
     }
 
     public String getFarmaceutica() {
@@ -60,7 +83,8 @@ public class Vacuna extends VacunaAutorizacion{
     }
 
     public void setFarmaceutica(String farmaceutica) {
-        this.farmaceutica = farmaceutica;
+        String compartido = DiccionarioTextos.FARMACEUTICAS.compartido(farmaceutica);
+        this.modificar(() -> this.farmaceutica = compartido);
     }
 
     public double getPrecioRecomendado() {
@@ -68,9 +92,29 @@ public class Vacuna extends VacunaAutorizacion{
     }
 
     public void setPrecioRecomendado(double precioRecomendado) {
-        this.precioRecomendado = precioRecomendado;
+        this.modificar(() -> this.precioRecomendado = precioRecomendado);
+    }
+
+
+    // copia suelta, sin almacén, con los mismos datos y la palabra de estado
+    // indicada; las instantáneas guardan así cada versión de una vacuna
+    Vacuna copiar(long palabraEstado) {
+        Vacuna copia = new Vacuna(this.getCodigo(), this.getNombre(), this.getPrincipioActivo(),
+                this.getFarmaceutica(), this.getPrecioRecomendado());
+        copia.restaurarEstado(palabraEstado);
+        return copia;
     }
 
+    // si está en un almacén, el cambio pasa por él para que actualice sus
+    // índices
+    void modificar(Runnable cambio) {
+        IObservadorVacuna obs = this.getObservador();
+        if (obs == null) {
+            cambio.run();
+        } else {
+            obs.modificarDatos(this, cambio);
+        }
+    }
 
     /*
     • Dos métodos públicos, uno para acceder al atributo del precio y otro para
@@ -86,16 +130,34 @@ manera (siempre que esté autorizada por la EMA).
      */
     @Override
     public String toString() {
+        try {
+            return this.appendTo(new StringBuilder(128)).toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // un StringBuilder no falla
+        }
+    }
 
+    /**
+     * Escribe el mismo texto que toString() directamente en el destino, sin
+     * crear el String intermedio
+     *
+     * @param destino Tipo Appendable - Writer, PrintStream, StringBuilder...
+     * @return Tipo Appendable - el mismo destino, para encadenar
+     * @throws IOException si falla la escritura en el destino
+     */
+    public <A extends Appendable> A appendTo(A destino) throws IOException {
+        destino.append("Código: ").append(this.getCodigo())
+                .append(" Nombre: ").append(this.getNombre())
+                .append(" Principio Activo: ").append(this.getPrincipioActivo());
         if (this.isVacunaAutorizada()) {
-            return "Código: " + this.codigo + " Nombre: " + this.nombre + " Principio Activo: " + this.principioActivo
-                    + " Farmaceutica: " + this.farmaceutica + " Precio:" + this.precioRecomendado;
-
-        } else {
-            return "Código: " + this.codigo + " Nombre: " + this.nombre + " Principio Activo: "
-                    + this.principioActivo;
-
+            destino.append(" Farmaceutica: ").append(this.getFarmaceutica()).append(" Precio:");
+            if (destino instanceof StringBuilder) {
+                ((StringBuilder) destino).append(this.getPrecioRecomendado());
+            } else {
+                destino.append(Double.toString(this.getPrecioRecomendado()));
+            }
         }
+        return destino;
     }
 
     @Override
@@ -112,7 +174,7 @@ manera (siempre que esté autorizada por la EMA).
         if (Objects.isNull(obj)) return false;
         if (this.getClass() != obj.getClass()) return false;
         Vacuna other = (Vacuna) obj;
-        if (this.codigo != other.codigo) return false;
+        if (!Objects.equals(this.codigo, other.codigo)) return false;
         return true;
     }
 
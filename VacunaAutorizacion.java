@@ -5,6 +5,8 @@
  */
 package gal.teis.vacunas;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.time.LocalDate;
 
 /**
@@ -13,135 +15,317 @@ import java.time.LocalDate;
  */
 public abstract class VacunaAutorizacion implements IAutorizable {
 
-	private boolean fase1Superada = false;
-	private boolean fase2Superada = false;
-	private boolean fase3Superada = false;
-	private byte fasesCompletadas = 0;
-	private LocalDate fechaResultado;
-	public boolean autorizada;
-	public boolean rechazada;
+	// Todo el estado de autorización se guarda en una única palabra de 64 bits
+	// que se cambia con compareAndSet, así dos operadores no pueden dejar una
+	// vacuna autorizada y rechazada a la vez:
+	// bits 0-2 fases superadas, bits 3-4 fases completadas, bit 5 autorizada,
+	// bit 6 rechazada, bit 7 hay fecha, bits 32-63 día epoch de fechaResultado.
+	static final long FASE1_SUPERADA = 1L;
+	static final long FASE2_SUPERADA = 1L << 1;
+	static final long FASE3_SUPERADA = 1L << 2;
+	static final int DESPLAZAMIENTO_FASES = 3;
+	static final long MASCARA_FASES_COMPLETADAS = 3L << DESPLAZAMIENTO_FASES;
+	static final long AUTORIZADA = 1L << 5;
+	static final long RECHAZADA = 1L << 6;
+	static final long CON_FECHA = 1L << 7;
+	static final int DESPLAZAMIENTO_FECHA = 32;
+
+	private static final VarHandle ESTADO;
+
+	static {
+		try {
+			ESTADO = MethodHandles.lookup().findVarHandle(VacunaAutorizacion.class, "estado", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private volatile long estado = 0;
+	// almacén que contiene la vacuna, se le avisa de los cambios de estado
+	private volatile IObservadorVacuna observador;
+	// palabra de estado con la que el almacén tiene contada la vacuna en sus
+	// estadísticas; solo la usa el almacén, con el cerrojo del código
+	private long palabraContada;
+
+	void setObservador(IObservadorVacuna observador) {
+		this.observador = observador;
+	}
+
+	IObservadorVacuna getObservador() {
+		return this.observador;
+	}
+
+	// palabra de estado completa, para índices y persistencia. Todo lo que
+	// lee o cambia el estado pasa por aquí y por cambiarPalabraEstado, así
+	// una vista de una vacuna guardada en otra parte (VacunaFueraHeap) lo
+	// lee y lo cambia allí
+	long getPalabraEstado() {
+		return this.estado;
+	}
+
+	boolean cambiarPalabraEstado(long anterior, long nuevo) {
+		return ESTADO.compareAndSet(this, anterior, nuevo);
+	}
+
+	long getPalabraContada() {
+		return this.palabraContada;
+	}
+
+	void setPalabraContada(long palabraContada) {
+		this.palabraContada = palabraContada;
+	}
 
 	public LocalDate getFechaResultado() { // Devuelve el valor de la fecha
-		return this.fechaResultado;
+		return fechaResultado(this.getPalabraEstado());
 	}
 
 	public boolean getResultadoUltimaFase() { // Devuelve el resultado de la investigación
-		boolean resultadoFase;
-		byte aux = this.fasesCompletadas; // guardo en aux la ultima fase de la investigación
-
-		switch (aux) {
-		case 0: // si es la primera fase a introducir, la ultima fase introducida es la 0.
-			resultadoFase = true; // entonces devolvemos un true para insertar el resultado de la primera fase.
-			break;
-		case 1:
-			resultadoFase = this.fase1Superada; // guardo el resultado en la variable retornada en la variable fase
-			break;
-		case 2:
-			resultadoFase = this.fase2Superada;
-			break;
-		case 3:
-			resultadoFase = this.fase3Superada;
-			break;
-		default:
-			resultadoFase = false;
-			break;
-		}
-
-		return resultadoFase;
+		return resultadoUltimaFase(this.getPalabraEstado());
 	}
 
 	// metodo para modificar el valor de las fases superadas
 	// metodo case 5
 	public void modificarFase(byte fase, boolean resultadoFase) {
-
-		if (resultadoFase) {
-			switch (fase) {
-			case 1:
-				this.fase1Superada = resultadoFase;
-				this.fasesCompletadas = fase;
-				break;
-			case 2:
-				this.fase2Superada = resultadoFase;
-				this.fasesCompletadas = fase;
-				break;
-			case 3:
-				this.fase3Superada = resultadoFase;
-				this.fasesCompletadas = fase;
-				break;
-			}
+		long inicio = this.empezar(MetricasAlmacen.Operacion.MODIFICAR_FASE);
+		if (resultadoFase && fase >= 1 && fase <= 3) {
+			long anterior;
+			long nuevo;
+			do {
+				anterior = this.getPalabraEstado();
+				nuevo = (anterior & ~MASCARA_FASES_COMPLETADAS) | faseSuperada(fase)
+						| ((long) fase << DESPLAZAMIENTO_FASES);
+			} while (!this.cambiarPalabraEstado(anterior, nuevo));
+			this.avisarCambioEstado(anterior, nuevo);
+		} else if (fase >= 1 && fase <= 3) {
+			this.avisarFaseNoSuperada(fase);
 		}
-
+		this.terminar(MetricasAlmacen.Operacion.MODIFICAR_FASE, inicio);
 	}
 
 	// Implementacion de los metodos de la interface IAutorizable
 	// para saber si la vacuna ha sido autorizada o no
 	@Override
 	public boolean autorizar() {
-		// si una vacuna fue rechazada no se puede autorizar
-		if (this.rechazada == true) {
+		switch (this.intentarAutorizar()) {
+		case YA_RECHAZADA:
 			System.out.println("Vacuna rechazada, no se puede autorizar.");
-		} else {
-			// si todas las fases fueron superadas entonces la vacuna está autorizada
-			if ((this.fase1Superada == true) && (this.fase2Superada == true) && (this.fase3Superada == true)) {
-				this.autorizada = true;
-			} else {
-				this.autorizada = false;
-			}
+			return false;
+		case FASES_PENDIENTES:
+			return false;
+		default:
+			return true;
 		}
-
-		this.fechaResultado = LocalDate.now();
-		return this.autorizada;
 	}
 
 	@Override
 	public boolean rechazar() {
-		// si una vacuna ya fue autorizada no se puede rechazar.
-		if (this.autorizada == true) {
+		if (this.intentarRechazar() == ResultadoActualizacion.YA_AUTORIZADA) {
 			System.out.println("Vacuna autorizada, no se puede rechazar.");
-		} else {
+			return false;
+		}
+		return true;
+	}
+
+	// Las mismas reglas que autorizar(), rechazar() y el menú de fases, pero
+	// devolviendo qué ha pasado en vez de escribirlo; para los lotes.
+
+	ResultadoActualizacion intentarAutorizar() {
+		long inicio = this.empezar(MetricasAlmacen.Operacion.AUTORIZAR);
+		ResultadoActualizacion resultado = this.cambiarAutorizada();
+		this.terminar(MetricasAlmacen.Operacion.AUTORIZAR, inicio);
+		return resultado;
+	}
+
+	ResultadoActualizacion intentarRechazar() {
+		long inicio = this.empezar(MetricasAlmacen.Operacion.RECHAZAR);
+		ResultadoActualizacion resultado = this.cambiarRechazada();
+		this.terminar(MetricasAlmacen.Operacion.RECHAZAR, inicio);
+		return resultado;
+	}
+
+	ResultadoActualizacion intentarFase(byte fase, boolean resultadoFase) {
+		long inicio = this.empezar(MetricasAlmacen.Operacion.MODIFICAR_FASE);
+		ResultadoActualizacion resultado = this.cambiarFase(fase, resultadoFase);
+		this.terminar(MetricasAlmacen.Operacion.MODIFICAR_FASE, inicio);
+		return resultado;
+	}
+
+	private ResultadoActualizacion cambiarAutorizada() {
+		long anterior;
+		long nuevo;
+		do {
+			anterior = this.getPalabraEstado();
+			// si una vacuna fue rechazada no se puede autorizar
+			if ((anterior & RECHAZADA) != 0) {
+				return ResultadoActualizacion.YA_RECHAZADA;
+			}
+			if ((anterior & AUTORIZADA) != 0) {
+				return ResultadoActualizacion.SIN_CAMBIOS;
+			}
+			// si todas las fases fueron superadas entonces la vacuna está autorizada
+			long todas = FASE1_SUPERADA | FASE2_SUPERADA | FASE3_SUPERADA;
+			if ((anterior & todas) != todas) {
+				return ResultadoActualizacion.FASES_PENDIENTES;
+			}
+			nuevo = conFecha(anterior | AUTORIZADA, LocalDate.now());
+		} while (!this.cambiarPalabraEstado(anterior, nuevo));
+
+		this.avisarCambioEstado(anterior, nuevo);
+		return ResultadoActualizacion.APLICADA;
+	}
+
+	private ResultadoActualizacion cambiarRechazada() {
+		long anterior;
+		long nuevo;
+		do {
+			anterior = this.getPalabraEstado();
+			// si una vacuna ya fue autorizada no se puede rechazar.
+			if ((anterior & AUTORIZADA) != 0) {
+				return ResultadoActualizacion.YA_AUTORIZADA;
+			}
+			if ((anterior & RECHAZADA) != 0) {
+				return ResultadoActualizacion.SIN_CAMBIOS;
+			}
 			// La decisión de rechazar una vacuna es una decisión de la EMA, más allá de que
 			// una vacuna haya superado todas las fases (que podría ser).
+			nuevo = conFecha(anterior | RECHAZADA, LocalDate.now());
+		} while (!this.cambiarPalabraEstado(anterior, nuevo));
 
-			this.rechazada = true;
+		this.avisarCambioEstado(anterior, nuevo);
+		return ResultadoActualizacion.APLICADA;
+	}
 
-		}
-		this.fechaResultado = LocalDate.now();
-		return this.rechazada;
+	// como el menú: solo la fase siguiente a la última completada, y solo si
+	// la última se superó. La comprobación va dentro del compareAndSet, así
+	// dos resultados de la misma fase no la completan dos veces.
+	private ResultadoActualizacion cambiarFase(byte fase, boolean resultadoFase) {
+		long anterior;
+		long nuevo;
+		do {
+			anterior = this.getPalabraEstado();
+			if (fase != fasesCompletadas(anterior) + 1 || fase > 3 || !resultadoUltimaFase(anterior)) {
+				return ResultadoActualizacion.FASE_NO_SIGUIENTE;
+			}
+			// modificarFase no guarda las fases no superadas en la palabra,
+			// solo en el historial del almacén
+			if (!resultadoFase) {
+				this.avisarFaseNoSuperada(fase);
+				return ResultadoActualizacion.FASE_NO_SUPERADA;
+			}
+			nuevo = (anterior & ~MASCARA_FASES_COMPLETADAS) | faseSuperada(fase)
+					| ((long) fase << DESPLAZAMIENTO_FASES);
+		} while (!this.cambiarPalabraEstado(anterior, nuevo));
+
+		this.avisarCambioEstado(anterior, nuevo);
+		return ResultadoActualizacion.APLICADA;
 	}
 
-	// true si la vacuna está autorizada
-	public boolean isVacunaAutorizada() {
+	// Aplica un estado leído de disco o de otro proceso. Las fases y decisiones
+	// solo se añaden, nunca se quitan, así que se combina con el estado actual
+	// y da igual si el estado recibido es más antiguo que el que ya hay.
+	void restaurarEstado(long recibido) {
+		long anterior;
+		long nuevo;
+		do {
+			anterior = this.getPalabraEstado();
+			long fases = Math.max(anterior & MASCARA_FASES_COMPLETADAS, recibido & MASCARA_FASES_COMPLETADAS);
+			nuevo = ((anterior | recibido) & ~MASCARA_FASES_COMPLETADAS) | fases;
+			if ((anterior & CON_FECHA) != 0) {
+				nuevo = (nuevo & 0xFFFFFFFFL) | (anterior & ~0xFFFFFFFFL);
+			}
+		} while (!this.cambiarPalabraEstado(anterior, nuevo));
+		this.avisarCambioEstado(anterior, nuevo);
+	}
 
-		if (this.autorizada == true && this.rechazada != true) {
-			return true;
+	// Las transiciones se miden en las métricas del almacén que contiene la
+	// vacuna; una vacuna suelta no se mide y no lee el reloj.
+
+	private long empezar(MetricasAlmacen.Operacion op) {
+		MetricasAlmacen metricas = this.getMetricas();
+		return (metricas == null) ? MetricasAlmacen.SIN_TIEMPO : metricas.empezar(op);
+	}
+
+	private void terminar(MetricasAlmacen.Operacion op, long inicio) {
+		MetricasAlmacen metricas = this.getMetricas();
+		if (metricas != null) {
+			metricas.terminar(op, inicio);
 		}
-		return false;
 	}
 
-	public boolean isVacunaRechazada() {
+	private MetricasAlmacen getMetricas() {
+		IObservadorVacuna obs = this.observador;
+		return (obs == null) ? null : obs.getMetricas();
+	}
 
-		if (this.rechazada == true) {
-			return true;
+	private void avisarCambioEstado(long anterior, long nuevo) {
+		IObservadorVacuna obs = this.observador;
+		if (nuevo != anterior && obs != null) {
+			obs.estadoCambiado(this, anterior, nuevo);
 		}
-		// cualquier otra cosa es falso
-		return false;
 	}
 
-	public boolean isVacunaPendiente() {
-//            if ((this.rechazada != true) &&
-//               (this.rechazada != false) &&
-//               (this.autorizada != true) &&
-//               (this.autorizada != false)) {
-		if ((this.rechazada == false) && (this.autorizada == false)) {
-			return true;
-		} else {
-			return false;
+	private void avisarFaseNoSuperada(byte fase) {
+		IObservadorVacuna obs = this.observador;
+		if (obs != null) {
+			obs.faseNoSuperada(this, fase);
 		}
+	}
 
+	public EstadoVacuna getEstado() {
+		return estado(this.getPalabraEstado());
+	}
+
+	// true si la vacuna está autorizada
+	public boolean isVacunaAutorizada() {
+		return estado(this.getPalabraEstado()) == EstadoVacuna.AUTORIZADA;
+	}
+
+	public boolean isVacunaRechazada() {
+		return estado(this.getPalabraEstado()) == EstadoVacuna.RECHAZADA;
+	}
+
+	public boolean isVacunaPendiente() {
+		return estado(this.getPalabraEstado()) == EstadoVacuna.PENDIENTE;
 	}
 
 	public byte getFasesCompletadas() {
-		return fasesCompletadas;
+		return fasesCompletadas(this.getPalabraEstado());
+	}
+
+	// Funciones para interpretar una palabra de estado
+
+	static EstadoVacuna estado(long estado) {
+		if ((estado & RECHAZADA) != 0) {
+			return EstadoVacuna.RECHAZADA;
+		} else if ((estado & AUTORIZADA) != 0) {
+			return EstadoVacuna.AUTORIZADA;
+		}
+		return EstadoVacuna.PENDIENTE;
+	}
+
+	static byte fasesCompletadas(long estado) {
+		return (byte) ((estado & MASCARA_FASES_COMPLETADAS) >>> DESPLAZAMIENTO_FASES);
+	}
+
+	static long faseSuperada(byte fase) {
+		return 1L << (fase - 1);
+	}
+
+	static boolean resultadoUltimaFase(long estado) {
+		byte fases = fasesCompletadas(estado);
+		// si aún no hay fases, se puede introducir el resultado de la primera
+		return fases == 0 || (estado & faseSuperada(fases)) != 0;
+	}
+
+	static LocalDate fechaResultado(long estado) {
+		if ((estado & CON_FECHA) == 0) {
+			return null;
+		}
+		return LocalDate.ofEpochDay((int) (estado >> DESPLAZAMIENTO_FECHA));
+	}
+
+	static long conFecha(long estado, LocalDate fecha) {
+		return (estado & 0xFFFFFFFFL) | CON_FECHA | ((long) (int) fecha.toEpochDay() << DESPLAZAMIENTO_FECHA);
 	}
 
 }
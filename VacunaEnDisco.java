@@ -0,0 +1,129 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Vista de una vacuna guardada en ArbolEnDisco: solo tiene su código y la
+ * clave y el número de alta de su registro. Cada get busca el registro en ese
+ * momento y cada set o cambio de estado lo escribe, pasando por el almacén
+ * como cualquier otra vacuna.
+ *
+ * Si la vacuna se elimina o se sustituye, la vista queda como una vacuna
+ * suelta sin datos, igual que VacunaFueraHeap: conserva el código, lee y
+ * cambia los campos heredados de Vacuna, que empiezan vacíos, y ya no cambia
+ * el almacén.
+ *
+ * @author luPinheiro
+ */
+final class VacunaEnDisco extends Vacuna {
+
+	private final ArbolEnDisco arbol;
+	private final long clave;
+	private final long alta;
+
+	VacunaEnDisco(ArbolEnDisco arbol, String codigo, long clave, long alta) {
+		super(codigo, null, null, null, 0);
+		this.arbol = arbol;
+		this.clave = clave;
+		this.alta = alta;
+	}
+
+	// true si es de ese árbol y sigue siendo la que está en él
+	boolean esDe(ArbolEnDisco arbol) {
+		return this.arbol == arbol && arbol.vigente(this.clave, this.alta);
+	}
+
+	// una vista es siempre de su registro, también cuando ya no lo lee: su
+	// código no cambia
+	@Override
+	boolean estaGuardada() {
+		return true;
+	}
+
+	@Override
+	public String getNombre() {
+		return this.arbol.leerTexto(this.clave, this.alta, ArbolEnDisco.NOMBRE, super.getNombre());
+	}
+
+	@Override
+	public void setNombre(String nombre) {
+		this.modificar(() -> {
+			if (!this.arbol.escribirTexto(this.clave, this.alta, ArbolEnDisco.NOMBRE, nombre)) {
+				super.setNombre(nombre);
+			}
+		});
+	}
+
+	@Override
+	public String getPrincipioActivo() {
+		return this.arbol.leerTexto(this.clave, this.alta, ArbolEnDisco.PRINCIPIO_ACTIVO, super.getPrincipioActivo());
+	}
+
+	@Override
+	public void setPrincipioActivo(String principioActivo) {
+		this.modificar(() -> {
+			if (!this.arbol.escribirTexto(this.clave, this.alta, ArbolEnDisco.PRINCIPIO_ACTIVO, principioActivo)) {
+				super.setPrincipioActivo(principioActivo);
+			}
+		});
+	}
+
+	@Override
+	public String getFarmaceutica() {
+		return this.arbol.leerTexto(this.clave, this.alta, ArbolEnDisco.FARMACEUTICA, super.getFarmaceutica());
+	}
+
+	@Override
+	public void setFarmaceutica(String farmaceutica) {
+		this.modificar(() -> {
+			if (!this.arbol.escribirTexto(this.clave, this.alta, ArbolEnDisco.FARMACEUTICA, farmaceutica)) {
+				super.setFarmaceutica(farmaceutica);
+			}
+		});
+	}
+
+	@Override
+	public double getPrecioRecomendado() {
+		return Double.longBitsToDouble(this.arbol.leer(this.clave, this.alta, ArbolEnDisco.PRECIO,
+				Double.doubleToRawLongBits(super.getPrecioRecomendado())));
+	}
+
+	@Override
+	public void setPrecioRecomendado(double precioRecomendado) {
+		this.modificar(() -> {
+			if (!this.arbol.escribir(this.clave, this.alta, ArbolEnDisco.PRECIO,
+					Double.doubleToRawLongBits(precioRecomendado))) {
+				super.setPrecioRecomendado(precioRecomendado);
+			}
+		});
+	}
+
+	@Override
+	long getPalabraEstado() {
+		return this.arbol.leer(this.clave, this.alta, ArbolEnDisco.ESTADO, super.getPalabraEstado());
+	}
+
+	@Override
+	boolean cambiarPalabraEstado(long anterior, long nuevo) {
+		int resultado = this.arbol.cambiar(this.clave, this.alta, ArbolEnDisco.ESTADO, anterior, nuevo);
+		if (resultado == ArbolEnDisco.NO_ESTA) {
+			return super.cambiarPalabraEstado(anterior, nuevo);
+		}
+		return resultado == ArbolEnDisco.CAMBIADO;
+	}
+
+	@Override
+	long getPalabraContada() {
+		return this.arbol.leer(this.clave, this.alta, ArbolEnDisco.CONTADA, super.getPalabraContada());
+	}
+
+	@Override
+	void setPalabraContada(long palabraContada) {
+		if (!this.arbol.escribir(this.clave, this.alta, ArbolEnDisco.CONTADA, palabraContada)) {
+			super.setPalabraContada(palabraContada);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+/**
+ * Vista de una vacuna guardada en RegistrosFueraHeap: solo tiene su código y
+ * dónde está su registro (hueco y número de alta). Cada get lee el registro
+ * en ese momento y cada set o cambio de estado escribe en él, pasando por el
+ * almacén como cualquier otra vacuna.
+ *
+ * Si la vacuna se elimina o se sustituye, la vista queda como una vacuna
+ * suelta sin datos: conserva el código y lee y cambia los campos heredados de
+ * Vacuna, que empiezan vacíos (sin nombre ni textos, precio 0, pendiente), y
+ * ya no cambia el almacén. Lo eliminado o sustituido sale del almacén como una
+ * copia suelta con sus datos; sin datos solo se queda una vista que alguien
+ * retenía mientras tanto. Igual que VacunaEnDisco.
+ *
+ * @author luPinheiro
+ */
+final class VacunaFueraHeap extends Vacuna {
+
+	private final RegistrosFueraHeap registros;
+	private final int hueco;
+	private final long alta;
+
+	VacunaFueraHeap(RegistrosFueraHeap registros, String codigo, int hueco, long alta) {
+		super(codigo, null, null, null, 0);
+		this.registros = registros;
+		this.hueco = hueco;
+		this.alta = alta;
+	}
+
+	// true si es de esos registros y sigue siendo la que está en ellos
+	boolean esDe(RegistrosFueraHeap registros) {
+		return this.registros == registros && registros.vigente(this.hueco, this.alta);
+	}
+
+	// una vista es siempre de su registro, también cuando ya no lo lee: su
+	// código no cambia
+	@Override
+	boolean estaGuardada() {
+		return true;
+	}
+
+	@Override
+	public String getNombre() {
+		return this.registros.leerTexto(this.hueco, this.alta, RegistrosFueraHeap.NOMBRE, super.getNombre());
+	}
+
+	@Override
+	public void setNombre(String nombre) {
+		this.modificar(() -> {
+			if (!this.registros.escribirTexto(this.hueco, this.alta, RegistrosFueraHeap.NOMBRE, nombre)) {
+				super.setNombre(nombre);
+			}
+		});
+	}
+
+	@Override
+	public String getPrincipioActivo() {
+		return this.registros.leerTexto(this.hueco, this.alta, RegistrosFueraHeap.PRINCIPIO_ACTIVO,
+				super.getPrincipioActivo());
+	}
+
+	@Override
+	public void setPrincipioActivo(String principioActivo) {
+		this.modificar(() -> {
+			if (!this.registros.escribirTexto(this.hueco, this.alta, RegistrosFueraHeap.PRINCIPIO_ACTIVO,
+					principioActivo)) {
+				super.setPrincipioActivo(principioActivo);
+			}
+		});
+	}
+
+	@Override
+	public String getFarmaceutica() {
+		return this.registros.leerTexto(this.hueco, this.alta, RegistrosFueraHeap.FARMACEUTICA,
+				super.getFarmaceutica());
+	}
+
+	@Override
+	public void setFarmaceutica(String farmaceutica) {
+		this.modificar(() -> {
+			if (!this.registros.escribirTexto(this.hueco, this.alta, RegistrosFueraHeap.FARMACEUTICA, farmaceutica)) {
+				super.setFarmaceutica(farmaceutica);
+			}
+		});
+	}
+
+	@Override
+	public double getPrecioRecomendado() {
+		return Double.longBitsToDouble(this.registros.leer(this.hueco, this.alta, RegistrosFueraHeap.PRECIO,
+				Double.doubleToRawLongBits(super.getPrecioRecomendado())));
+	}
+
+	@Override
+	public void setPrecioRecomendado(double precioRecomendado) {
+		this.modificar(() -> {
+			if (!this.registros.escribir(this.hueco, this.alta, RegistrosFueraHeap.PRECIO,
+					Double.doubleToRawLongBits(precioRecomendado))) {
+				super.setPrecioRecomendado(precioRecomendado);
+			}
+		});
+	}
+
+	@Override
+	long getPalabraEstado() {
+		return this.registros.leer(this.hueco, this.alta, RegistrosFueraHeap.ESTADO, super.getPalabraEstado());
+	}
+
+	@Override
+	boolean cambiarPalabraEstado(long anterior, long nuevo) {
+		int resultado = this.registros.cambiar(this.hueco, this.alta, RegistrosFueraHeap.ESTADO, anterior, nuevo);
+		if (resultado == RegistrosFueraHeap.NO_ESTA) {
+			return super.cambiarPalabraEstado(anterior, nuevo);
+		}
+		return resultado == RegistrosFueraHeap.CAMBIADO;
+	}
+
+	@Override
+	long getPalabraContada() {
+		return this.registros.leer(this.hueco, this.alta, RegistrosFueraHeap.CONTADA, super.getPalabraContada());
+	}
+
+	@Override
+	void setPalabraContada(long palabraContada) {
+		if (!this.registros.escribir(this.hueco, this.alta, RegistrosFueraHeap.CONTADA, palabraContada)) {
+			super.setPalabraContada(palabraContada);
+		}
+	}
+}
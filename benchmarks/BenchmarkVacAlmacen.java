@@ -0,0 +1,627 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Pruebas de rendimiento de los caminos calientes de VacAlmacen, al estilo de
+ * JMH pero sin dependencias: calentamiento, varias iteraciones de medida,
+ * tiempo por operación y bytes reservados por operación (como -prof gc), y
+ * número y tiempo de recolecciones durante la medida.
+ *
+ * Uso (desde la raíz del proyecto):
+ *   javac -encoding UTF-8 -d out *.java benchmarks/*.java
+ *   java -Xmx8g -cp out gal.teis.vacunas.BenchmarkVacAlmacen [--tamanos 1000,100000,1000000,10000000]
+ *        [--hilos n] [--iteraciones n] [--solo nombre]
+ *
+ * @author luPinheiro
+ */
+public class BenchmarkVacAlmacen {
+
+	private static final long NANOS_CALENTAMIENTO = 300_000_000L;
+	private static final long NANOS_ITERACION = 500_000_000L;
+	private static final int CONSULTAS = 1 << 20;
+	// 2 MiB de páginas de 8 KiB para los almacenes en disco
+	private static final int PAGINAS_EN_DISCO = 256;
+
+	// la salida de los listados se descarta; los resultados van a la consola real
+	private static final PrintStream CONSOLA = System.out;
+	private static final PrintStream NULA = new PrintStream(OutputStream.nullOutputStream());
+
+	private static int iteraciones = 5;
+	private static int hilos = Runtime.getRuntime().availableProcessors();
+	private static String solo = null;
+	// evita que el JIT elimine el trabajo medido
+	private static volatile long sumidero;
+
+	/**
+	 * Operación medida; devuelve un valor que se acumula en el sumidero.
+	 */
+	private interface Operacion {
+		long ejecutar(int i);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int[] tamanos = { 1_000, 100_000, 1_000_000 };
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--tamanos") && i + 1 < args.length) {
+				String[] partes = args[++i].split(",");
+				tamanos = new int[partes.length];
+				for (int j = 0; j < partes.length; j++) {
+					tamanos[j] = Integer.parseInt(partes[j].trim());
+				}
+			} else if (args[i].equals("--hilos") && i + 1 < args.length) {
+				hilos = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--iteraciones") && i + 1 < args.length) {
+				iteraciones = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--solo") && i + 1 < args.length) {
+				solo = args[++i];
+			}
+		}
+
+		System.setOut(NULA);
+		try {
+			CONSOLA.printf("%-28s %10s %14s %14s %12s %8s %10s%n", "prueba", "tamaño", "ns/op", "±", "B/op",
+					"gc", "gc ms");
+			for (int tamano : tamanos) {
+				ejecutarTamano(tamano);
+			}
+		} finally {
+			System.setOut(CONSOLA);
+		}
+	}
+
+	private static void ejecutarTamano(int tamano) throws Exception {
+		Vacuna[] vacunas = crearVacunas(tamano);
+		String[] codigos = new String[CONSULTAS];
+		Random azar = new Random(42);
+		for (int i = 0; i < CONSULTAS; i++) {
+			codigos[i] = vacunas[azar.nextInt(tamano)].getCodigo();
+		}
+
+		// llenar un almacén vacío: una operación es un agregar
+		medirLote("agregar", tamano, () -> crearVacunas(tamano), nuevas -> {
+			VacAlmacen lleno = new VacAlmacen();
+			for (Vacuna v : nuevas) {
+				lleno.agregar(v);
+			}
+			return lleno;
+		});
+
+		// lo mismo publicando cada agregar a un suscriptor que lo pide todo
+		medirLote("agregar con FlujoCambios", tamano, () -> crearVacunas(tamano), nuevas -> {
+			VacAlmacen lleno = new VacAlmacen();
+			try (FlujoCambios flujo = FlujoCambios.abrir(lleno)) {
+				flujo.subscribe(new Flow.Subscriber<CambioVacuna>() {
+					@Override
+					public void onSubscribe(Flow.Subscription s) {
+						s.request(Long.MAX_VALUE);
+					}
+
+					@Override
+					public void onNext(CambioVacuna c) {
+						sumidero += c.getSecuencia();
+					}
+
+					@Override
+					public void onError(Throwable t) {
+					}
+
+					@Override
+					public void onComplete() {
+					}
+				});
+				for (Vacuna v : nuevas) {
+					lleno.agregar(v);
+				}
+			}
+			return lleno;
+		});
+
+		VacAlmacen almacen = new VacAlmacen();
+		for (Vacuna v : vacunas) {
+			almacen.agregar(v);
+		}
+		medir("buscarVacuna", tamano, i -> almacen.buscarVacuna(codigos[i & (CONSULTAS - 1)]).getFasesCompletadas());
+
+		medirLote("agregar empaquetados", tamano, () -> crearVacunas(tamano), nuevas -> {
+			VacAlmacen lleno = VacAlmacen.conCodigosEmpaquetados(false);
+			for (Vacuna v : nuevas) {
+				lleno.agregar(v);
+			}
+			return lleno;
+		});
+
+		VacAlmacen empaquetado = VacAlmacen.conCodigosEmpaquetados(false);
+		for (Vacuna v : crearVacunas(tamano)) {
+			empaquetado.agregar(v);
+		}
+		medir("buscarVacuna empaquetados", tamano,
+				i -> empaquetado.buscarVacuna(codigos[i & (CONSULTAS - 1)]).getFasesCompletadas());
+
+		// el mismo llenado y las mismas búsquedas con los registros fuera del
+		// heap: buscar crea una vista y lee su palabra de estado del registro
+		medirLote("agregar fuera del heap", tamano, () -> crearVacunas(tamano), nuevas -> {
+			VacAlmacen lleno = VacAlmacen.fueraDelHeap(false);
+			for (Vacuna v : nuevas) {
+				lleno.agregar(v);
+			}
+			return lleno;
+		});
+
+		VacAlmacen fueraHeap = VacAlmacen.fueraDelHeap(false);
+		for (Vacuna v : crearVacunas(tamano)) {
+			fueraHeap.agregar(v);
+		}
+		medir("buscarVacuna fuera del heap", tamano,
+				i -> fueraHeap.buscarVacuna(codigos[i & (CONSULTAS - 1)]).getFasesCompletadas());
+
+		// y en disco con 2 MiB de páginas en memoria, menos que el catálogo a
+		// partir de unas 20.000 vacunas: buscar lee del fichero las hojas que
+		// no están en memoria
+		medirLote("agregar en disco", tamano, () -> crearVacunas(tamano), nuevas -> {
+			VacAlmacen lleno = enDisco();
+			for (Vacuna v : nuevas) {
+				lleno.agregar(v);
+			}
+			return lleno;
+		});
+
+		VacAlmacen disco = enDisco();
+		for (Vacuna v : crearVacunas(tamano)) {
+			disco.agregar(v);
+		}
+		medir("buscarVacuna en disco", tamano,
+				i -> disco.buscarVacuna(codigos[i & (CONSULTAS - 1)]).getFasesCompletadas());
+
+		// primera página de 50 de un prefijo de tres letras ("VAb", "VEk"...)
+		medir("buscarPorPrefijo", tamano,
+				i -> almacen.buscarPorPrefijo(codigos[i & (CONSULTAS - 1)].substring(0, 3), null, 50).getVacunas().size());
+
+		// Y de una palabra que tienen todas ("vacuna") con otra que tiene una;
+		// números salteados para no repetir siempre el 19 de "COVID-19", que
+		// también tienen todas
+		medir("buscarConTodas", tamano,
+				i -> almacen.buscarConTodas("vacuna " + Math.floorMod(i * 7919, tamano), CampoTexto.NOMBRE).size());
+
+		medir("getPreciosFarmaceutica", tamano,
+				i -> almacen.getPreciosFarmaceutica("Farmaceutica " + (i % 25)).getNumeroVacunas() > 0 ? 1 : 0);
+
+		// primera página de 50 de una farmacéutica: se compara su texto con el
+		// de cada vacuna, el mismo String de DiccionarioTextos si coinciden
+		String[] farmaceuticas = new String[25];
+		for (int f = 0; f < farmaceuticas.length; f++) {
+			farmaceuticas[f] = "Farmaceutica " + f;
+		}
+		medir("buscarPorFarmaceutica", tamano,
+				i -> almacen.buscarPorFarmaceutica(farmaceuticas[i % 25], 0, 50).size());
+
+		// una actualización por vacuna (su siguiente fase) en un solo lote sobre
+		// un almacén concurrente: una operación es una actualización
+		List<ActualizacionVacuna> lote = new ArrayList<ActualizacionVacuna>(tamano);
+		for (int i = 0; i < tamano; i++) {
+			lote.add(ActualizacionVacuna.fase(codigo(i), (byte) 1, true));
+		}
+		medirLote("aplicarEnLote", tamano, () -> {
+			VacAlmacen lleno = new VacAlmacen(true);
+			for (Vacuna v : crearVacunas(tamano)) {
+				lleno.agregar(v);
+			}
+			return lleno;
+		}, lleno -> lleno.aplicarEnLote(lote));
+
+		// vaciar un almacén lleno: una operación es un eliminar
+		medirLote("eliminar", tamano, () -> {
+			VacAlmacen lleno = new VacAlmacen();
+			for (Vacuna v : crearVacunas(tamano)) {
+				lleno.agregar(v);
+			}
+			return lleno;
+		}, lleno -> {
+			for (int i = 0; i < tamano; i++) {
+				lleno.eliminar(codigo(i));
+			}
+			return lleno;
+		});
+
+		// las 100 primeras autorizaciones de un intervalo, del índice por momento
+		// del historial; un tercio de las vacunas llegan autorizadas hoy
+		Instant desde = Instant.now().minusSeconds(3600);
+		Instant hasta = desde.plusSeconds(7200);
+		medir("buscarDecisiones", tamano,
+				i -> almacen.buscarDecisiones(EstadoVacuna.AUTORIZADA, desde, hasta, 100).size());
+		medir("verVacunasAutorizadas", tamano, i -> {
+			almacen.verVacunasAutorizadas();
+			return 1;
+		});
+		medir("verVacunasRechazadas", tamano, i -> {
+			almacen.verVacunasRechazadas();
+			return 1;
+		});
+		medir("verVacunasPendientes", tamano, i -> {
+			almacen.verVacunasPendientes();
+			return 1;
+		});
+		// leer la entrada del menú: una operación es un número leído de un
+		// texto en memoria, con Scanner (como se leía antes) o con
+		// LectorEntrada
+		int numeros = Math.min(tamano, 1 << 20);
+		byte[] enteros = textoNumeros(numeros, false);
+		byte[] decimales = textoNumeros(numeros, true);
+		medirLote("leerInt Scanner", numeros, () -> new Scanner(new ByteArrayInputStream(enteros)), sc -> {
+			long suma = 0;
+			for (int i = 0; i < numeros; i++) {
+				suma += sc.nextInt();
+			}
+			return suma;
+		});
+		medirLote("leerInt LectorEntrada", numeros, () -> new LectorEntrada(new ByteArrayInputStream(enteros)),
+				entrada -> {
+					long suma = 0;
+					for (int i = 0; i < numeros; i++) {
+						suma += leerInt(entrada);
+					}
+					return suma;
+				});
+		medirLote("leerDouble Scanner", numeros,
+				() -> new Scanner(new ByteArrayInputStream(decimales)).useLocale(Locale.ROOT), sc -> {
+					double suma = 0;
+					for (int i = 0; i < numeros; i++) {
+						suma += sc.nextDouble();
+					}
+					return suma;
+				});
+		medirLote("leerDouble LectorEntrada", numeros,
+				() -> new LectorEntrada(new ByteArrayInputStream(decimales)), entrada -> {
+					double suma = 0;
+					for (int i = 0; i < numeros; i++) {
+						suma += leerDouble(entrada);
+					}
+					return suma;
+				});
+		medir("CodigoVacuna.esValido", tamano, i -> CodigoVacuna.esValido(codigos[i & (CONSULTAS - 1)]) ? 1 : 0);
+		medir("Vacuna.toString", tamano, i -> vacunas[i % tamano].toString().length());
+		StringBuilder texto = new StringBuilder(256);
+		medir("Vacuna.appendTo", tamano, i -> {
+			texto.setLength(0);
+			return escribir(vacunas[i % tamano], texto).length();
+		});
+		Writer nulo = Writer.nullWriter();
+		medir("verVacunasPendientes Writer", tamano, i -> {
+			try {
+				return almacen.verVacunasPendientes(nulo, 0, Integer.MAX_VALUE);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+
+		medirMixto(tamano);
+	}
+
+	// una línea por número, como las respuestas del menú
+	private static byte[] textoNumeros(int cuantos, boolean decimales) {
+		StringBuilder texto = new StringBuilder(cuantos * 8);
+		Random azar = new Random(7);
+		for (int i = 0; i < cuantos; i++) {
+			if (decimales) {
+				texto.append(azar.nextInt(100_000) / 100.0).append('\n');
+			} else {
+				texto.append(azar.nextInt(2_000_000) - 1_000_000).append('\n');
+			}
+		}
+		return texto.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static int leerInt(LectorEntrada entrada) {
+		try {
+			return ControlData.leerInt(entrada);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static double leerDouble(LectorEntrada entrada) {
+		try {
+			return ControlData.leerDouble(entrada);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static StringBuilder escribir(Vacuna v, StringBuilder texto) {
+		try {
+			return v.appendTo(texto);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Vacunas con códigos válidos y distintos; un tercio autorizadas, un
+	// tercio rechazadas y el resto pendientes en distintas fases.
+	private static VacAlmacen enDisco() {
+		try {
+			return VacAlmacen.enDisco(Files.createTempFile("benchmark", ".paginas"), PAGINAS_EN_DISCO, false);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static Vacuna[] crearVacunas(int tamano) {
+		Vacuna[] vacunas = new Vacuna[tamano];
+		for (int i = 0; i < tamano; i++) {
+			Vacuna v = new Vacuna(codigo(i), "COVID-19 vacuna " + i, "Principio " + (i % 40),
+					"Farmaceutica " + (i % 25), 1 + (i % 300) / 10.0);
+			switch (i % 3) {
+			case 0:
+				v.modificarFase((byte) 1, true);
+				v.modificarFase((byte) 2, true);
+				v.modificarFase((byte) 3, true);
+				v.autorizar();
+				break;
+			case 1:
+				v.rechazar();
+				break;
+			default:
+				for (byte fase = 1; fase <= i % 4; fase++) {
+					v.modificarFase(fase, true);
+				}
+				break;
+			}
+			vacunas[i] = v;
+		}
+		return vacunas;
+	}
+
+	// n-ésimo código válido: V, vocal, cuatro minúsculas y final 44..77 u 8
+	static String codigo(int n) {
+		char[] c = new char[8];
+		int finales = 17;
+		int terminacion = n % finales;
+		n /= finales;
+		c[0] = 'V';
+		c[1] = "AEIOU".charAt(n % 5);
+		n /= 5;
+		for (int i = 5; i >= 2; i--) {
+			c[i] = (char) ('a' + n % 26);
+			n /= 26;
+		}
+		if (terminacion == 16) {
+			c[6] = '8';
+			return new String(c, 0, 7);
+		}
+		c[6] = (char) ('4' + terminacion / 4);
+		c[7] = (char) ('4' + terminacion % 4);
+		return new String(c);
+	}
+
+	private static void medirMixto(int tamano) throws Exception {
+		if (!debeEjecutar("mixto")) {
+			return;
+		}
+		VacAlmacen almacen = new VacAlmacen(true);
+		Vacuna[] vacunas = crearVacunas(tamano);
+		for (Vacuna v : vacunas) {
+			almacen.agregar(v);
+		}
+		// 90 % búsquedas, 5 % fases y decisiones, 5 % agregar/eliminar
+		Operacion mezcla = i -> {
+			ThreadLocalRandom azar = ThreadLocalRandom.current();
+			int n = azar.nextInt(tamano);
+			int tipo = azar.nextInt(100);
+			if (tipo < 90) {
+				Vacuna v = almacen.buscarVacuna(vacunas[n].getCodigo());
+				return v == null ? 0 : v.getFasesCompletadas();
+			} else if (tipo < 95) {
+				Vacuna v = almacen.buscarVacuna(vacunas[n].getCodigo());
+				if (v != null) {
+					byte fase = (byte) (v.getFasesCompletadas() + 1);
+					if (fase <= 3) {
+						v.modificarFase(fase, true);
+					} else if (tipo == 94) {
+						v.rechazar();
+					} else {
+						v.autorizar();
+					}
+				}
+				return 1;
+			} else if (tipo < 98) {
+				almacen.eliminar(vacunas[n].getCodigo());
+				return 2;
+			} else {
+				almacen.agregar(new Vacuna(vacunas[n].getCodigo(), "n", "p", "f", 1));
+				return 3;
+			}
+		};
+		medirConcurrente("mixto 90/5/5 (" + hilos + " hilos)", tamano, mezcla);
+	}
+
+	private static boolean debeEjecutar(String nombre) {
+		return solo == null || nombre.startsWith(solo);
+	}
+
+	// Medida por tiempo: se repite la operación durante NANOS_ITERACION
+	private static void medir(String nombre, int tamano, Operacion op) {
+		if (!debeEjecutar(nombre)) {
+			return;
+		}
+		ejecutarDurante(op, NANOS_CALENTAMIENTO);
+		Resultado resultado = new Resultado();
+		for (int it = 0; it < iteraciones; it++) {
+			long antesBytes = bytesReservados();
+			Gc antesGc = new Gc();
+			long inicio = System.nanoTime();
+			long operaciones = ejecutarDurante(op, NANOS_ITERACION);
+			long nanos = System.nanoTime() - inicio;
+			resultado.anotar((double) nanos / operaciones, (double) (bytesReservados() - antesBytes) / operaciones,
+					new Gc().menos(antesGc));
+		}
+		resultado.imprimir(nombre, tamano);
+	}
+
+	private static long ejecutarDurante(Operacion op, long nanos) {
+		long fin = System.nanoTime() + nanos;
+		long operaciones = 0;
+		long acumulado = 0;
+		int i = 0;
+		do {
+			// se comprueba el reloj cada 64 operaciones
+			for (int j = 0; j < 64; j++) {
+				acumulado += op.ejecutar(i++);
+			}
+			operaciones += 64;
+		} while (System.nanoTime() < fin);
+		sumidero += acumulado;
+		return operaciones;
+	}
+
+	// Medida de una tanda (llenar o vaciar un almacén) de tamano operaciones;
+	// la preparación no se mide
+	private static <T> void medirLote(String nombre, int tamano, Supplier<T> preparar, Function<T, Object> tanda) {
+		if (!debeEjecutar(nombre)) {
+			return;
+		}
+		Resultado resultado = new Resultado();
+		// la iteración -1 es de calentamiento
+		for (int it = -1; it < iteraciones; it++) {
+			T datos = preparar.get();
+			long antesBytes = bytesReservados();
+			Gc antesGc = new Gc();
+			long inicio = System.nanoTime();
+			sumidero += tanda.apply(datos).hashCode();
+			long nanos = System.nanoTime() - inicio;
+			if (it >= 0) {
+				resultado.anotar((double) nanos / tamano, (double) (bytesReservados() - antesBytes) / tamano,
+						new Gc().menos(antesGc));
+			}
+		}
+		resultado.imprimir(nombre, tamano);
+	}
+
+	private static void medirConcurrente(String nombre, int tamano, Operacion op) throws Exception {
+		Resultado resultado = new Resultado();
+		for (int it = -1; it < iteraciones; it++) {
+			LongAdder operaciones = new LongAdder();
+			AtomicBoolean parar = new AtomicBoolean();
+			CountDownLatch salida = new CountDownLatch(1);
+			List<Thread> trabajadores = new ArrayList<Thread>();
+			for (int h = 0; h < hilos; h++) {
+				Thread t = new Thread(() -> {
+					try {
+						salida.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long hechas = 0;
+					long acumulado = 0;
+					while (!parar.get()) {
+						for (int j = 0; j < 64; j++) {
+							acumulado += op.ejecutar(j);
+						}
+						hechas += 64;
+					}
+					sumidero += acumulado;
+					operaciones.add(hechas);
+				});
+				t.start();
+				trabajadores.add(t);
+			}
+			Gc antesGc = new Gc();
+			long inicio = System.nanoTime();
+			salida.countDown();
+			Thread.sleep(NANOS_ITERACION / 1_000_000);
+			parar.set(true);
+			for (Thread t : trabajadores) {
+				t.join();
+			}
+			long nanos = System.nanoTime() - inicio;
+			if (it >= 0) {
+				// ns por operación del conjunto de hilos (inverso del rendimiento)
+				resultado.anotar((double) nanos / operaciones.sum(), Double.NaN, new Gc().menos(antesGc));
+			}
+		}
+		resultado.imprimir(nombre, tamano);
+	}
+
+	private static long bytesReservados() {
+		java.lang.management.ThreadMXBean hilo = ManagementFactory.getThreadMXBean();
+		if (hilo instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) hilo).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	// recolecciones y tiempo de GC acumulados de la JVM
+	private static class Gc {
+		private long cuenta;
+		private long milisegundos;
+
+		Gc() {
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				this.cuenta += Math.max(0, gc.getCollectionCount());
+				this.milisegundos += Math.max(0, gc.getCollectionTime());
+			}
+		}
+
+		Gc menos(Gc antes) {
+			this.cuenta -= antes.cuenta;
+			this.milisegundos -= antes.milisegundos;
+			return this;
+		}
+	}
+
+	private static class Resultado {
+		private final List<Double> nanosPorOperacion = new ArrayList<Double>();
+		private double bytesPorOperacion;
+		private long recolecciones;
+		private long milisegundosGc;
+
+		void anotar(double nanos, double bytes, Gc gc) {
+			this.nanosPorOperacion.add(nanos);
+			this.bytesPorOperacion += bytes;
+			this.recolecciones += gc.cuenta;
+			this.milisegundosGc += gc.milisegundos;
+		}
+
+		void imprimir(String nombre, int tamano) {
+			int n = this.nanosPorOperacion.size();
+			double media = 0;
+			for (double x : this.nanosPorOperacion) {
+				media += x;
+			}
+			media /= n;
+			double varianza = 0;
+			for (double x : this.nanosPorOperacion) {
+				varianza += (x - media) * (x - media);
+			}
+			double error = (n > 1) ? Math.sqrt(varianza / (n - 1)) : 0;
+			CONSOLA.printf("%-28s %10d %14.1f %14.1f %12.1f %8d %10d%n", nombre, tamano, media, error,
+					this.bytesPorOperacion / n, this.recolecciones, this.milisegundosGc);
+		}
+	}
+}
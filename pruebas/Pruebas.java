@@ -0,0 +1,192 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Pruebas del almacén sin dependencias, como BenchmarkVacAlmacen: cada grupo
+ * es una clase de esta carpeta que da de alta sus casos, y este programa los
+ * ejecuta todos (o los de los grupos que se le pasen) y termina con código 1
+ * si alguno falla. Están en el paquete del almacén para probar también las
+ * clases que no son públicas.
+ *
+ * Uso (desde la raíz del proyecto):
+ *   javac -encoding UTF-8 -d out *.java benchmarks/*.java pruebas/*.java
+ *   java -cp out gal.teis.vacunas.Pruebas [grupo...]
+ *
+ * @author luPinheiro
+ */
+public final class Pruebas {
+
+	interface Caso {
+		void ejecutar() throws Exception;
+	}
+
+	private final Map<String, Caso> casos = new LinkedHashMap<String, Caso>();
+	private String grupo;
+
+	private Pruebas() {
+	}
+
+	public static void main(String[] args) {
+		Pruebas pruebas = new Pruebas();
+		pruebas.grupo("persistencia");
+		PruebasPersistencia.registrar(pruebas);
+		pruebas.grupo("concurrencia");
+		PruebasConcurrencia.registrar(pruebas);
+		pruebas.grupo("colecciones");
+		PruebasColecciones.registrar(pruebas);
+		pruebas.grupo("codigos");
+		PruebasCodigos.registrar(pruebas);
+		pruebas.grupo("lector");
+		PruebasLector.registrar(pruebas);
+		pruebas.grupo("importador");
+		PruebasImportador.registrar(pruebas);
+		pruebas.grupo("servidor");
+		PruebasServidor.registrar(pruebas);
+		pruebas.grupo("flujo");
+		PruebasFlujo.registrar(pruebas);
+		pruebas.grupo("replicacion");
+		PruebasReplicacion.registrar(pruebas);
+		pruebas.grupo("historial");
+		PruebasHistorial.registrar(pruebas);
+
+		List<String> grupos = Arrays.asList(args);
+		int fallos = 0;
+		int ejecutados = 0;
+		for (Map.Entry<String, Caso> caso : pruebas.casos.entrySet()) {
+			String nombre = caso.getKey();
+			if (!grupos.isEmpty() && !grupos.contains(nombre.substring(0, nombre.indexOf('.')))) {
+				continue;
+			}
+			ejecutados++;
+			long inicio = System.nanoTime();
+			try {
+				caso.getValue().ejecutar();
+				System.out.printf("OK    %s (%d ms)%n", nombre, (System.nanoTime() - inicio) / 1_000_000);
+			} catch (Throwable e) {
+				fallos++;
+				System.out.println("FALLO " + nombre + ": " + e);
+				e.printStackTrace(System.out);
+			}
+		}
+		System.out.println(ejecutados + " pruebas, " + fallos + " fallos");
+		System.exit(fallos == 0 ? 0 : 1);
+	}
+
+	private void grupo(String nombre) {
+		this.grupo = nombre;
+	}
+
+	void caso(String nombre, Caso caso) {
+		this.casos.put(this.grupo + "." + nombre, caso);
+	}
+
+	// -------- comprobaciones
+
+	static void comprobar(boolean condicion, String mensaje) {
+		if (!condicion) {
+			throw new AssertionError(mensaje);
+		}
+	}
+
+	static void iguales(Object esperado, Object real, String mensaje) {
+		if (!Objects.equals(esperado, real)) {
+			throw new AssertionError(mensaje + ": se esperaba <" + esperado + "> y hay <" + real + ">");
+		}
+	}
+
+	// las colecciones de VacAlmacen, para los casos que se repiten con todas
+	static final List<String> ALMACENES = Collections
+			.unmodifiableList(Arrays.asList("mapa", "codigos", "catalogo", "fuera", "disco"));
+
+	/**
+	 * Una colección vacía de ese tipo; la de catálogo sirve las vacunas de
+	 * catalogo, que pueden ser ninguna. Hay que llamar a cerrar().
+	 *
+	 * @param tipo Tipo String - uno de ALMACENES
+	 */
+	static IColeccionVacunas coleccion(String tipo, List<Vacuna> catalogo) throws IOException {
+		switch (tipo) {
+		case "mapa":
+			return new ColeccionMapa(true);
+		case "codigos":
+			return new ColeccionCodigoLong();
+		case "catalogo":
+			Path fichero = Files.createTempFile("pruebas", ".cat");
+			fichero.toFile().deleteOnExit();
+			CatalogoBinario.escribir(catalogo, fichero);
+			return new ColeccionCatalogo(CatalogoBinario.abrir(fichero));
+		case "fuera":
+			return new ColeccionFueraHeap();
+		case "disco":
+			return new ColeccionEnDisco(Files.createTempFile("pruebas", ".pag"), 64);
+		default:
+			throw new IllegalArgumentException("No hay almacén " + tipo);
+		}
+	}
+
+	// un almacén con esa colección; también hay que cerrarlo
+	static VacAlmacen almacen(String tipo, boolean concurrente, List<Vacuna> catalogo) throws IOException {
+		return new VacAlmacen(coleccion(tipo, catalogo), concurrente);
+	}
+
+	static VacAlmacen almacen(String tipo, boolean concurrente) throws IOException {
+		return almacen(tipo, concurrente, Collections.<Vacuna>emptyList());
+	}
+
+	// el código de prueba número i, válido y distinto para cada i
+	static String codigo(int i) {
+		return BenchmarkVacAlmacen.codigo(i);
+	}
+
+	/**
+	 * Todo lo que se guarda de cada vacuna del almacén, una línea por vacuna y
+	 * en orden de código, para comparar dos almacenes
+	 */
+	static List<String> volcado(VacAlmacen almacen) {
+		List<String> lineas = new ArrayList<String>();
+		for (Vacuna v : almacen.instantanea()) {
+			lineas.add(volcado(v));
+		}
+		Collections.sort(lineas);
+		return lineas;
+	}
+
+	static String volcado(Vacuna v) {
+		return v.getCodigo() + "|" + v.getNombre() + "|" + v.getPrincipioActivo() + "|" + v.getFarmaceutica() + "|"
+				+ v.getPrecioRecomendado() + "|" + Long.toHexString(v.getPalabraEstado());
+	}
+
+	static void borrar(Path carpeta) throws IOException {
+		Files.walkFileTree(carpeta, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path fichero, BasicFileAttributes atributos) throws IOException {
+				Files.delete(fichero);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path directorio, IOException e) throws IOException {
+				Files.delete(directorio);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
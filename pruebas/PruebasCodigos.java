@@ -0,0 +1,135 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import static gal.teis.vacunas.Pruebas.comprobar;
+import static gal.teis.vacunas.Pruebas.iguales;
+
+import java.nio.CharBuffer;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * CodigoVacuna.esValido frente a la expresión regular que usaba Aplicacion.
+ * Esa expresión tenía comas dentro de [A,E,I,O,U] y aceptaba una coma como
+ * vocal; esValido no, y en eso se compara con la expresión corregida.
+ *
+ * @author luPinheiro
+ */
+final class PruebasCodigos {
+
+	// la de Aplicacion.validarCodigoVacuna, tal cual
+	private static final Pattern ORIGINAL = Pattern.compile("^V[A,E,I,O,U][a-z]{3,4}([4-7]{2}|[8])");
+	private static final Pattern CORREGIDA = Pattern.compile("^V[AEIOU][a-z]{3,4}([4-7]{2}|[8])");
+	// lo que aparece en los códigos y lo que está justo al lado
+	private static final String ALFABETO = "VAEIOU,Baz`{4783 9ñÁ";
+
+	private PruebasCodigos() {
+	}
+
+	static void registrar(Pruebas pruebas) {
+		pruebas.caso("todos los cortos", PruebasCodigos::todosLosCortos);
+		pruebas.caso("casi validos", PruebasCodigos::casiValidos);
+		pruebas.caso("al azar", PruebasCodigos::alAzar);
+		pruebas.caso("coma como vocal", PruebasCodigos::comaComoVocal);
+		pruebas.caso("otras secuencias", PruebasCodigos::otrasSecuencias);
+	}
+
+	private static void comparar(String codigo) {
+		boolean esperado = CORREGIDA.matcher(codigo).matches();
+		iguales(esperado, CodigoVacuna.esValido(codigo), "esValido(\"" + codigo + "\")");
+		if (codigo.length() < 2 || codigo.charAt(1) != ',') {
+			iguales(esperado, ORIGINAL.matcher(codigo).matches(), "la original con \"" + codigo + "\"");
+		}
+	}
+
+	// todas las cadenas de hasta 4 caracteres del alfabeto
+	private static void todosLosCortos() {
+		StringBuilder codigo = new StringBuilder();
+		for (int longitud = 0; longitud <= 4; longitud++) {
+			int total = (int) Math.pow(ALFABETO.length(), longitud);
+			for (int n = 0; n < total; n++) {
+				codigo.setLength(0);
+				for (int i = 0, resto = n; i < longitud; i++, resto /= ALFABETO.length()) {
+					codigo.append(ALFABETO.charAt(resto % ALFABETO.length()));
+				}
+				comparar(codigo.toString());
+			}
+		}
+	}
+
+	// códigos válidos con un carácter cambiado, quitado o añadido en cada
+	// posición: donde se equivoca un validador a mano
+	private static void casiValidos() {
+		String[] validos = { "VAabc8", "VEabcd8", "VIabc47", "VOabcd74", "VUzzz55", "VAazaz66" };
+		int validosVistos = 0;
+		for (String valido : validos) {
+			iguales(true, CodigoVacuna.esValido(valido), valido);
+			for (int i = 0; i <= valido.length(); i++) {
+				for (int a = 0; a < ALFABETO.length(); a++) {
+					char c = ALFABETO.charAt(a);
+					if (i < valido.length()) {
+						comparar(valido.substring(0, i) + c + valido.substring(i + 1));
+						comparar(valido.substring(0, i) + valido.substring(i + 1));
+					}
+					String anadido = valido.substring(0, i) + c + valido.substring(i);
+					comparar(anadido);
+					if (CORREGIDA.matcher(anadido).matches()) {
+						validosVistos++;
+					}
+				}
+			}
+		}
+		comprobar(validosVistos > 0, "ningún código válido al añadir");
+	}
+
+	private static void alAzar() {
+		Random azar = new Random(6);
+		StringBuilder codigo = new StringBuilder();
+		int validos = 0;
+		for (int n = 0; n < 500_000; n++) {
+			codigo.setLength(0);
+			int longitud = azar.nextInt(11);
+			for (int i = 0; i < longitud; i++) {
+				// sobre todo lo que encaja en cada posición, para que salgan
+				// válidos
+				if (i == 0 && azar.nextInt(4) != 0) {
+					codigo.append('V');
+				} else if (i == 1 && azar.nextInt(4) != 0) {
+					codigo.append("AEIOU".charAt(azar.nextInt(5)));
+				} else if (i < 6 && azar.nextInt(2) == 0) {
+					codigo.append((char) ('a' + azar.nextInt(26)));
+				} else if (azar.nextInt(2) == 0) {
+					codigo.append((char) ('3' + azar.nextInt(7)));
+				} else {
+					codigo.append(ALFABETO.charAt(azar.nextInt(ALFABETO.length())));
+				}
+			}
+			String texto = codigo.toString();
+			comparar(texto);
+			if (CodigoVacuna.esValido(texto)) {
+				validos++;
+			}
+		}
+		comprobar(validos > 500, "pocos válidos al azar: " + validos);
+	}
+
+	private static void comaComoVocal() {
+		for (String codigo : new String[] { "V,abc8", "V,abcd47" }) {
+			iguales(true, ORIGINAL.matcher(codigo).matches(), "la original acepta " + codigo);
+			iguales(false, CodigoVacuna.esValido(codigo), "esValido(\"" + codigo + "\")");
+		}
+	}
+
+	private static void otrasSecuencias() {
+		iguales(false, CodigoVacuna.esValido(null), "null");
+		iguales(true, CodigoVacuna.esValido(new StringBuilder("VOabcd74")), "StringBuilder");
+		iguales(true, CodigoVacuna.esValido(CharBuffer.wrap("xxVAabc8xx").subSequence(2, 8)), "CharBuffer");
+		iguales(false, CodigoVacuna.esValido(CharBuffer.wrap("xxVAabc8xx")), "CharBuffer entero");
+		iguales(CodigoVacuna.LONGITUD_MINIMA, "VAabc8".length(), "LONGITUD_MINIMA");
+		iguales(CodigoVacuna.LONGITUD_MAXIMA, "VAabcd47".length(), "LONGITUD_MAXIMA");
+	}
+}
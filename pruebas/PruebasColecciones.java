@@ -0,0 +1,542 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import static gal.teis.vacunas.Pruebas.codigo;
+import static gal.teis.vacunas.Pruebas.comprobar;
+import static gal.teis.vacunas.Pruebas.iguales;
+import static gal.teis.vacunas.Pruebas.volcado;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * El mismo contrato para todas las colecciones de IColeccionVacunas: lo que
+ * guardan, sustituyen, quitan y recorren, y que un VacAlmacen con cada una
+ * responde lo mismo que con ColeccionMapa a la misma serie de operaciones
+ * (listados, páginas por código, búsquedas de texto y recuentos).
+ *
+ * @author luPinheiro
+ */
+final class PruebasColecciones {
+
+	private static final int INICIALES = 10;
+	private static final int CODIGOS = 600;
+	private static final String REFERENCIA = "mapa";
+
+	private PruebasColecciones() {
+	}
+
+	static void registrar(Pruebas pruebas) {
+		for (String tipo : Pruebas.ALMACENES) {
+			pruebas.caso(tipo, () -> contrato(tipo));
+		}
+		for (String tipo : Pruebas.ALMACENES) {
+			pruebas.caso(tipo + " codigo fijo", () -> codigoFijo(tipo));
+		}
+		for (String tipo : List.of("fuera", "disco")) {
+			pruebas.caso(tipo + " vistas", () -> vistas(tipo));
+		}
+		pruebas.caso("disco reabrir", PruebasColecciones::reabrirDisco);
+		for (String tipo : Pruebas.ALMACENES) {
+			if (!tipo.equals(REFERENCIA)) {
+				pruebas.caso(tipo + " como " + REFERENCIA, () -> comoReferencia(tipo));
+			}
+		}
+	}
+
+	private static List<Vacuna> iniciales(int numero) {
+		List<Vacuna> vacunas = new ArrayList<Vacuna>();
+		for (int i = 0; i < numero; i++) {
+			Vacuna v = new Vacuna(codigo(i), "nombre " + i, (i % 2 == 0) ? "ARNm" : null, "farma " + (i % 3), i);
+			v.modificarFase((byte) 1, i % 3 == 0);
+			vacunas.add(v);
+		}
+		return vacunas;
+	}
+
+	// -------- la colección sola
+
+	private static void contrato(String tipo) throws IOException {
+		List<Vacuna> iniciales = iniciales(INICIALES);
+		IColeccionVacunas coleccion = Pruebas.coleccion(tipo, iniciales);
+		try {
+			if (!tipo.equals("catalogo")) {
+				comprobar(coleccion.estaVacia() && coleccion.tamano() == 0, "no empieza vacía");
+				for (Vacuna v : iniciales) {
+					iguales(null, coleccion.guardar(v), "guardar un código nuevo");
+				}
+			}
+			iguales(INICIALES, coleccion.tamano(), "tamano");
+			comprobar(!coleccion.estaVacia(), "estaVacia con vacunas");
+			for (Vacuna v : iniciales) {
+				Vacuna guardada = coleccion.obtener(v.getCodigo());
+				comprobar(guardada != null, "no está " + v.getCodigo());
+				iguales(volcado(v), volcado(guardada), "datos de " + v.getCodigo());
+				comprobar(coleccion.contiene(guardada), "contiene lo que da obtener");
+			}
+			iguales(null, coleccion.obtener(codigo(INICIALES)), "obtener un código que no está");
+			iguales(null, coleccion.quitar(codigo(INICIALES)), "quitar un código que no está");
+
+			// nueva
+			Vacuna nueva = new Vacuna(codigo(INICIALES), "nueva", "p", null, 3.5);
+			iguales(null, coleccion.guardar(nueva), "guardar otra nueva");
+			iguales(INICIALES + 1, coleccion.tamano(), "tamano con la nueva");
+			Vacuna guardada = coleccion.obtener(nueva.getCodigo());
+			iguales(volcado(nueva), volcado(guardada), "datos de la nueva");
+			if (!coleccion.guardaPropias()) {
+				comprobar(guardada == nueva, "una colección que no guarda copias da la misma vacuna");
+			}
+
+			// sustituir: sale la de antes, con sus datos, y ya no es de la
+			// colección
+			Vacuna antes = coleccion.obtener(codigo(3));
+			String datosAntes = volcado(antes);
+			Vacuna otra = new Vacuna(codigo(3), "otra", "p", "f", 9);
+			Vacuna sustituida = coleccion.guardar(otra);
+			comprobar(sustituida != null, "guardar no devuelve la sustituida");
+			iguales(datosAntes, volcado(sustituida), "datos de la sustituida");
+			iguales(INICIALES + 1, coleccion.tamano(), "tamano tras sustituir");
+			iguales(volcado(otra), volcado(coleccion.obtener(codigo(3))), "datos tras sustituir");
+			comprobar(!coleccion.contiene(antes), "contiene la sustituida");
+
+			// quitar
+			Vacuna aQuitar = coleccion.obtener(codigo(5));
+			String datosQuitada = volcado(aQuitar);
+			Vacuna quitada = coleccion.quitar(codigo(5));
+			comprobar(quitada != null, "quitar no devuelve la quitada");
+			iguales(datosQuitada, volcado(quitada), "datos de la quitada");
+			iguales(null, coleccion.obtener(codigo(5)), "obtener la quitada");
+			iguales(null, coleccion.quitar(codigo(5)), "quitar dos veces");
+			comprobar(!coleccion.contiene(aQuitar), "contiene la quitada");
+			iguales(INICIALES, coleccion.tamano(), "tamano tras quitar");
+			iguales(null, coleccion.guardar(new Vacuna(codigo(5), "vuelve", "p", "f", 1)), "volver a guardar");
+			iguales("vuelve", coleccion.obtener(codigo(5)).getNombre(), "la que vuelve");
+
+			// recorrer
+			List<String> esperadas = new ArrayList<String>();
+			for (int i = 0; i <= INICIALES; i++) {
+				esperadas.add(volcado(coleccion.obtener(codigo(i))));
+			}
+			InstantaneaAlmacen instantanea = coleccion.instantanea();
+			iguales(ordenadas(esperadas), ordenadas(volcados(coleccion.vacunas())), "vacunas()");
+			if (coleccion.guardaPropias()) {
+				comprobar(instantanea != null, "una colección que guarda copias no da instantáneas");
+				coleccion.quitar(codigo(0));
+				coleccion.guardar(new Vacuna(codigo(1), "cambiada", "p", "f", 1));
+				iguales(ordenadas(esperadas), ordenadas(volcados(instantanea)), "la instantánea cambia");
+			}
+
+			// vaciar
+			for (int i = 0; i <= INICIALES; i++) {
+				coleccion.quitar(codigo(i));
+			}
+			comprobar(coleccion.estaVacia() && coleccion.tamano() == 0, "no se vacía");
+			comprobar(!coleccion.vacunas().iterator().hasNext(), "vacunas() de una vacía");
+		} finally {
+			coleccion.cerrar();
+		}
+	}
+
+	// el código de una vacuna guardada no cambia: el almacén la tiene por él
+	// en la colección, los índices y las instantáneas
+	private static void codigoFijo(String tipo) throws IOException {
+		List<Vacuna> iniciales = iniciales(INICIALES);
+		VacAlmacen almacen = Pruebas.almacen(tipo, false, iniciales);
+		try {
+			if (!tipo.equals("catalogo")) {
+				almacen.agregarTodas(iniciales);
+			}
+			Vacuna v = almacen.buscarVacuna(codigo(1));
+			try {
+				v.setCodigo(codigo(CODIGOS));
+				throw new AssertionError("setCodigo en una vacuna guardada");
+			} catch (IllegalStateException e) {
+				// lo esperado
+			}
+			iguales(codigo(1), v.getCodigo(), "código tras el intento");
+			iguales(codigo(1), almacen.buscarVacuna(codigo(1)).getCodigo(), "buscar por el código de antes");
+			iguales(null, almacen.buscarVacuna(codigo(CODIGOS)), "buscar por el código nuevo");
+			iguales(INICIALES, almacen.getNumeroVacunas(), "getNumeroVacunas");
+			iguales(ordenadas(List.of(codigo(1))), codigos(almacen.buscarPorPrefijo(codigo(1), null, 10)),
+					"índice de códigos");
+
+			// para cambiarlo, se elimina y se agrega con el nuevo; la eliminada
+			// vuelve a ser suelta, salvo una vista, que es siempre de su
+			// registro
+			almacen.eliminar(codigo(1));
+			Vacuna cambiada = v;
+			if (v.getClass() != Vacuna.class) {
+				try {
+					v.setCodigo(codigo(CODIGOS));
+					throw new AssertionError("setCodigo en una vista eliminada");
+				} catch (IllegalStateException e) {
+					// lo esperado
+				}
+				iguales(codigo(1), v.getCodigo(), "código de una vista eliminada");
+				cambiada = new Vacuna(codigo(1), "nombre 1", null, "farma 1", 1);
+			}
+			cambiada.setCodigo(codigo(CODIGOS));
+			almacen.agregar(cambiada);
+			iguales(null, almacen.buscarVacuna(codigo(1)), "el código de antes tras agregarla");
+			iguales(codigo(CODIGOS), almacen.buscarVacuna(codigo(CODIGOS)).getCodigo(), "el código nuevo");
+			iguales(INICIALES, almacen.getNumeroVacunas(), "getNumeroVacunas tras cambiarlo");
+
+			Vacuna suelta = new Vacuna(codigo(INICIALES), "suelta", "p", "f", 1);
+			suelta.setCodigo(codigo(CODIGOS + 1));
+			almacen.agregar(suelta);
+			iguales("suelta", almacen.buscarVacuna(codigo(CODIGOS + 1)).getNombre(), "una suelta se cambia");
+		} finally {
+			almacen.cerrar();
+		}
+	}
+
+	// las vistas leen el registro al momento y, si la vacuna se sustituye o
+	// se elimina, se quedan con el código y nada más
+	private static void vistas(String tipo) throws IOException {
+		List<Vacuna> iniciales = iniciales(INICIALES);
+		VacAlmacen almacen = Pruebas.almacen(tipo, false);
+		try {
+			almacen.agregarTodas(iniciales);
+			Vacuna una = almacen.buscarVacuna(codigo(3));
+			Vacuna otra = almacen.buscarVacuna(codigo(3));
+			comprobar(una != otra, "una vista nueva en cada búsqueda");
+			iguales(volcado(iniciales.get(3)), volcado(otra), "datos de la vista");
+			una.setNombre("cambiado");
+			una.setFarmaceutica(null);
+			una.setPrecioRecomendado(7.25);
+			una.modificarFase((byte) 1, true);
+			iguales("cambiado", otra.getNombre(), "nombre por otra vista");
+			iguales(null, otra.getFarmaceutica(), "farmacéutica por otra vista");
+			iguales(7.25, otra.getPrecioRecomendado(), "precio por otra vista");
+			iguales((byte) 1, otra.getFasesCompletadas(), "fases por otra vista");
+			iguales(volcado(una), volcado(almacen.instantanea().buscarVacuna(codigo(3))), "en la instantánea");
+
+			// sustituida: la vista ya no lee el registro nuevo ni lo cambia
+			almacen.agregar(new Vacuna(codigo(3), "nueva", "p", "f", 2));
+			iguales(codigo(3), una.getCodigo(), "código de una vista sustituida");
+			iguales(null, una.getNombre(), "nombre de una vista sustituida");
+			iguales(null, una.getPrincipioActivo(), "principio de una vista sustituida");
+			iguales(0.0, una.getPrecioRecomendado(), "precio de una vista sustituida");
+			iguales((byte) 0, una.getFasesCompletadas(), "fases de una vista sustituida");
+			una.setNombre("suelta");
+			iguales(ResultadoActualizacion.APLICADA, una.intentarFase((byte) 1, true), "fase en una vista sustituida");
+			iguales("suelta", una.getNombre(), "una vista sustituida es suelta");
+			Vacuna nueva = almacen.buscarVacuna(codigo(3));
+			iguales("nueva", nueva.getNombre(), "la sustituta");
+			iguales((byte) 0, nueva.getFasesCompletadas(), "fases de la sustituta");
+			// las seis iniciales sin fases y la sustituta; la fase de la vista
+			// suelta no cuenta
+			iguales(7L, almacen.getNumeroConFasesCompletadas(0), "sin fases");
+			iguales(3L, almacen.getNumeroConFasesCompletadas(1), "con una fase");
+
+			// eliminada
+			Vacuna eliminada = almacen.buscarVacuna(codigo(4));
+			almacen.eliminar(codigo(4));
+			iguales(null, eliminada.getNombre(), "nombre de una vista eliminada");
+			comprobar(eliminada.intentarAutorizar() != ResultadoActualizacion.APLICADA, "autorizar una eliminada");
+			iguales(null, almacen.buscarVacuna(codigo(4)), "la eliminada vuelve");
+		} finally {
+			almacen.cerrar();
+		}
+	}
+
+	// el fichero conservado: la cabecera, volver a abrirlo y las hojas que se
+	// juntan al eliminar, frente a un almacén en memoria vacuna a vacuna
+	private static void reabrirDisco() throws IOException {
+		Path carpeta = Files.createTempDirectory("pruebas");
+		try {
+			Path fichero = carpeta.resolve("vacunas.pag");
+			VacAlmacen referencia = new VacAlmacen();
+			VacAlmacen almacen = VacAlmacen.abrirEnDisco(fichero, 64, false);
+			try {
+				// unas 40 vacunas por hoja: más de cien hojas
+				for (int i = 0; i < CODIGOS * 10; i++) {
+					for (VacAlmacen a : List.of(referencia, almacen)) {
+						a.agregar(new Vacuna(codigo(i), "nombre " + i + " " + "x".repeat(150), "ARNm", "farma " + (i % 7),
+								i));
+						Vacuna v = a.buscarVacuna(codigo(i));
+						v.modificarFase((byte) 1, i % 3 == 0);
+						if (i % 5 == 0) {
+							v.rechazar();
+						}
+					}
+				}
+
+				// abierto, la cabecera dice que no se cerró bien
+				Path copia = carpeta.resolve("copia.pag");
+				Files.copy(fichero, copia);
+				try {
+					VacAlmacen.abrirEnDisco(copia, 64, false).cerrar();
+					comprobar(false, "se abre un fichero sin cerrar");
+				} catch (IOException e) {
+					// lo esperado
+				}
+			} finally {
+				almacen.cerrar();
+			}
+
+			almacen = VacAlmacen.abrirEnDisco(fichero, 64, false);
+			try {
+				compararPorCodigo(referencia, almacen, "al volver a abrirlo");
+				// tres de cada cuatro fuera: cada hoja se queda con unos diez
+				// registros, menos de un cuarto de página, y se junta con su
+				// vecina
+				for (int i = 0; i < CODIGOS * 10; i++) {
+					if (i % 4 != 0) {
+						referencia.eliminar(codigo(i));
+						almacen.eliminar(codigo(i));
+					}
+				}
+				compararPorCodigo(referencia, almacen, "tras eliminar");
+			} finally {
+				almacen.cerrar();
+			}
+
+			almacen = VacAlmacen.abrirEnDisco(fichero, 64, false);
+			try {
+				compararPorCodigo(referencia, almacen, "tras juntar hojas");
+				// las hojas juntadas se vuelven a dividir, con las páginas que
+				// se quedaron fuera del árbol
+				for (int i = 0; i < CODIGOS * 10; i++) {
+					if (i % 4 != 0) {
+						for (VacAlmacen a : List.of(referencia, almacen)) {
+							a.agregar(new Vacuna(codigo(i), "otra " + i + " " + "y".repeat(150), null, "farma", 1));
+						}
+					}
+				}
+				compararPorCodigo(referencia, almacen, "tras volver a agregar");
+			} finally {
+				almacen.cerrar();
+			}
+		} finally {
+			Pruebas.borrar(carpeta);
+		}
+	}
+
+	private static void compararPorCodigo(VacAlmacen esperado, VacAlmacen almacen, String momento) {
+		iguales(esperado.getNumeroVacunas(), almacen.getNumeroVacunas(), "número " + momento);
+		for (int i = 0; i < CODIGOS * 10; i++) {
+			Vacuna e = esperado.buscarVacuna(codigo(i));
+			Vacuna v = almacen.buscarVacuna(codigo(i));
+			iguales((e == null) ? null : volcado(e), (v == null) ? null : volcado(v), codigo(i) + " " + momento);
+		}
+		for (EstadoVacuna estado : EstadoVacuna.values()) {
+			iguales(esperado.getNumeroEnEstado(estado), almacen.getNumeroEnEstado(estado), estado + " " + momento);
+		}
+		for (int fases = 0; fases <= 3; fases++) {
+			iguales(esperado.getNumeroConFasesCompletadas(fases), almacen.getNumeroConFasesCompletadas(fases),
+					fases + " fases " + momento);
+		}
+	}
+
+	private static List<String> codigos(PaginaVacunas pagina) {
+		List<String> codigos = new ArrayList<String>();
+		for (Vacuna v : pagina.getVacunas()) {
+			codigos.add(v.getCodigo());
+		}
+		return codigos;
+	}
+
+	private static List<String> volcados(Iterable<Vacuna> vacunas) {
+		List<String> lineas = new ArrayList<String>();
+		for (Vacuna v : vacunas) {
+			lineas.add(volcado(v));
+		}
+		return lineas;
+	}
+
+	private static List<String> ordenadas(List<String> lineas) {
+		List<String> copia = new ArrayList<String>(lineas);
+		Collections.sort(copia);
+		return copia;
+	}
+
+	// -------- en un almacén, frente a ColeccionMapa
+
+	private static void comoReferencia(String tipo) throws IOException {
+		List<Vacuna> iniciales = iniciales(CODIGOS / 2);
+		VacAlmacen referencia = Pruebas.almacen(REFERENCIA, false, iniciales);
+		VacAlmacen almacen = Pruebas.almacen(tipo, false, iniciales(CODIGOS / 2));
+		try {
+			referencia.agregarTodas(iniciales);
+			if (!tipo.equals("catalogo")) {
+				almacen.agregarTodas(iniciales(CODIGOS / 2));
+			}
+			comparar(referencia, almacen, "al empezar");
+			Random azar = new Random(7);
+			for (int paso = 0; paso < 3; paso++) {
+				for (int k = 0; k < 3000; k++) {
+					long semilla = azar.nextLong();
+					operar(semilla, referencia);
+					operar(semilla, almacen);
+				}
+				comparar(referencia, almacen, "paso " + paso);
+			}
+		} finally {
+			almacen.cerrar();
+		}
+	}
+
+	// la misma semilla hace lo mismo en los dos almacenes
+	private static void operar(long semilla, VacAlmacen almacen) {
+		Random azar = new Random(semilla);
+		String codigo = codigo(azar.nextInt(CODIGOS));
+		int operacion = azar.nextInt(12);
+		if (operacion < 3) {
+			String nombre = (azar.nextInt(5) == 0) ? null : "nombre " + azar.nextInt(40);
+			String principio = (azar.nextInt(4) == 0) ? "ARNm ñandú" : "principio " + azar.nextInt(4);
+			almacen.agregar(new Vacuna(codigo, nombre, principio, "farma " + azar.nextInt(6), azar.nextInt(100)));
+			return;
+		}
+		if (operacion == 3) {
+			almacen.eliminar(codigo);
+			return;
+		}
+		Vacuna v = almacen.buscarVacuna(codigo);
+		if (v == null) {
+			return;
+		}
+		switch (operacion) {
+		case 4:
+		case 5:
+		case 6:
+			v.intentarFase((byte) (v.getFasesCompletadas() + 1), azar.nextInt(6) != 0);
+			break;
+		case 7:
+			v.intentarAutorizar();
+			break;
+		case 8:
+			v.intentarRechazar();
+			break;
+		case 9:
+			v.setFarmaceutica("farma " + azar.nextInt(6));
+			break;
+		case 10:
+			v.setPrecioRecomendado(azar.nextInt(100) / 3.0);
+			break;
+		default:
+			v.setNombre("otro " + azar.nextInt(40));
+			break;
+		}
+	}
+
+	private static void comparar(VacAlmacen esperado, VacAlmacen almacen, String momento) throws IOException {
+		String m = momento + ": ";
+		iguales(esperado.getNumeroVacunas(), almacen.getNumeroVacunas(), m + "getNumeroVacunas");
+		iguales(volcado(esperado), volcado(almacen), m + "vacunas");
+		for (EstadoVacuna estado : EstadoVacuna.values()) {
+			iguales(esperado.getNumeroEnEstado(estado), almacen.getNumeroEnEstado(estado), m + "recuento " + estado);
+			iguales(ordenadas(volcados(esperado.buscarPorEstado(estado, 0, Integer.MAX_VALUE))),
+					ordenadas(volcados(almacen.buscarPorEstado(estado, 0, Integer.MAX_VALUE))), m + "estado " + estado);
+		}
+		for (int fases = 0; fases <= 3; fases++) {
+			iguales(esperado.getNumeroConFasesCompletadas(fases), almacen.getNumeroConFasesCompletadas(fases),
+					m + fases + " fases");
+		}
+		Map<String, PreciosFarmaceutica> precios = almacen.getPreciosPorFarmaceutica();
+		for (Map.Entry<String, PreciosFarmaceutica> e : esperado.getPreciosPorFarmaceutica().entrySet()) {
+			PreciosFarmaceutica p = e.getValue();
+			PreciosFarmaceutica q = precios.remove(e.getKey());
+			String f = m + "precios de " + e.getKey();
+			comprobar(q != null, f);
+			iguales(p.getNumeroVacunas(), q.getNumeroVacunas(), f + ": número");
+			iguales(p.getMinimo(), q.getMinimo(), f + ": mínimo");
+			iguales(p.getMaximo(), q.getMaximo(), f + ": máximo");
+			// la suma se hace en otro orden: puede cambiar el último bit
+			comprobar(Math.abs(p.getMedia() - q.getMedia()) < 1e-9, f + ": media " + p + " / " + q);
+		}
+		iguales(Collections.emptyMap(), precios, m + "farmacéuticas de más");
+
+		// los listados, como texto y sin contar con el orden
+		iguales(lineas(esperado, 0), lineas(almacen, 0), m + "listarVacunas");
+		iguales(lineas(esperado, 1), lineas(almacen, 1), m + "verVacunasAutorizadas");
+		iguales(lineas(esperado, 2), lineas(almacen, 2), m + "verVacunasRechazadas");
+		iguales(lineas(esperado, 3), lineas(almacen, 3), m + "verVacunasPendientes");
+		iguales(lineas(esperado, 4), lineas(almacen, 4), m + "verUltimaFaseInvestigada");
+
+		// las páginas por código, en el mismo orden
+		for (String[] rango : new String[][] { { null, null }, { "VAb", "VEz" }, { "VO", null },
+				{ codigo(40), codigo(90) } }) {
+			iguales(rango(esperado, rango[0], rango[1]), rango(almacen, rango[0], rango[1]),
+					m + "rango " + Arrays.toString(rango));
+		}
+		for (String prefijo : new String[] { "V", "VA", "VAa", "VE", "VUzz", "X" }) {
+			iguales(prefijo(esperado, prefijo), prefijo(almacen, prefijo), m + "prefijo " + prefijo);
+		}
+
+		// búsquedas
+		for (String texto : new String[] { "nombre 7", "farma 3", "arnm", "ñandú", "otro", "zzz" }) {
+			iguales(ordenadas(volcados(esperado.buscarConTodas(texto))), ordenadas(volcados(almacen.buscarConTodas(texto))),
+					m + "buscarConTodas " + texto);
+			iguales(ordenadas(volcados(esperado.buscarConAlguna(texto, CampoTexto.NOMBRE))),
+					ordenadas(volcados(almacen.buscarConAlguna(texto, CampoTexto.NOMBRE))), m + "buscarConAlguna " + texto);
+		}
+		for (int f = 0; f < 6; f++) {
+			iguales(ordenadas(volcados(esperado.buscarPorFarmaceutica("farma " + f, 0, Integer.MAX_VALUE))),
+					ordenadas(volcados(almacen.buscarPorFarmaceutica("farma " + f, 0, Integer.MAX_VALUE))),
+					m + "farmacéutica " + f);
+		}
+		iguales(ordenadas(volcados(esperado.buscarPorPrincipioActivo("ARNm", 0, Integer.MAX_VALUE))),
+				ordenadas(volcados(almacen.buscarPorPrincipioActivo("ARNm", 0, Integer.MAX_VALUE))), m + "principio");
+	}
+
+	private static List<String> lineas(VacAlmacen almacen, int listado) throws IOException {
+		StringBuilder texto = new StringBuilder();
+		switch (listado) {
+		case 0:
+			almacen.listarVacunas(texto, 0, Integer.MAX_VALUE);
+			break;
+		case 1:
+			almacen.verVacunasAutorizadas(texto, 0, Integer.MAX_VALUE);
+			break;
+		case 2:
+			almacen.verVacunasRechazadas(texto, 0, Integer.MAX_VALUE);
+			break;
+		case 3:
+			almacen.verVacunasPendientes(texto, 0, Integer.MAX_VALUE);
+			break;
+		default:
+			almacen.verUltimaFaseInvestigada(texto, 0, Integer.MAX_VALUE);
+			break;
+		}
+		return ordenadas(Arrays.asList(texto.toString().split("\\R")));
+	}
+
+	// página a página, de 37 en 37
+	private static List<String> rango(VacAlmacen almacen, String desde, String hasta) {
+		List<String> codigos = new ArrayList<String>();
+		String cursor = null;
+		do {
+			PaginaVacunas pagina = almacen.buscarPorRango(desde, hasta, cursor, 37);
+			for (Vacuna v : pagina.getVacunas()) {
+				codigos.add(volcado(v));
+			}
+			cursor = pagina.getCursor();
+		} while (cursor != null);
+		return codigos;
+	}
+
+	private static List<String> prefijo(VacAlmacen almacen, String prefijo) {
+		List<String> codigos = new ArrayList<String>();
+		String cursor = null;
+		do {
+			PaginaVacunas pagina = almacen.buscarPorPrefijo(prefijo, cursor, 37);
+			for (Vacuna v : pagina.getVacunas()) {
+				codigos.add(volcado(v));
+			}
+			cursor = pagina.getCursor();
+		} while (cursor != null);
+		return codigos;
+	}
+}
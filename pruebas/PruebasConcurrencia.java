@@ -0,0 +1,218 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import static gal.teis.vacunas.Pruebas.codigo;
+import static gal.teis.vacunas.Pruebas.comprobar;
+import static gal.teis.vacunas.Pruebas.iguales;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Varios hilos agregan, eliminan, cambian fases, autorizan, rechazan y
+ * cambian datos de las mismas vacunas mientras otro recorre instantáneas.
+ * Cada instantánea tiene que ser entera y, al terminar, los índices de estado,
+ * los recuentos y los precios tienen que cuadrar con lo que hay en el
+ * almacén. Se repite con cada colección.
+ *
+ * @author luPinheiro
+ */
+final class PruebasConcurrencia {
+
+	private static final int CODIGOS = 2000;
+	private static final int ESCRITORES = 4;
+	private static final int OPERACIONES = 20000;
+	private static final String[] FARMACEUTICAS = { "Pfizer", "Moderna", "AstraZeneca", null };
+
+	private PruebasConcurrencia() {
+	}
+
+	static void registrar(Pruebas pruebas) {
+		for (String tipo : Pruebas.ALMACENES) {
+			pruebas.caso(tipo, () -> invariantes(tipo));
+		}
+	}
+
+	private static Vacuna nueva(int i, Random azar) {
+		return new Vacuna(codigo(i), "nombre " + azar.nextInt(50), "principio " + azar.nextInt(5),
+				FARMACEUTICAS[azar.nextInt(FARMACEUTICAS.length)], azar.nextInt(400) / 4.0);
+	}
+
+	private static void invariantes(String tipo) throws Exception {
+		Random azar = new Random(2);
+		List<Vacuna> iniciales = new ArrayList<Vacuna>();
+		for (int i = 0; i < CODIGOS; i += 2) {
+			iniciales.add(nueva(i, azar));
+		}
+		VacAlmacen almacen = Pruebas.almacen(tipo, true, iniciales);
+		try {
+			if (!tipo.equals("catalogo")) {
+				almacen.agregarTodas(iniciales);
+			}
+			mezclar(almacen);
+			comprobarCuadra(almacen);
+		} finally {
+			almacen.cerrar();
+		}
+	}
+
+	private static void mezclar(VacAlmacen almacen) throws Exception {
+		ExecutorService hilos = Executors.newFixedThreadPool(ESCRITORES + 1);
+		AtomicBoolean terminado = new AtomicBoolean();
+		try {
+			List<Future<?>> escritores = new ArrayList<Future<?>>();
+			for (int h = 0; h < ESCRITORES; h++) {
+				long semilla = h;
+				escritores.add(hilos.submit(() -> {
+					escribir(almacen, new Random(semilla));
+					return null;
+				}));
+			}
+			Future<?> lector = hilos.submit(() -> {
+				while (!terminado.get()) {
+					InstantaneaAlmacen instantanea = almacen.instantanea();
+					Set<String> codigos = new HashSet<String>();
+					for (Vacuna v : instantanea) {
+						comprobar(codigos.add(v.getCodigo()), "dos veces en una instantánea: " + v.getCodigo());
+					}
+					iguales(instantanea.getNumeroVacunas(), codigos.size(), "tamaño de la instantánea");
+				}
+				return null;
+			});
+			for (Future<?> escritor : escritores) {
+				escritor.get();
+			}
+			terminado.set(true);
+			lector.get();
+		} finally {
+			terminado.set(true);
+			hilos.shutdownNow();
+		}
+	}
+
+	private static void escribir(VacAlmacen almacen, Random azar) {
+		for (int k = 0; k < OPERACIONES; k++) {
+			int i = azar.nextInt(CODIGOS);
+			int operacion = azar.nextInt(20);
+			if (operacion < 6) {
+				almacen.agregar(nueva(i, azar));
+				continue;
+			}
+			if (operacion < 8) {
+				almacen.eliminar(codigo(i));
+				continue;
+			}
+			Vacuna v = almacen.buscarVacuna(codigo(i));
+			if (v == null) {
+				continue;
+			}
+			switch (operacion) {
+			case 8:
+			case 9:
+			case 10:
+			case 11:
+				v.intentarFase((byte) (v.getFasesCompletadas() + 1), azar.nextInt(8) != 0);
+				break;
+			case 12:
+			case 13:
+				v.intentarAutorizar();
+				break;
+			case 14:
+				v.intentarRechazar();
+				break;
+			case 15:
+				v.modificarFase((byte) (1 + azar.nextInt(3)), true);
+				break;
+			case 16:
+				v.setFarmaceutica(FARMACEUTICAS[azar.nextInt(FARMACEUTICAS.length)]);
+				break;
+			case 17:
+				v.setPrecioRecomendado(azar.nextInt(400) / 4.0);
+				break;
+			default:
+				v.setNombre("otro " + azar.nextInt(50));
+				break;
+			}
+		}
+	}
+
+	// sin nadie cambiando nada: lo que se cuenta aparte es lo que hay
+	private static void comprobarCuadra(VacAlmacen almacen) {
+		Map<String, Vacuna> hay = new TreeMap<String, Vacuna>();
+		for (Vacuna v : almacen.vacunas()) {
+			comprobar(hay.put(v.getCodigo(), v) == null, "dos veces en vacunas(): " + v.getCodigo());
+		}
+		iguales(hay.size(), almacen.getNumeroVacunas(), "getNumeroVacunas");
+		Set<String> enInstantanea = new TreeSet<String>();
+		for (Vacuna v : almacen.instantanea()) {
+			enInstantanea.add(v.getCodigo());
+		}
+		iguales(hay.keySet(), enInstantanea, "códigos de la instantánea");
+		for (int i = 0; i < CODIGOS; i++) {
+			iguales(hay.containsKey(codigo(i)), almacen.buscarVacuna(codigo(i)) != null, "buscarVacuna " + codigo(i));
+		}
+
+		Map<EstadoVacuna, Set<String>> porEstado = new EnumMap<EstadoVacuna, Set<String>>(EstadoVacuna.class);
+		long[] porFases = new long[4];
+		Map<String, double[]> precios = new TreeMap<String, double[]>();
+		for (EstadoVacuna estado : EstadoVacuna.values()) {
+			porEstado.put(estado, new TreeSet<String>());
+		}
+		for (Vacuna v : hay.values()) {
+			porEstado.get(v.getEstado()).add(v.getCodigo());
+			porFases[v.getFasesCompletadas()]++;
+			String farmaceutica = (v.getFarmaceutica() == null) ? EstadisticasVacunas.SIN_FARMACEUTICA
+					: v.getFarmaceutica();
+			double precio = v.getPrecioRecomendado();
+			double[] p = precios.computeIfAbsent(farmaceutica,
+					f -> new double[] { 0, 0, Double.MAX_VALUE, -Double.MAX_VALUE });
+			p[0]++;
+			p[1] += precio;
+			p[2] = Math.min(p[2], precio);
+			p[3] = Math.max(p[3], precio);
+		}
+		for (EstadoVacuna estado : EstadoVacuna.values()) {
+			iguales((long) porEstado.get(estado).size(), almacen.getNumeroEnEstado(estado), "recuento " + estado);
+			Set<String> listadas = new TreeSet<String>();
+			for (Vacuna v : almacen.buscarPorEstado(estado, 0, Integer.MAX_VALUE)) {
+				listadas.add(v.getCodigo());
+			}
+			iguales(porEstado.get(estado), listadas, "índice " + estado);
+		}
+		for (int fases = 0; fases <= 3; fases++) {
+			iguales(porFases[fases], almacen.getNumeroConFasesCompletadas(fases), "con " + fases + " fases");
+		}
+
+		Map<String, PreciosFarmaceutica> contados = new TreeMap<String, PreciosFarmaceutica>();
+		for (Map.Entry<String, PreciosFarmaceutica> e : almacen.getPreciosPorFarmaceutica().entrySet()) {
+			if (e.getValue().getNumeroVacunas() > 0) {
+				contados.put(e.getKey(), e.getValue());
+			}
+		}
+		iguales(precios.keySet(), contados.keySet(), "farmacéuticas con precios");
+		for (Map.Entry<String, double[]> e : precios.entrySet()) {
+			double[] p = e.getValue();
+			PreciosFarmaceutica contado = contados.get(e.getKey());
+			String f = "precios de '" + e.getKey() + "'";
+			iguales((long) p[0], contado.getNumeroVacunas(), f + ": número");
+			iguales(p[2], contado.getMinimo(), f + ": mínimo");
+			iguales(p[3], contado.getMaximo(), f + ": máximo");
+			comprobar(Math.abs(p[1] / p[0] - contado.getMedia()) < 1e-6, f + ": media " + contado.getMedia());
+		}
+	}
+}
@@ -0,0 +1,275 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import static gal.teis.vacunas.Pruebas.codigo;
+import static gal.teis.vacunas.Pruebas.comprobar;
+import static gal.teis.vacunas.Pruebas.iguales;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FlujoCambios: el anillo entrega los cambios en orden, también al dar la
+ * vuelta, y solo los que se piden; un suscriptor que se queda más de un
+ * anillo por detrás recibe onError; cancelar, pedir cero, un onNext que falla
+ * y cerrar el flujo. Casi todo con un ejecutor que entrega en el mismo hilo,
+ * para saber qué ha llegado justo después de cada cambio.
+ *
+ * @author luPinheiro
+ */
+final class PruebasFlujo {
+
+	private PruebasFlujo() {
+	}
+
+	static void registrar(Pruebas pruebas) {
+		pruebas.caso("anillo", PruebasFlujo::anillo);
+		pruebas.caso("desbordamiento", PruebasFlujo::desbordamiento);
+		pruebas.caso("cancelar", PruebasFlujo::cancelar);
+		pruebas.caso("cerrar", PruebasFlujo::cerrar);
+		pruebas.caso("varios hilos", PruebasFlujo::variosHilos);
+	}
+
+	// anota lo que le llega; pide "inicial" al suscribirse
+	private static class Anotador implements Flow.Subscriber<CambioVacuna> {
+
+		private final long inicial;
+		final List<CambioVacuna> recibidos = new ArrayList<CambioVacuna>();
+		Flow.Subscription suscripcion;
+		volatile Throwable error;
+		volatile boolean completo;
+
+		Anotador(long inicial) {
+			this.inicial = inicial;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription s) {
+			this.suscripcion = s;
+			if (this.inicial > 0) {
+				s.request(this.inicial);
+			}
+		}
+
+		@Override
+		public void onNext(CambioVacuna c) {
+			this.recibidos.add(c);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			this.error = t;
+		}
+
+		@Override
+		public void onComplete() {
+			this.completo = true;
+		}
+
+		List<Long> secuencias() {
+			List<Long> secuencias = new ArrayList<Long>();
+			for (CambioVacuna c : this.recibidos) {
+				secuencias.add(c.getSecuencia());
+			}
+			return secuencias;
+		}
+	}
+
+	private static List<Long> secuencias(long desde, long hasta) {
+		List<Long> secuencias = new ArrayList<Long>();
+		for (long s = desde; s < hasta; s++) {
+			secuencias.add(s);
+		}
+		return secuencias;
+	}
+
+	private static void anillo() {
+		VacAlmacen almacen = new VacAlmacen();
+		try (FlujoCambios flujo = FlujoCambios.abrir(almacen, 5, Runnable::run)) {
+			iguales(8, flujo.getCapacidad(), "capacidad redondeada");
+			almacen.agregar(new Vacuna(codigo(999), "antes", "p", "f", 1));
+			Anotador a = new Anotador(3);
+			flujo.subscribe(a);
+			iguales(1, flujo.getNumeroSuscriptores(), "suscriptores");
+
+			Vacuna v = new Vacuna(codigo(0), "n", "p", "f", 1);
+			almacen.agregar(v);
+			v.modificarFase((byte) 1, true);
+			v.modificarFase((byte) 2, true);
+			v.modificarFase((byte) 3, true);
+			v.autorizar();
+			// solo los tres pedidos, y nada de antes de suscribirse
+			iguales(secuencias(1, 4), a.secuencias(), "los pedidos");
+			iguales(CambioVacuna.Tipo.AGREGADA, a.recibidos.get(0).getTipo(), "agregada");
+			iguales(codigo(0), a.recibidos.get(0).getCodigo(), "código");
+			iguales(CambioVacuna.Tipo.FASE, a.recibidos.get(2).getTipo(), "fase");
+			iguales(2, a.recibidos.get(2).getFasesCompletadas(), "fases tras la segunda");
+
+			a.suscripcion.request(10);
+			iguales(secuencias(1, 6), a.secuencias(), "los que faltaban");
+			iguales(CambioVacuna.Tipo.AUTORIZADA, a.recibidos.get(4).getTipo(), "autorizada");
+			iguales(EstadoVacuna.AUTORIZADA, a.recibidos.get(4).getEstado(), "estado autorizada");
+
+			// varias vueltas al anillo sin quedarse atrás
+			for (int i = 1; i <= 30; i++) {
+				almacen.agregar(new Vacuna(codigo(i), "n", "p", "f", 1));
+				if (i % 4 == 0) {
+					a.suscripcion.request(4);
+				}
+			}
+			almacen.eliminar(codigo(0));
+			a.suscripcion.request(Long.MAX_VALUE);
+			iguales(secuencias(1, 37), a.secuencias(), "tras dar la vuelta");
+			iguales(CambioVacuna.Tipo.ELIMINADA, a.recibidos.get(35).getTipo(), "eliminada");
+			iguales(EstadoVacuna.AUTORIZADA, a.recibidos.get(35).getEstado(), "estado al eliminarla");
+			comprobar(a.error == null, "sin error: " + a.error);
+		}
+	}
+
+	private static void desbordamiento() {
+		VacAlmacen almacen = new VacAlmacen();
+		try (FlujoCambios flujo = FlujoCambios.abrir(almacen, 4, Runnable::run)) {
+			Anotador lento = new Anotador(1);
+			Anotador alDia = new Anotador(Long.MAX_VALUE);
+			flujo.subscribe(lento);
+			flujo.subscribe(alDia);
+			for (int i = 0; i < 10; i++) {
+				almacen.agregar(new Vacuna(codigo(i), "n", "p", "f", 1));
+			}
+			iguales(secuencias(0, 1), lento.secuencias(), "el lento antes de pedir");
+			comprobar(lento.error == null, "sin error hasta que pide: " + lento.error);
+
+			// la 1 ya se ha sobrescrito con la 9
+			lento.suscripcion.request(5);
+			comprobar(lento.error instanceof IllegalStateException, "el lento recibe onError: " + lento.error);
+			iguales(secuencias(0, 1), lento.secuencias(), "ninguno más tras el error");
+			iguales(1, flujo.getNumeroSuscriptores(), "el lento ya no está suscrito");
+
+			almacen.agregar(new Vacuna(codigo(10), "n", "p", "f", 1));
+			iguales(secuencias(0, 11), alDia.secuencias(), "el que va al día no pierde nada");
+			comprobar(alDia.error == null, "sin error el que va al día: " + alDia.error);
+			iguales(secuencias(0, 1), lento.secuencias(), "nada más tras el error");
+		}
+	}
+
+	private static void cancelar() {
+		VacAlmacen almacen = new VacAlmacen();
+		try (FlujoCambios flujo = FlujoCambios.abrir(almacen, 16, Runnable::run)) {
+			Anotador cancelado = new Anotador(Long.MAX_VALUE);
+			flujo.subscribe(cancelado);
+			almacen.agregar(new Vacuna(codigo(0), "n", "p", "f", 1));
+			cancelado.suscripcion.cancel();
+			iguales(0, flujo.getNumeroSuscriptores(), "cancelado");
+			almacen.agregar(new Vacuna(codigo(1), "n", "p", "f", 1));
+			cancelado.suscripcion.request(1);
+			iguales(secuencias(0, 1), cancelado.secuencias(), "nada tras cancelar");
+			comprobar(cancelado.error == null && !cancelado.completo, "ni error ni fin tras cancelar");
+
+			Anotador cero = new Anotador(0);
+			flujo.subscribe(cero);
+			cero.suscripcion.request(0);
+			comprobar(cero.error instanceof IllegalArgumentException, "pedir cero: " + cero.error);
+			iguales(0, flujo.getNumeroSuscriptores(), "pedir cero cancela");
+
+			// un onNext que falla cancela la suscripción y la termina con su error
+			RuntimeException fallo = new RuntimeException("fallo en onNext");
+			Anotador falla = new Anotador(Long.MAX_VALUE) {
+				@Override
+				public void onNext(CambioVacuna c) {
+					super.onNext(c);
+					throw fallo;
+				}
+			};
+			flujo.subscribe(falla);
+			almacen.agregar(new Vacuna(codigo(2), "n", "p", "f", 1));
+			almacen.agregar(new Vacuna(codigo(3), "n", "p", "f", 1));
+			iguales(1, falla.recibidos.size(), "solo el que falló");
+			comprobar(falla.error == fallo, "onError con el fallo: " + falla.error);
+			iguales(0, flujo.getNumeroSuscriptores(), "ninguno tras el fallo");
+		}
+	}
+
+	private static void cerrar() {
+		VacAlmacen almacen = new VacAlmacen();
+		FlujoCambios flujo = FlujoCambios.abrir(almacen, 16, Runnable::run);
+		Anotador a = new Anotador(2);
+		flujo.subscribe(a);
+		for (int i = 0; i < 5; i++) {
+			almacen.agregar(new Vacuna(codigo(i), "n", "p", "f", 1));
+		}
+		flujo.close();
+		comprobar(!a.completo, "sin onComplete con cambios sin entregar");
+		almacen.agregar(new Vacuna(codigo(5), "n", "p", "f", 1));
+		a.suscripcion.request(10);
+		iguales(secuencias(0, 5), a.secuencias(), "lo que quedaba, sin lo de después de cerrar");
+		comprobar(a.completo, "onComplete al vaciar el anillo");
+		iguales(0, flujo.getNumeroSuscriptores(), "ninguno tras terminar");
+
+		Anotador tarde = new Anotador(1);
+		flujo.subscribe(tarde);
+		comprobar(tarde.completo && tarde.recibidos.isEmpty(), "suscrito tras cerrar: solo onComplete");
+		iguales(0, flujo.getNumeroSuscriptores(), "no se queda suscrito");
+		flujo.close();
+	}
+
+	// dos hilos modifican y un ejecutor propio entrega: llegan todos, con
+	// secuencias seguidas y en orden por código
+	private static void variosHilos() throws Exception {
+		int porHilo = 20_000;
+		VacAlmacen almacen = new VacAlmacen(true);
+		ExecutorService ejecutor = Executors.newSingleThreadExecutor();
+		try (FlujoCambios flujo = FlujoCambios.abrir(almacen, 1 << 17, ejecutor)) {
+			CountDownLatch todos = new CountDownLatch(1);
+			Anotador a = new Anotador(Long.MAX_VALUE) {
+				@Override
+				public void onNext(CambioVacuna c) {
+					super.onNext(c);
+					if (this.recibidos.size() == 4 * porHilo) {
+						todos.countDown();
+					}
+				}
+			};
+			flujo.subscribe(a);
+			List<Thread> hilos = new ArrayList<Thread>();
+			for (int h = 0; h < 2; h++) {
+				int base = h * porHilo;
+				hilos.add(new Thread(() -> {
+					for (int i = base; i < base + porHilo; i++) {
+						Vacuna v = new Vacuna(codigo(i), "n", "p", "f", 1);
+						almacen.agregar(v);
+						almacen.buscarVacuna(codigo(i)).modificarFase((byte) 1, true);
+					}
+				}));
+			}
+			for (Thread t : hilos) {
+				t.start();
+			}
+			for (Thread t : hilos) {
+				t.join();
+			}
+			comprobar(todos.await(30, TimeUnit.SECONDS), "llegaron " + a.recibidos.size() + " de " + 4 * porHilo);
+			comprobar(a.error == null, "sin error: " + a.error);
+			iguales(secuencias(0, 4 * porHilo), a.secuencias(), "secuencias seguidas");
+			Map<String, CambioVacuna.Tipo> ultimo = new HashMap<String, CambioVacuna.Tipo>();
+			for (CambioVacuna c : a.recibidos) {
+				CambioVacuna.Tipo anterior = ultimo.put(c.getCodigo(), c.getTipo());
+				iguales((c.getTipo() == CambioVacuna.Tipo.AGREGADA) ? null : CambioVacuna.Tipo.AGREGADA, anterior,
+						"orden de " + c.getCodigo());
+			}
+			iguales(2 * porHilo, ultimo.size(), "códigos");
+		} finally {
+			ejecutor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import static gal.teis.vacunas.Pruebas.borrar;
+import static gal.teis.vacunas.Pruebas.codigo;
+import static gal.teis.vacunas.Pruebas.comprobar;
+import static gal.teis.vacunas.Pruebas.iguales;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * El historial de fases y decisiones de VacAlmacen: anota lo que ve pasar con
+ * su momento y lo encuentra por rango; empieza al arrancar (una vacuna que
+ * llega ya decidida no trae historial); sigue al sustituir la vacuna y se
+ * borra al eliminarla; y lo que PersistenciaVacunas repite al recuperar, o
+ * cualquier cambio con setRecuperando, no se anota.
+ *
+ * @author luPinheiro
+ */
+final class PruebasHistorial {
+
+	private PruebasHistorial() {
+	}
+
+	static void registrar(Pruebas pruebas) {
+		pruebas.caso("anotar y buscar", PruebasHistorial::anotarYBuscar);
+		pruebas.caso("empieza al arrancar", PruebasHistorial::empiezaAlArrancar);
+		pruebas.caso("sustituir y eliminar", PruebasHistorial::sustituirYEliminar);
+		pruebas.caso("recuperar", PruebasHistorial::recuperar);
+	}
+
+	private static List<String> hechos(List<HechoVacuna> historial) {
+		List<String> hechos = new ArrayList<String>();
+		for (HechoVacuna h : historial) {
+			hechos.add(h.getCodigo() + " " + h.getTipo() + ((h.getFase() > 0) ? " " + h.getFase() : ""));
+		}
+		return hechos;
+	}
+
+	private static List<HechoVacuna> decisiones(VacAlmacen almacen, EstadoVacuna decision) {
+		return almacen.buscarDecisiones(decision, Instant.EPOCH, Instant.now().plusSeconds(60), 100);
+	}
+
+	private static void anotarYBuscar() throws Exception {
+		VacAlmacen almacen = new VacAlmacen();
+		almacen.agregar(new Vacuna(codigo(0), "n", "p", "f", 1));
+		almacen.agregar(new Vacuna(codigo(1), "n", "p", "f", 1));
+		// el historial guarda milisegundos
+		Instant antes = Instant.ofEpochMilli(System.currentTimeMillis());
+		Vacuna v = almacen.buscarVacuna(codigo(0));
+		v.modificarFase((byte) 1, true);
+		v.modificarFase((byte) 2, false);
+		v.modificarFase((byte) 2, true);
+		v.modificarFase((byte) 3, true);
+		Thread.sleep(5);
+		Instant medio = Instant.ofEpochMilli(System.currentTimeMillis());
+		Thread.sleep(5);
+		v.autorizar();
+		almacen.buscarVacuna(codigo(1)).rechazar();
+		Instant despues = Instant.ofEpochMilli(System.currentTimeMillis() + 1);
+
+		iguales(List.of(codigo(0) + " FASE_SUPERADA 1", codigo(0) + " FASE_NO_SUPERADA 2",
+				codigo(0) + " FASE_SUPERADA 2", codigo(0) + " FASE_SUPERADA 3", codigo(0) + " AUTORIZADA"),
+				hechos(almacen.getHistorial(codigo(0))), "historial en orden");
+		for (HechoVacuna h : almacen.getHistorial(codigo(0))) {
+			comprobar(!h.getInstante().isBefore(antes) && h.getInstante().isBefore(despues), "momento: " + h);
+		}
+		iguales(List.of(codigo(0) + " AUTORIZADA"), hechos(almacen.buscarDecisiones(EstadoVacuna.AUTORIZADA,
+				medio, despues, 10)), "autorizadas desde el medio");
+		iguales(List.of(), hechos(almacen.buscarDecisiones(EstadoVacuna.AUTORIZADA, antes, medio, 10)),
+				"ninguna autorizada antes del medio");
+		iguales(List.of(codigo(1) + " RECHAZADA"), hechos(decisiones(almacen, EstadoVacuna.RECHAZADA)),
+				"rechazadas");
+		iguales(List.of(codigo(0) + " FASE_NO_SUPERADA 2", codigo(0) + " FASE_SUPERADA 2"),
+				hechos(almacen.buscarResultadosFase(2, antes, despues, 10)), "resultados de la fase 2");
+		iguales(1, almacen.buscarResultadosFase(2, antes, despues, 1).size(), "con máximo");
+	}
+
+	// lo que trae una vacuna al llegar ya pasó y no se sabe cuándo
+	private static void empiezaAlArrancar() {
+		VacAlmacen almacen = new VacAlmacen();
+		Vacuna decidida = new Vacuna(codigo(0), "n", "p", "f", 1);
+		decidida.modificarFase((byte) 1, true);
+		decidida.modificarFase((byte) 2, true);
+		decidida.modificarFase((byte) 3, true);
+		decidida.autorizar();
+		almacen.agregar(decidida);
+		Vacuna rechazada = new Vacuna(codigo(1), "n", "p", "f", 1);
+		rechazada.rechazar();
+		almacen.agregar(rechazada);
+		iguales(EstadoVacuna.AUTORIZADA, almacen.buscarVacuna(codigo(0)).getEstado(), "llega autorizada");
+		iguales(List.of(), almacen.getHistorial(codigo(0)), "sin historial la que llega autorizada");
+		iguales(List.of(), almacen.getHistorial(codigo(1)), "sin historial la que llega rechazada");
+		iguales(List.of(), decisiones(almacen, EstadoVacuna.AUTORIZADA), "ninguna autorización vista");
+		iguales(List.of(), decisiones(almacen, EstadoVacuna.RECHAZADA), "ningún rechazo visto");
+
+		// y lo que pasa después sí se anota
+		Vacuna v = new Vacuna(codigo(2), "n", "p", "f", 1);
+		almacen.agregar(v);
+		v.modificarFase((byte) 1, true);
+		iguales(List.of(codigo(2) + " FASE_SUPERADA 1"), hechos(almacen.getHistorial(codigo(2))), "después");
+	}
+
+	private static void sustituirYEliminar() {
+		VacAlmacen almacen = new VacAlmacen();
+		Vacuna v = new Vacuna(codigo(0), "n", "p", "f", 1);
+		almacen.agregar(v);
+		v.modificarFase((byte) 1, true);
+		v.rechazar();
+
+		// otra vacuna con el mismo código: el historial es del código
+		Vacuna otra = new Vacuna(codigo(0), "otra", "p", "f", 2);
+		almacen.agregar(otra);
+		List<String> antes = List.of(codigo(0) + " FASE_SUPERADA 1", codigo(0) + " RECHAZADA");
+		iguales(antes, hechos(almacen.getHistorial(codigo(0))), "sigue al sustituir");
+		otra.modificarFase((byte) 1, true);
+		List<String> despues = new ArrayList<String>(antes);
+		despues.add(codigo(0) + " FASE_SUPERADA 1");
+		iguales(despues, hechos(almacen.getHistorial(codigo(0))), "la sustituta sigue anotando");
+		// la sustituida ya no está en el almacén
+		v.modificarFase((byte) 2, false);
+		iguales(despues, hechos(almacen.getHistorial(codigo(0))), "la sustituida no anota");
+		iguales(1, decisiones(almacen, EstadoVacuna.RECHAZADA).size(), "rechazo tras sustituir");
+
+		almacen.eliminar(codigo(0));
+		iguales(List.of(), almacen.getHistorial(codigo(0)), "se borra al eliminar");
+		iguales(List.of(), decisiones(almacen, EstadoVacuna.RECHAZADA), "ni en el índice de decisiones");
+		iguales(List.of(), almacen.buscarResultadosFase(1, Instant.EPOCH, Instant.now().plusSeconds(60), 10),
+				"ni en el de fases");
+		almacen.agregar(new Vacuna(codigo(0), "n", "p", "f", 1));
+		iguales(List.of(), almacen.getHistorial(codigo(0)), "vuelve sin historial");
+	}
+
+	private static void recuperar() throws Exception {
+		Path datos = Files.createTempDirectory("pruebas-datos");
+		try {
+			VacAlmacen almacen = new VacAlmacen();
+			PersistenciaVacunas persistencia = PersistenciaVacunas.abrir(datos, almacen);
+			for (int i = 0; i < 10; i++) {
+				Vacuna v = new Vacuna(codigo(i), "n", "p", "f", 1);
+				almacen.agregar(v);
+				v.modificarFase((byte) 1, true);
+				v.modificarFase((byte) 2, i % 2 == 0);
+			}
+			almacen.buscarVacuna(codigo(1)).rechazar();
+			persistencia.tomarInstantanea();
+			Vacuna v = almacen.buscarVacuna(codigo(0));
+			v.modificarFase((byte) 3, true);
+			v.autorizar();
+			persistencia.close();
+			iguales(4, almacen.getHistorial(codigo(0)).size(), "historial antes de cerrar");
+
+			// instantánea y registro repetidos: las vacunas vuelven, los momentos no
+			VacAlmacen recuperado = new VacAlmacen();
+			persistencia = PersistenciaVacunas.abrir(datos, recuperado);
+			try {
+				iguales(EstadoVacuna.AUTORIZADA, recuperado.buscarVacuna(codigo(0)).getEstado(), "recuperada");
+				iguales(EstadoVacuna.RECHAZADA, recuperado.buscarVacuna(codigo(1)).getEstado(), "recuperada");
+				for (int i = 0; i < 10; i++) {
+					iguales(List.of(), recuperado.getHistorial(codigo(i)), "sin historial " + codigo(i));
+				}
+				iguales(List.of(), decisiones(recuperado, EstadoVacuna.AUTORIZADA), "ninguna autorización");
+				iguales(List.of(), decisiones(recuperado, EstadoVacuna.RECHAZADA), "ningún rechazo");
+				iguales(List.of(), recuperado.buscarResultadosFase(2, Instant.EPOCH, Instant.now().plusSeconds(60),
+						10), "ningún resultado de fase");
+
+				// al terminar de recuperar se vuelve a anotar
+				recuperado.buscarVacuna(codigo(2)).modificarFase((byte) 3, true);
+				iguales(List.of(codigo(2) + " FASE_SUPERADA 3"), hechos(recuperado.getHistorial(codigo(2))),
+						"tras recuperar");
+			} finally {
+				persistencia.close();
+			}
+		} finally {
+			borrar(datos);
+		}
+
+		// lo mismo sin PersistenciaVacunas, directamente con setRecuperando
+		VacAlmacen almacen = new VacAlmacen();
+		Vacuna v = new Vacuna(codigo(0), "n", "p", "f", 1);
+		almacen.agregar(v);
+		almacen.setRecuperando(true);
+		v.modificarFase((byte) 1, true);
+		v.modificarFase((byte) 2, false);
+		almacen.setRecuperando(false);
+		iguales(List.of(), almacen.getHistorial(codigo(0)), "nada mientras recupera");
+		v.modificarFase((byte) 2, true);
+		iguales(List.of(codigo(0) + " FASE_SUPERADA 2"), hechos(almacen.getHistorial(codigo(0))),
+				"solo lo de después");
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import static gal.teis.vacunas.Pruebas.codigo;
+import static gal.teis.vacunas.Pruebas.comprobar;
+import static gal.teis.vacunas.Pruebas.iguales;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ImportadorCsv: los códigos repetidos se rechazan en todo el fichero, también
+ * entre bloques distintos, y las importadas son las que quedan en el almacén;
+ * la marca de orden de bytes, la cabecera y los separadores.
+ *
+ * @author luPinheiro
+ */
+final class PruebasImportador {
+
+	private PruebasImportador() {
+	}
+
+	static void registrar(Pruebas pruebas) {
+		pruebas.caso("repetido en el bloque", PruebasImportador::repetidoEnElBloque);
+		pruebas.caso("repetido entre bloques", PruebasImportador::repetidoEntreBloques);
+		pruebas.caso("marca de orden de bytes", PruebasImportador::marcaDeOrdenDeBytes);
+		pruebas.caso("punto y coma", PruebasImportador::puntoYComa);
+		pruebas.caso("coma", PruebasImportador::coma);
+	}
+
+	private static String linea(int i, String nombre, char separador) {
+		return codigo(i) + separador + nombre + separador + "ARNm" + separador + "Pfizer" + separador
+				+ ((separador == ';') ? "12,5" : "12.5");
+	}
+
+	private static List<String> motivos(InformeImportacion informe) {
+		List<String> motivos = new ArrayList<String>();
+		for (InformeImportacion.LineaRechazada r : informe.getRechazadas()) {
+			motivos.add(r.toString());
+		}
+		return motivos;
+	}
+
+	private static void comprobarOrden(InformeImportacion informe) {
+		long anterior = 0;
+		for (InformeImportacion.LineaRechazada r : informe.getRechazadas()) {
+			comprobar(r.getNumeroLinea() > anterior, "rechazadas sin ordenar: " + motivos(informe));
+			anterior = r.getNumeroLinea();
+		}
+	}
+
+	private static void repetidoEnElBloque() throws IOException {
+		String texto = "codigo;nombre;principio;farmaceutica;precio\n" + linea(0, "primera", ';') + "\n"
+				+ linea(1, "otra", ';') + "\n" + linea(0, "segunda", ';') + "\n";
+		VacAlmacen almacen = new VacAlmacen();
+		InformeImportacion informe = ImportadorCsv.importar(new StringReader(texto), almacen);
+		iguales(2L, informe.getImportadas(), "importadas");
+		iguales(2, almacen.getNumeroVacunas(), "en el almacén");
+		iguales(List.of("Línea 2: código repetido (" + codigo(0) + "), se queda el de la línea 4"), motivos(informe),
+				"rechazadas");
+		iguales("segunda", almacen.buscarVacuna(codigo(0)).getNombre(), "gana la última");
+	}
+
+	// el mismo código en la primera línea de datos, justo antes y justo
+	// después del final de cada bloque, y tres veces en bloques distintos
+	private static void repetidoEntreBloques() throws IOException {
+		int bloque = ImportadorCsv.LINEAS_POR_BLOQUE;
+		int lineas = 3 * bloque + 100;
+		StringBuilder texto = new StringBuilder("codigo;nombre;principio;farmaceutica;precio\n");
+		// línea del fichero (la cabecera es la 1) en la que va cada código
+		List<Integer> repetidas = List.of(2, bloque + 1, bloque + 2, 2 * bloque + 2, 3 * bloque + 50);
+		int siguiente = 1000;
+		for (int n = 2; n < lineas + 2; n++) {
+			if (n == bloque + 1 || n == 2 * bloque + 2) {
+				texto.append(linea(7, "línea " + n, ';'));
+			} else if (repetidas.contains(n)) {
+				texto.append(linea(5, "línea " + n, ';'));
+			} else {
+				texto.append(linea(siguiente++, "línea " + n, ';'));
+			}
+			texto.append('\n');
+		}
+		VacAlmacen almacen = new VacAlmacen();
+		InformeImportacion informe = ImportadorCsv.importar(new StringReader(texto.toString()), almacen);
+
+		int distintas = siguiente - 1000 + 2;
+		iguales((long) distintas, informe.getImportadas(), "importadas");
+		iguales(distintas, almacen.getNumeroVacunas(), "en el almacén");
+		List<String> esperadas = List.of(
+				"Línea 2: código repetido (" + codigo(5) + "), se queda el de la línea " + (bloque + 2),
+				"Línea " + (bloque + 1) + ": código repetido (" + codigo(7) + "), se queda el de la línea "
+						+ (2 * bloque + 2),
+				"Línea " + (bloque + 2) + ": código repetido (" + codigo(5) + "), se queda el de la línea "
+						+ (3 * bloque + 50));
+		iguales(esperadas, motivos(informe), "rechazadas");
+		comprobarOrden(informe);
+		iguales("línea " + (3 * bloque + 50), almacen.buscarVacuna(codigo(5)).getNombre(), "gana la última de 5");
+		iguales("línea " + (2 * bloque + 2), almacen.buscarVacuna(codigo(7)).getNombre(), "gana la última de 7");
+	}
+
+	private static void marcaDeOrdenDeBytes() throws IOException {
+		Path fichero = Files.createTempFile("pruebas", ".csv");
+		try {
+			String texto = "\uFEFFcódigo;nombre;principio;farmaceutica;precio\r\n" + linea(0, "Comirnaty", ';')
+					+ "\r\n" + linea(1, "Spikevax", ';') + "\r\n";
+			Files.write(fichero, texto.getBytes(StandardCharsets.UTF_8));
+			VacAlmacen almacen = new VacAlmacen();
+			InformeImportacion informe = ImportadorCsv.importar(fichero, almacen);
+			iguales(2L, informe.getImportadas(), "importadas");
+			iguales(List.of(), motivos(informe), "rechazadas");
+			Vacuna v = almacen.buscarVacuna(codigo(0));
+			iguales("Comirnaty", v.getNombre(), "nombre");
+			iguales(12.5, v.getPrecioRecomendado(), "precio con coma decimal");
+
+			// sin cabecera la marca tampoco llega al código
+			Files.write(fichero, ("\uFEFF" + linea(2, "Vaxzevria", ';') + "\n").getBytes(StandardCharsets.UTF_8));
+			informe = ImportadorCsv.importar(fichero, almacen);
+			iguales(1L, informe.getImportadas(), "importadas sin cabecera");
+			comprobar(almacen.buscarVacuna(codigo(2)) != null, "la primera línea sin cabecera");
+		} finally {
+			Files.delete(fichero);
+		}
+	}
+
+	private static void puntoYComa() throws IOException {
+		// sin cabecera: una primera línea rota no decide el separador
+		String texto = "roto,a,b,c,d,e\n" + linea(0, "uno", ';') + "\n" + linea(1, "dos, con coma", ';') + "\n"
+				+ "\"" + codigo(2) + "\";\"con \"\"comillas\"\"; y punto y coma\";p;f;3\n"
+				+ codigo(3) + ";sin precio;p;f;\n";
+		VacAlmacen almacen = new VacAlmacen();
+		InformeImportacion informe = ImportadorCsv.importar(new StringReader(texto), almacen);
+		iguales(3L, informe.getImportadas(), "importadas");
+		iguales(List.of("Línea 1: se esperaban 5 columnas y hay 1", "Línea 5: precio no válido ()"),
+				motivos(informe), "rechazadas");
+		iguales("dos, con coma", almacen.buscarVacuna(codigo(1)).getNombre(), "coma dentro de un campo");
+		iguales("con \"comillas\"; y punto y coma", almacen.buscarVacuna(codigo(2)).getNombre(), "entre comillas");
+		iguales(12.5, almacen.buscarVacuna(codigo(0)).getPrecioRecomendado(), "precio con coma decimal");
+
+		// con ';' indicado no se detecta nada
+		informe = ImportadorCsv.importar(new StringReader(linea(4, "cuatro", ',') + "\n"), almacen, ';');
+		iguales(0L, informe.getImportadas(), "con el separador indicado");
+	}
+
+	private static void coma() throws IOException {
+		String texto = "codigo,nombre,principio,farmaceutica,precio\n" + linea(0, "uno", ',') + "\n"
+				+ codigo(1) + ",\"dos; con punto y coma\",p,f,7\n" + codigo(2) + ",tres,p,f,\"1,5\"\n";
+		VacAlmacen almacen = new VacAlmacen();
+		InformeImportacion informe = ImportadorCsv.importar(new StringReader(texto), almacen);
+		iguales(2L, informe.getImportadas(), "importadas");
+		// con ',' no hay coma decimal
+		iguales(List.of("Línea 4: precio no válido (1,5)"), motivos(informe), "rechazadas");
+		iguales(12.5, almacen.buscarVacuna(codigo(0)).getPrecioRecomendado(), "precio");
+		iguales("dos; con punto y coma", almacen.buscarVacuna(codigo(1)).getNombre(), "punto y coma en un campo");
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import static gal.teis.vacunas.Pruebas.comprobar;
+import static gal.teis.vacunas.Pruebas.iguales;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * LectorEntrada frente a Long.parseLong y Double.parseDouble: los límites de
+ * long, los exponentes que dan cero o infinito, las mantisas que no caben en
+ * el camino rápido y las palabras y líneas que cruzan el final del bloque.
+ *
+ * @author luPinheiro
+ */
+final class PruebasLector {
+
+	private static final int BLOQUE = 1 << 16;
+	// la sintaxis que acepta leerDecimal; lo que encaja se compara con
+	// Double.parseDouble, que acepta más cosas (NaN, 0x1p3, 1d...)
+	private static final Pattern DECIMAL = Pattern.compile("[+-]?([0-9]+[.,]?[0-9]*|[.,][0-9]+)([eE][+-]?[0-9]+)?");
+
+	private PruebasLector() {
+	}
+
+	static void registrar(Pruebas pruebas) {
+		pruebas.caso("enteros en los limites", PruebasLector::enterosEnLosLimites);
+		pruebas.caso("enteros al azar", PruebasLector::enterosAlAzar);
+		pruebas.caso("decimales en los limites", PruebasLector::decimalesEnLosLimites);
+		pruebas.caso("decimales al azar", PruebasLector::decimalesAlAzar);
+		pruebas.caso("booleanos", PruebasLector::booleanos);
+		pruebas.caso("final del bloque", PruebasLector::finalDelBloque);
+		pruebas.caso("lineas", PruebasLector::lineas);
+		pruebas.caso("fin de la entrada", PruebasLector::finDeLaEntrada);
+	}
+
+	// un InputStream que entrega como mucho trozo bytes en cada read, como el
+	// teclado o una tubería
+	private static LectorEntrada lector(String texto, int trozo) {
+		InputStream bytes = new ByteArrayInputStream(texto.getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public synchronized int read(byte[] b, int desde, int n) {
+				return super.read(b, desde, Math.min(n, trozo));
+			}
+		};
+		return new LectorEntrada(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static LectorEntrada lector(String texto) {
+		return lector(texto, Integer.MAX_VALUE);
+	}
+
+	private static Long enteroEsperado(String palabra, long minimo, long maximo) {
+		try {
+			long valor = Long.parseLong(palabra);
+			return (valor < minimo || valor > maximo) ? null : valor;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Double decimalEsperado(String palabra) {
+		return DECIMAL.matcher(palabra).matches() ? Double.parseDouble(palabra.replace(',', '.')) : null;
+	}
+
+	// lee las palabras seguidas con leerEntero, con trozos de varios tamaños
+	private static void compararEnteros(List<String> palabras, long minimo, long maximo) throws IOException {
+		String texto = String.join(" ", palabras);
+		for (int trozo : new int[] { 1, 7, Integer.MAX_VALUE }) {
+			LectorEntrada lector = lector(texto, trozo);
+			for (String palabra : palabras) {
+				Long esperado = enteroEsperado(palabra, minimo, maximo);
+				String que = "leerEntero(\"" + palabra + "\", " + minimo + ", " + maximo + ")";
+				iguales(esperado != null, lector.leerEntero(minimo, maximo), que);
+				if (esperado != null) {
+					iguales(esperado, lector.getEntero(), que);
+				}
+			}
+			comprobar(!lector.haySiguiente(), "sobran palabras");
+		}
+	}
+
+	private static void compararDecimales(List<String> palabras) throws IOException {
+		String texto = String.join(" ", palabras);
+		for (int trozo : new int[] { 1, 7, Integer.MAX_VALUE }) {
+			LectorEntrada lector = lector(texto, trozo);
+			for (String palabra : palabras) {
+				Double esperado = decimalEsperado(palabra);
+				String que = "leerDecimal(\"" + palabra + "\")";
+				iguales(esperado != null, lector.leerDecimal(), que);
+				if (esperado != null) {
+					// Double.equals distingue -0.0 y compara los bits
+					iguales(esperado, lector.getDecimal(), que);
+				}
+			}
+			comprobar(!lector.haySiguiente(), "sobran palabras");
+		}
+	}
+
+	private static void enterosEnLosLimites() throws IOException {
+		List<String> palabras = new ArrayList<String>(List.of("0", "-0", "+0", "+5", "-5", "007", "-007",
+				"9223372036854775807", "-9223372036854775808", "9223372036854775808", "-9223372036854775809",
+				"+9223372036854775807", "00009223372036854775807", "-00009223372036854775808",
+				"9223372036854775810", "-9223372036854775810", "92233720368547758070", "99999999999999999999",
+				"-99999999999999999999", "+", "-", "--1", "+-1", "1-", "1a", "a1", "1.0", "1,0", "1e3", "0x10"));
+		for (long valor : new long[] { Long.MAX_VALUE, Long.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+			for (long d = -2; d <= 2; d++) {
+				palabras.add(Long.toString(valor + d));
+			}
+		}
+		compararEnteros(palabras, Long.MIN_VALUE, Long.MAX_VALUE);
+		compararEnteros(palabras, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		// los límites del intervalo entran; uno más allá, no
+		compararEnteros(List.of("0", "1", "2", "3", "4", "5", "-1", "+4"), 1, 4);
+		compararEnteros(List.of("-9223372036854775808", "-9223372036854775807"), Long.MIN_VALUE, Long.MIN_VALUE);
+		compararEnteros(List.of("9223372036854775807", "9223372036854775806"), Long.MAX_VALUE, Long.MAX_VALUE);
+
+		// cifras que no son ASCII: Long.parseLong las acepta y leerEntero no
+		LectorEntrada lector = lector("٣ ３ 3");
+		iguales(false, lector.leerEntero(Long.MIN_VALUE, Long.MAX_VALUE), "cifra árabe");
+		iguales(false, lector.leerEntero(Long.MIN_VALUE, Long.MAX_VALUE), "cifra de ancho completo");
+		iguales(true, lector.leerEntero(Long.MIN_VALUE, Long.MAX_VALUE), "la siguiente palabra");
+		iguales(3L, lector.getEntero(), "la siguiente palabra");
+	}
+
+	private static void enterosAlAzar() throws IOException {
+		Random azar = new Random(18);
+		String alfabeto = "0123456789+-a";
+		List<String> palabras = new ArrayList<String>();
+		StringBuilder palabra = new StringBuilder();
+		for (int n = 0; n < 20_000; n++) {
+			if (n % 2 == 0) {
+				// sobre todo cifras, a veces tantas como un long o más
+				palabra.setLength(0);
+				if (azar.nextInt(3) == 0) {
+					palabra.append(azar.nextBoolean() ? '-' : '+');
+				}
+				int cifras = 1 + azar.nextInt(21);
+				for (int i = 0; i < cifras; i++) {
+					palabra.append(azar.nextInt(8) == 0 ? alfabeto.charAt(azar.nextInt(alfabeto.length()))
+							: (char) ('0' + azar.nextInt(10)));
+				}
+				palabras.add(palabra.toString());
+			} else {
+				palabras.add(Long.toString(azar.nextLong() >> azar.nextInt(64)));
+			}
+		}
+		compararEnteros(palabras, Long.MIN_VALUE, Long.MAX_VALUE);
+		compararEnteros(palabras, -1_000_000, 1_000_000);
+	}
+
+	private static void decimalesEnLosLimites() throws IOException {
+		List<String> palabras = new ArrayList<String>(List.of("0", "-0", "+0", "0.0", "-0.0", "1,5", "-1,5",
+				"1.5", "-2.5e3", "2.5E-3", "1e+2", "5.", "5,", ".5", ",5", "-.5", "00.0100", "1e22", "1e23", "1e-22",
+				"1e-23", "123456789012345", "1234567890123456", "12345678901234567890123",
+				"0.1234567890123456789", "9007199254740993", "9007199254740992.5", "1e308", "1.7976931348623157e308",
+				"1.7976931348623159e308", "1e309", "-1e309", "4.9e-324", "2.4703282292062327e-324",
+				"2.4703282292062328e-324", "1e-400", "-1e-400", "0e999999999999", "1e999999999999",
+				"1e-999999999999", "0.000000000000000000000000001", "100000000000000000000000e-20",
+				"2.2250738585072011e-308", "2.2250738585072012e-308", "0.3", "0.1", "3.0e0", "123,456e-2",
+				".", ",", "-", "+", "e5", ".e5", "1e", "1e+", "1e-", "1.2.3", "1,2.3", "1ee5", "1e5.0", "1e5e5",
+				"--1", "+-1", "1-", "NaN", "Infinity", "-Infinity", "0x1p3", "1d", "1f", "1_000"));
+		compararDecimales(palabras);
+	}
+
+	private static void decimalesAlAzar() throws IOException {
+		Random azar = new Random(23);
+		String alfabeto = "0123456789.,eE+-";
+		List<String> palabras = new ArrayList<String>();
+		StringBuilder palabra = new StringBuilder();
+		for (int n = 0; n < 20_000; n++) {
+			switch (n % 4) {
+			case 0:
+				// cualquier double, como lo escribe Java
+				palabras.add(Double.toString(Double.longBitsToDouble(azar.nextLong())));
+				break;
+			case 1:
+				// cifras con separador y exponente, a veces con más de 15 o 18
+				palabra.setLength(0);
+				if (azar.nextBoolean()) {
+					palabra.append('-');
+				}
+				int enteras = azar.nextInt(12);
+				int decimales = azar.nextInt(25);
+				for (int i = 0; i < enteras; i++) {
+					palabra.append((char) ('0' + azar.nextInt(10)));
+				}
+				palabra.append(azar.nextBoolean() ? '.' : ',');
+				for (int i = 0; i < decimales || enteras + i == 0; i++) {
+					palabra.append((char) ('0' + azar.nextInt(10)));
+				}
+				if (azar.nextBoolean()) {
+					palabra.append('e').append(azar.nextInt(700) - 350);
+				}
+				palabras.add(palabra.toString());
+				break;
+			case 2:
+				// los que caben justo en el camino rápido o se pasan por poco
+				long mantisa = azar.nextLong() % 10_000_000_000_000_000L;
+				palabras.add(mantisa + "e" + (azar.nextInt(50) - 25));
+				break;
+			default:
+				palabra.setLength(0);
+				int longitud = 1 + azar.nextInt(10);
+				for (int i = 0; i < longitud; i++) {
+					palabra.append(alfabeto.charAt(azar.nextInt(alfabeto.length())));
+				}
+				palabras.add(palabra.toString());
+				break;
+			}
+		}
+		compararDecimales(palabras);
+	}
+
+	private static void booleanos() throws IOException {
+		String[] si = { "true", "TRUE", "True", "tRuE", "false", "FALSE", "False", "fAlSe" };
+		String[] no = { "truee", "tru", "t", "1", "0", "yes", "falso", "verdadero", "TRUE1", "false," };
+		LectorEntrada lector = lector(String.join(" ", si) + " " + String.join(" ", no) + " fin");
+		for (String palabra : si) {
+			iguales(true, lector.leerBooleano(), "leerBooleano(\"" + palabra + "\")");
+			iguales(palabra.toLowerCase().equals("true"), lector.getBooleano(), palabra);
+		}
+		for (String palabra : no) {
+			iguales(false, lector.leerBooleano(), "leerBooleano(\"" + palabra + "\")");
+		}
+		iguales(false, lector.leerBooleano(), "leerBooleano(\"fin\")");
+		comprobar(!lector.haySiguiente(), "sobran palabras");
+	}
+
+	// una palabra y una línea que empiezan en cada una de las últimas
+	// posiciones del primer bloque y acaban en el segundo
+	private static void finalDelBloque() throws IOException {
+		String numero = "-1234567890123456789";
+		String decimal = "-12345,678901234567e-3";
+		for (int inicio = BLOQUE - numero.length() - 2; inicio <= BLOQUE + 1; inicio++) {
+			String relleno = " ".repeat(inicio);
+			LectorEntrada lector = lector(relleno + numero + " " + decimal + "\n");
+			comprobar(lector.leerEntero(Long.MIN_VALUE, Long.MAX_VALUE), "entero en " + inicio);
+			iguales(Long.parseLong(numero), lector.getEntero(), "entero en " + inicio);
+			comprobar(lector.leerDecimal(), "decimal en " + inicio);
+			iguales(Double.parseDouble(decimal.replace(',', '.')), lector.getDecimal(), "decimal en " + inicio);
+			iguales("", lector.leerLinea(), "resto de la línea en " + inicio);
+			iguales(null, lector.leerLinea(), "fin en " + inicio);
+
+			String linea = "línea con ñ y € que cruza el bloque";
+			lector = lector("x".repeat(inicio) + "\r\n" + linea + "\r\nfin");
+			iguales("x".repeat(inicio), lector.leerLinea(), "línea larga en " + inicio);
+			iguales(linea, lector.leerLinea(), "línea tras " + inicio);
+			iguales("fin", lector.leerLinea(), "última línea tras " + inicio);
+		}
+		// una palabra más larga que un bloque entero
+		String larga = "1".repeat(BLOQUE + 10);
+		LectorEntrada lector = lector(larga + " 7");
+		iguales(false, lector.leerEntero(Long.MIN_VALUE, Long.MAX_VALUE), "palabra de más de un bloque");
+		comprobar(lector.leerEntero(Long.MIN_VALUE, Long.MAX_VALUE), "tras la palabra larga");
+		iguales(7L, lector.getEntero(), "tras la palabra larga");
+	}
+
+	private static void lineas() throws IOException {
+		for (int trozo : new int[] { 1, 2, Integer.MAX_VALUE }) {
+			LectorEntrada lector = lector("5\r\nuna línea\r\n\r\n\n  con espacios  \nsolo\r", trozo);
+			comprobar(lector.leerEntero(0, 10), "número antes de las líneas");
+			iguales("", lector.leerLinea(), "resto tras el número (" + trozo + ")");
+			iguales("una línea", lector.leerLinea(), "sin \\r (" + trozo + ")");
+			iguales("", lector.leerLinea(), "vacía con \\r\\n (" + trozo + ")");
+			iguales("", lector.leerLinea(), "vacía con \\n (" + trozo + ")");
+			iguales("  con espacios  ", lector.leerLinea(), "con espacios (" + trozo + ")");
+			iguales("solo", lector.leerLinea(), "última sin salto (" + trozo + ")");
+			iguales(null, lector.leerLinea(), "fin (" + trozo + ")");
+		}
+		iguales(null, lector("").leerLinea(), "entrada vacía");
+
+		// como Scanner: tras un número, leerLinea da el resto de su línea
+		LectorEntrada lector = lector("1 2 resto\n3");
+		comprobar(lector.leerEntero(0, 10), "1");
+		comprobar(lector.leerEntero(0, 10), "2");
+		iguales(" resto", lector.leerLinea(), "resto de la línea");
+		comprobar(lector.leerEntero(0, 10), "3");
+		iguales(3L, lector.getEntero(), "número en la última línea");
+	}
+
+	private static void finDeLaEntrada() throws IOException {
+		LectorEntrada lector = lector(" \t\r\n\f");
+		comprobar(!lector.haySiguiente(), "solo espacios");
+		for (int i = 0; i < 3; i++) {
+			try {
+				switch (i) {
+				case 0:
+					lector.leerEntero(Long.MIN_VALUE, Long.MAX_VALUE);
+					break;
+				case 1:
+					lector.leerDecimal();
+					break;
+				default:
+					lector.leerBooleano();
+					break;
+				}
+				throw new AssertionError("sin NoSuchElementException al final (" + i + ")");
+			} catch (NoSuchElementException e) {
+				// lo esperado
+			}
+		}
+		// una palabra no válida se salta y el valor anterior se conserva
+		lector = lector("12 x 3,5 y true");
+		comprobar(lector.leerEntero(0, 100), "12");
+		comprobar(!lector.leerEntero(0, 100), "x");
+		iguales(12L, lector.getEntero(), "el entero anterior");
+		comprobar(lector.leerDecimal(), "3,5");
+		comprobar(!lector.leerDecimal(), "y");
+		iguales(3.5, lector.getDecimal(), "el decimal anterior");
+		comprobar(lector.leerBooleano(), "true");
+		comprobar(!lector.haySiguiente(), "sobran palabras");
+	}
+}
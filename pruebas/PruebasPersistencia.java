@@ -0,0 +1,320 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import static gal.teis.vacunas.Pruebas.borrar;
+import static gal.teis.vacunas.Pruebas.codigo;
+import static gal.teis.vacunas.Pruebas.comprobar;
+import static gal.teis.vacunas.Pruebas.iguales;
+import static gal.teis.vacunas.Pruebas.volcado;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Recuperación de PersistenciaVacunas: lo anotado en el registro vuelve igual
+ * aunque el proceso no haya cerrado, con y sin instantánea, y un final de
+ * registro a medio escribir o dañado se recorta sin perder lo anterior.
+ * Los textos que no caben en writeUTF también se anotan, y las entradas del
+ * formato anterior se siguen leyendo.
+ *
+ * @author luPinheiro
+ */
+final class PruebasPersistencia {
+
+	private PruebasPersistencia() {
+	}
+
+	static void registrar(Pruebas pruebas) {
+		pruebas.caso("recupera sin cerrar", PruebasPersistencia::recuperaSinCerrar);
+		pruebas.caso("instantanea y registro", PruebasPersistencia::instantaneaYRegistro);
+		pruebas.caso("final a medio escribir", PruebasPersistencia::finalAMedioEscribir);
+		pruebas.caso("basura al final", PruebasPersistencia::basuraAlFinal);
+		pruebas.caso("crc del final", PruebasPersistencia::crcDelFinal);
+		pruebas.caso("textos largos", PruebasPersistencia::textosLargos);
+		pruebas.caso("formato anterior", PruebasPersistencia::formatoAnterior);
+	}
+
+	// agregar, fases, decisiones, sustituir y eliminar: todo lo que se anota
+	static void operar(VacAlmacen almacen, int desde, int hasta) {
+		for (int i = desde; i < hasta; i++) {
+			almacen.agregar(new Vacuna(codigo(i), "nombre " + i, "principio " + (i % 3), "farma " + (i % 5), i / 4.0));
+			Vacuna v = almacen.buscarVacuna(codigo(i));
+			if (i % 2 == 0) {
+				v.modificarFase((byte) 1, true);
+			}
+			if (i % 3 == 0) {
+				v.autorizar();
+			} else if (i % 7 == 0) {
+				v.rechazar();
+			}
+		}
+		for (int i = desde; i < hasta; i += 10) {
+			almacen.eliminar(codigo(i));
+			almacen.agregar(new Vacuna(codigo(i + 1), "sustituida", null, "farma", 1));
+		}
+	}
+
+	// PersistenciaVacunas espera al disco en cada operación: una copia de la
+	// carpeta con el proceso en marcha es lo que quedaría si terminara ahí
+	private static void recuperaSinCerrar() throws IOException {
+		Path datos = Files.createTempDirectory("pruebas-datos");
+		Path copia = Files.createTempDirectory("pruebas-copia");
+		try {
+			VacAlmacen almacen = new VacAlmacen(true);
+			PersistenciaVacunas persistencia = PersistenciaVacunas.abrir(datos, almacen);
+			operar(almacen, 0, 500);
+			for (Path fichero : ficheros(datos, "")) {
+				Files.copy(fichero, copia.resolve(fichero.getFileName()));
+			}
+			VacAlmacen recuperado = new VacAlmacen(true);
+			PersistenciaVacunas otra = PersistenciaVacunas.abrir(copia, recuperado);
+			iguales(volcado(almacen), volcado(recuperado), "recuperado de la copia");
+			otra.close();
+			persistencia.close();
+		} finally {
+			borrar(datos);
+			borrar(copia);
+		}
+	}
+
+	private static void instantaneaYRegistro() throws IOException {
+		Path datos = Files.createTempDirectory("pruebas-datos");
+		try {
+			VacAlmacen almacen = new VacAlmacen();
+			PersistenciaVacunas persistencia = PersistenciaVacunas.abrir(datos, almacen);
+			operar(almacen, 0, 300);
+			persistencia.tomarInstantanea();
+			operar(almacen, 200, 400);
+			persistencia.close();
+			comprobar(!ficheros(datos, "instantanea-").isEmpty(), "sin instantánea");
+
+			VacAlmacen recuperado = new VacAlmacen();
+			persistencia = PersistenciaVacunas.abrir(datos, recuperado);
+			iguales(volcado(almacen), volcado(recuperado), "instantánea más registro");
+			// y lo que se anota después de recuperar también vuelve
+			operar(recuperado, 400, 450);
+			persistencia.close();
+			VacAlmacen otraVez = new VacAlmacen();
+			PersistenciaVacunas.abrir(datos, otraVez).close();
+			iguales(volcado(recuperado), volcado(otraVez), "segunda recuperación");
+		} finally {
+			borrar(datos);
+		}
+	}
+
+	// el proceso terminó a mitad de la última entrada: se pierde solo esa, el
+	// segmento se recorta y lo siguiente se anota detrás
+	private static void finalAMedioEscribir() throws IOException {
+		Path datos = Files.createTempDirectory("pruebas-datos");
+		try {
+			VacAlmacen almacen = new VacAlmacen();
+			PersistenciaVacunas persistencia = PersistenciaVacunas.abrir(datos, almacen);
+			operar(almacen, 0, 100);
+			List<String> antes = volcado(almacen);
+			almacen.agregar(new Vacuna(codigo(1000), "la última", "p", "f", 1));
+			persistencia.close();
+
+			Path segmento = ultimoSegmento(datos);
+			long[] entradas = entradas(segmento);
+			long inicioUltima = entradas[entradas.length - 1];
+			recortar(segmento, Files.size(segmento) - 3);
+
+			VacAlmacen recuperado = new VacAlmacen();
+			persistencia = PersistenciaVacunas.abrir(datos, recuperado);
+			iguales(antes, volcado(recuperado), "sin la entrada rota");
+			iguales(inicioUltima, Files.size(segmento), "segmento recortado");
+			recuperado.agregar(new Vacuna(codigo(1001), "después", "p", "f", 2));
+			persistencia.close();
+
+			VacAlmacen otraVez = new VacAlmacen();
+			PersistenciaVacunas.abrir(datos, otraVez).close();
+			iguales(volcado(recuperado), volcado(otraVez), "lo anotado tras recortar");
+			comprobar(otraVez.buscarVacuna(codigo(1000)) == null, "vuelve la entrada rota");
+		} finally {
+			borrar(datos);
+		}
+	}
+
+	private static void basuraAlFinal() throws IOException {
+		Path datos = Files.createTempDirectory("pruebas-datos");
+		try {
+			VacAlmacen almacen = new VacAlmacen();
+			PersistenciaVacunas persistencia = PersistenciaVacunas.abrir(datos, almacen);
+			operar(almacen, 0, 100);
+			persistencia.close();
+
+			Path segmento = ultimoSegmento(datos);
+			long tamano = Files.size(segmento);
+			// una longitud creíble y unos bytes: el principio de una entrada
+			ByteBuffer basura = ByteBuffer.allocate(20).putInt(40).putLong(123456789L).putLong(-1L);
+			basura.flip();
+			try (FileChannel canal = FileChannel.open(segmento, StandardOpenOption.APPEND)) {
+				canal.write(basura);
+			}
+
+			VacAlmacen recuperado = new VacAlmacen();
+			persistencia = PersistenciaVacunas.abrir(datos, recuperado);
+			persistencia.close();
+			iguales(volcado(almacen), volcado(recuperado), "con basura al final");
+			iguales(tamano, Files.size(segmento), "basura recortada");
+		} finally {
+			borrar(datos);
+		}
+	}
+
+	// la última entrada está entera pero con un byte cambiado: no se aplica
+	private static void crcDelFinal() throws IOException {
+		Path datos = Files.createTempDirectory("pruebas-datos");
+		try {
+			VacAlmacen almacen = new VacAlmacen();
+			PersistenciaVacunas persistencia = PersistenciaVacunas.abrir(datos, almacen);
+			operar(almacen, 0, 100);
+			List<String> antes = volcado(almacen);
+			almacen.eliminar(codigo(1));
+			persistencia.close();
+
+			Path segmento = ultimoSegmento(datos);
+			long[] entradas = entradas(segmento);
+			long inicioUltima = entradas[entradas.length - 1];
+			// [longitud][secuencia][entrada][crc32]: el último byte del código
+			long posicion = Files.size(segmento) - 5;
+			try (FileChannel canal = FileChannel.open(segmento, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				ByteBuffer b = ByteBuffer.allocate(1);
+				canal.read(b, posicion);
+				b.put(0, (byte) (b.get(0) ^ 1));
+				b.rewind();
+				canal.write(b, posicion);
+			}
+
+			VacAlmacen recuperado = new VacAlmacen();
+			persistencia = PersistenciaVacunas.abrir(datos, recuperado);
+			persistencia.close();
+			iguales(antes, volcado(recuperado), "sin la entrada dañada");
+			iguales(inicioUltima, Files.size(segmento), "entrada dañada recortada");
+		} finally {
+			borrar(datos);
+		}
+	}
+
+	// el registro se escribe después del cambio: si un texto no se pudiera
+	// anotar, el almacén lo tendría y al recuperar no
+	private static void textosLargos() throws IOException {
+		Path datos = Files.createTempDirectory("pruebas-datos");
+		try {
+			VacAlmacen almacen = new VacAlmacen();
+			PersistenciaVacunas persistencia = PersistenciaVacunas.abrir(datos, almacen);
+			// justo lo que cabe en writeUTF con 3 bytes por carácter, y uno más
+			almacen.agregar(new Vacuna(codigo(0), "€".repeat(65535 / 3), "ñ".repeat(65535 / 3 + 1), null, 1));
+			// más de 1 MiB, y un código que tampoco cabe
+			almacen.agregar(new Vacuna(codigo(1), "x".repeat(3 << 20), null, "f", 2));
+			almacen.agregar(new Vacuna("VA" + "b".repeat(70000), "código largo", "p", "f", 3));
+			almacen.buscarVacuna(codigo(1)).autorizar();
+			almacen.buscarVacuna(codigo(0)).setFarmaceutica("Ω".repeat(40000));
+			operar(almacen, 10, 40);
+			persistencia.close();
+
+			VacAlmacen recuperado = new VacAlmacen();
+			persistencia = PersistenciaVacunas.abrir(datos, recuperado);
+			// sin iguales: el mensaje llevaría los textos enteros
+			comprobar(volcado(almacen).equals(volcado(recuperado)), "del registro");
+			persistencia.tomarInstantanea();
+			persistencia.close();
+
+			VacAlmacen otraVez = new VacAlmacen();
+			PersistenciaVacunas.abrir(datos, otraVez).close();
+			comprobar(volcado(almacen).equals(volcado(otraVez)), "de la instantánea");
+			iguales(3 << 20, otraVez.buscarVacuna(codigo(1)).getNombre().length(), "el texto de más de 1 MiB");
+		} finally {
+			borrar(datos);
+		}
+	}
+
+	// una entrada AGREGAR escrita como antes: writeBoolean y writeUTF
+	private static void formatoAnterior() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream salida = new DataOutputStream(bytes);
+		salida.writeByte(EntradaRegistro.Tipo.AGREGAR.ordinal());
+		salida.writeUTF(codigo(0));
+		salida.writeBoolean(true);
+		salida.writeUTF("Comirnaty");
+		salida.writeBoolean(false);
+		salida.writeBoolean(true);
+		salida.writeUTF("Pfizer");
+		salida.writeDouble(19.5);
+		salida.writeLong(0);
+		EntradaRegistro e = EntradaRegistro.leer(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		iguales(volcado(new Vacuna(codigo(0), "Comirnaty", null, "Pfizer", 19.5)), volcado(e.crearVacuna()),
+				"entrada anterior");
+	}
+
+	// -------- ficheros de la carpeta
+
+	private static List<Path> ficheros(Path carpeta, String prefijo) throws IOException {
+		List<Path> encontrados = new ArrayList<Path>();
+		try (DirectoryStream<Path> contenido = Files.newDirectoryStream(carpeta, prefijo + "*")) {
+			for (Path fichero : contenido) {
+				encontrados.add(fichero);
+			}
+		}
+		Collections.sort(encontrados);
+		return encontrados;
+	}
+
+	// el último segmento con algo: al cerrar puede quedar uno nuevo vacío
+	private static Path ultimoSegmento(Path datos) throws IOException {
+		List<Path> segmentos = ficheros(datos, RegistroOperaciones.PREFIJO);
+		for (int i = segmentos.size() - 1; i >= 0; i--) {
+			if (Files.size(segmentos.get(i)) > 0) {
+				return segmentos.get(i);
+			}
+		}
+		throw new AssertionError("No hay ningún segmento con entradas en " + datos);
+	}
+
+	// dónde empieza cada entrada del segmento
+	private static long[] entradas(Path segmento) throws IOException {
+		List<Long> inicios = new ArrayList<Long>();
+		long posicion = 0;
+		try (DataInputStream datos = new DataInputStream(Files.newInputStream(segmento))) {
+			while (true) {
+				int longitud;
+				try {
+					longitud = datos.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				inicios.add(posicion);
+				datos.skipNBytes(longitud + 4);
+				posicion += 8 + longitud;
+			}
+		}
+		long[] resultado = new long[inicios.size()];
+		for (int i = 0; i < resultado.length; i++) {
+			resultado[i] = inicios.get(i);
+		}
+		return resultado;
+	}
+
+	private static void recortar(Path fichero, long tamano) throws IOException {
+		try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.WRITE)) {
+			canal.truncate(tamano);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import static gal.teis.vacunas.Pruebas.codigo;
+import static gal.teis.vacunas.Pruebas.comprobar;
+import static gal.teis.vacunas.Pruebas.iguales;
+import static gal.teis.vacunas.Pruebas.volcado;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * ReplicacionPrimario y ReplicacionSeguidor en localhost: la réplica carga la
+ * instantánea y repite cada operación del primario (agregar, eliminar, fases,
+ * autorizar, rechazar y cambios de datos), también con hilos modificando a la
+ * vez, y al perder al primario se queda con sus datos y, cuando vuelve, carga
+ * otra instantánea que quita lo que ya no está.
+ *
+ * @author luPinheiro
+ */
+final class PruebasReplicacion {
+
+	private static final long ESPERA = 30; // s
+
+	private PruebasReplicacion() {
+	}
+
+	static void registrar(Pruebas pruebas) {
+		pruebas.caso("instantanea y registro", PruebasReplicacion::instantaneaYRegistro);
+		pruebas.caso("varios hilos", PruebasReplicacion::variosHilos);
+		pruebas.caso("reconectar", PruebasReplicacion::reconectar);
+	}
+
+	private static ReplicacionPrimario abrir(VacAlmacen almacen, int puerto) throws Exception {
+		return ReplicacionPrimario.abrir(almacen, new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto));
+	}
+
+	// la réplica al día con todo lo que ha anotado el primario
+	private static void alDia(ReplicacionPrimario primario, ReplicacionSeguidor seguidor, String mensaje)
+			throws InterruptedException {
+		long secuencia = primario.getUltimaSecuencia();
+		comprobar(seguidor.esperarSecuencia(secuencia, ESPERA, TimeUnit.SECONDS),
+				mensaje + ": la réplica no llegó a la secuencia " + secuencia + " (" + seguidor + ")");
+	}
+
+	private static void esperar(BooleanSupplier condicion, String mensaje) throws InterruptedException {
+		long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(ESPERA);
+		while (!condicion.getAsBoolean()) {
+			comprobar(System.nanoTime() - limite < 0, mensaje);
+			Thread.sleep(10);
+		}
+	}
+
+	private static void instantaneaYRegistro() throws Exception {
+		VacAlmacen almacen = new VacAlmacen(true);
+		for (int i = 0; i < 500; i++) {
+			almacen.agregar(new Vacuna(codigo(i), "vacuna " + i, "ARNm", "Pfizer", i));
+		}
+		almacen.buscarVacuna(codigo(0)).modificarFase((byte) 1, true);
+		VacAlmacen replica = new VacAlmacen(true);
+		try (ReplicacionPrimario primario = abrir(almacen, 0);
+				ReplicacionSeguidor seguidor = ReplicacionSeguidor.conectar(replica, primario.getDireccion())) {
+			alDia(primario, seguidor, "instantánea");
+			iguales(volcado(almacen), volcado(replica), "tras la instantánea");
+			iguales(1L, seguidor.getInstantaneasCargadas(), "instantáneas");
+
+			almacen.agregar(new Vacuna(codigo(500), "nueva", "Adenovirus", "AstraZeneca", 2.9));
+			almacen.eliminar(codigo(1));
+			Vacuna v = almacen.buscarVacuna(codigo(2));
+			v.modificarFase((byte) 1, true);
+			v.modificarFase((byte) 2, true);
+			v.modificarFase((byte) 3, true);
+			v.autorizar();
+			almacen.buscarVacuna(codigo(3)).rechazar();
+			almacen.buscarVacuna(codigo(4)).modificarFase((byte) 1, false);
+			almacen.buscarVacuna(codigo(5)).setNombre("otro nombre");
+			almacen.buscarVacuna(codigo(6)).setPrecioRecomendado(99.5);
+			// sustituir una vacuna por otra con el mismo código
+			almacen.agregar(new Vacuna(codigo(7), "sustituta", "p", "f", 1));
+			alDia(primario, seguidor, "registro");
+			iguales(volcado(almacen), volcado(replica), "tras el registro");
+			iguales(EstadoVacuna.AUTORIZADA, replica.buscarVacuna(codigo(2)).getEstado(), "autorizada en la réplica");
+			iguales(null, replica.buscarVacuna(codigo(1)), "eliminada en la réplica");
+			iguales(0L, seguidor.getRetrasoEntradas(), "sin retraso");
+			iguales(1, primario.getNumeroSeguidores(), "seguidores");
+		}
+	}
+
+	private static void variosHilos() throws Exception {
+		int porHilo = 5_000;
+		VacAlmacen almacen = new VacAlmacen(true);
+		VacAlmacen replica = new VacAlmacen(true);
+		try (ReplicacionPrimario primario = abrir(almacen, 0);
+				ReplicacionSeguidor seguidor = ReplicacionSeguidor.conectar(replica, primario.getDireccion())) {
+			alDia(primario, seguidor, "conectar");
+			Thread[] hilos = new Thread[4];
+			for (int h = 0; h < hilos.length; h++) {
+				int base = h * porHilo;
+				hilos[h] = new Thread(() -> {
+					for (int i = base; i < base + porHilo; i++) {
+						almacen.agregar(new Vacuna(codigo(i), "vacuna " + i, "p", "f", 1));
+						Vacuna v = almacen.buscarVacuna(codigo(i));
+						v.modificarFase((byte) 1, true);
+						if (i % 3 == 0) {
+							v.rechazar();
+						} else if (i % 3 == 1) {
+							almacen.eliminar(codigo(i));
+						}
+					}
+				});
+				hilos[h].start();
+			}
+			for (Thread t : hilos) {
+				t.join();
+			}
+			alDia(primario, seguidor, "tras los hilos");
+			iguales(volcado(almacen), volcado(replica), "tras los hilos");
+		}
+	}
+
+	private static void reconectar() throws Exception {
+		VacAlmacen almacen = new VacAlmacen(true);
+		for (int i = 0; i < 100; i++) {
+			almacen.agregar(new Vacuna(codigo(i), "vacuna " + i, "p", "f", 1));
+		}
+		VacAlmacen replica = new VacAlmacen(true);
+		ReplicacionPrimario primario = abrir(almacen, 0);
+		int puerto = primario.getDireccion().getPort();
+		try (ReplicacionSeguidor seguidor = ReplicacionSeguidor.conectar(replica, primario.getDireccion())) {
+			try {
+				alDia(primario, seguidor, "antes de cerrar");
+			} finally {
+				primario.close();
+			}
+			esperar(() -> !seguidor.isConectado(), "la réplica no vio cerrarse al primario");
+			iguales(volcado(almacen), volcado(replica), "se queda con los datos");
+
+			// cambios que la réplica no ve
+			for (int i = 0; i < 50; i++) {
+				almacen.eliminar(codigo(i));
+			}
+			almacen.agregar(new Vacuna(codigo(100), "nueva", "p", "f", 1));
+			almacen.buscarVacuna(codigo(60)).rechazar();
+			iguales(100, replica.getNumeroVacunas(), "sin primario no cambia");
+
+			// el primario vuelve en el mismo puerto
+			try (ReplicacionPrimario otro = abrir(almacen, puerto)) {
+				esperar(() -> seguidor.getInstantaneasCargadas() == 2, "la réplica no volvió a conectarse");
+				alDia(otro, seguidor, "al volver");
+				iguales(volcado(almacen), volcado(replica), "tras la segunda instantánea");
+				almacen.buscarVacuna(codigo(61)).rechazar();
+				alDia(otro, seguidor, "tras volver");
+				iguales(EstadoVacuna.RECHAZADA, replica.buscarVacuna(codigo(61)).getEstado(), "sigue el registro");
+			}
+		}
+	}
+}
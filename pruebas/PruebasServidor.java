@@ -0,0 +1,161 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gal.teis.vacunas;
+
+import static gal.teis.vacunas.Pruebas.codigo;
+import static gal.teis.vacunas.Pruebas.comprobar;
+import static gal.teis.vacunas.Pruebas.iguales;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+/**
+ * ServidorVacunas en un puerto libre de localhost, con peticiones de verdad:
+ * agregar, buscar, eliminar, fases, autorizar y rechazar, y que los datos que
+ * no son del tipo esperado (una fase con decimales o fuera de 1 a 3, un
+ * resultado que no es booleano, un precio o un texto del tipo equivocado, JSON
+ * roto) responden 400 sin tocar la vacuna.
+ *
+ * @author luPinheiro
+ */
+final class PruebasServidor {
+
+	private static final HttpClient CLIENTE = HttpClient.newHttpClient();
+
+	private PruebasServidor() {
+	}
+
+	static void registrar(Pruebas pruebas) {
+		pruebas.caso("agregar, buscar y eliminar", PruebasServidor::agregarBuscarEliminar);
+		pruebas.caso("fases y autorizar", PruebasServidor::fasesYAutorizar);
+		pruebas.caso("datos no validos", PruebasServidor::datosNoValidos);
+		pruebas.caso("solo lectura", PruebasServidor::soloLectura);
+	}
+
+	private static ServidorVacunas arrancar(VacAlmacen almacen, boolean soloLectura) throws IOException {
+		return ServidorVacunas.arrancar(almacen, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+				soloLectura);
+	}
+
+	private static HttpResponse<String> pedir(ServidorVacunas servidor, String metodo, String ruta, String cuerpo)
+			throws IOException, InterruptedException {
+		URI uri = URI.create("http://localhost:" + servidor.getDireccion().getPort() + ServidorVacunas.RUTA + ruta);
+		HttpRequest.BodyPublisher publicador = (cuerpo == null) ? HttpRequest.BodyPublishers.noBody()
+				: HttpRequest.BodyPublishers.ofString(cuerpo);
+		HttpRequest peticion = HttpRequest.newBuilder(uri).method(metodo, publicador).build();
+		return CLIENTE.send(peticion, HttpResponse.BodyHandlers.ofString());
+	}
+
+	// el estado y, si es un error, que el cuerpo sea {"error": ...}
+	private static void responde(int estado, HttpResponse<String> respuesta, String mensaje) {
+		iguales(estado, respuesta.statusCode(), mensaje + " " + respuesta.body());
+		if (estado >= 400 && estado != 409) {
+			Map<String, Object> error = Json.leerObjeto(respuesta.body());
+			comprobar(error.get("error") instanceof String, mensaje + ": sin error en " + respuesta.body());
+		}
+	}
+
+	private static String vacuna(int i) {
+		return "{\"codigo\": \"" + codigo(i) + "\", \"nombre\": \"Comirnaty\", \"principioActivo\": \"ARNm\", "
+				+ "\"farmaceutica\": \"Pfizer\", \"precioRecomendado\": 19.5}";
+	}
+
+	private static void agregarBuscarEliminar() throws Exception {
+		VacAlmacen almacen = new VacAlmacen(true);
+		try (ServidorVacunas servidor = arrancar(almacen, false)) {
+			HttpResponse<String> r = pedir(servidor, "POST", "", vacuna(0));
+			responde(201, r, "agregar");
+			Map<String, Object> datos = Json.leerObjeto(r.body());
+			iguales(codigo(0), datos.get("codigo"), "código devuelto");
+			iguales(19.5, datos.get("precioRecomendado"), "precio devuelto");
+			iguales("Pfizer", almacen.buscarVacuna(codigo(0)).getFarmaceutica(), "en el almacén");
+
+			r = pedir(servidor, "GET", "/" + codigo(0), null);
+			responde(200, r, "buscar");
+			iguales("Comirnaty", Json.leerObjeto(r.body()).get("nombre"), "nombre buscado");
+			responde(404, pedir(servidor, "GET", "/" + codigo(1), null), "buscar una que no está");
+
+			responde(204, pedir(servidor, "DELETE", "/" + codigo(0), null), "eliminar");
+			iguales(null, almacen.buscarVacuna(codigo(0)), "eliminada del almacén");
+			responde(404, pedir(servidor, "DELETE", "/" + codigo(0), null), "eliminar otra vez");
+		}
+	}
+
+	private static void fasesYAutorizar() throws Exception {
+		VacAlmacen almacen = new VacAlmacen(true);
+		try (ServidorVacunas servidor = arrancar(almacen, false)) {
+			responde(201, pedir(servidor, "POST", "", vacuna(0)), "agregar");
+			String fases = "/" + codigo(0) + "/fases";
+			HttpResponse<String> r = pedir(servidor, "POST", fases, "{\"fase\": 1, \"resultado\": true}");
+			responde(200, r, "fase 1");
+			comprobar(r.body().startsWith("{\"resultado\":\"APLICADA\""), "fase 1 aplicada: " + r.body());
+			// sin fase, la siguiente
+			responde(200, pedir(servidor, "POST", fases, "{\"resultado\": true}"), "fase siguiente");
+			iguales((byte) 2, almacen.buscarVacuna(codigo(0)).getFasesCompletadas(), "fases tras la siguiente");
+			// la 1 otra vez no es la siguiente
+			r = pedir(servidor, "POST", fases, "{\"fase\": 1, \"resultado\": true}");
+			responde(409, r, "fase repetida");
+			comprobar(r.body().startsWith("{\"resultado\":\"FASE_NO_SIGUIENTE\""), "fase repetida: " + r.body());
+			responde(200, pedir(servidor, "POST", fases, "{\"fase\": 3.0, \"resultado\": true}"), "fase 3");
+
+			responde(200, pedir(servidor, "POST", "/" + codigo(0) + "/autorizar", null), "autorizar");
+			iguales(EstadoVacuna.AUTORIZADA, almacen.buscarVacuna(codigo(0)).getEstado(), "autorizada");
+			responde(409, pedir(servidor, "POST", "/" + codigo(0) + "/rechazar", null), "rechazar una autorizada");
+			responde(404, pedir(servidor, "POST", "/" + codigo(0) + "/aprobar", null), "acción que no existe");
+			responde(404, pedir(servidor, "POST", "/" + codigo(1) + "/autorizar", null), "vacuna que no está");
+		}
+	}
+
+	private static void datosNoValidos() throws Exception {
+		VacAlmacen almacen = new VacAlmacen(true);
+		try (ServidorVacunas servidor = arrancar(almacen, false)) {
+			responde(201, pedir(servidor, "POST", "", vacuna(0)), "agregar");
+			String fases = "/" + codigo(0) + "/fases";
+			// 1.5 y 257 se truncaban a 1; 259 a la 3
+			for (String fase : new String[] { "1.5", "257", "259", "0", "4", "-1", "\"1\"", "true" }) {
+				responde(400, pedir(servidor, "POST", fases, "{\"fase\": " + fase + ", \"resultado\": true}"),
+						"fase " + fase);
+			}
+			for (String resultado : new String[] { "\"true\"", "1", "null" }) {
+				responde(400, pedir(servidor, "POST", fases, "{\"fase\": 1, \"resultado\": " + resultado + "}"),
+						"resultado " + resultado);
+			}
+			responde(400, pedir(servidor, "POST", fases, "{\"fase\": 1}"), "sin resultado");
+			responde(400, pedir(servidor, "POST", fases, "{\"fase\": 1, \"resultado\": tru}"), "JSON roto");
+			Vacuna v = almacen.buscarVacuna(codigo(0));
+			iguales((byte) 0, v.getFasesCompletadas(), "ninguna fase cambiada");
+			iguales(EstadoVacuna.PENDIENTE, v.getEstado(), "estado sin cambiar");
+
+			responde(400, pedir(servidor, "POST", "",
+					"{\"codigo\": \"" + codigo(1) + "\", \"precioRecomendado\": \"barato\"}"), "precio de texto");
+			responde(400, pedir(servidor, "POST", "", "{\"codigo\": \"" + codigo(1) + "\", \"nombre\": 7}"),
+					"nombre numérico");
+			responde(400, pedir(servidor, "POST", "", "{\"codigo\": 7}"), "código numérico");
+			responde(400, pedir(servidor, "POST", "", "{\"codigo\": \"XX\"}"), "código no válido");
+			iguales(1, almacen.getNumeroVacunas(), "nada agregado");
+			responde(400, pedir(servidor, "GET", "?estado=PENDIENTE&maximo=muchos", null), "máximo no numérico");
+		}
+	}
+
+	private static void soloLectura() throws Exception {
+		VacAlmacen almacen = new VacAlmacen(true);
+		almacen.agregar(new Vacuna(codigo(0), "Comirnaty", "ARNm", "Pfizer", 19.5));
+		try (ServidorVacunas servidor = arrancar(almacen, true)) {
+			responde(200, pedir(servidor, "GET", "/" + codigo(0), null), "buscar");
+			responde(405, pedir(servidor, "POST", "", vacuna(1)), "agregar");
+			responde(405, pedir(servidor, "DELETE", "/" + codigo(0), null), "eliminar");
+			responde(405, pedir(servidor, "POST", "/" + codigo(0) + "/autorizar", null), "autorizar");
+			iguales(EstadoVacuna.PENDIENTE, almacen.buscarVacuna(codigo(0)).getEstado(), "sin cambiar");
+			iguales(1, almacen.getNumeroVacunas(), "las mismas");
+		}
+	}
+}